@@ -0,0 +1,429 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * AdaptiveJoin performs the joins of a query, planning them again while
+ * they run when the estimates they were ordered by turn out badly wrong.
+ * <p>
+ * The joins run with the algorithms {@link JoinOptimizer#orderJoins} chose.
+ * A hash join reads its inner input into memory, and a sort-merge join both
+ * of its inputs, before returning anything; on open, AdaptiveJoin reads
+ * those inputs itself, in the order the joins run, and counts their tuples.
+ * When the count of an input is more than the reoptimization threshold
+ * times larger or smaller than its estimated cardinality, the joins not yet
+ * performed are ordered again, with every input read so far planned as a
+ * relation of known cardinality (see
+ * {@link JoinOptimizer#addComputedRelation}). The inputs read so far are
+ * kept and joined from memory, so no join is performed twice. An input that
+ * a hash or sort-merge join holds is released as that join reads it, so it
+ * is not held twice.
+ * <p>
+ * The tuples are returned with the fields in the order of the plan the
+ * joins were first ordered in, whatever order they run in. The order of the
+ * tuples themselves depends on the joins that actually run, so nothing is
+ * known about it when the query is planned (see
+ * {@link LogicalPlan#groupedOn(DbIterator, int)}).
+ */
+public class AdaptiveJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * How many times larger or smaller than estimated an input may be
+     * before the joins are ordered again.
+     */
+    private static volatile double reoptimizationThreshold = 4;
+
+    /**
+     * Set how many times larger or smaller than estimated an input of a
+     * join may be before the joins still to run are ordered again; infinity
+     * never orders them again, so queries are planned without AdaptiveJoin.
+     *
+     * @throws IllegalArgumentException if factor is less than 1
+     */
+    public static void setReoptimizationThreshold(double factor) {
+        if (!(factor >= 1))
+            throw new IllegalArgumentException("reoptimization threshold must be at least 1");
+        reoptimizationThreshold = factor;
+    }
+
+    /** @return whether joins may be ordered again as they run */
+    static boolean isEnabled() {
+        return reoptimizationThreshold != Double.POSITIVE_INFINITY;
+    }
+
+    private final LogicalPlan lp;
+    private final Vector<LogicalJoinNode> joins;
+    private final HashMap<String, DbIterator> inputs;
+    private final HashMap<String, TableStats> stats;
+    private final HashMap<String, Double> filterSelectivities;
+    private final boolean explain;
+    private final TupleDesc td;
+
+    /** The joins as they run, or as first planned before open */
+    private DbIterator root;
+    /** The position in the tuples of root of each field of td, or null if they agree */
+    private int[] fieldMap;
+    private Vector<LogicalJoinNode> order;
+    private int replans;
+    /** Whether the joins are measured with AnalyzedOperators; see {@link #analyze} */
+    private boolean analyzed = false;
+
+    /** The inputs of the joins by the alias they are held under: base inputs and relations read into memory */
+    private transient HashMap<String, DbIterator> relations;
+    /** The alias each table is held under in relations */
+    private transient HashMap<String, String> relationOf;
+
+    /**
+     * @param lp
+     *            the plan of the query
+     * @param joins
+     *            the joins, in the order orderJoins returned them
+     * @param inputs
+     *            the input of each table, filtered, by alias
+     * @param stats
+     *            statistics of the tables, by table name
+     * @param filterSelectivities
+     *            selectivity of the filters on each table, by alias
+     * @param explain
+     *            whether to print the reasons for ordering the joins again
+     * @throws ParsingException
+     *             if a join names a table or field that is not an input,
+     *             or the joins do not join all of the inputs
+     */
+    AdaptiveJoin(LogicalPlan lp, Vector<LogicalJoinNode> joins, HashMap<String, DbIterator> inputs,
+            HashMap<String, TableStats> stats, HashMap<String, Double> filterSelectivities,
+            boolean explain) throws ParsingException {
+        this.lp = lp;
+        this.joins = joins;
+        this.inputs = inputs;
+        this.stats = stats;
+        this.filterSelectivities = filterSelectivities;
+        this.explain = explain;
+        this.order = joins;
+        relations = new HashMap<String, DbIterator>(inputs);
+        relationOf = new HashMap<String, String>();
+        try {
+            // with no threshold, nothing is read
+            this.root = build(Double.POSITIVE_INFINITY);
+        } catch (DbException e) {
+            throw new ParsingException(e.getMessage());
+        } catch (TransactionAbortedException e) {
+            throw new ParsingException(e.getMessage());
+        }
+        this.td = root.getTupleDesc();
+        relations = null;
+        relationOf = null;
+    }
+
+    /**
+     * Measure the joins with {@link AnalyzedOperator}s for EXPLAIN ANALYZE:
+     * their inputs from now on, and the joins from the next open, when they
+     * are built again.
+     */
+    void analyze() {
+        for (Map.Entry<String, DbIterator> e : inputs.entrySet())
+            e.setValue(AnalyzedOperator.instrument(e.getValue()));
+        analyzed = true;
+    }
+
+    /** @return the joins in the order they last ran, or were first planned before open */
+    public Vector<LogicalJoinNode> getJoinOrder() {
+        return order;
+    }
+
+    /** @return the number of times the joins were ordered again on the last open */
+    public int getReplans() {
+        return replans;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        relations = new HashMap<String, DbIterator>(inputs);
+        relationOf = new HashMap<String, String>();
+        order = joins;
+        replans = 0;
+        try {
+            DbIterator plan = null;
+            while (plan == null) {
+                plan = build(reoptimizationThreshold);
+            }
+            root = analyzed ? AnalyzedOperator.instrument(plan) : plan;
+        } catch (ParsingException e) {
+            throw new DbException("cannot plan the joins again: " + e.getMessage());
+        }
+        TupleDesc rootTd = root.getTupleDesc();
+        fieldMap = null;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (!td.getFieldName(i).equals(rootTd.getFieldName(i))) {
+                fieldMap = new int[td.numFields()];
+                for (int f = 0; f < fieldMap.length; f++)
+                    fieldMap[f] = rootTd.fieldNameToIndex(td.getFieldName(f));
+                break;
+            }
+        }
+        root.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        root.close();
+        relations = null;
+        relationOf = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        root.rewind();
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (!root.hasNext())
+            return null;
+        Tuple t = root.next();
+        if (fieldMap == null)
+            return t;
+        Tuple out = new Tuple(td);
+        for (int i = 0; i < fieldMap.length; i++)
+            out.setField(i, t.getField(fieldMap[i]));
+        return out;
+    }
+
+    /** @return the alias of the input holding the table with the given alias, as owner records it */
+    private static String ownerOf(HashMap<String, String> owner, String alias) {
+        String o = owner.get(alias);
+        return o == null ? alias : o;
+    }
+
+    /**
+     * Build the joins of order on relations. The inputs a hash or sort-merge
+     * join holds in memory are read into memory first, unless the threshold
+     * is infinite, and added to relations; if one of them is further from
+     * its estimate than threshold, the joins still to run are ordered again.
+     *
+     * @return the joins, or null if they were ordered again and must be
+     *         built again
+     */
+    private DbIterator build(double threshold) throws ParsingException, DbException,
+            TransactionAbortedException {
+        HashMap<String, DbIterator> plans = new HashMap<String, DbIterator>(relations);
+        HashMap<String, String> owner = new HashMap<String, String>(relationOf);
+        HashMap<String, Long> estimates = new HashMap<String, Long>();
+        // the inputs read into memory that a join holds itself
+        ArrayList<Materialized> held = new ArrayList<Materialized>();
+        for (Map.Entry<String, DbIterator> e : plans.entrySet()) {
+            DbIterator it = e.getValue();
+            estimates.put(e.getKey(), it instanceof Materialized ? ((Materialized) it).size()
+                    : baseEstimate(e.getKey()));
+        }
+
+        for (LogicalJoinNode lj : order) {
+            String t1 = ownerOf(owner, lj.t1Alias);
+            String t2 = ownerOf(owner, lj.t2Alias);
+            if (plans.get(t1) == null)
+                throw new ParsingException("Unknown table in WHERE clause " + lj.t1Alias);
+            if (plans.get(t2) == null)
+                throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
+
+            // the inputs the join reads into memory before returning anything
+            ArrayList<String> read = new ArrayList<String>();
+            if (lj.joinCost != null && lj.p == Predicate.Op.EQUALS) {
+                JoinCost.Algorithm algorithm = lj.joinCost.algorithm;
+                if (algorithm == JoinCost.Algorithm.SORT_MERGE)
+                    read.add(t1);
+                if (algorithm == JoinCost.Algorithm.SORT_MERGE || algorithm == JoinCost.Algorithm.HASH)
+                    read.add(t2);
+            }
+            if (threshold != Double.POSITIVE_INFINITY) {
+                for (String input : read) {
+                    if (plans.get(input) instanceof Materialized)
+                        continue;
+                    Materialized m = new Materialized(plans.get(input));
+                    plans.put(input, m);
+                    if (hold(input, m, owner, estimates.get(input), threshold))
+                        return null;
+                }
+            }
+
+            DbIterator j = JoinOptimizer.instantiateJoin(lj, plans.get(t1), plans.get(t2));
+            for (String input : read) {
+                if (plans.get(input) instanceof Materialized)
+                    held.add((Materialized) plans.get(input));
+            }
+            plans.put(t1, j);
+            plans.remove(t2);
+            for (Map.Entry<String, DbIterator> e : inputs.entrySet()) {
+                if (ownerOf(owner, e.getKey()).equals(t2))
+                    owner.put(e.getKey(), t1);
+            }
+            estimates.put(t1, lj.estimatedCard);
+        }
+
+        if (plans.size() > 1) {
+            throw new ParsingException("Query does not include join expressions joining all nodes!");
+        }
+        // the joins keep their own copies of the inputs they hold
+        for (Materialized m : held)
+            m.readOnce();
+        return plans.values().iterator().next();
+    }
+
+    /** @return the estimated cardinality of the filtered table with the given alias, or -1 if unknown */
+    private long baseEstimate(String alias) {
+        Integer id = lp.getTableId(alias);
+        TableStats s = id == null ? null : stats.get(Database.getCatalog().getTableName(id));
+        Double sel = filterSelectivities.get(alias);
+        if (s == null || sel == null)
+            return -1;
+        return s.planningCardinality(sel);
+    }
+
+    /**
+     * Keep m, which was read from the input held under alias key, as the
+     * relation holding the tables of that input, and order the joins still
+     * to run again if its size is further from estimate than threshold.
+     *
+     * @return whether the joins were ordered again
+     */
+    private boolean hold(String key, Materialized m, HashMap<String, String> owner, long estimate,
+            double threshold) throws ParsingException {
+        ArrayList<String> aliases = new ArrayList<String>();
+        for (String alias : inputs.keySet()) {
+            if (ownerOf(owner, alias).equals(key))
+                aliases.add(alias);
+        }
+        for (String alias : aliases) {
+            relations.remove(ownerOf(relationOf, alias));
+            relationOf.put(alias, key);
+        }
+        relations.put(key, m);
+
+        long actual = m.size();
+        if (estimate < 0 || (actual <= Math.max(estimate, 1) * threshold && actual * threshold >= estimate))
+            return false;
+
+        // the joins among the tables of the relations held are done; order
+        // copies of the others, so the plan of the query keeps its order
+        Vector<LogicalJoinNode> rest = new Vector<LogicalJoinNode>();
+        for (LogicalJoinNode lj : order) {
+            String r1 = relationOf.get(lj.t1Alias);
+            if (r1 == null || !r1.equals(relationOf.get(lj.t2Alias)))
+                rest.add(new LogicalJoinNode(lj.t1Alias, lj.t2Alias, lj.f1PureName, lj.f2PureName, lj.p));
+        }
+        if (explain) {
+            System.out.println("Input " + aliases + " holds " + actual + " tuples, estimated " + estimate
+                    + "; ordering the joins " + rest + " again");
+        }
+        JoinOptimizer jo = new JoinOptimizer(lp, rest);
+        HashMap<String, ArrayList<String>> members = new HashMap<String, ArrayList<String>>();
+        for (Map.Entry<String, String> e : relationOf.entrySet()) {
+            if (!members.containsKey(e.getValue()))
+                members.put(e.getValue(), new ArrayList<String>());
+            members.get(e.getValue()).add(e.getKey());
+        }
+        for (Map.Entry<String, ArrayList<String>> e : members.entrySet()) {
+            Materialized r = (Materialized) relations.get(e.getKey());
+            jo.addComputedRelation(e.getValue(), r.size(), r.getTupleDesc().getSizeInBytes());
+        }
+        order = jo.orderJoins(stats, filterSelectivities, explain);
+        replans++;
+        return true;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { root };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.root = children[0];
+    }
+
+    /**
+     * An input of a join read into memory, whose tuples are returned from
+     * there.
+     */
+    static class Materialized extends Operator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TupleDesc td;
+        private final long size;
+        private ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        private boolean readOnce = false;
+        private transient int pos;
+
+        /** Read all of the tuples of child. */
+        Materialized(DbIterator child) throws DbException, TransactionAbortedException {
+            td = child.getTupleDesc();
+            child.open();
+            while (child.hasNext())
+                tuples.add(child.next());
+            child.close();
+            size = tuples.size();
+            // the joins planned on it use its size as their estimate
+            setEstimatedCardinality(size);
+        }
+
+        /** @return the number of tuples read */
+        long size() {
+            return size;
+        }
+
+        /**
+         * Release each tuple as it is returned, for an input that is read
+         * once by a join that keeps its tuples itself.
+         */
+        void readOnce() {
+            readOnce = true;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            if (tuples == null)
+                throw new DbException("the tuples of this input were already read and released");
+            super.open();
+            pos = 0;
+        }
+
+        public void close() {
+            super.close();
+            if (readOnce)
+                tuples = null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            if (readOnce)
+                throw new DbException("the tuples of this input are released as they are read");
+            pos = 0;
+        }
+
+        protected Tuple fetchNext() {
+            if (pos >= tuples.size())
+                return null;
+            Tuple t = tuples.get(pos);
+            if (readOnce)
+                tuples.set(pos, null);
+            pos++;
+            return t;
+        }
+
+        @Override
+        public DbIterator[] getChildren() {
+            return new DbIterator[0];
+        }
+
+        @Override
+        public void setChildren(DbIterator[] children) {
+        }
+    }
+}
@@ -3,20 +3,36 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * The Aggregation operator that computes aggregates (e.g., sum, avg, max,
+ * min). Any number of aggregates, each over one column, can be computed in a
+ * single pass over the child, grouped by any number of columns.
+ * <p>
+ * At most maxGroups groups are held in memory; the tuples of further groups
+ * are partitioned to disk and aggregated one partition at a time (see
+ * {@link SpillingAggregation}), and the results are streamed rather than
+ * collected up front.
+ * <p>
+ * If a parallelism above 1 is set and the child is a {@link SeqScan} of a
+ * HeapFile, page ranges of the file are aggregated by that many threads and
+ * the partial aggregates are merged. This mode does not spill, and each
+ * thread holds its own copy of the groups it sees, so the planner only sets
+ * a parallelism when the estimated groups of every thread fit in maxGroups.
  */
 public class Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
 
     private DbIterator child;
-    private final int afield;
-    private final int gfield;
-    private final Aggregator.Op aop;
+    private final int[] afields;
+    private final Aggregator.Op[] aops;
+    private final int[] gfields;
+    private final int maxGroups;
+    private int parallelism = 1;
 
-    private DbIterator aggregateIterator = null;
+    /** Default number of groups an Aggregate keeps in memory before spilling. */
+    public static final int DEFAULT_MAX_GROUPS = 1 << 20;
+
+    private SpillingAggregation aggregateIterator = null;
     boolean open = false;
     /**
      * Constructor.
@@ -37,10 +53,93 @@ public class Aggregate extends Operator {
      *            The aggregation operator to use
      */
     public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, afield, gfield, aop, DEFAULT_MAX_GROUPS);
+    }
+
+    /**
+     * Constructor with an explicit memory budget.
+     * 
+     * @param maxGroups
+     *            The number of groups to hold in memory before the tuples of
+     *            further groups are partitioned to disk
+     * @throws IllegalArgumentException if maxGroups is not positive
+     */
+    public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop, int maxGroups) {
+        this(child, new int[] {afield}, new Aggregator.Op[] {aop},
+                gfield == Aggregator.NO_GROUPING ? new int[0] : new int[] {gfield}, maxGroups);
+    }
+
+    /**
+     * Constructor for several aggregates over composite groups. The output
+     * tuples hold the group-by fields in the given order, followed by one
+     * field per aggregate in the given order, whose type is given by
+     * {@link Aggregator.Op#resultType}.
+     * 
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param aops
+     *            The aggregation operator of each aggregate column
+     * @param gfields
+     *            The columns over which we are grouping the result; empty if
+     *            there is no grouping
+     */
+    public Aggregate(DbIterator child, int[] afields, Aggregator.Op[] aops, int[] gfields) {
+        this(child, afields, aops, gfields, DEFAULT_MAX_GROUPS);
+    }
+
+    /**
+     * Constructor for several aggregates over composite groups, with an
+     * explicit memory budget.
+     * 
+     * @throws IllegalArgumentException if there are no aggregates, afields
+     *             and aops differ in length, or maxGroups is not positive
+     */
+    public Aggregate(DbIterator child, int[] afields, Aggregator.Op[] aops, int[] gfields, int maxGroups) {
+        if (afields.length == 0 || afields.length != aops.length) {
+            throw new IllegalArgumentException("each aggregate needs one field and one operator");
+        }
+        if (maxGroups < 1) {
+            throw new IllegalArgumentException("maxGroups must be positive");
+        }
         this.child = child;
-        this.afield = afield;
-        this.gfield = gfield;
-        this.aop = aop;
+        this.afields = afields.clone();
+        this.aops = aops.clone();
+        this.gfields = gfields.clone();
+        this.maxGroups = maxGroups;
+    }
+
+    /**
+     * Set the number of threads that aggregate the child in parallel when it
+     * is a scan of a HeapFile; 1 aggregates on the calling thread.
+     *
+     * @throws IllegalArgumentException if parallelism is not positive
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.parallelism = parallelism;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @return the number of groups held in memory before spilling
+     */
+    public int getMaxGroups() {
+        return maxGroups;
+    }
+
+    /**
+     * @return the number of input tuples written to disk partitions by the
+     *         last open, or 0 if the groups fit in memory
+     */
+    public long getTuplesSpilled() {
+        return aggregateIterator == null ? 0 : aggregateIterator.getTuplesSpilled();
     }
 
     /**
@@ -49,7 +148,15 @@ public class Aggregate extends Operator {
      *         {@link simpledb.Aggregator#NO_GROUPING}
      * */
     public int groupField() {
-        return gfield;
+        return gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0];
+    }
+
+    /**
+     * @return the groupby field indexes in the <b>INPUT</b> tuples; empty if
+     *         there is no grouping
+     */
+    public int[] groupFields() {
+        return gfields.clone();
     }
 
     /**
@@ -58,18 +165,25 @@ public class Aggregate extends Operator {
      *         null;
      * */
     public String groupFieldName() {
-        if (gfield == Aggregator.NO_GROUPING) {
+        if (gfields.length == 0) {
             return null;
         } else {
-            return child.getTupleDesc().getFieldName(gfield);
+            return child.getTupleDesc().getFieldName(gfields[0]);
         }
     }
 
     /**
-     * @return the aggregate field
+     * @return the (first) aggregate field
      * */
     public int aggregateField() {
-        return afield;
+        return afields[0];
+    }
+
+    /**
+     * @return the aggregate fields, in output order
+     */
+    public int[] aggregateFields() {
+        return afields.clone();
     }
 
     /**
@@ -77,14 +191,21 @@ public class Aggregate extends Operator {
      *         tuples
      * */
     public String aggregateFieldName() {
-       return child.getTupleDesc().getFieldName(afield);
+       return child.getTupleDesc().getFieldName(afields[0]);
     }
 
     /**
-     * @return return the aggregate operator
+     * @return return the (first) aggregate operator
      * */
     public Aggregator.Op aggregateOp() {
-        return aop;
+        return aops[0];
+    }
+
+    /**
+     * @return the aggregate operators, in output order
+     */
+    public Aggregator.Op[] aggregateOps() {
+        return aops.clone();
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
@@ -96,22 +217,16 @@ public class Aggregate extends Operator {
         child.open();
         super.open();
         
-        Aggregator aggregator;
-        Type afieldType = child.getTupleDesc().getFieldType(afield);
-        Type gbfieldType = gfield != Aggregator.NO_GROUPING ? child.getTupleDesc().getFieldType(gfield) : null;
-
-        if (afieldType == Type.STRING_TYPE) {
-            aggregator = new StringAggregator(gfield, gbfieldType, afield, aop);
-        } else {
-            aggregator = new IntegerAggregator(gfield, gbfieldType, afield, aop);
+        if (aggregateIterator != null) {
+            aggregateIterator.close();
         }
-
-        while (child.hasNext()) {
-            Tuple tuple = child.next();
-            aggregator.mergeTupleIntoGroup(tuple);
+        aggregateIterator = new SpillingAggregation(child.getTupleDesc(), afields, aops, gfields, maxGroups);
+        if (parallelism > 1 && child instanceof SeqScan
+                && ((SeqScan) child).numPages() > SpillingAggregation.MIN_TASK_PAGES) {
+            aggregateIterator.mergeParallel((SeqScan) child, parallelism);
+        } else {
+            aggregateIterator.mergeAll(child);
         }
-
-        aggregateIterator = aggregator.iterator();
         aggregateIterator.open();
         open = true;
     }
@@ -148,23 +263,34 @@ public class Aggregate extends Operator {
     }
 
     /**
-     * Returns the TupleDesc of this Aggregate. If there is no group by field,
-     * this will have one field - the aggregate column. If there is a group by
-     * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
-     * 
-     * The name of an aggregate column should be informative. For example:
-     * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
-     * given in the constructor, and child_td is the TupleDesc of the child
-     * iterator.
+     * Returns the TupleDesc of this Aggregate: the group by fields, if any,
+     * keeping their names in the child, followed by one field per aggregate
+     * of the type {@link Aggregator.Op#resultType} gives for the aggregated
+     * field, named "aggName(aop)(child_td.getFieldName(afield))".
      */
     public TupleDesc getTupleDesc() {
-        if (gfield == Aggregator.NO_GROUPING) {
-            return new TupleDesc(new Type[] {Type.INT_TYPE});
-        } else {
-            Type gbfieldtype = child.getTupleDesc().getFieldType(gfield);
-            return new TupleDesc(new Type[] {gbfieldtype, Type.INT_TYPE});
+        return aggregateTupleDesc(child.getTupleDesc(), afields, aops, gfields);
+    }
+
+    /**
+     * @return the TupleDesc of aggregates over the given fields of childTd;
+     *         see {@link #getTupleDesc()}
+     */
+    static TupleDesc aggregateTupleDesc(TupleDesc childTd, int[] afields, Aggregator.Op[] aops, int[] gfields) {
+        Type[] types = new Type[gfields.length + afields.length];
+        String[] names = new String[types.length];
+        for (int i = 0; i < gfields.length; i++) {
+            types[i] = childTd.getFieldType(gfields[i]);
+            names[i] = childTd.getFieldName(gfields[i]);
+        }
+        for (int i = 0; i < afields.length; i++) {
+            types[gfields.length + i] = aops[i].resultType(childTd.getFieldType(afields[i]));
+            String name = childTd.getFieldName(afields[i]);
+            if (name != null) {
+                names[gfields.length + i] = nameOfAggregatorOp(aops[i]) + "(" + name + ")";
+            }
         }
+        return new TupleDesc(types, names);
     }
 
     public void close() {
@@ -21,7 +21,67 @@ public interface Aggregator extends Serializable {
         /**
          * SC_AVG: compute the avg of a set of SUM_COUNT tuples
          * */
-        SC_AVG;
+        SC_AVG,
+        /**
+         * APPROX_COUNT_DISTINCT: estimate the number of distinct values with
+         * a {@link HyperLogLog} sketch
+         * */
+        APPROX_COUNT_DISTINCT,
+        /**
+         * APPROX_MEDIAN, APPROX_P90, APPROX_P99: estimate the 50th, 90th and
+         * 99th percentile with a {@link KllSketch}; the result has the type
+         * of the aggregated field. Other quantiles have no operator.
+         * */
+        APPROX_MEDIAN, APPROX_P90, APPROX_P99;
+
+        /**
+         * @return true if this operator is computed with a mergeable sketch
+         *         rather than exact accumulators
+         */
+        public boolean isSketch() {
+            return this == APPROX_COUNT_DISTINCT || isQuantile();
+        }
+
+        /**
+         * @return true if this operator estimates a quantile
+         */
+        public boolean isQuantile() {
+            return this == APPROX_MEDIAN || this == APPROX_P90 || this == APPROX_P99;
+        }
+
+        /**
+         * @return the quantile this operator estimates, between 0 and 1
+         * @throws IllegalStateException if this is not a quantile operator
+         */
+        public double quantile() {
+            if (this == APPROX_MEDIAN)
+                return 0.5;
+            if (this == APPROX_P90)
+                return 0.9;
+            if (this == APPROX_P99)
+                return 0.99;
+            throw new IllegalStateException(this + " is not a quantile");
+        }
+
+        /**
+         * @param fieldType the type of the aggregated field
+         * @return the type of this aggregate over a field of fieldType:
+         *         LONG for SUM, so that sums of INT fields do not overflow,
+         *         the field's type for MIN, MAX, AVG and quantiles, and INT
+         *         for counts
+         */
+        public Type resultType(Type fieldType) {
+            switch (this) {
+            case SUM:
+                return Type.LONG_TYPE;
+            case MIN:
+            case MAX:
+            case AVG:
+                return fieldType;
+            default:
+                return isQuantile() ? fieldType : Type.INT_TYPE;
+            }
+        }
 
         /**
          * Interface to access operations by a string containing an integer
@@ -59,6 +119,14 @@ public interface Aggregator extends Serializable {
         		return "count";
         	if (this==SC_AVG)
     			return "sc_avg";
+        	if (this==APPROX_COUNT_DISTINCT)
+        		return "approx_count_distinct";
+        	if (this==APPROX_MEDIAN)
+        		return "approx_median";
+        	if (this==APPROX_P90)
+        		return "approx_p90";
+        	if (this==APPROX_P99)
+        		return "approx_p99";
         	throw new IllegalStateException("impossible to reach here");
         }
     }
@@ -72,6 +140,27 @@ public interface Aggregator extends Serializable {
      */
     public void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge the groups of a partial aggregate into this one, so that this
+     * aggregator holds the result of having merged both inputs. Used to
+     * combine aggregates computed over disjoint parts of the input.
+     *
+     * @param partial an aggregator built with the same arguments as this one
+     * @throws IllegalArgumentException if partial is of a different kind
+     */
+    public void mergePartial(Aggregator partial);
+
+    /**
+     * @return the number of groups merged so far
+     */
+    public int numGroups();
+
+    /**
+     * @param tup a tuple with the aggregate's group-by fields
+     * @return true if the group tup would be merged into has been created
+     */
+    public boolean hasGroup(Tuple tup);
+
     /**
      * Create a DbIterator over group aggregate results.
      * @see simpledb.TupleIterator for a possible helper
@@ -0,0 +1,293 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * AnalyzedOperator runs an iterator of a plan and measures it, for EXPLAIN
+ * ANALYZE. {@link #instrument} wraps every iterator of a plan in one; after
+ * the plan runs, {@link #format} prints the plan as a tree, each iterator
+ * annotated with the number of tuples the planner estimated it would return
+ * and what it actually did:
+ * <ul>
+ * <li>the tuples it returned, and the calls of next and hasNext made on it;
+ * <li>the time spent in it, including its children and (self) without them;
+ * <li>the pages it asked the BufferPool for, found cached (hit) or read
+ * from their files (miss), and the bytes read, without its children.
+ * </ul>
+ * Pages are counted by the BufferPool of the database, so pages other
+ * queries ask for while this one runs are counted too.
+ */
+public class AnalyzedOperator extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child;
+
+    private long rows = 0;
+    private long calls = 0;
+    private long nanos = 0;
+    private long pageHits = 0;
+    private long pageMisses = 0;
+
+    // the clock and page counters when the current call started
+    private transient long startNanos;
+    private transient long startHits;
+    private transient long startMisses;
+
+    /**
+     * Measure child; its children are not measured unless they are
+     * AnalyzedOperators themselves (see {@link #instrument}).
+     */
+    public AnalyzedOperator(DbIterator child) {
+        this.child = child;
+    }
+
+    /**
+     * Measure every iterator of plan: each Operator's children are wrapped
+     * in AnalyzedOperators before it is. The inner input of an
+     * {@link IndexNestedLoopsJoin} is looked up rather than read and is left
+     * as it is, as is the scan a parallel {@link Aggregate} reads page
+     * ranges of, so that it stays parallel; so are the children of
+     * iterators that cannot be replaced.
+     *
+     * @return plan wrapped in an AnalyzedOperator
+     */
+    public static AnalyzedOperator instrument(DbIterator plan) {
+        if (plan instanceof AnalyzedOperator)
+            return (AnalyzedOperator) plan;
+        if (plan instanceof AdaptiveJoin) {
+            ((AdaptiveJoin) plan).analyze();
+        } else if (plan instanceof Operator && !(plan instanceof BatchToTuple)) {
+            Operator op = (Operator) plan;
+            DbIterator[] children = op.getChildren().clone();
+            int n = op instanceof IndexNestedLoopsJoin ? 1 : children.length;
+            if (op instanceof Aggregate && ((Aggregate) op).getParallelism() > 1 && children[0] instanceof SeqScan)
+                n = 0;
+            for (int i = 0; i < n; i++) {
+                if (children[i] != null)
+                    children[i] = instrument(children[i]);
+            }
+            op.setChildren(children);
+        }
+        return new AnalyzedOperator(plan);
+    }
+
+    /** @return the iterator measured */
+    public DbIterator getChild() {
+        return child;
+    }
+
+    /** @return the number of tuples returned */
+    public long getRows() {
+        return rows;
+    }
+
+    /** @return the number of calls of next and hasNext */
+    public long getCalls() {
+        return calls;
+    }
+
+    /** @return the time spent in the iterator and its children, in nanoseconds */
+    public long getInclusiveNanos() {
+        return nanos;
+    }
+
+    /** @return the time spent in the iterator but not its measured children, in nanoseconds */
+    public long getExclusiveNanos() {
+        long n = nanos;
+        for (AnalyzedOperator c : measuredChildren())
+            n -= c.nanos;
+        return Math.max(0, n);
+    }
+
+    /** @return the pages the iterator (not its children) found in the BufferPool */
+    public long getPageHits() {
+        long n = pageHits;
+        for (AnalyzedOperator c : measuredChildren())
+            n -= c.pageHits;
+        return Math.max(0, n);
+    }
+
+    /** @return the pages the iterator (not its children) had the BufferPool read */
+    public long getPageMisses() {
+        long n = pageMisses;
+        for (AnalyzedOperator c : measuredChildren())
+            n -= c.pageMisses;
+        return Math.max(0, n);
+    }
+
+    /** @return the bytes of the pages the iterator (not its children) had the BufferPool read */
+    public long getBytesRead() {
+        return getPageMisses() * BufferPool.getPageSize();
+    }
+
+    /** @return the AnalyzedOperators nearest below child */
+    private List<AnalyzedOperator> measuredChildren() {
+        ArrayList<AnalyzedOperator> measured = new ArrayList<AnalyzedOperator>();
+        if (child instanceof Operator) {
+            for (DbIterator c : ((Operator) child).getChildren())
+                collect(c, measured);
+        }
+        return measured;
+    }
+
+    private static void collect(DbIterator it, List<AnalyzedOperator> measured) {
+        if (it instanceof AnalyzedOperator) {
+            measured.add((AnalyzedOperator) it);
+        } else if (it instanceof Operator) {
+            for (DbIterator c : ((Operator) it).getChildren())
+                collect(c, measured);
+        }
+    }
+
+    private void start() {
+        BufferPool bp = Database.getBufferPool();
+        startHits = bp.getPageHits();
+        startMisses = bp.getPageMisses();
+        startNanos = System.nanoTime();
+    }
+
+    private void stop() {
+        nanos += System.nanoTime() - startNanos;
+        BufferPool bp = Database.getBufferPool();
+        pageHits += bp.getPageHits() - startHits;
+        pageMisses += bp.getPageMisses() - startMisses;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        start();
+        try {
+            child.open();
+        } finally {
+            stop();
+        }
+        super.open();
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        calls++;
+        start();
+        try {
+            return child.hasNext();
+        } finally {
+            stop();
+        }
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        calls++;
+        start();
+        try {
+            Tuple t = child.next();
+            rows++;
+            return t;
+        } finally {
+            stop();
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        start();
+        try {
+            child.rewind();
+        } finally {
+            stop();
+        }
+    }
+
+    public void close() {
+        super.close();
+        start();
+        child.close();
+        stop();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        return hasNext() ? next() : null;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public long getEstimatedCardinality() {
+        return estimatedRows(child);
+    }
+
+    /**
+     * @return the number of tuples the planner estimated it would return,
+     *         or -1 if it made no estimate
+     */
+    static long estimatedRows(DbIterator it) {
+        if (it instanceof AnalyzedOperator)
+            return estimatedRows(((AnalyzedOperator) it).child);
+        if (it instanceof SeqScan) {
+            SeqScan scan = (SeqScan) it;
+            TableStats s = TableStats.getTableStats(scan.getTableName());
+            if (s == null)
+                return -1;
+            double sel = 1.0;
+            for (Predicate p : scan.getPredicates())
+                sel *= s.estimateSelectivity(p.getField(), p.getOp(), p.getOperand());
+            return s.estimateTableCardinality(sel);
+        }
+        if (it instanceof HashIndexScan) {
+            HashIndexScan scan = (HashIndexScan) it;
+            TableStats s = TableStats.getTableStats(scan.getTableName());
+            return s == null ? -1 : s.totalTuples() / Math.max(1, s.numDistinct(scan.getKeyField()));
+        }
+        if (it instanceof Project || it instanceof OrderBy || it instanceof AdaptiveJoin)
+            return estimatedRows(((Operator) it).getChildren()[0]);
+        if (it instanceof Operator && ((Operator) it).getEstimatedCardinality() > 0)
+            return ((Operator) it).getEstimatedCardinality();
+        return -1;
+    }
+
+    /** @return a short description of it: its class, and the table a scan reads */
+    private static String describe(DbIterator it) {
+        String name = it.getClass().getSimpleName();
+        if (it instanceof SeqScan)
+            return name + " " + ((SeqScan) it).getAlias();
+        if (it instanceof HashIndexScan)
+            return name + " " + ((HashIndexScan) it).getAlias() + " = " + ((HashIndexScan) it).getKey();
+        return name;
+    }
+
+    /** @return the measured plan below this operator, one iterator per line */
+    public String format() {
+        StringBuilder sb = new StringBuilder();
+        format(this, 0, sb);
+        return sb.toString();
+    }
+
+    private static void format(DbIterator it, int depth, StringBuilder sb) {
+        for (int i = 0; i < depth; i++)
+            sb.append("  ");
+        AnalyzedOperator a = it instanceof AnalyzedOperator ? (AnalyzedOperator) it : null;
+        DbIterator op = a == null ? it : a.child;
+        long est = estimatedRows(op);
+        sb.append(describe(op)).append("  (estimated ").append(est < 0 ? "?" : String.valueOf(est)).append(" rows)");
+        if (a != null) {
+            sb.append(String.format("  actual %d rows, %d calls, %.3f ms (self %.3f ms), pages %d hit %d miss, %d bytes read",
+                    a.rows, a.calls, a.nanos / 1e6, a.getExclusiveNanos() / 1e6,
+                    a.getPageHits(), a.getPageMisses(), a.getBytesRead()));
+        }
+        sb.append('\n');
+        if (op instanceof Operator) {
+            for (DbIterator c : ((Operator) op).getChildren()) {
+                if (c != null)
+                    format(c, depth + 1, sb);
+            }
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+}
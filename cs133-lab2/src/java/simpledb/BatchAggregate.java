@@ -0,0 +1,223 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BatchAggregate is the batch-at-a-time counterpart of {@link Aggregate}. It
+ * consumes its child a batch at a time, reading the aggregate and group-by
+ * columns straight from their vectors, and returns the groups in batches.
+ * Its output has the same layout as Aggregate's: the group-by value (if any)
+ * followed by the aggregate value. INT or LONG values are accumulated as
+ * longs.
+ */
+public class BatchAggregate implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int MIN = 0, MAX = 1, SUM = 2, COUNT = 3;
+
+    private final BatchIterator child;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+
+    /**
+     * Per-group accumulators (min, max, sum, count) for STRING group keys or
+     * no grouping, in first-seen order.
+     */
+    private transient LinkedHashMap<Object, long[]> groups;
+    private transient Iterator<Map.Entry<Object, long[]>> results;
+    /** Groups keyed by an INT field, and the next slot to return. */
+    private transient IntAggTable intGroups;
+    private transient int nextSlot;
+    private transient ColumnBatch out;
+
+    /**
+     * @param child
+     *            The iterator that is feeding us rows.
+     * @param afield
+     *            The column over which we are computing an aggregate.
+     * @param gfield
+     *            The column over which we are grouping the result, or
+     *            Aggregator.NO_GROUPING if there is no grouping
+     * @param aop
+     *            The aggregation operator to use
+     * @throws IllegalArgumentException if afield is a STRING column and aop
+     *             is not COUNT, aop is an approximate aggregate, or gfield
+     *             is a LONG column
+     */
+    public BatchAggregate(BatchIterator child, int afield, int gfield, Aggregator.Op aop) {
+        if (aop.isSketch()) {
+            throw new IllegalArgumentException(aop + " is not supported");
+        }
+        if (child.getTupleDesc().getFieldType(afield) == Type.STRING_TYPE && aop != Aggregator.Op.COUNT) {
+            throw new IllegalArgumentException("only COUNT is supported over STRING fields");
+        }
+        if (gfield != Aggregator.NO_GROUPING && child.getTupleDesc().getFieldType(gfield) == Type.LONG_TYPE) {
+            throw new IllegalArgumentException("grouping on LONG fields is not supported");
+        }
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+    }
+
+    public TupleDesc getTupleDesc() {
+        Type resultType = aop.resultType(child.getTupleDesc().getFieldType(afield));
+        if (gfield == Aggregator.NO_GROUPING) {
+            return new TupleDesc(new Type[] {resultType});
+        } else {
+            Type gbfieldtype = child.getTupleDesc().getFieldType(gfield);
+            return new TupleDesc(new Type[] {gbfieldtype, resultType});
+        }
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        aggregate();
+    }
+
+    private void aggregate() throws DbException, TransactionAbortedException {
+        groups = new LinkedHashMap<Object, long[]>();
+        if (gfield == Aggregator.NO_GROUPING) {
+            groups.put(null, newAccumulator());
+        }
+        Type atype = child.getTupleDesc().getFieldType(afield);
+        boolean intGroup = gfield != Aggregator.NO_GROUPING
+                && child.getTupleDesc().getFieldType(gfield) == Type.INT_TYPE;
+        intGroups = intGroup ? new IntAggTable() : null;
+        nextSlot = 0;
+
+        ColumnBatch batch;
+        while ((batch = child.nextBatch()) != null) {
+            int[] sel = batch.getSelection();
+            int active = batch.numActive();
+            int[] values = atype == Type.INT_TYPE ? batch.getInts(afield) : null;
+            long[] longValues = atype == Type.LONG_TYPE ? batch.getLongs(afield) : null;
+            if (intGroup) {
+                int[] keys = batch.getInts(gfield);
+                for (int i = 0; i < active; i++) {
+                    int pos = sel == null ? i : sel[i];
+                    if (values != null) {
+                        intGroups.merge(keys[pos], values[pos]);
+                    } else if (longValues != null) {
+                        intGroups.merge(keys[pos], longValues[pos]);
+                    } else {
+                        intGroups.countRow(keys[pos]);
+                    }
+                }
+                continue;
+            }
+            String[] strKeys = gfield != Aggregator.NO_GROUPING ? batch.getStrings(gfield) : null;
+            long[] acc = groups.get(null);
+            for (int i = 0; i < active; i++) {
+                int pos = sel == null ? i : sel[i];
+                if (strKeys != null) {
+                    String key = strKeys[pos];
+                    acc = groups.get(key);
+                    if (acc == null) {
+                        acc = newAccumulator();
+                        groups.put(key, acc);
+                    }
+                }
+                if (values != null || longValues != null) {
+                    long v = values != null ? values[pos] : longValues[pos];
+                    if (v < acc[MIN]) acc[MIN] = v;
+                    if (v > acc[MAX]) acc[MAX] = v;
+                    acc[SUM] += v;
+                }
+                acc[COUNT]++;
+            }
+        }
+        results = groups.entrySet().iterator();
+        out = new ColumnBatch(getTupleDesc());
+    }
+
+    /** @return the accumulator of a new group, whose MIN and MAX start at the bounds of the field type */
+    private long[] newAccumulator() {
+        if (child.getTupleDesc().getFieldType(afield) == Type.LONG_TYPE) {
+            return new long[] {Long.MAX_VALUE, Long.MIN_VALUE, 0, 0};
+        }
+        return new long[] {Integer.MAX_VALUE, Integer.MIN_VALUE, 0, 0};
+    }
+
+    private long result(long[] acc) {
+        return result(acc[MIN], acc[MAX], acc[SUM], acc[COUNT]);
+    }
+
+    private long result(long min, long max, long sum, long count) {
+        switch (aop) {
+        case MIN:
+            return min;
+        case MAX:
+            return max;
+        case SUM:
+            return sum;
+        case COUNT:
+            return count;
+        case AVG:
+            return count == 0 ? 0 : sum / count;
+        default:
+            throw new IllegalStateException("Invalid operation");
+        }
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (results == null) {
+            throw new IllegalStateException("BatchAggregate not open");
+        }
+        out.clear();
+        int n = 0;
+        int valueCol = gfield == Aggregator.NO_GROUPING ? 0 : 1;
+        // exactly one of these is the output vector of the aggregate value
+        int[] intOut = out.getInts(valueCol);
+        long[] longOut = out.getLongs(valueCol);
+        if (intGroups != null) {
+            for (; n < ColumnBatch.CAPACITY && nextSlot < intGroups.capacity(); nextSlot++) {
+                if (!intGroups.isUsed(nextSlot)) {
+                    continue;
+                }
+                out.getInts(0)[n] = intGroups.keyAt(nextSlot);
+                long v = result(intGroups.minAt(nextSlot), intGroups.maxAt(nextSlot),
+                        intGroups.sumAt(nextSlot), intGroups.countAt(nextSlot));
+                if (intOut != null) {
+                    intOut[n] = (int) v;
+                } else {
+                    longOut[n] = v;
+                }
+                n++;
+            }
+        }
+        while (n < ColumnBatch.CAPACITY && results.hasNext()) {
+            Map.Entry<Object, long[]> e = results.next();
+            if (gfield != Aggregator.NO_GROUPING) {
+                out.getStrings(0)[n] = (String) e.getKey();
+            }
+            long v = result(e.getValue());
+            if (intOut != null) {
+                intOut[n] = (int) v;
+            } else {
+                longOut[n] = v;
+            }
+            n++;
+        }
+        out.setSize(n);
+        return n == 0 ? null : out;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (results == null) {
+            throw new IllegalStateException("BatchAggregate not open");
+        }
+        results = groups.entrySet().iterator();
+        nextSlot = 0;
+    }
+
+    public void close() {
+        child.close();
+        groups = null;
+        results = null;
+        intGroups = null;
+        out = null;
+    }
+}
@@ -0,0 +1,132 @@
+package simpledb;
+
+/**
+ * BatchFilter is the batch-at-a-time counterpart of {@link Filter}. It
+ * evaluates its predicate over a whole column vector in a tight loop and
+ * records the surviving rows in a selection vector; column data is never
+ * copied.
+ */
+public class BatchFilter implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate p;
+    private final BatchIterator child;
+
+    /** Whether rows comparing less than, equal to, or greater than the operand pass. */
+    private final boolean passLess, passEqual, passGreater;
+
+    private transient int[] sel;
+
+    /**
+     * @param p
+     *            The predicate to filter rows with
+     * @param child
+     *            The child iterator
+     */
+    public BatchFilter(Predicate p, BatchIterator child) {
+        this.p = p;
+        this.child = child;
+        Predicate.Op op = p.getOp();
+        passLess = op == Predicate.Op.LESS_THAN || op == Predicate.Op.LESS_THAN_OR_EQ
+                || op == Predicate.Op.NOT_EQUALS;
+        passEqual = op == Predicate.Op.EQUALS || op == Predicate.Op.LIKE
+                || op == Predicate.Op.LESS_THAN_OR_EQ || op == Predicate.Op.GREATER_THAN_OR_EQ;
+        passGreater = op == Predicate.Op.GREATER_THAN || op == Predicate.Op.GREATER_THAN_OR_EQ
+                || op == Predicate.Op.NOT_EQUALS;
+    }
+
+    public Predicate getPredicate() {
+        return p;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        sel = new int[ColumnBatch.CAPACITY];
+    }
+
+    public void close() {
+        child.close();
+        sel = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (sel == null) {
+            throw new IllegalStateException("BatchFilter not open");
+        }
+        ColumnBatch batch;
+        while ((batch = child.nextBatch()) != null) {
+            Type type = getTupleDesc().getFieldType(p.getField());
+            int n = type == Type.INT_TYPE ? selectInts(batch)
+                    : type == Type.LONG_TYPE ? selectLongs(batch) : selectStrings(batch);
+            if (n > 0) {
+                batch.setSelection(sel, n);
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    private int selectInts(ColumnBatch batch) {
+        int[] in = batch.getSelection();
+        int active = batch.numActive();
+        int[] v = batch.getInts(p.getField());
+        int k = ((IntField) p.getOperand()).getValue();
+        int n = 0;
+        for (int i = 0; i < active; i++) {
+            int pos = in == null ? i : in[i];
+            int x = v[pos];
+            if (x < k ? passLess : (x == k ? passEqual : passGreater)) {
+                sel[n++] = pos;
+            }
+        }
+        return n;
+    }
+
+    private int selectLongs(ColumnBatch batch) {
+        int[] in = batch.getSelection();
+        int active = batch.numActive();
+        long[] v = batch.getLongs(p.getField());
+        long k = LongField.valueOf(p.getOperand());
+        int n = 0;
+        for (int i = 0; i < active; i++) {
+            int pos = in == null ? i : in[i];
+            long x = v[pos];
+            if (x < k ? passLess : (x == k ? passEqual : passGreater)) {
+                sel[n++] = pos;
+            }
+        }
+        return n;
+    }
+
+    private int selectStrings(ColumnBatch batch) {
+        int[] in = batch.getSelection();
+        int active = batch.numActive();
+        String[] v = batch.getStrings(p.getField());
+        String k = ((StringField) p.getOperand()).getValue();
+        boolean like = p.getOp() == Predicate.Op.LIKE;
+        int n = 0;
+        for (int i = 0; i < active; i++) {
+            int pos = in == null ? i : in[i];
+            boolean pass;
+            if (like) {
+                pass = v[pos].indexOf(k) >= 0;
+            } else {
+                int c = v[pos].compareTo(k);
+                pass = c < 0 ? passLess : (c == 0 ? passEqual : passGreater);
+            }
+            if (pass) {
+                sel[n++] = pos;
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,257 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BatchHashJoin is a batch-at-a-time equi-join. On open it copies every row
+ * of the right child into column vectors and indexes them with a chained
+ * hash table built from primitive arrays; it then probes the table with
+ * each batch of the left child. Like {@link Join}, each output row holds the
+ * fields of the left row followed by the fields of the right row.
+ */
+public class BatchHashJoin implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int NO_ROW = -1;
+
+    private final JoinPredicate p;
+    private final BatchIterator left;
+    private final BatchIterator right;
+    private final TupleDesc td;
+    private final Type keyType;
+
+    // the right child, column by column
+    private transient int[][] buildInts;
+    private transient long[][] buildLongs;
+    private transient String[][] buildStrings;
+    private transient int buildSize;
+    /** First row of each hash bucket, and the next row of each row's bucket. */
+    private transient int[] buckets;
+    private transient int[] chain;
+
+    // probe position: the current left batch, its active row, and the next
+    // build row to compare it with
+    private transient ColumnBatch probe;
+    private transient int probeRow;
+    private transient int buildRow;
+    private transient ColumnBatch out;
+
+    /**
+     * @param p
+     *            The join predicate; its operator must be EQUALS
+     * @param left
+     *            The probe side of the join
+     * @param right
+     *            The build side of the join, read entirely into memory
+     * @throws IllegalArgumentException if the predicate is not an equality
+     *             or compares fields of different types
+     */
+    public BatchHashJoin(JoinPredicate p, BatchIterator left, BatchIterator right) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("hash joins only support equality predicates");
+        }
+        Type t1 = left.getTupleDesc().getFieldType(p.getField1());
+        Type t2 = right.getTupleDesc().getFieldType(p.getField2());
+        if (t1 != t2) {
+            throw new IllegalArgumentException("join fields have different types");
+        }
+        this.p = p;
+        this.left = left;
+        this.right = right;
+        this.td = TupleDesc.merge(left.getTupleDesc(), right.getTupleDesc());
+        this.keyType = t1;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        left.open();
+        right.open();
+        build();
+        right.close();
+        out = new ColumnBatch(td);
+        probe = null;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int hashAt(int row) {
+        int f = p.getField2();
+        if (keyType == Type.INT_TYPE) {
+            return hash(buildInts[f][row]);
+        }
+        if (keyType == Type.LONG_TYPE) {
+            return hash(Long.hashCode(buildLongs[f][row]));
+        }
+        return hash(buildStrings[f][row].hashCode());
+    }
+
+    private void build() throws DbException, TransactionAbortedException {
+        TupleDesc rtd = right.getTupleDesc();
+        int cols = rtd.numFields();
+        int capacity = ColumnBatch.CAPACITY;
+        buildInts = new int[cols][];
+        buildLongs = new long[cols][];
+        buildStrings = new String[cols][];
+        for (int c = 0; c < cols; c++) {
+            if (rtd.getFieldType(c) == Type.INT_TYPE) {
+                buildInts[c] = new int[capacity];
+            } else if (rtd.getFieldType(c) == Type.LONG_TYPE) {
+                buildLongs[c] = new long[capacity];
+            } else {
+                buildStrings[c] = new String[capacity];
+            }
+        }
+        buildSize = 0;
+
+        ColumnBatch batch;
+        while ((batch = right.nextBatch()) != null) {
+            int active = batch.numActive();
+            if (buildSize + active > capacity) {
+                while (buildSize + active > capacity) {
+                    capacity *= 2;
+                }
+                for (int c = 0; c < cols; c++) {
+                    if (buildInts[c] != null) {
+                        buildInts[c] = Arrays.copyOf(buildInts[c], capacity);
+                    } else if (buildLongs[c] != null) {
+                        buildLongs[c] = Arrays.copyOf(buildLongs[c], capacity);
+                    } else {
+                        buildStrings[c] = Arrays.copyOf(buildStrings[c], capacity);
+                    }
+                }
+            }
+            for (int c = 0; c < cols; c++) {
+                for (int i = 0; i < active; i++) {
+                    int pos = batch.position(i);
+                    if (buildInts[c] != null) {
+                        buildInts[c][buildSize + i] = batch.getInts(c)[pos];
+                    } else if (buildLongs[c] != null) {
+                        buildLongs[c][buildSize + i] = batch.getLongs(c)[pos];
+                    } else {
+                        buildStrings[c][buildSize + i] = batch.getStrings(c)[pos];
+                    }
+                }
+            }
+            buildSize += active;
+        }
+
+        int nb = Integer.highestOneBit(Math.max(buildSize, 1) * 2 - 1) << 1;
+        buckets = new int[nb];
+        Arrays.fill(buckets, NO_ROW);
+        chain = new int[buildSize];
+        for (int row = 0; row < buildSize; row++) {
+            int b = hashAt(row) & (nb - 1);
+            chain[row] = buckets[b];
+            buckets[b] = row;
+        }
+    }
+
+    /** Move the probe position to the first build row of the current left row's bucket. */
+    private void startProbeRow() {
+        int pos = probe.position(probeRow);
+        int f = p.getField1();
+        int h;
+        if (keyType == Type.INT_TYPE) {
+            h = hash(probe.getInts(f)[pos]);
+        } else if (keyType == Type.LONG_TYPE) {
+            h = hash(Long.hashCode(probe.getLongs(f)[pos]));
+        } else {
+            h = hash(probe.getStrings(f)[pos].hashCode());
+        }
+        buildRow = buckets[h & (buckets.length - 1)];
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (out == null) {
+            throw new IllegalStateException("BatchHashJoin not open");
+        }
+        out.clear();
+        int n = 0;
+        int leftCols = left.getTupleDesc().numFields();
+        int f1 = p.getField1();
+        int f2 = p.getField2();
+        while (n < ColumnBatch.CAPACITY) {
+            if (probe == null || probeRow >= probe.numActive()) {
+                probe = left.nextBatch();
+                if (probe == null) {
+                    break;
+                }
+                probeRow = 0;
+                startProbeRow();
+            }
+            int pos = probe.position(probeRow);
+            while (buildRow != NO_ROW && n < ColumnBatch.CAPACITY) {
+                int row = buildRow;
+                buildRow = chain[row];
+                boolean match;
+                if (keyType == Type.INT_TYPE) {
+                    match = probe.getInts(f1)[pos] == buildInts[f2][row];
+                } else if (keyType == Type.LONG_TYPE) {
+                    match = probe.getLongs(f1)[pos] == buildLongs[f2][row];
+                } else {
+                    match = probe.getStrings(f1)[pos].equals(buildStrings[f2][row]);
+                }
+                if (!match) {
+                    continue;
+                }
+                for (int c = 0; c < leftCols; c++) {
+                    if (out.getInts(c) != null) {
+                        out.getInts(c)[n] = probe.getInts(c)[pos];
+                    } else if (out.getLongs(c) != null) {
+                        out.getLongs(c)[n] = probe.getLongs(c)[pos];
+                    } else {
+                        out.getStrings(c)[n] = probe.getStrings(c)[pos];
+                    }
+                }
+                for (int c = 0; c < buildInts.length; c++) {
+                    if (buildInts[c] != null) {
+                        out.getInts(leftCols + c)[n] = buildInts[c][row];
+                    } else if (buildLongs[c] != null) {
+                        out.getLongs(leftCols + c)[n] = buildLongs[c][row];
+                    } else {
+                        out.getStrings(leftCols + c)[n] = buildStrings[c][row];
+                    }
+                }
+                n++;
+            }
+            if (buildRow == NO_ROW) {
+                probeRow++;
+                if (probeRow < probe.numActive()) {
+                    startProbeRow();
+                }
+            }
+        }
+        out.setSize(n);
+        return n == 0 ? null : out;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (out == null) {
+            throw new IllegalStateException("BatchHashJoin not open");
+        }
+        left.rewind();
+        probe = null;
+    }
+
+    public void close() {
+        left.close();
+        buildInts = null;
+        buildLongs = null;
+        buildStrings = null;
+        buckets = null;
+        chain = null;
+        probe = null;
+        out = null;
+    }
+}
@@ -0,0 +1,48 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * BatchIterator is the batch-at-a-time counterpart of {@link DbIterator}:
+ * instead of one Tuple per call it returns a {@link ColumnBatch} of up to
+ * ColumnBatch.CAPACITY rows. If the iterator is not open, none of the
+ * methods should work, and should throw an IllegalStateException.
+ * <p>
+ * {@link TupleToBatch} and {@link BatchToTuple} convert between the two
+ * interfaces so that plans can mix operators of both kinds.
+ */
+public interface BatchIterator extends Serializable {
+    /**
+     * Opens the iterator. This must be called before any of the other methods.
+     * @throws DbException when there are problems opening/accessing the database.
+     */
+    public void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next batch of rows. A returned batch always has at least
+     * one active row. The batch is only valid until the next call to
+     * nextBatch, rewind or close, since iterators may reuse it; callers that
+     * need rows for longer must copy them.
+     *
+     * @return the next batch, or null if there are no more rows.
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     * @throws DbException when rewind is unsupported.
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the TupleDesc of the rows of the returned batches.
+     */
+    public TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator.
+     */
+    public void close();
+}
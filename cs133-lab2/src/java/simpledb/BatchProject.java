@@ -0,0 +1,66 @@
+package simpledb;
+
+/**
+ * BatchProject is the batch-at-a-time counterpart of {@link Project}. The
+ * returned batches share the column vectors and selection vector of the
+ * child's batches, so projecting copies no data.
+ */
+public class BatchProject implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] fields;
+    private final BatchIterator child;
+    private final TupleDesc td;
+
+    /**
+     * @param fields
+     *            the indexes of the child's fields to return, in order
+     * @param child
+     *            The child iterator
+     */
+    public BatchProject(int[] fields, BatchIterator child) {
+        this.fields = fields.clone();
+        this.child = child;
+        TupleDesc childtd = child.getTupleDesc();
+        Type[] types = new Type[fields.length];
+        String[] names = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            types[i] = childtd.getFieldType(fields[i]);
+            names[i] = childtd.getFieldName(fields[i]);
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public void close() {
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        ColumnBatch in = child.nextBatch();
+        if (in == null) {
+            return null;
+        }
+        int[][] ints = new int[fields.length][];
+        long[][] longs = new long[fields.length][];
+        String[][] strings = new String[fields.length][];
+        for (int i = 0; i < fields.length; i++) {
+            ints[i] = in.intColumns()[fields[i]];
+            longs[i] = in.longColumns()[fields[i]];
+            strings[i] = in.stringColumns()[fields[i]];
+        }
+        return new ColumnBatch(td, ints, longs, strings, in.size(), in.getSelection(), in.numActive());
+    }
+}
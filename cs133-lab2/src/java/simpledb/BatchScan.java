@@ -0,0 +1,93 @@
+package simpledb;
+
+/**
+ * BatchScan is the batch-at-a-time counterpart of {@link SeqScan}: it reads
+ * the pages of a HeapFile through the BufferPool and copies their tuples
+ * into column vectors, decoding fields straight from the page bytes.
+ */
+public class BatchScan implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+
+    private transient HeapFile file;
+    private transient ColumnBatch batch;
+    private int pageNo;
+    private int slot;
+    private boolean open = false;
+
+    /**
+     * Creates a batch scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tableid
+     *            the table to scan; it must be stored in a HeapFile
+     * @param tableAlias
+     *            the alias of this table, used to name the fields as in
+     *            {@link SeqScan#getTupleDesc}
+     */
+    public BatchScan(TransactionId tid, int tableid, String tableAlias) {
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof HeapFile)) {
+            throw new DbException("batch scans are only supported over heap files");
+        }
+        file = (HeapFile) f;
+        batch = new ColumnBatch(getTupleDesc());
+        pageNo = 0;
+        slot = 0;
+        open = true;
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (!open) {
+            throw new IllegalStateException("BatchScan not open");
+        }
+        batch.clear();
+        while (!batch.isFull() && pageNo < file.numPages()) {
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(tableid, pageNo), Permissions.READ_ONLY);
+            slot = page.fillBatch(slot, batch);
+            if (slot >= page.numSlots) {
+                pageNo++;
+                slot = 0;
+            }
+        }
+        return batch.size() == 0 ? null : batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (!open) {
+            throw new IllegalStateException("BatchScan not open");
+        }
+        pageNo = 0;
+        slot = 0;
+    }
+
+    public TupleDesc getTupleDesc() {
+        TupleDesc myTupleDesc = Database.getCatalog().getTupleDesc(tableid);
+        Type[] typeAr = new Type[myTupleDesc.numFields()];
+        String[] fieldAr = new String[myTupleDesc.numFields()];
+        for (int i = 0; i < myTupleDesc.numFields(); i++) {
+            typeAr[i] = myTupleDesc.getFieldType(i);
+            String oldFieldName = myTupleDesc.getFieldName(i) == null ? "null" : myTupleDesc.getFieldName(i);
+            String myTableAlias = tableAlias == null ? "null" : tableAlias;
+            fieldAr[i] = myTableAlias + "." + oldFieldName;
+        }
+        return new TupleDesc(typeAr, fieldAr);
+    }
+
+    public void close() {
+        open = false;
+        batch = null;
+        file = null;
+    }
+}
@@ -0,0 +1,80 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BatchToTuple adapts a {@link BatchIterator} to the tuple-at-a-time
+ * {@link DbIterator} interface, returning the active rows of each batch as
+ * Tuples.
+ */
+public class BatchToTuple extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator child;
+    private transient ColumnBatch batch;
+    private int pos;
+
+    /**
+     * @param child
+     *            the batch iterator whose rows are returned
+     */
+    public BatchToTuple(BatchIterator child) {
+        this.child = child;
+    }
+
+    /** @return the wrapped batch iterator */
+    public BatchIterator getBatchChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        batch = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (batch == null || pos >= batch.numActive()) {
+            batch = child.nextBatch();
+            pos = 0;
+            if (batch == null) {
+                return null;
+            }
+        }
+        return batch.getTuple(pos++);
+    }
+
+    /**
+     * A BatchToTuple has no tuple-at-a-time children; if the batch child
+     * wraps a DbIterator, that iterator is returned.
+     */
+    @Override
+    public DbIterator[] getChildren() {
+        if (child instanceof TupleToBatch) {
+            return new DbIterator[] { ((TupleToBatch) child).getChild() };
+        }
+        return new DbIterator[0];
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        throw new UnsupportedOperationException("the child of a BatchToTuple is a BatchIterator");
+    }
+}
@@ -0,0 +1,123 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BlockNestedLoopsJoin is a nested loops join that reads the left (outer)
+ * child a block of tuples at a time and the right (inner) child once per
+ * block, instead of once per outer tuple as {@link Join} does. It supports
+ * any join predicate. Each output tuple holds the fields of the outer tuple
+ * followed by the fields of the inner one; within a block, the output is
+ * ordered by inner tuple.
+ */
+public class BlockNestedLoopsJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate p;
+    private final int blockSize;
+    private DbIterator child1;
+    private DbIterator child2;
+    private TupleDesc td;
+
+    private transient ArrayList<Tuple> block;
+    private transient Tuple tuple2;
+    private transient int blockPos;
+
+    /**
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param blockSize
+     *            the number of outer tuples held in memory at a time
+     * @throws IllegalArgumentException if blockSize is not positive
+     */
+    public BlockNestedLoopsJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("block size must be positive");
+        }
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.blockSize = blockSize;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /** @return the number of outer tuples held in memory at a time */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        child1.open();
+        child2.open();
+        block = new ArrayList<Tuple>();
+        tuple2 = null;
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        block = null;
+        tuple2 = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        block.clear();
+        tuple2 = null;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (block.isEmpty()) {
+                while (block.size() < blockSize && child1.hasNext()) {
+                    block.add(child1.next());
+                }
+                if (block.isEmpty()) {
+                    return null;
+                }
+                child2.rewind();
+                tuple2 = null;
+            }
+            while (tuple2 != null && blockPos < block.size()) {
+                Tuple tuple1 = block.get(blockPos++);
+                if (p.filter(tuple1, tuple2)) {
+                    return Join.merge(td, tuple1, tuple2);
+                }
+            }
+            if (child2.hasNext()) {
+                tuple2 = child2.next();
+                blockPos = 0;
+            } else {
+                block.clear();
+            }
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+}
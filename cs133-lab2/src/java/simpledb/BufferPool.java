@@ -29,6 +29,9 @@ public class BufferPool {
 
     private final Catalog catalog;
     private final LinkedHashMap<PageId, Page> pageCache;
+    /** Calls of getPage that found the page cached, and that read it from its file */
+    private long pageHits = 0;
+    private long pageMisses = 0;
 
     // private List<Page> pages; 
 
@@ -65,6 +68,16 @@ public class BufferPool {
         BufferPool.pageSize = PAGE_SIZE;
     }
 
+    /** @return the number of pages getPage has returned from the cache */
+    public synchronized long getPageHits() {
+        return pageHits;
+    }
+
+    /** @return the number of pages getPage has read from their files */
+    public synchronized long getPageMisses() {
+        return pageMisses;
+    }
+
     /**
      * Retrieve the specified page with the associated permissions.
      * Will acquire a lock and may block if that lock is held by another
@@ -84,6 +97,7 @@ public class BufferPool {
             throws TransactionAbortedException, DbException {
         Page cached = pageCache.get(pid);
         if (cached != null) {
+            pageHits++;
             return cached;
         }
 
@@ -96,6 +110,7 @@ public class BufferPool {
             throw new DbException("table " + pid.getTableId() + " not found in catalog");
         }
         Page page = myFile.readPage(pid);
+        pageMisses++;
         pageCache.put(pid, page);
         return page;
     }
@@ -160,6 +175,10 @@ public class BufferPool {
      * been dirtied to the cache (replacing any existing versions of those pages) so
      * that future requests see up-to-date pages. 
      *
+     * If the table has a hash index (see {@link Catalog#getIndex}), an entry
+     * for the new tuple is added to it as well, and the tuple is added to the
+     * table's statistics (see {@link TableStats}).
+     *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
      * @param t the tuple to add
@@ -172,6 +191,11 @@ public class BufferPool {
         }
 
         ArrayList<Page> dirtyPages = myFile.insertTuple(tid, t);
+        HashIndexFile index = catalog.getIndex(tableId);
+        if (index != null) {
+            dirtyPages.addAll(index.insertTuple(tid, t));
+        }
+        TableStats.tupleInserted(tableId, t);
 
         for(Page page : dirtyPages){
             page.markDirty(true, tid);
@@ -189,6 +213,9 @@ public class BufferPool {
      * been dirtied to the cache (replacing any existing versions of those pages) so
      * that future requests see up-to-date pages. 
      *
+     * The tuple's entry is also removed from the table's hash index, if any,
+     * and the deletion is counted in the table's statistics.
+     *
      * @param tid the transaction deleting the tuple.
      * @param t the tuple to delete
      */
@@ -205,6 +232,11 @@ public class BufferPool {
             throw new DbException("table " + tableId + " not found in catalog");
         }
         ArrayList<Page> dirtyPages = dbFile.deleteTuple(tid, t);
+        HashIndexFile index = catalog.getIndex(tableId);
+        if (index != null) {
+            dirtyPages.addAll(index.deleteTuple(tid, t));
+        }
+        TableStats.tupleDeleted(tableId);
         for (Page p : dirtyPages) {
             p.markDirty(true, tid);
             pageCache.put(p.getId(), p);
@@ -6,6 +6,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
@@ -23,6 +24,10 @@ public class Catalog {
     private final Map<String, Integer> name2id;
     private final Map<Integer, String> id2name;
     private final Map<Integer, String> pkey;
+    private final Map<Integer, HashIndexFile> id2index;
+    private final Map<Integer, HashIndexFile> indexid2index;
+    /** Incremented by every change to the tables of the catalog */
+    private final AtomicLong version = new AtomicLong();
 
     /**
      * Constructor.
@@ -36,6 +41,8 @@ public class Catalog {
         name2id = new ConcurrentHashMap<String,Integer>();
         id2name = new ConcurrentHashMap<Integer,String>();
         pkey = new ConcurrentHashMap<Integer,String>();
+        id2index = new ConcurrentHashMap<Integer,HashIndexFile>();
+        indexid2index = new ConcurrentHashMap<Integer,HashIndexFile>();
     }
 
     /**
@@ -53,6 +60,7 @@ public class Catalog {
         if (name2id.containsKey(name)) {
             id2table.remove( name2id.get(name) );
             id2tupledesc.remove( name2id.get(name) );
+            removeIndex( name2id.get(name) );
             name2id.remove(name);
         }
 	
@@ -62,6 +70,46 @@ public class Catalog {
         id2name.put(file.getId(), name);
 
         pkey.put(file.getId(), pkeyField);
+        removeIndex(file.getId());
+        version.incrementAndGet();
+    }
+
+    /**
+     * Add a new table to the catalog, optionally with a hash index on its
+     * primary key. The index is stored next to the table's file (with an
+     * ".hidx" suffix), rebuilt from the table's current contents, and kept
+     * up to date by {@link BufferPool#insertTuple} and
+     * {@link BufferPool#deleteTuple}.
+     * @param file the contents of the table to add; must be a HeapFile if
+     *    hashIndex is true
+     * @param name the name of the table
+     * @param pkeyField the name of the primary key field
+     * @param hashIndex true if a hash index should be built on pkeyField
+     * @throws NoSuchElementException if pkeyField is not a field of the table
+     */
+    public void addTable(DbFile file, String name, String pkeyField, boolean hashIndex) {
+        addTable(file, name, pkeyField);
+        if (!hashIndex) {
+            return;
+        }
+        if (!(file instanceof HeapFile)) {
+            throw new IllegalArgumentException("hash indexes are only supported on HeapFiles");
+        }
+        HeapFile hf = (HeapFile) file;
+        TupleDesc td = hf.getTupleDesc();
+        int keyField = td.fieldNameToIndex(pkeyField);
+        try {
+            HashIndexFile index = new HashIndexFile(new File(hf.getFile().getPath() + ".hidx"),
+                    hf.getId(), keyField, td.getFieldType(keyField));
+            id2index.put(hf.getId(), index);
+            indexid2index.put(index.getId(), index);
+            index.bulkLoad(hf.iterator(new TransactionId()));
+        } catch (Exception e) {
+            removeIndex(hf.getId());
+            throw new RuntimeException("failed to build hash index on " + name, e);
+        } finally {
+            version.incrementAndGet();
+        }
     }
 
     public void addTable(DbFile file, String name) {
@@ -112,7 +160,29 @@ public class Catalog {
      *     function passed to addTable
      */
     public DbFile getDatabaseFile(int tableid) throws NoSuchElementException {
-        return id2table.get(tableid);
+        DbFile file = id2table.get(tableid);
+        if (file == null) {
+            // pages of hash indexes are read through the BufferPool too
+            file = indexid2index.get(tableid);
+        }
+        return file;
+    }
+
+    /**
+     * Returns the hash index on the primary key of the specified table, or
+     * null if the table was added without one.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     */
+    public HashIndexFile getIndex(int tableid) {
+        return id2index.get(tableid);
+    }
+
+    private void removeIndex(int tableid) {
+        HashIndexFile index = id2index.remove(tableid);
+        if (index != null) {
+            indexid2index.remove(index.getId());
+        }
     }
 
     public String getPrimaryKey(int tableid) {
@@ -136,6 +206,18 @@ public class Catalog {
         name2id.clear();
         id2name.clear();
         pkey.clear();
+        id2index.clear();
+        indexid2index.clear();
+        version.incrementAndGet();
+    }
+
+    /**
+     * @return a number that changes whenever a table or index is added to
+     *         or removed from the catalog, so that plans made against it
+     *         can tell whether they are still valid
+     */
+    public long getVersion() {
+        return version.get();
     }
     
     /**
@@ -162,6 +244,8 @@ public class Catalog {
                     names.add(els2[0].trim());
                     if (els2[1].trim().toLowerCase().equals("int"))
                         types.add(Type.INT_TYPE);
+                    else if (els2[1].trim().toLowerCase().equals("long"))
+                        types.add(Type.LONG_TYPE);
                     else if (els2[1].trim().toLowerCase().equals("string"))
                         types.add(Type.STRING_TYPE);
                     else {
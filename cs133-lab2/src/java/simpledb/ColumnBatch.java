@@ -0,0 +1,195 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * ColumnBatch holds up to {@link #CAPACITY} rows stored column by column:
+ * an int[] per INT column, a long[] per LONG column and a String[] per
+ * STRING column. An optional
+ * selection vector lists the positions of the rows that are still active,
+ * so that filters can drop rows without moving any column data.
+ * <p>
+ * Rows are addressed in two ways: a <i>position</i> is an index into the
+ * column arrays (0 to {@link #size()}-1), and the i-th <i>active row</i> is
+ * at position {@link #position(int) position(i)}, for i from 0 to
+ * {@link #numActive()}-1.
+ *
+ * @see BatchIterator
+ */
+public class ColumnBatch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The maximum number of rows in a batch. */
+    public static final int CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final int[][] ints;
+    private final long[][] longs;
+    private final String[][] strings;
+    private int size;
+    private int[] sel;
+    private int numSelected;
+
+    /**
+     * Create an empty batch of rows described by td, allocating a vector of
+     * CAPACITY values per column.
+     */
+    public ColumnBatch(TupleDesc td) {
+        this.td = td;
+        this.ints = new int[td.numFields()][];
+        this.longs = new long[td.numFields()][];
+        this.strings = new String[td.numFields()][];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                ints[i] = new int[CAPACITY];
+            } else if (td.getFieldType(i) == Type.LONG_TYPE) {
+                longs[i] = new long[CAPACITY];
+            } else {
+                strings[i] = new String[CAPACITY];
+            }
+        }
+    }
+
+    /**
+     * Create a batch sharing the specified column vectors; used to re-arrange
+     * the columns of a batch without copying them.
+     */
+    ColumnBatch(TupleDesc td, int[][] ints, long[][] longs, String[][] strings, int size, int[] sel,
+            int numSelected) {
+        this.td = td;
+        this.ints = ints;
+        this.longs = longs;
+        this.strings = strings;
+        this.size = size;
+        this.sel = sel;
+        this.numSelected = numSelected;
+    }
+
+    /** @return the TupleDesc of the rows of this batch */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of positions filled in the column vectors */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Set the number of positions filled in the column vectors; clears the
+     * selection vector.
+     */
+    public void setSize(int size) {
+        if (size < 0 || size > CAPACITY) {
+            throw new IllegalArgumentException("batch size out of range: " + size);
+        }
+        this.size = size;
+        this.sel = null;
+    }
+
+    /** @return true if no more rows can be appended */
+    public boolean isFull() {
+        return size == CAPACITY;
+    }
+
+    /** Remove all rows from this batch. */
+    public void clear() {
+        size = 0;
+        sel = null;
+    }
+
+    /** @return the vector of values of INT column i */
+    public int[] getInts(int i) {
+        return ints[i];
+    }
+
+    /** @return the vector of values of LONG column i */
+    public long[] getLongs(int i) {
+        return longs[i];
+    }
+
+    /** @return the vector of values of STRING column i */
+    public String[] getStrings(int i) {
+        return strings[i];
+    }
+
+    int[][] intColumns() {
+        return ints;
+    }
+
+    long[][] longColumns() {
+        return longs;
+    }
+
+    String[][] stringColumns() {
+        return strings;
+    }
+
+    /**
+     * @return the selection vector, or null if every position is active
+     */
+    public int[] getSelection() {
+        return sel;
+    }
+
+    /**
+     * Restrict the active rows to the first n positions listed in sel.
+     */
+    public void setSelection(int[] sel, int n) {
+        this.sel = sel;
+        this.numSelected = n;
+    }
+
+    /** @return the number of active rows */
+    public int numActive() {
+        return sel == null ? size : numSelected;
+    }
+
+    /** @return the position of the i-th active row */
+    public int position(int i) {
+        return sel == null ? i : sel[i];
+    }
+
+    /** @return the value of column col at the specified position as a Field */
+    public Field getField(int pos, int col) {
+        if (ints[col] != null) {
+            return new IntField(ints[col][pos]);
+        }
+        if (longs[col] != null) {
+            return new LongField(longs[col][pos]);
+        }
+        return new StringField(strings[col][pos], Type.STRING_LEN);
+    }
+
+    /** @return the i-th active row as a Tuple */
+    public Tuple getTuple(int i) {
+        int pos = position(i);
+        Tuple t = new Tuple(td);
+        for (int c = 0; c < td.numFields(); c++) {
+            t.setField(c, getField(pos, c));
+        }
+        return t;
+    }
+
+    /**
+     * Append a row to this batch; the batch must not have a selection vector.
+     * @throws IllegalStateException if the batch is full
+     */
+    public void append(Tuple t) {
+        if (isFull()) {
+            throw new IllegalStateException("batch is full");
+        }
+        for (int c = 0; c < td.numFields(); c++) {
+            Field f = t.getField(c);
+            if (ints[c] != null) {
+                ints[c][size] = ((IntField) f).getValue();
+            } else if (longs[c] != null) {
+                longs[c][size] = ((LongField) f).getValue();
+            } else {
+                strings[c][size] = ((StringField) f).getValue();
+            }
+        }
+        size++;
+    }
+}
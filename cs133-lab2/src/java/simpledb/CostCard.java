@@ -1,14 +1,18 @@
 package simpledb;
-import java.util.Vector;
 
 /** Class returned by {@link JoinOptimizer#computeCostAndCardOfSubplan} specifying the
-    cost and cardinality of the optimal plan represented by plan.
+    cost and cardinality of the optimal plan of a set of joins, the join it performs last and
+    how that join's inputs are produced.
 */
 public class CostCard {
     /** The cost of the optimal subplan */
     public double cost;
     /** The cardinality of the optimal subplan */
     public long card;
-    /** The optimal subplan */
-    public Vector<LogicalJoinNode> plan;
+    /** The join the optimal subplan performs last, with its inputs swapped if that is cheaper */
+    public LogicalJoinNode join;
+    /** The set of joins producing the left input of that join, as a bitmask; 0 for a base table */
+    public long left;
+    /** The algorithm of that join and its cost */
+    public JoinCost joinCost;
 }
@@ -3,13 +3,15 @@ package simpledb;
 import java.util.*;
 
 /**
- * Filter is an operator that implements a relational select.
+ * Filter is an operator that implements a relational select. It may apply
+ * a conjunction of predicates, which it evaluates in order and stops at the
+ * first one a tuple fails.
  */
 public class Filter extends Operator {
 
     private static final long serialVersionUID = 1L;
 
-    private final Predicate p;
+    private final Predicate[] preds;
 
     private DbIterator child;
 
@@ -23,12 +25,39 @@ public class Filter extends Operator {
      *            The child operator
      */
     public Filter(Predicate p, DbIterator child) {
-        this.p = p;
+        this(new Predicate[] { p }, child);
+    }
+
+    /**
+     * Constructor accepts the predicates of a conjunction, in the order to
+     * evaluate them, and a child operator to read tuples to filter from.
+     * 
+     * @param preds
+     *            The predicates every returned tuple satisfies
+     * @param child
+     *            The child operator
+     * @throws IllegalArgumentException if there are no predicates
+     */
+    public Filter(Predicate[] preds, DbIterator child) {
+        if (preds.length == 0) {
+            throw new IllegalArgumentException("a filter needs a predicate");
+        }
+        this.preds = preds.clone();
         this.child = child;
     }
 
+    /**
+     * @return the first predicate the filter evaluates
+     */
     public Predicate getPredicate() {
-        return this.p;
+        return this.preds[0];
+    }
+
+    /**
+     * @return the predicates of the filter, in the order they are evaluated
+     */
+    public List<Predicate> getPredicates() {
+        return Collections.unmodifiableList(Arrays.asList(preds));
     }
 
     public TupleDesc getTupleDesc() {
@@ -52,8 +81,8 @@ public class Filter extends Operator {
 
     /**
      * The Filter operator iterates through the tuples from its child, 
-     * applying the predicate to them and returning those that
-     * pass the predicate (i.e. for which the Predicate.filter() returns true.)
+     * applying the predicates to them and returning those that
+     * pass every predicate (i.e. for which the Predicate.filter() returns true.)
      * This method returns the next tuple.
      * 
      * @return The next tuple that passes the filter, or null if there are no
@@ -62,11 +91,15 @@ public class Filter extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
     TransactionAbortedException, DbException {
+        next:
         while (child.hasNext()){
             Tuple t = child.next();
-            if( p.filter(t)) {
-                return t;
+            for (Predicate p : preds) {
+                if (!p.filter(t)) {
+                    continue next;
+                }
             }
+            return t;
         }
         return null;
     }
@@ -0,0 +1,511 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashIndexFile is a linear hash index over one field of a HeapFile. It maps
+ * key values to the RecordIds of the tuples holding them, so that equality
+ * lookups (e.g. on a primary key) read one bucket chain instead of scanning
+ * the whole table.
+ * <p>
+ * Page 0 of the file is a header holding the linear hashing state (level,
+ * split pointer and the page number of the primary page of every bucket).
+ * It is read when the file is opened and written through whenever a bucket
+ * is split. All other pages are {@link HashIndexPage}s and are accessed via
+ * the BufferPool. A bucket is split every time an insert has to allocate an
+ * overflow page, until the bucket directory fills the header page; after
+ * that, chains simply grow longer.
+ * <p>
+ * Entries are maintained by {@link BufferPool#insertTuple} and
+ * {@link BufferPool#deleteTuple} for tables declared with an index in
+ * {@link Catalog#addTable(DbFile, String, String, boolean)}. As a DbFile,
+ * the tuples of this file are (key, page number, slot) triples.
+ *
+ * @see HashIndexPage
+ */
+public class HashIndexFile implements DbFile {
+
+    /** Target fill factor of bucket pages after a bulk load. */
+    static final double BULK_LOAD_FILL = 0.75;
+
+    private final File f;
+    private final int tableId;
+    private final int keyField;
+    private final Type keyType;
+    private final TupleDesc td;
+    private final int pageSize = BufferPool.getPageSize();
+
+    private int level;
+    private int next;
+    private int numBuckets;
+    private int[] directory;
+
+    /**
+     * Opens the hash index stored in f, or creates an empty one if f does
+     * not exist yet.
+     *
+     * @param f the file backing this index
+     * @param tableId the id of the HeapFile being indexed
+     * @param keyField the index of the indexed field in the table's tuples
+     * @param keyType the type of the indexed field
+     */
+    public HashIndexFile(File f, int tableId, int keyField, Type keyType) throws IOException {
+        this.f = f;
+        this.tableId = tableId;
+        this.keyField = keyField;
+        this.keyType = keyType;
+        this.td = new TupleDesc(new Type[] { keyType, Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { "key", "pageNo", "slot" });
+        if (f.exists() && f.length() >= pageSize) {
+            readHeader();
+        } else {
+            reset(1);
+        }
+    }
+
+    public File getFile() {
+        return f;
+    }
+
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    /** @return the id of the table this index is built on */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the index of the indexed field in the table's tuples */
+    public int getKeyField() {
+        return keyField;
+    }
+
+    public Type getKeyType() {
+        return keyType;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the current number of buckets */
+    public int numBuckets() {
+        return numBuckets;
+    }
+
+    /** @return the number of pages in this file, including the header */
+    public int numPages() {
+        return (int) (f.length() / pageSize);
+    }
+
+    /** The largest number of buckets whose directory fits in the header page. */
+    private int maxBuckets() {
+        return (pageSize - 12) / 4;
+    }
+
+    private static int hash(Field key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h & 0x7fffffff;
+    }
+
+    /** @return the bucket that key hashes to under the current split state */
+    int bucketFor(Field key) {
+        int h = hash(key);
+        int b = h & ((1 << level) - 1);
+        if (b < next) {
+            b = h & ((1 << (level + 1)) - 1);
+        }
+        return b;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (pid.getPageNumber() <= 0) {
+            throw new IllegalArgumentException("header page is not a HashIndexPage");
+        }
+        long offset = pid.getPageNumber() * (long) pageSize;
+        byte[] data = new byte[pageSize];
+        try {
+            RandomAccessFile raf = new RandomAccessFile(f, "r");
+            if (offset + pageSize > raf.length()) {
+                raf.close();
+                throw new IllegalArgumentException("Page not found inside hash index");
+            }
+            raf.seek(offset);
+            raf.readFully(data);
+            raf.close();
+            return new HashIndexPage((HashIndexPageId) pid, data, keyType);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("unable to read page " + pid.getPageNumber() + " of hash index " + f, e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        PageId pid = page.getId();
+        if (pid.getTableId() != getId()) {
+            throw new IllegalArgumentException("page does not belong to this file");
+        }
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.seek(pid.getPageNumber() * (long) pageSize);
+        raf.write(page.getPageData());
+        raf.close();
+    }
+
+    /**
+     * Inserts an entry for t, which must already be stored in the indexed
+     * table (i.e. have a RecordId).
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null) {
+            throw new DbException("tuple has no RecordId");
+        }
+        ArrayList<Page> dirtyPages = new ArrayList<>();
+        Field key = t.getField(keyField);
+        List<HashIndexPage> chain = new ArrayList<>();
+        chain.add(getBucketPage(tid, directory[bucketFor(key)]));
+        boolean overflowed = appendToChain(tid, chain, key, rid.getPageId().getPageNumber(), rid.getTupleNumber());
+        dirtyPages.addAll(chain);
+        if (overflowed && numBuckets < maxBuckets()) {
+            split(tid, dirtyPages);
+        }
+        return dirtyPages;
+    }
+
+    /** Removes the entry for t from the index. */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null) {
+            throw new DbException("tuple has no RecordId");
+        }
+        Field key = t.getField(keyField);
+        int pageNo = rid.getPageId().getPageNumber();
+        int slot = rid.getTupleNumber();
+        int pgNo = directory[bucketFor(key)];
+        while (pgNo != HashIndexPage.NO_NEXT_PAGE) {
+            HashIndexPage page = getBucketPage(tid, pgNo);
+            for (int i = 0; i < page.getNumEntries(); i++) {
+                if (page.getPageNo(i) == pageNo && page.getSlot(i) == slot && page.getKey(i).equals(key)) {
+                    page.removeEntry(i);
+                    ArrayList<Page> dirtyPages = new ArrayList<>();
+                    dirtyPages.add(page);
+                    return dirtyPages;
+                }
+            }
+            pgNo = page.getNextPage();
+        }
+        throw new DbException("tuple not found in hash index");
+    }
+
+    /**
+     * Returns the RecordIds of all tuples of the indexed table whose key
+     * field equals key.
+     */
+    public ArrayList<RecordId> lookup(TransactionId tid, Field key)
+            throws DbException, TransactionAbortedException {
+        ArrayList<RecordId> rids = new ArrayList<>();
+        int pgNo = directory[bucketFor(key)];
+        while (pgNo != HashIndexPage.NO_NEXT_PAGE) {
+            HashIndexPage page = (HashIndexPage) Database.getBufferPool().getPage(tid,
+                    new HashIndexPageId(getId(), pgNo), Permissions.READ_ONLY);
+            for (int i = 0; i < page.getNumEntries(); i++) {
+                if (page.getKey(i).equals(key)) {
+                    rids.add(new RecordId(new HeapPageId(tableId, page.getPageNo(i)), page.getSlot(i)));
+                }
+            }
+            pgNo = page.getNextPage();
+        }
+        return rids;
+    }
+
+    /**
+     * Rebuilds this index from scratch with the tuples returned by it. The
+     * number of buckets is chosen so that buckets are about
+     * BULK_LOAD_FILL full, and pages are written directly to disk.
+     */
+    public void bulkLoad(DbFileIterator it) throws DbException, TransactionAbortedException, IOException {
+        ArrayList<Field> keys = new ArrayList<>();
+        ArrayList<RecordId> rids = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            keys.add(t.getField(keyField));
+            rids.add(t.getRecordId());
+        }
+        it.close();
+
+        int capacity = HashIndexPage.getCapacity(keyType);
+        int buckets = (int) Math.ceil(keys.size() / (capacity * BULK_LOAD_FILL));
+        buckets = Math.max(1, Math.min(buckets, maxBuckets()));
+        level = 31 - Integer.numberOfLeadingZeros(buckets);
+        next = buckets - (1 << level);
+        numBuckets = buckets;
+
+        ArrayList<ArrayList<Integer>> members = new ArrayList<>(buckets);
+        for (int b = 0; b < buckets; b++) {
+            members.add(new ArrayList<Integer>());
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            members.get(bucketFor(keys.get(i))).add(i);
+        }
+
+        // primary pages are 1..buckets, overflow pages follow in bucket order
+        directory = new int[buckets];
+        ArrayList<HashIndexPage> pages = new ArrayList<>();
+        int nextFree = buckets + 1;
+        for (int b = 0; b < buckets; b++) {
+            directory[b] = b + 1;
+        }
+        for (int b = 0; b < buckets; b++) {
+            HashIndexPage page = emptyPage(directory[b]);
+            pages.add(page);
+            for (int i : members.get(b)) {
+                if (page.isFull()) {
+                    page.setNextPage(nextFree);
+                    page = emptyPage(nextFree++);
+                    pages.add(page);
+                }
+                page.addEntry(keys.get(i), rids.get(i).getPageId().getPageNumber(), rids.get(i).getTupleNumber());
+            }
+        }
+        Collections.sort(pages, new Comparator<HashIndexPage>() {
+            public int compare(HashIndexPage p1, HashIndexPage p2) {
+                return Integer.compare(p1.getId().getPageNumber(), p2.getId().getPageNumber());
+            }
+        });
+
+        BufferedOutputStream bw = new BufferedOutputStream(new FileOutputStream(f, false));
+        bw.write(headerData());
+        for (HashIndexPage page : pages) {
+            bw.write(page.getPageData());
+        }
+        bw.close();
+    }
+
+    /**
+     * Splits the bucket at the split pointer, moving about half of its
+     * entries into a newly allocated bucket.
+     */
+    private void split(TransactionId tid, ArrayList<Page> dirtyPages)
+            throws DbException, IOException, TransactionAbortedException {
+        int oldBucket = next;
+        directory = Arrays.copyOf(directory, numBuckets + 1);
+        directory[numBuckets] = appendEmptyPage();
+        numBuckets++;
+        next++;
+        if (next == (1 << level)) {
+            level++;
+            next = 0;
+        }
+
+        // pages are held for the whole split and never re-fetched, so an
+        // eviction in the middle of it cannot hand us a stale copy
+        List<HashIndexPage> oldChain = new ArrayList<>();
+        ArrayList<Field> keys = new ArrayList<>();
+        ArrayList<Integer> pageNos = new ArrayList<>();
+        ArrayList<Integer> slots = new ArrayList<>();
+        int pgNo = directory[oldBucket];
+        while (pgNo != HashIndexPage.NO_NEXT_PAGE) {
+            HashIndexPage page = getBucketPage(tid, pgNo);
+            for (int i = 0; i < page.getNumEntries(); i++) {
+                keys.add(page.getKey(i));
+                pageNos.add(page.getPageNo(i));
+                slots.add(page.getSlot(i));
+            }
+            page.clearEntries();
+            oldChain.add(page);
+            pgNo = page.getNextPage();
+        }
+        List<HashIndexPage> newChain = new ArrayList<>();
+        newChain.add(getBucketPage(tid, directory[numBuckets - 1]));
+
+        for (int i = 0; i < keys.size(); i++) {
+            List<HashIndexPage> chain = bucketFor(keys.get(i)) == oldBucket ? oldChain : newChain;
+            appendToChain(tid, chain, keys.get(i), pageNos.get(i), slots.get(i));
+        }
+        dirtyPages.addAll(oldChain);
+        dirtyPages.addAll(newChain);
+        writeHeader();
+    }
+
+    /**
+     * Adds an entry to the first page of chain with a free slot, fetching
+     * further pages of the chain (and appending them to the list) as needed.
+     * If every page is full, a new overflow page is linked to the end.
+     *
+     * @return true if an overflow page had to be allocated
+     */
+    private boolean appendToChain(TransactionId tid, List<HashIndexPage> chain, Field key, int pageNo, int slot)
+            throws DbException, IOException, TransactionAbortedException {
+        int i = 0;
+        while (true) {
+            HashIndexPage page = chain.get(i);
+            if (!page.isFull()) {
+                page.addEntry(key, pageNo, slot);
+                return false;
+            }
+            if (i + 1 < chain.size()) {
+                i++;
+            } else if (page.getNextPage() != HashIndexPage.NO_NEXT_PAGE) {
+                chain.add(getBucketPage(tid, page.getNextPage()));
+                i++;
+            } else {
+                int newPgNo = appendEmptyPage();
+                page.setNextPage(newPgNo);
+                HashIndexPage newPage = getBucketPage(tid, newPgNo);
+                newPage.addEntry(key, pageNo, slot);
+                chain.add(newPage);
+                return true;
+            }
+        }
+    }
+
+    private HashIndexPage getBucketPage(TransactionId tid, int pgNo)
+            throws DbException, TransactionAbortedException {
+        return (HashIndexPage) Database.getBufferPool().getPage(tid,
+                new HashIndexPageId(getId(), pgNo), Permissions.READ_WRITE);
+    }
+
+    private HashIndexPage emptyPage(int pgNo) throws IOException {
+        return new HashIndexPage(new HashIndexPageId(getId(), pgNo), HashIndexPage.createEmptyPageData(), keyType);
+    }
+
+    /** Appends an empty page to the end of the file and returns its number. */
+    private int appendEmptyPage() throws IOException {
+        int pgNo = numPages();
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.seek(pgNo * (long) pageSize);
+        raf.write(HashIndexPage.createEmptyPageData());
+        raf.close();
+        return pgNo;
+    }
+
+    /** Resets this index to an empty file with the given number of buckets. */
+    private void reset(int buckets) throws IOException {
+        level = 31 - Integer.numberOfLeadingZeros(buckets);
+        next = buckets - (1 << level);
+        numBuckets = buckets;
+        directory = new int[buckets];
+        for (int b = 0; b < buckets; b++) {
+            directory[b] = b + 1;
+        }
+        BufferedOutputStream bw = new BufferedOutputStream(new FileOutputStream(f, false));
+        bw.write(headerData());
+        for (int b = 0; b < buckets; b++) {
+            bw.write(HashIndexPage.createEmptyPageData());
+        }
+        bw.close();
+    }
+
+    private byte[] headerData() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(pageSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeInt(level);
+        dos.writeInt(next);
+        dos.writeInt(numBuckets);
+        for (int b = 0; b < numBuckets; b++) {
+            dos.writeInt(directory[b]);
+        }
+        dos.write(new byte[pageSize - dos.size()]);
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    private void writeHeader() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.seek(0);
+        raf.write(headerData());
+        raf.close();
+    }
+
+    private void readHeader() throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        level = dis.readInt();
+        next = dis.readInt();
+        numBuckets = dis.readInt();
+        directory = new int[numBuckets];
+        for (int b = 0; b < numBuckets; b++) {
+            directory[b] = dis.readInt();
+        }
+        dis.close();
+    }
+
+    private class HashIndexFileIterator implements DbFileIterator {
+        private final TransactionId tid;
+        private int bucket;
+        private Iterator<Tuple> currIter = null;
+        private boolean open = false;
+
+        HashIndexFileIterator(TransactionId tid) {
+            this.tid = tid;
+        }
+
+        private void nextBucket() throws DbException, TransactionAbortedException {
+            currIter = null;
+            while (bucket < numBuckets && (currIter == null || !currIter.hasNext())) {
+                List<Tuple> entries = new ArrayList<>();
+                int pgNo = directory[bucket++];
+                while (pgNo != HashIndexPage.NO_NEXT_PAGE) {
+                    HashIndexPage page = (HashIndexPage) Database.getBufferPool().getPage(tid,
+                            new HashIndexPageId(getId(), pgNo), Permissions.READ_ONLY);
+                    for (int i = 0; i < page.getNumEntries(); i++) {
+                        Tuple t = new Tuple(td);
+                        t.setField(0, page.getKey(i));
+                        t.setField(1, new IntField(page.getPageNo(i)));
+                        t.setField(2, new IntField(page.getSlot(i)));
+                        entries.add(t);
+                    }
+                    pgNo = page.getNextPage();
+                }
+                currIter = entries.iterator();
+            }
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            bucket = 0;
+            open = true;
+            nextBucket();
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!open) {
+                throw new IllegalStateException("Error: couldn't access the iterator without opening it");
+            }
+            if (currIter != null && !currIter.hasNext()) {
+                nextBucket();
+            }
+            return currIter != null && currIter.hasNext();
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException("Error, no more entries in hash index");
+            }
+            return currIter.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            currIter = null;
+            open = false;
+        }
+    }
+
+    public DbFileIterator iterator(TransactionId tid) {
+        return new HashIndexFileIterator(tid);
+    }
+}
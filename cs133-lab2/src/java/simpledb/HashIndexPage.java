@@ -0,0 +1,215 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * Each instance of HashIndexPage stores one page of a bucket chain of a
+ * {@link HashIndexFile}. A page holds a packed array of (key, page number,
+ * slot) entries, each one pointing at a tuple of the indexed HeapFile, and
+ * the page number of the next overflow page in the chain.
+ *
+ * @see HashIndexFile
+ * @see BufferPool
+ */
+public class HashIndexPage implements Page {
+
+    /**
+     * Value of the next-page link for the last page of a chain. Page 0 of a
+     * HashIndexFile is its header, so it can never be an overflow page.
+     */
+    static final int NO_NEXT_PAGE = 0;
+
+    /** Bytes used by the next-page link and the entry count. */
+    private static final int PAGE_HEADER_SIZE = 8;
+
+    final HashIndexPageId pid;
+    final Type keyType;
+    final int capacity;
+
+    private int nextPage;
+    private int numEntries;
+    private final Field[] keys;
+    private final int[] pageNos;
+    private final int[] slots;
+
+    private TransactionId dTid = null;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a HashIndexPage from a set of bytes of data read from disk.
+     * The key type is looked up from the HashIndexFile registered in the
+     * catalog under id.getTableId().
+     */
+    public HashIndexPage(HashIndexPageId id, byte[] data) throws IOException {
+        this(id, data, ((HashIndexFile) Database.getCatalog().getDatabaseFile(id.getTableId())).getKeyType());
+    }
+
+    /**
+     * Create a HashIndexPage from a set of bytes of data read from disk.
+     * The format of a page is the next-page link and the number of used
+     * entries (one int each), followed by the entries themselves; each entry
+     * is a serialized key followed by the page number and slot of the tuple.
+     */
+    HashIndexPage(HashIndexPageId id, byte[] data, Type keyType) throws IOException {
+        this.pid = id;
+        this.keyType = keyType;
+        this.capacity = getCapacity(keyType);
+        this.keys = new Field[capacity];
+        this.pageNos = new int[capacity];
+        this.slots = new int[capacity];
+
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        nextPage = dis.readInt();
+        numEntries = dis.readInt();
+        if (numEntries < 0 || numEntries > capacity) {
+            throw new IOException("corrupt hash index page " + id);
+        }
+        try {
+            for (int i = 0; i < numEntries; i++) {
+                keys[i] = keyType.parse(dis);
+                pageNos[i] = dis.readInt();
+                slots[i] = dis.readInt();
+            }
+        } catch (java.text.ParseException e) {
+            throw new IOException("corrupt hash index page " + id);
+        }
+        dis.close();
+
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of entries that fit on one page for keys of the
+     *         given type
+     */
+    static int getCapacity(Type keyType) {
+        return (BufferPool.getPageSize() - PAGE_HEADER_SIZE) / (keyType.getSizeInBytes() + 8);
+    }
+
+    public HashIndexPageId getId() {
+        return pid;
+    }
+
+    /** @return the page number of the next page of this chain, or NO_NEXT_PAGE */
+    public int getNextPage() {
+        return nextPage;
+    }
+
+    void setNextPage(int nextPage) {
+        this.nextPage = nextPage;
+    }
+
+    /** @return the number of entries stored on this page */
+    public int getNumEntries() {
+        return numEntries;
+    }
+
+    public boolean isFull() {
+        return numEntries == capacity;
+    }
+
+    public Field getKey(int i) {
+        return keys[i];
+    }
+
+    public int getPageNo(int i) {
+        return pageNos[i];
+    }
+
+    public int getSlot(int i) {
+        return slots[i];
+    }
+
+    /**
+     * Append an entry to this page.
+     * @throws DbException if the page is full
+     */
+    void addEntry(Field key, int pageNo, int slot) throws DbException {
+        if (isFull()) {
+            throw new DbException("Page is full");
+        }
+        keys[numEntries] = key;
+        pageNos[numEntries] = pageNo;
+        slots[numEntries] = slot;
+        numEntries++;
+    }
+
+    /**
+     * Remove the i-th entry; the last entry is moved into its place, so
+     * entry order is not preserved.
+     */
+    void removeEntry(int i) {
+        numEntries--;
+        keys[i] = keys[numEntries];
+        pageNos[i] = pageNos[numEntries];
+        slots[i] = slots[numEntries];
+        keys[numEntries] = null;
+    }
+
+    /** Remove all entries, keeping the link to the next page. */
+    void clearEntries() {
+        for (int i = 0; i < numEntries; i++) {
+            keys[i] = null;
+        }
+        numEntries = 0;
+    }
+
+    public byte[] getPageData() {
+        int len = BufferPool.getPageSize();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(nextPage);
+            dos.writeInt(numEntries);
+            for (int i = 0; i < numEntries; i++) {
+                keys[i].serialize(dos);
+                dos.writeInt(pageNos[i]);
+                dos.writeInt(slots[i]);
+            }
+            dos.write(new byte[len - dos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * @return a byte array corresponding to an empty page with no next page
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()]; //all 0
+    }
+
+    public HashIndexPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new HashIndexPage(pid, oldDataRef, keyType);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dTid = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return this.dTid;
+    }
+}
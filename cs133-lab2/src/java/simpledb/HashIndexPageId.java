@@ -0,0 +1,60 @@
+package simpledb;
+
+/** Unique identifier for HashIndexPage objects. */
+public class HashIndexPageId implements PageId {
+
+    private final int indexId;
+    private final int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific hash index file.
+     *
+     * @param indexId The index file that is being referenced
+     * @param pgNo The page number in that file.
+     */
+    public HashIndexPageId(int indexId, int pgNo) {
+        this.indexId = indexId;
+        this.pgNo = pgNo;
+    }
+
+    /** @return the id of the index file associated with this PageId */
+    public int getTableId() {
+        return this.indexId;
+    }
+
+    /**
+     * @return the page number in the index file getTableId() associated with
+     *   this PageId
+     */
+    public int getPageNumber() {
+        return this.pgNo;
+    }
+
+    public int hashCode() {
+        return 31 * indexId + pgNo;
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof HashIndexPageId)) {
+            return false;
+        }
+        HashIndexPageId other = (HashIndexPageId) o;
+        return this.pgNo == other.pgNo && this.indexId == other.indexId;
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.
+     */
+    public int[] serialize() {
+        int data[] = new int[2];
+        data[0] = getTableId();
+        data[1] = getPageNumber();
+        return data;
+    }
+
+    public String toString() {
+        return "HashIndexPageId(" + indexId + ", " + pgNo + ")";
+    }
+}
@@ -0,0 +1,118 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * HashIndexScan is an access method that returns the tuples of a table whose
+ * indexed field equals a constant, by looking the constant up in the table's
+ * {@link HashIndexFile} and fetching only the pages that hold matches.
+ * It produces the same TupleDesc as a {@link SeqScan} over the table.
+ */
+public class HashIndexScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    private final Field key;
+
+    private Iterator<RecordId> ridIter;
+    private Tuple next = null;
+    private boolean open = false;
+
+    /**
+     * Creates a scan returning the tuples of tableid whose indexed field
+     * equals key.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan; it must have a hash index in the catalog.
+     * @param tableAlias
+     *            the alias of this table, used to prefix field names as in
+     *            {@link SeqScan#getTupleDesc}
+     * @param key
+     *            the value of the indexed field to look up
+     */
+    public HashIndexScan(TransactionId tid, int tableid, String tableAlias, Field key) {
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.key = key;
+    }
+
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    public Field getKey() {
+        return key;
+    }
+
+    /**
+     * @return the index of the indexed field, whose value is the key in
+     *         every returned tuple
+     */
+    public int getKeyField() {
+        return Database.getCatalog().getIndex(tableid).getKeyField();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        HashIndexFile index = Database.getCatalog().getIndex(tableid);
+        if (index == null) {
+            throw new DbException("table " + tableid + " has no hash index");
+        }
+        ridIter = index.lookup(tid, key).iterator();
+        next = null;
+        open = true;
+    }
+
+    public TupleDesc getTupleDesc() {
+        TupleDesc myTupleDesc = Database.getCatalog().getTupleDesc(tableid);
+        Type[] typeAr = new Type[myTupleDesc.numFields()];
+        String[] fieldAr = new String[myTupleDesc.numFields()];
+        for (int i = 0; i < myTupleDesc.numFields(); i++) {
+            typeAr[i] = myTupleDesc.getFieldType(i);
+            String oldFieldName = myTupleDesc.getFieldName(i) == null ? "null" : myTupleDesc.getFieldName(i);
+            String myTableAlias = tableAlias == null ? "null" : tableAlias;
+            fieldAr[i] = myTableAlias + "." + oldFieldName;
+        }
+        return new TupleDesc(typeAr, fieldAr);
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (!open) {
+            throw new IllegalStateException("Error: couldn't access the iterator without opening it");
+        }
+        while (next == null && ridIter.hasNext()) {
+            RecordId rid = ridIter.next();
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+            next = page.getTuple(rid.getTupleNumber());
+        }
+        return next != null;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (!hasNext()) {
+            throw new NoSuchElementException("Error, no more matching tuples");
+        }
+        Tuple result = next;
+        next = null;
+        return result;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        ridIter = null;
+        next = null;
+        open = false;
+    }
+}
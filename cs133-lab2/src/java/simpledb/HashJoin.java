@@ -0,0 +1,115 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * HashJoin is an in-memory equi-join. On open it reads the right (inner)
+ * child into a hash table keyed on its join field; each tuple of the left
+ * (outer) child then looks up its matches in the table. Like {@link Join},
+ * it returns the outer tuples in order, each followed by its matches, and
+ * each output tuple holds the fields of the outer tuple followed by the
+ * fields of the inner one.
+ */
+public class HashJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate p;
+    private DbIterator child1;
+    private DbIterator child2;
+    private TupleDesc td;
+
+    private transient HashMap<Field, ArrayList<Tuple>> table;
+    private transient Tuple tuple1;
+    private transient Iterator<Tuple> matches;
+
+    /**
+     * @param p
+     *            The predicate to use to join the children; its operator
+     *            must be EQUALS
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join, held in
+     *            memory while the join is open
+     * @throws IllegalArgumentException if the predicate is not an equality
+     */
+    public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("hash joins only support equality predicates");
+        }
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        child1.open();
+        child2.open();
+        table = new HashMap<Field, ArrayList<Tuple>>();
+        while (child2.hasNext()) {
+            Tuple t = child2.next();
+            Field key = t.getField(p.getField2());
+            ArrayList<Tuple> bucket = table.get(key);
+            if (bucket == null) {
+                bucket = new ArrayList<Tuple>(1);
+                table.put(key, bucket);
+            }
+            bucket.add(t);
+        }
+        child2.close();
+        tuple1 = null;
+        matches = null;
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        table = null;
+        tuple1 = null;
+        matches = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        tuple1 = null;
+        matches = null;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (matches != null && matches.hasNext()) {
+                return Join.merge(td, tuple1, matches.next());
+            }
+            if (!child1.hasNext()) {
+                return null;
+            }
+            tuple1 = child1.next();
+            ArrayList<Tuple> bucket = table.get(tuple1.getField(p.getField1()));
+            matches = bucket == null ? null : bucket.iterator();
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+}
@@ -18,6 +18,7 @@ public class HeapFile implements DbFile {
     private final File heapFile;
     private TupleDesc td;
     private final int pageSize = BufferPool.getPageSize();
+    private ZoneMap zoneMap;
     /**
      * Constructs a heap file backed by the specified file.
      * 
@@ -61,6 +62,19 @@ public class HeapFile implements DbFile {
         return this.td;
     }
 
+    /**
+     * Returns the zone map of this HeapFile, loading or building it the first
+     * time it is needed.
+     *
+     * @see ZoneMap
+     */
+    public synchronized ZoneMap getZoneMap() {
+        if (zoneMap == null) {
+            zoneMap = new ZoneMap(this);
+        }
+        return zoneMap;
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) throws IllegalArgumentException {
         long offset = pid.getPageNumber() * pageSize;
@@ -94,6 +108,7 @@ public class HeapFile implements DbFile {
         raf.seek(offset);
         raf.write(page.getPageData());
         raf.close();
+        getZoneMap().pageWritten((HeapPage) page);
     }
 
     /**
@@ -106,6 +121,7 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
+        ZoneMap zm = getZoneMap();
         ArrayList<Page> dirtyPages = new ArrayList<>();
         int n = numPages();
 
@@ -114,6 +130,7 @@ public class HeapFile implements DbFile {
             HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
             try {
                 page.insertTuple(t);
+                zm.tupleInserted(i, t);
                 dirtyPages.add(page);
                 return dirtyPages;
             } catch (DbException e) {
@@ -130,6 +147,7 @@ public class HeapFile implements DbFile {
         HeapPageId newPid = new HeapPageId(getId(), n);
         HeapPage newPage = (HeapPage) Database.getBufferPool().getPage(tid, newPid, Permissions.READ_WRITE);
         newPage.insertTuple(t);
+        zm.tupleInserted(n, t);
         dirtyPages.add(newPage);
         return dirtyPages;
     }
@@ -147,6 +165,7 @@ public class HeapFile implements DbFile {
         }
         HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
         page.deleteTuple(t);
+        getZoneMap().pageChanged(page);
         ArrayList<Page> dirtyPages = new ArrayList<>();
         dirtyPages.add(page);
         return dirtyPages;
@@ -154,14 +173,60 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
 
-    private class HeapFileIterator implements DbFileIterator{
+    /**
+     * Iterator over the tuples of a HeapFile. If constructed with predicates,
+     * pages the zone map proves cannot match are skipped without being read,
+     * and the predicates are evaluated on the page bytes so that only
+     * matching tuples are ever decoded. If constructed with a list of
+     * fields, it returns tuples narrowed to those fields and leaves the
+     * other fields undecoded.
+     */
+    class HeapFileIterator implements DbFileIterator{
         private int currPage = -1;
         private Iterator<Tuple> currIter = null;
         private final TransactionId tid;
+        private final Predicate[] preds;
+        private final PagePredicate[] pagePreds;
+        private final int[] fields;
+        private final TupleDesc projectedTd;
+        // pages [firstPage, endPage) are scanned; endPage -1 means to the end of the file
+        private final int firstPage;
+        private final int endPage;
+        private int pagesSkipped = 0;
         private Boolean open = false;
 
         HeapFileIterator(TransactionId tid){
+            this(tid, null, null);
+        }
+
+        HeapFileIterator(TransactionId tid, List<Predicate> preds, int[] fields){
+            this(tid, preds, fields, 0, -1);
+        }
+
+        HeapFileIterator(TransactionId tid, List<Predicate> preds, int[] fields, int firstPage, int endPage){
             this.tid = tid;
+            this.firstPage = firstPage;
+            this.endPage = endPage;
+            this.fields = fields;
+            this.projectedTd = fields == null ? null : projectTupleDesc(fields);
+            if (preds == null || preds.isEmpty()) {
+                this.preds = null;
+                this.pagePreds = null;
+            } else {
+                this.preds = preds.toArray(new Predicate[preds.size()]);
+                this.pagePreds = new PagePredicate[this.preds.length];
+                for (int i = 0; i < this.preds.length; i++) {
+                    pagePreds[i] = new PagePredicate(this.preds[i], td);
+                }
+            }
+        }
+
+        /**
+         * @return the number of pages skipped using the zone map since this
+         *         iterator was last opened
+         */
+        int pagesSkipped() {
+            return pagesSkipped;
         }
 
         private Iterator<Tuple> getTuples(int currPageNo) throws TransactionAbortedException, DbException{
@@ -173,13 +238,32 @@ public class HeapFile implements DbFile {
 
             Page curr_page = my_bp.getPage(tid, hpid, Permissions.READ_ONLY);
             HeapPage currPage = (HeapPage) curr_page;
-            return currPage.iterator();
+            if (fields != null) {
+                return currPage.iterator(pagePreds, fields, projectedTd);
+            }
+            return pagePreds == null ? currPage.iterator() : currPage.iterator(pagePreds);
+        }
+
+        /** @return true if the zone map shows page pageNo cannot match */
+        private boolean canSkip(ZoneMap zm, int pageNo) {
+            for (Predicate p : preds) {
+                if (!zm.mayMatch(pageNo, p)) {
+                    return true;
+                }
+            }
+            return false;
         }
 
         private void nextPage() throws TransactionAbortedException, DbException{
             currIter = null;
-            while (currPage+1 < numPages()){
+            ZoneMap zm = preds == null ? null : getZoneMap();
+            int end = endPage < 0 ? numPages() : Math.min(endPage, numPages());
+            while (currPage+1 < end){
                 currPage += 1;
+                if (zm != null && canSkip(zm, currPage)) {
+                    pagesSkipped++;
+                    continue;
+                }
                 currIter = getTuples(currPage);
                 if(currIter != null && currIter.hasNext()){
                     return;
@@ -189,7 +273,8 @@ public class HeapFile implements DbFile {
 
         public void open() throws DbException, TransactionAbortedException {
             currIter = null;
-            currPage = -1;
+            currPage = firstPage - 1;
+            pagesSkipped = 0;
             open = true;
             nextPage();
         }
@@ -220,6 +305,7 @@ public class HeapFile implements DbFile {
         public void close(){
             currPage = -1;
             currIter = null;
+            pagesSkipped = 0;
             open = false;
         }
 
@@ -230,5 +316,53 @@ public class HeapFile implements DbFile {
         return myIter;
     }
 
+    /**
+     * Returns an iterator over the tuples of this file that satisfy all of
+     * the specified predicates. The zone map is used to skip pages that
+     * cannot contain a match, and rejected tuples are never decoded.
+     */
+    HeapFileIterator iterator(TransactionId tid, List<Predicate> preds) {
+        return new HeapFileIterator(tid, preds, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that satisfy all of
+     * the specified predicates, narrowed to the specified fields. Fields
+     * that are not returned are never decoded.
+     *
+     * @param preds the predicates to apply, or null
+     * @param fields the indexes of the fields to return, in order
+     * @see #projectTupleDesc
+     */
+    HeapFileIterator iterator(TransactionId tid, List<Predicate> preds, int[] fields) {
+        return new HeapFileIterator(tid, preds, fields);
+    }
+
+    /**
+     * Like {@link #iterator(TransactionId, List, int[])}, but only scans
+     * pages fromPage (inclusive) to toPage (exclusive), so that disjoint
+     * page ranges of the file can be scanned independently.
+     *
+     * @param fields the indexes of the fields to return, or null for all
+     */
+    HeapFileIterator iterator(TransactionId tid, List<Predicate> preds, int[] fields,
+            int fromPage, int toPage) {
+        return new HeapFileIterator(tid, preds, fields, fromPage, toPage);
+    }
+
+    /**
+     * @return the TupleDesc of tuples of this file narrowed to the specified
+     *         fields
+     */
+    TupleDesc projectTupleDesc(int[] fields) {
+        Type[] types = new Type[fields.length];
+        String[] names = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            types[i] = td.getFieldType(fields[i]);
+            names[i] = td.getFieldName(fields[i]);
+        }
+        return new TupleDesc(types, names);
+    }
+
 }
 
@@ -18,6 +18,8 @@ public class HeapPage implements Page {
     final byte header[];
     final Tuple tuples[];
     final int numSlots;
+    /** The page as read from disk; tuples are decoded from it on first use. */
+    private final byte[] data;
     private TransactionId dTid = null;
 
     byte[] oldData;
@@ -35,6 +37,9 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * Tuples are not decoded here; each one is decoded from data the first
+     * time it is returned.
+     * <p>
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
@@ -43,22 +48,16 @@ public class HeapPage implements Page {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
+        this.data = data;
         DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
         for (int i=0; i<header.length; i++)
             header[i] = dis.readByte();
+        dis.close();
 
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
 
         setBeforeImage();
     }
@@ -67,8 +66,7 @@ public class HeapPage implements Page {
         @return the number of tuple slots on this page
      */
     private int getNumTuples() {        
-        double tpp = Math.floor((BufferPool.getPageSize()*8) / (td.getSizeInBytes() * 8 + 1));
-        return (int) tpp;
+        return numSlots(td);
     }
 
     /**
@@ -76,7 +74,67 @@ public class HeapPage implements Page {
      * @return the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      */
     private int getHeaderSize() {        
-        return (int) Math.ceil(getNumTuples() / 8.0);
+        return headerSize(td);
+    }
+
+    /**
+     * @return the number of tuple slots on a page holding tuples described by td
+     */
+    static int numSlots(TupleDesc td) {
+        double tpp = Math.floor((BufferPool.getPageSize()*8) / (td.getSizeInBytes() * 8 + 1));
+        return (int) tpp;
+    }
+
+    /**
+     * @return the number of header bytes on a page holding tuples described by td
+     */
+    static int headerSize(TupleDesc td) {
+        return (int) Math.ceil(numSlots(td) / 8.0);
+    }
+
+    /**
+     * Returns true if slot i is used in the serialized page data; lets callers
+     * inspect pages without constructing a HeapPage.
+     */
+    static boolean isSlotUsed(byte[] data, int i) {
+        return (data[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    /**
+     * Reads a big-endian int, as written by DataOutputStream, from the
+     * serialized page data.
+     */
+    static int readInt(byte[] data, int off) {
+        return ((data[off] & 0xff) << 24) | ((data[off + 1] & 0xff) << 16)
+                | ((data[off + 2] & 0xff) << 8) | (data[off + 3] & 0xff);
+    }
+
+    /**
+     * Reads a big-endian long, as written by DataOutputStream, from the
+     * serialized page data.
+     */
+    static long readLong(byte[] data, int off) {
+        return ((long) readInt(data, off) << 32) | (readInt(data, off + 4) & 0xffffffffL);
+    }
+
+    /** @return the offset of slot i in the serialized page data */
+    private int slotOffset(int i) {
+        return header.length + i * td.getSizeInBytes();
+    }
+
+    /**
+     * Returns the tuple in used slot i, decoding it from the page data if
+     * this is the first time it is needed.
+     */
+    private Tuple tupleAt(int i) {
+        Tuple t = tuples[i];
+        if (t == null) {
+            DataInputStream dis = new DataInputStream(
+                    new ByteArrayInputStream(data, slotOffset(i), td.getSizeInBytes()));
+            t = readNextTuple(dis, i);
+            tuples[i] = t;
+        }
+        return t;
     }
 
     /** Return a view of this page before it was modified
@@ -187,6 +245,16 @@ public class HeapPage implements Page {
                 continue;
             }
 
+            // non-empty slot that was never decoded
+            if (tuples[i] == null) {
+                try {
+                    dos.write(data, slotOffset(i), td.getSizeInBytes());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
+
             // non-empty slot
             for (int j=0; j<td.numFields(); j++) {
                 Field f = tuples[i].getField(j);
@@ -321,6 +389,17 @@ public class HeapPage implements Page {
         return (header[byteIndex] & mask) != 0;
     }
 
+    /**
+     * Returns the tuple stored in the specified slot, or null if the slot is
+     * empty or out of range.
+     */
+    public Tuple getTuple(int i) {
+        if (i < 0 || i >= numSlots || !isSlotUsed(i)) {
+            return null;
+        }
+        return tupleAt(i);
+    }
+
     /**
      * Abstraction to fill or clear a slot on this page.
      * @param i The slot to mark as used or not
@@ -342,13 +421,180 @@ public class HeapPage implements Page {
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
-        List<Tuple> present = new ArrayList<>();
-        for (int i = 0; i < tuples.length; i++) {
-            if (isSlotUsed(i) && tuples[i] != null) {
-                present.add(tuples[i]);
+        return new SlotIterator(null, null, null);
+    }
+
+    /**
+     * @return an iterator over the tuples on this page satisfying all of the
+     * specified predicates. Slots that have not been decoded yet are tested
+     * against the page data, so rejected slots are never decoded.
+     */
+    Iterator<Tuple> iterator(PagePredicate[] preds) {
+        return new SlotIterator(preds, null, null);
+    }
+
+    /**
+     * @return an iterator over the tuples on this page satisfying all of the
+     * specified predicates (which may be null), narrowed to the specified
+     * fields. Fields that are not returned are never decoded.
+     * @param fields the indexes of the fields to return, in order
+     * @param projectedTd the TupleDesc of the returned tuples
+     */
+    Iterator<Tuple> iterator(PagePredicate[] preds, int[] fields, TupleDesc projectedTd) {
+        return new SlotIterator(preds, fields, projectedTd);
+    }
+
+    /**
+     * Returns a new tuple holding the specified fields of the tuple in used
+     * slot i. If the slot has not been decoded, only those fields are read
+     * from the page data, at the specified offsets within the slot.
+     */
+    private Tuple project(int i, int[] fields, int[] offsets, TupleDesc projectedTd) {
+        Tuple out = new Tuple(projectedTd);
+        out.setRecordId(new RecordId(pid, i));
+        Tuple t = tuples[i];
+        if (t != null) {
+            for (int j = 0; j < fields.length; j++) {
+                out.setField(j, t.getField(fields[j]));
+            }
+            return out;
+        }
+        int slotOffset = slotOffset(i);
+        for (int j = 0; j < fields.length; j++) {
+            int off = slotOffset + offsets[j];
+            Type type = td.getFieldType(fields[j]);
+            if (type == Type.INT_TYPE) {
+                out.setField(j, new IntField(readInt(data, off)));
+                continue;
+            }
+            if (type == Type.LONG_TYPE) {
+                out.setField(j, new LongField(readLong(data, off)));
+                continue;
             }
+            try {
+                out.setField(j, type.parse(new DataInputStream(
+                        new ByteArrayInputStream(data, off, type.getSizeInBytes()))));
+            } catch (java.text.ParseException e) {
+                e.printStackTrace();
+                throw new NoSuchElementException("parsing error!");
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Copies the tuples in the used slots from fromSlot on into the column
+     * vectors of batch, after the rows it already holds. Fields of slots that
+     * have not been decoded are read straight from the page data, so no
+     * Tuple is built. Stops when the batch is full.
+     *
+     * @return the slot to continue from, or the number of slots on this page
+     *         if every slot was copied
+     */
+    int fillBatch(int fromSlot, ColumnBatch batch) {
+        int[][] ints = batch.intColumns();
+        long[][] longs = batch.longColumns();
+        String[][] strings = batch.stringColumns();
+        int n = batch.size();
+        int i = fromSlot;
+        for (; i < numSlots && n < ColumnBatch.CAPACITY; i++) {
+            if (!isSlotUsed(i)) {
+                continue;
+            }
+            Tuple t = tuples[i];
+            int off = slotOffset(i);
+            for (int c = 0; c < td.numFields(); c++) {
+                if (t != null) {
+                    Field f = t.getField(c);
+                    if (ints[c] != null) {
+                        ints[c][n] = ((IntField) f).getValue();
+                    } else if (longs[c] != null) {
+                        longs[c][n] = ((LongField) f).getValue();
+                    } else {
+                        strings[c][n] = ((StringField) f).getValue();
+                    }
+                } else if (ints[c] != null) {
+                    ints[c][n] = readInt(data, off);
+                } else if (longs[c] != null) {
+                    longs[c][n] = readLong(data, off);
+                } else {
+                    strings[c][n] = new String(data, off + 4, readInt(data, off));
+                }
+                off += td.getFieldType(c).getSizeInBytes();
+            }
+            n++;
+        }
+        batch.setSize(n);
+        return i;
+    }
+
+    /**
+     * Iterator over the slots that were used when it was created and still
+     * are, decoding each returned tuple (or just its projected fields)
+     * lazily.
+     */
+    private class SlotIterator implements Iterator<Tuple> {
+        private final byte[] used = header.clone();
+        private final PagePredicate[] preds;
+        private final int[] fields;
+        private final TupleDesc projectedTd;
+        private final int[] offsets;
+        private int next = -1;
+
+        SlotIterator(PagePredicate[] preds, int[] fields, TupleDesc projectedTd) {
+            this.preds = preds;
+            this.fields = fields;
+            this.projectedTd = projectedTd;
+            if (fields == null) {
+                this.offsets = null;
+            } else {
+                this.offsets = new int[fields.length];
+                for (int j = 0; j < fields.length; j++) {
+                    for (int k = 0; k < fields[j]; k++) {
+                        offsets[j] += td.getFieldType(k).getSizeInBytes();
+                    }
+                }
+            }
+            advance();
+        }
+
+        private void advance() {
+            for (next++; next < numSlots; next++) {
+                if (isSlotUsed(used, next) && isSlotUsed(next) && matches(next)) {
+                    return;
+                }
+            }
+        }
+
+        private boolean matches(int i) {
+            if (preds == null) {
+                return true;
+            }
+            Tuple t = tuples[i];
+            for (PagePredicate p : preds) {
+                if (t != null ? !p.matches(t) : !p.matches(data, slotOffset(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public boolean hasNext() {
+            return next < numSlots;
+        }
+
+        public Tuple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = fields == null ? tupleAt(next) : project(next, fields, offsets, projectedTd);
+            advance();
+            return t;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
         }
-        return present.iterator();
     }
 
 }
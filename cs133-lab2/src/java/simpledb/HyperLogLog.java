@@ -0,0 +1,183 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * HyperLogLog estimates the number of distinct fields added to it in a
+ * fixed amount of memory. It starts in a sparse mode that keeps the 64-bit
+ * hashes of up to SPARSE_LIMIT distinct values, so small groups stay small
+ * and are counted exactly (up to hash collisions), and switches to
+ * 2^PRECISION one-byte registers after that, for a standard error of about
+ * 1.04 / sqrt(2^PRECISION), or 1.6%.
+ * <p>
+ * Sketches are mergeable: merging two sketches gives the sketch of the union
+ * of their inputs.
+ */
+class HyperLogLog implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final int PRECISION = 12;
+    private static final int REGISTERS = 1 << PRECISION;
+    private static final int SPARSE_LIMIT = 128;
+
+    /** Distinct hashes while sparse, or null once dense. */
+    private long[] sparse = new long[8];
+    private int sparseSize = 0;
+    private byte[] registers = null;
+
+    /** @return a 64-bit hash of f that depends on its whole value */
+    static long hash(Field f) {
+        if (f instanceof IntField) {
+            return hash(((IntField) f).getValue());
+        }
+        if (f instanceof LongField) {
+            return hash(((LongField) f).getValue());
+        }
+        return hash(((StringField) f).getValue());
+    }
+
+    /** @return a 64-bit hash of the STRING value s */
+    static long hash(String s) {
+        // FNV-1a over the characters of the string
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return hash(h);
+    }
+
+    /** @return a 64-bit hash of the INT or LONG value v */
+    static long hash(long v) {
+        // MurmurHash3 finalizer, to spread the bits of small integers
+        long h = v ^ (v >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /** Add a value to the sketch. */
+    void add(Field f) {
+        addHash(hash(f));
+    }
+
+    /** Add a STRING value to the sketch, without boxing it in a Field. */
+    void add(String s) {
+        addHash(hash(s));
+    }
+
+    /** Add an INT or LONG value to the sketch, without boxing it in a Field. */
+    void add(long v) {
+        addHash(hash(v));
+    }
+
+    private void addHash(long h) {
+        if (registers != null) {
+            int idx = (int) (h >>> (64 - PRECISION));
+            // position of the first 1 bit in the remaining bits, from 1
+            int rank = Long.numberOfLeadingZeros((h << PRECISION) | (1L << (PRECISION - 1))) + 1;
+            if (rank > registers[idx]) {
+                registers[idx] = (byte) rank;
+            }
+            return;
+        }
+        for (int i = 0; i < sparseSize; i++) {
+            if (sparse[i] == h) {
+                return;
+            }
+        }
+        if (sparseSize == SPARSE_LIMIT) {
+            toDense();
+            addHash(h);
+            return;
+        }
+        if (sparseSize == sparse.length) {
+            sparse = java.util.Arrays.copyOf(sparse, sparse.length * 2);
+        }
+        sparse[sparseSize++] = h;
+    }
+
+    private void toDense() {
+        registers = new byte[REGISTERS];
+        long[] hashes = sparse;
+        int n = sparseSize;
+        sparse = null;
+        sparseSize = 0;
+        for (int i = 0; i < n; i++) {
+            addHash(hashes[i]);
+        }
+    }
+
+    /** Merge other into this sketch, which then covers both inputs. */
+    void merge(HyperLogLog other) {
+        if (other.registers == null) {
+            for (int i = 0; i < other.sparseSize; i++) {
+                addHash(other.sparse[i]);
+            }
+            return;
+        }
+        if (registers == null) {
+            toDense();
+        }
+        for (int i = 0; i < REGISTERS; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    /**
+     * @return the estimated number of distinct values added, using Ertl's
+     *         improved estimator, which unlike the original HyperLogLog
+     *         estimator needs no bias correction between the small and large
+     *         cardinality ranges
+     */
+    long estimate() {
+        if (registers == null) {
+            return sparseSize;
+        }
+        int q = 64 - PRECISION;
+        int[] counts = new int[q + 2];
+        for (byte r : registers) {
+            counts[r]++;
+        }
+        double m = REGISTERS;
+        double z = m * tau(1 - counts[q + 1] / m);
+        for (int k = q; k >= 1; k--) {
+            z = 0.5 * (z + counts[k]);
+        }
+        z += m * sigma(counts[0] / m);
+        return Math.round(m * m / (2 * Math.log(2)) / z);
+    }
+
+    private static double sigma(double x) {
+        if (x == 1) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double y = 1, z = x, prev;
+        do {
+            x *= x;
+            prev = z;
+            z += x * y;
+            y += y;
+        } while (z != prev);
+        return z;
+    }
+
+    private static double tau(double x) {
+        if (x == 0 || x == 1) {
+            return 0;
+        }
+        double y = 1, z = 1 - x, prev;
+        do {
+            x = Math.sqrt(x);
+            prev = z;
+            y *= 0.5;
+            z -= (1 - x) * (1 - x) * y;
+        } while (z != prev);
+        return z / 3;
+    }
+}
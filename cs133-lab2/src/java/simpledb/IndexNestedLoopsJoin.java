@@ -0,0 +1,151 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopsJoin is an equi-join whose right (inner) child is a scan
+ * of a table with a {@link HashIndexFile} on the inner join field. Instead
+ * of scanning the table, each tuple of the left (outer) child looks up its
+ * matches in the index and fetches only the pages that hold them; the
+ * scan's predicates and projection are applied to the fetched tuples. Like
+ * {@link Join}, it returns the outer tuples in order, each followed by its
+ * matches.
+ */
+public class IndexNestedLoopsJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate p;
+    private DbIterator child1;
+    private SeqScan child2;
+    private TupleDesc td;
+    private TupleDesc innerTd;
+
+    private transient HashIndexFile index;
+    private transient List<Predicate> preds;
+    private transient int[] projection;
+    private transient Tuple tuple1;
+    private transient Iterator<RecordId> matches;
+
+    /**
+     * @param p
+     *            The predicate to use to join the children; its operator
+     *            must be EQUALS
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Scan of the right(inner) relation to join, whose table
+     *            must have a hash index on the field p.getField2()
+     * @throws IllegalArgumentException if the predicate is not an equality,
+     *             or the inner join field is not indexed
+     */
+    public IndexNestedLoopsJoin(JoinPredicate p, DbIterator child1, SeqScan child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("index joins only support equality predicates");
+        }
+        if (!canProbe(child2, p.getField2())) {
+            throw new IllegalArgumentException("join field of " + child2.getAlias() + " has no hash index");
+        }
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.innerTd = child2.getTupleDesc();
+        this.td = TupleDesc.merge(child1.getTupleDesc(), innerTd);
+    }
+
+    /**
+     * @return whether field of the tuples returned by scan is the key of a
+     *         hash index on the scanned table
+     */
+    static boolean canProbe(SeqScan scan, int field) {
+        HashIndexFile index = Database.getCatalog().getIndex(scan.getTableId());
+        if (index == null)
+            return false;
+        int[] projection = scan.getProjection();
+        int tableField = projection == null ? field : projection[field];
+        return index.getKeyField() == tableField;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        child1.open();
+        index = Database.getCatalog().getIndex(child2.getTableId());
+        if (index == null) {
+            throw new DbException("table " + child2.getTableName() + " has no hash index");
+        }
+        preds = child2.getPredicates();
+        projection = child2.getProjection();
+        tuple1 = null;
+        matches = null;
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        index = null;
+        tuple1 = null;
+        matches = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        tuple1 = null;
+        matches = null;
+    }
+
+    /** @return the tuple of the inner table at rid, as the inner scan returns it, or null if the scan filters it out */
+    private Tuple fetch(RecordId rid) throws DbException, TransactionAbortedException {
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(child2.getTransactionId(),
+                rid.getPageId(), Permissions.READ_ONLY);
+        Tuple t = page.getTuple(rid.getTupleNumber());
+        for (Predicate pred : preds) {
+            if (!pred.filter(t))
+                return null;
+        }
+        if (projection == null)
+            return t;
+        Tuple projected = new Tuple(innerTd);
+        projected.setRecordId(t.getRecordId());
+        for (int i = 0; i < projection.length; i++) {
+            projected.setField(i, t.getField(projection[i]));
+        }
+        return projected;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            while (matches != null && matches.hasNext()) {
+                Tuple tuple2 = fetch(matches.next());
+                if (tuple2 != null)
+                    return Join.merge(td, tuple1, tuple2);
+            }
+            if (!child1.hasNext()) {
+                return null;
+            }
+            tuple1 = child1.next();
+            matches = index.lookup(child2.getTransactionId(), tuple1.getField(p.getField1())).iterator();
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = (SeqScan) children[1];
+        this.innerTd = child2.getTupleDesc();
+        this.td = TupleDesc.merge(child1.getTupleDesc(), innerTd);
+    }
+}
@@ -0,0 +1,173 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * IntAggTable is an open-addressing hash table from INT group keys to the
+ * accumulators of an INT or LONG aggregate (min, max, sum and count), stored in
+ * parallel primitive arrays. Merging a value costs one probe sequence and
+ * allocates nothing; the arrays are only reallocated when the table grows.
+ * <p>
+ * Groups are addressed by slot: {@link #capacity()} slots, of which those
+ * for which {@link #isUsed} is true hold a group.
+ */
+class IntAggTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int[] keys;
+    private boolean[] used;
+    private long[] mins;
+    private long[] maxs;
+    private long[] sums;
+    private int[] counts;
+    private int size;
+
+    IntAggTable() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        used = new boolean[capacity];
+        mins = new long[capacity];
+        maxs = new long[capacity];
+        sums = new long[capacity];
+        counts = new int[capacity];
+        Arrays.fill(mins, Long.MAX_VALUE);
+        Arrays.fill(maxs, Long.MIN_VALUE);
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the slot holding the group of key, creating the group if it
+     *         does not exist yet
+     */
+    private int slotFor(int key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (used[slot]) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if ((size + 1) * 2 > keys.length) {
+            grow();
+            return slotFor(key);
+        }
+        used[slot] = true;
+        keys[slot] = key;
+        size++;
+        return slot;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        boolean[] oldUsed = used;
+        long[] oldMins = mins, oldMaxs = maxs, oldSums = sums;
+        int[] oldCounts = counts;
+        allocate(oldKeys.length * 2);
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (!oldUsed[i]) {
+                continue;
+            }
+            int slot = hash(oldKeys[i]) & mask;
+            while (used[slot]) {
+                slot = (slot + 1) & mask;
+            }
+            used[slot] = true;
+            keys[slot] = oldKeys[i];
+            mins[slot] = oldMins[i];
+            maxs[slot] = oldMaxs[i];
+            sums[slot] = oldSums[i];
+            counts[slot] = oldCounts[i];
+        }
+    }
+
+    /** @return true if key has a group */
+    boolean contains(int key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (used[slot]) {
+            if (keys[slot] == key) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /** Merge value into the group of key. */
+    void merge(int key, long value) {
+        int slot = slotFor(key);
+        if (value < mins[slot]) mins[slot] = value;
+        if (value > maxs[slot]) maxs[slot] = value;
+        sums[slot] += value;
+        counts[slot]++;
+    }
+
+    /**
+     * Merge every group of other into this table, combining the
+     * accumulators of groups present in both.
+     */
+    void combine(IntAggTable other) {
+        for (int i = 0; i < other.keys.length; i++) {
+            if (!other.used[i]) {
+                continue;
+            }
+            int slot = slotFor(other.keys[i]);
+            if (other.mins[i] < mins[slot]) mins[slot] = other.mins[i];
+            if (other.maxs[i] > maxs[slot]) maxs[slot] = other.maxs[i];
+            sums[slot] += other.sums[i];
+            counts[slot] += other.counts[i];
+        }
+    }
+
+    /** Count one row for the group of key, without a value. */
+    void countRow(int key) {
+        counts[slotFor(key)]++;
+    }
+
+    /** @return the number of groups */
+    int size() {
+        return size;
+    }
+
+    /** @return the number of slots */
+    int capacity() {
+        return keys.length;
+    }
+
+    boolean isUsed(int slot) {
+        return used[slot];
+    }
+
+    int keyAt(int slot) {
+        return keys[slot];
+    }
+
+    long minAt(int slot) {
+        return mins[slot];
+    }
+
+    long maxAt(int slot) {
+        return maxs[slot];
+    }
+
+    long sumAt(int slot) {
+        return sums[slot];
+    }
+
+    int countAt(int slot) {
+        return counts[slot];
+    }
+}
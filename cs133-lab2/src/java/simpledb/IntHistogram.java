@@ -0,0 +1,254 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * An equi-depth histogram over a single INT or LONG field: each bucket
+ * covers a range of values holding about the same number of tuples, so
+ * skewed fields get narrow buckets where their values are dense.
+ * <p>
+ * Values are added one at a time while the table is scanned. The histogram
+ * keeps the exact count, minimum and maximum, a {@link HyperLogLog} sketch
+ * of the distinct values, and a uniform reservoir sample of up to
+ * SAMPLE_SIZE values, from which the bucket boundaries are computed the
+ * first time an estimate is requested. Adding a value allocates nothing.
+ */
+public class IntHistogram implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The largest number of values the bucket boundaries are computed from. */
+    static final int SAMPLE_SIZE = 20000;
+
+    private final int buckets;
+    private long count = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+    private final HyperLogLog distinct = new HyperLogLog();
+    private long[] sample = new long[64];
+    private int sampleSize = 0;
+    /** Fixed seed, so that the same table always gives the same histogram. */
+    private final Random random = new Random(0x5eed);
+
+    // the buckets, computed lazily from the sample: bucket i holds the
+    // values from los[i] to his[i], a fraction fractions[i] of all values,
+    // of which there are about ndvs[i] distinct ones
+    private transient long[] los;
+    private transient long[] his;
+    private transient double[] fractions;
+    private transient double[] ndvs;
+
+    /**
+     * Create a new IntHistogram.
+     *
+     * @param buckets The number of buckets to split the input values into.
+     */
+    public IntHistogram(int buckets) {
+        if (buckets <= 0) {
+            throw new IllegalArgumentException("buckets must be positive");
+        }
+        this.buckets = buckets;
+    }
+
+    /**
+     * Add a value to the set of values that you are keeping a histogram of.
+     * @param v Value to add to the histogram
+     */
+    public void addValue(long v) {
+        count++;
+        if (v < min) min = v;
+        if (v > max) max = v;
+        distinct.add(v);
+        if (sampleSize < SAMPLE_SIZE) {
+            if (sampleSize == sample.length) {
+                sample = Arrays.copyOf(sample, Math.min(sample.length * 2, SAMPLE_SIZE));
+            }
+            sample[sampleSize++] = v;
+        } else {
+            // reservoir sampling: v replaces a sampled value with
+            // probability SAMPLE_SIZE / count
+            long r = (long) (random.nextDouble() * count);
+            if (r < SAMPLE_SIZE) {
+                sample[(int) r] = v;
+            }
+        }
+        los = null;
+    }
+
+    /** @return the number of values added */
+    public long count() {
+        return count;
+    }
+
+    /** @return the smallest value added, or Long.MAX_VALUE if there is none */
+    public long getMin() {
+        return min;
+    }
+
+    /** @return the largest value added, or Long.MIN_VALUE if there is none */
+    public long getMax() {
+        return max;
+    }
+
+    /** @return the estimated number of distinct values added */
+    public long numDistinct() {
+        return distinct.estimate();
+    }
+
+    /** @return the number of values the buckets are computed from */
+    int sampleSize() {
+        return sampleSize;
+    }
+
+    /** Split the sorted sample into buckets of about the same size. */
+    private void build() {
+        long[] sorted = Arrays.copyOf(sample, sampleSize);
+        Arrays.sort(sorted);
+        int n = Math.min(buckets, Math.max(sorted.length, 1));
+        los = new long[n];
+        his = new long[n];
+        fractions = new double[n];
+        ndvs = new double[n];
+        long totalDistinct = Math.max(1, numDistinct());
+        int start = 0;
+        int b = 0;
+        while (start < sorted.length) {
+            int end = (int) ((long) sorted.length * (b + 1) / n);
+            if (end <= start) {
+                end = start + 1;
+            }
+            // keep all copies of a value in one bucket
+            while (end < sorted.length && sorted[end] == sorted[end - 1]) {
+                end++;
+            }
+            int sampleDistinct = 1;
+            for (int i = start + 1; i < end; i++) {
+                if (sorted[i] != sorted[i - 1]) {
+                    sampleDistinct++;
+                }
+            }
+            los[b] = sorted[start];
+            his[b] = sorted[end - 1];
+            fractions[b] = (double) (end - start) / sorted.length;
+            double width = (double) his[b] - los[b] + 1;
+            // a sample misses rare values, so also scale the total distinct
+            // count by the share of the values in this bucket
+            ndvs[b] = Math.min(width, Math.max(sampleDistinct, totalDistinct * fractions[b]));
+            start = end;
+            b++;
+        }
+        if (b < n) {
+            los = Arrays.copyOf(los, b);
+            his = Arrays.copyOf(his, b);
+            fractions = Arrays.copyOf(fractions, b);
+            ndvs = Arrays.copyOf(ndvs, b);
+        }
+    }
+
+    /** @return the estimated fraction of values less than v */
+    private double fractionBelow(long v) {
+        double f = 0;
+        for (int b = 0; b < los.length; b++) {
+            if (v > his[b]) {
+                f += fractions[b];
+            } else if (v > los[b]) {
+                f += fractions[b] * ((double) v - los[b]) / ((double) his[b] - los[b] + 1);
+            }
+        }
+        return f;
+    }
+
+    /** @return the estimated fraction of values equal to v */
+    private double fractionEqual(long v) {
+        double f = 0;
+        for (int b = 0; b < los.length; b++) {
+            if (v >= los[b] && v <= his[b]) {
+                f += fractions[b] / ndvs[b];
+            }
+        }
+        return f;
+    }
+
+    /**
+     * Estimate the selectivity of a particular predicate and operand on this
+     * table.
+     *
+     * For example, if "op" is "GREATER_THAN" and "v" is 5, return your
+     * estimate of the fraction of elements that are greater than 5.
+     *
+     * @param op Operator
+     * @param v Value
+     * @return Predicted selectivity of this particular operator and value
+     */
+    public double estimateSelectivity(Predicate.Op op, long v) {
+        if (count == 0) {
+            return 0;
+        }
+        if (los == null) {
+            build();
+        }
+        double s;
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            s = fractionEqual(v);
+            break;
+        case NOT_EQUALS:
+            s = 1 - fractionEqual(v);
+            break;
+        case LESS_THAN:
+            s = fractionBelow(v);
+            break;
+        case LESS_THAN_OR_EQ:
+            s = fractionBelow(v) + fractionEqual(v);
+            break;
+        case GREATER_THAN:
+            s = 1 - fractionBelow(v) - fractionEqual(v);
+            break;
+        case GREATER_THAN_OR_EQ:
+            s = 1 - fractionBelow(v);
+            break;
+        default:
+            throw new IllegalArgumentException("unsupported operator " + op);
+        }
+        return Math.max(0, Math.min(1, s));
+    }
+
+    /**
+     * @return the average selectivity of op over the values of this
+     *         histogram, for predicates whose operand is not known
+     */
+    public double avgSelectivity(Predicate.Op op) {
+        if (count == 0) {
+            return 0;
+        }
+        double eq = 1.0 / Math.max(1, numDistinct());
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return eq;
+        case NOT_EQUALS:
+            return 1 - eq;
+        default:
+            // half of the other values are on either side
+            return (1 - eq) / 2 + (op == Predicate.Op.LESS_THAN_OR_EQ
+                    || op == Predicate.Op.GREATER_THAN_OR_EQ ? eq : 0);
+        }
+    }
+
+    /**
+     * @return A string describing this histogram, for debugging purposes
+     */
+    public String toString() {
+        if (los == null && count > 0) {
+            build();
+        }
+        StringBuilder sb = new StringBuilder("IntHistogram(count=" + count + ", distinct=" + numDistinct());
+        for (int b = 0; los != null && b < los.length; b++) {
+            sb.append(String.format(", [%d..%d] %.3f", los[b], his[b], fractions[b]));
+        }
+        return sb.append(')').toString();
+    }
+}
@@ -4,7 +4,8 @@ import java.util.*;
 
 
 /**
- * Computes some aggregate over a set of IntFields.
+ * Computes some aggregate over a set of IntFields or LongFields. Values are
+ * accumulated as longs, so sums of INT fields do not overflow.
  */
 public class IntegerAggregator implements Aggregator {
 
@@ -14,26 +15,42 @@ public class IntegerAggregator implements Aggregator {
     private Type gbfieldtype;
     private int afield;
     private Op what;
+    /** The type of the aggregate value in result tuples. */
+    private final Type resultType;
+    /** The largest value of the aggregate field's type, where MIN starts. */
+    private final long maxValue;
+    /** Groups keyed by a STRING field, or the single group if there is no grouping. */
     private final HashMap<Field, Stat> groups;
+    /** Groups keyed by an INT field; null for other groupings. */
+    private final IntAggTable intGroups;
 
 
 
     private class Stat {
-        private int MIN, MAX, SUM, COUNT;
+        private long MIN, MAX, SUM;
+        private int COUNT;
 
         public Stat() {
-            MIN = Integer.MAX_VALUE;
-            MAX = Integer.MIN_VALUE;
+            MIN = maxValue;
+            MAX = -maxValue - 1;
             SUM = 0;
             COUNT = 0;
         }
 
-        public void merge(int value) {
+        public void merge(long value) {
             if (value < MIN) MIN = value;
             if (value > MAX) MAX = value;
             SUM += value;
             COUNT++;
         }
+
+        /** Merge the partial result of another part of the input. */
+        public void merge(Stat other) {
+            if (other.MIN < MIN) MIN = other.MIN;
+            if (other.MAX > MAX) MAX = other.MAX;
+            SUM += other.SUM;
+            COUNT += other.COUNT;
+        }
     }
     /**
      * Aggregate constructor
@@ -48,14 +65,32 @@ public class IntegerAggregator implements Aggregator {
      *            the 0-based index of the aggregate field in the tuple
      * @param what
      *            the aggregation operator
+     * @throws IllegalArgumentException if what is an approximate aggregate,
+     *             which {@link MultiAggregator} computes
      */
 
     public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
+        this(gbfield, gbfieldtype, afield, Type.INT_TYPE, what);
+    }
+
+    /**
+     * Aggregate constructor for an aggregate field of type afieldtype, which
+     * is INT_TYPE or LONG_TYPE.
+     *
+     * @see #IntegerAggregator(int, Type, int, Op)
+     */
+    public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Type afieldtype, Op what) {
+        if (what.isSketch()) {
+            throw new IllegalArgumentException(what + " is not supported");
+        }
         this.gbfield = gbfield;
         this.gbfieldtype = gbfieldtype;
         this.afield = afield;
         this.what = what;
+        this.resultType = what.resultType(afieldtype);
+        this.maxValue = afieldtype == Type.LONG_TYPE ? Long.MAX_VALUE : Integer.MAX_VALUE;
         this.groups = new HashMap<>();
+        this.intGroups = gbfieldtype == Type.INT_TYPE && gbfield != NO_GROUPING ? new IntAggTable() : null;
         if (gbfield == NO_GROUPING) {
             groups.put(null, new Stat());
         }
@@ -70,37 +105,92 @@ public class IntegerAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         if (gbfield == NO_GROUPING) {
-            groups.get(null).merge(((IntField) tup.getField(afield)).getValue());
+            groups.get(null).merge(LongField.valueOf(tup.getField(afield)));
+            return;
+        }
+
+        long value = LongField.valueOf(tup.getField(afield));
+        if (intGroups != null) {
+            intGroups.merge(((IntField) tup.getField(gbfield)).getValue(), value);
             return;
         }
 
         Field key = tup.getField(gbfield);
-        if(!groups.containsKey(key)){
-            groups.put(key, new Stat());
-            groups.get(key).merge(((IntField) tup.getField(afield)).getValue());
-        } else{
-            groups.get(key).merge(((IntField) tup.getField(afield)).getValue());
+        Stat stat = groups.get(key);
+        if (stat == null) {
+            stat = new Stat();
+            groups.put(key, stat);
         }
+        stat.merge(value);
+    }
+
+    private Field getStat(Stat stat) {
+        return getStat(stat.MIN, stat.MAX, stat.SUM, stat.COUNT);
+    }
+
+    private Field getStat(long min, long max, long sum, int count) {
+        return toField(resultType, getValue(min, max, sum, count));
     }
 
-    private int getStat(Stat stat) {
+    /**
+     * @return a field of the specified INT or LONG type holding v, which
+     *         must fit in the type
+     */
+    static Field toField(Type type, long v) {
+        return type == Type.LONG_TYPE ? new LongField(v) : new IntField((int) v);
+    }
+
+    private long getValue(long min, long max, long sum, int count) {
         switch (what) {
             case MIN:
-                return stat.MIN;
+                return min;
             case MAX:
-                return stat.MAX;
+                return max;
             case SUM:
-                return stat.SUM;
+                return sum;
             case COUNT:
-                return stat.COUNT;
+                return count;
             case AVG:
-                return stat.SUM / stat.COUNT;
+                return sum / count;
             default:
                 throw new IllegalStateException("Invalid operation");
         }
     }
+    public void mergePartial(Aggregator partial) {
+        if (!(partial instanceof IntegerAggregator)) {
+            throw new IllegalArgumentException("cannot merge " + partial.getClass().getSimpleName());
+        }
+        IntegerAggregator other = (IntegerAggregator) partial;
+        if (intGroups != null) {
+            intGroups.combine(other.intGroups);
+        }
+        for (Map.Entry<Field, Stat> entry : other.groups.entrySet()) {
+            Stat stat = groups.get(entry.getKey());
+            if (stat == null) {
+                stat = new Stat();
+                groups.put(entry.getKey(), stat);
+            }
+            stat.merge(entry.getValue());
+        }
+    }
+
+    public int numGroups() {
+        return groups.size() + (intGroups != null ? intGroups.size() : 0);
+    }
+
+    public boolean hasGroup(Tuple tup) {
+        if (gbfield == NO_GROUPING) {
+            return true;
+        }
+        if (intGroups != null) {
+            return intGroups.contains(((IntField) tup.getField(gbfield)).getValue());
+        }
+        return groups.containsKey(tup.getField(gbfield));
+    }
+
     /**
-     * Returns a DbIterator over group aggregate results.
+     * Returns a DbIterator over group aggregate results. The result tuples
+     * are created as they are returned rather than all at once.
      * 
      * @return a DbIterator whose tuples are the pair (groupVal, aggregateVal)
      *         if using group, or a single (aggregateVal) if no grouping. The
@@ -108,27 +198,84 @@ public class IntegerAggregator implements Aggregator {
      *         the constructor.
      */
     public DbIterator iterator() {
-        List<Tuple> tuples = new ArrayList<>();
-
         TupleDesc td;
         if (gbfield == NO_GROUPING) {
-            td = new TupleDesc(new Type[] {Type.INT_TYPE});
+            td = new TupleDesc(new Type[] {resultType});
         } else{
-            td = new TupleDesc(new Type[] {gbfieldtype, Type.INT_TYPE});
+            td = new TupleDesc(new Type[] {gbfieldtype, resultType});
+        }
+        return new ResultIterator(td);
+    }
+
+    /**
+     * Returns the groups of intGroups in slot order, then those of groups.
+     */
+    private class ResultIterator implements DbIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TupleDesc td;
+        private int slot;
+        private Iterator<Map.Entry<Field, Stat>> entries;
+
+        ResultIterator(TupleDesc td) {
+            this.td = td;
+        }
+
+        public void open() {
+            slot = 0;
+            entries = groups.entrySet().iterator();
         }
-        
-        for (Map.Entry<Field, Stat> entry : groups.entrySet()) {
+
+        private void skipUnusedSlots() {
+            if (intGroups == null) {
+                return;
+            }
+            while (slot < intGroups.capacity() && !intGroups.isUsed(slot)) {
+                slot++;
+            }
+        }
+
+        public boolean hasNext() {
+            if (entries == null) throw new IllegalStateException("iterator not open");
+            skipUnusedSlots();
+            return (intGroups != null && slot < intGroups.capacity()) || entries.hasNext();
+        }
+
+        public Tuple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
             Tuple tuple = new Tuple(td);
+            if (intGroups != null && slot < intGroups.capacity()) {
+                tuple.setField(0, new IntField(intGroups.keyAt(slot)));
+                tuple.setField(1, getStat(intGroups.minAt(slot), intGroups.maxAt(slot),
+                        intGroups.sumAt(slot), intGroups.countAt(slot)));
+                slot++;
+                return tuple;
+            }
+            Map.Entry<Field, Stat> entry = entries.next();
             if (gbfield == NO_GROUPING) {
-                tuple.setField(0, new IntField(getStat(entry.getValue())));
+                tuple.setField(0, getStat(entry.getValue()));
             } else{
                 tuple.setField(0, entry.getKey());
-                tuple.setField(1, new IntField(getStat(entry.getValue())));
+                tuple.setField(1, getStat(entry.getValue()));
             }
-            tuples.add(tuple);
+            return tuple;
+        }
+
+        public void rewind() {
+            close();
+            open();
         }
 
-        return new TupleIterator(td, tuples);
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            entries = null;
+        }
     }
 
 }
@@ -116,20 +116,29 @@ public class Join extends Operator {
             while (child2.hasNext()) {
                 Tuple tuple2 = child2.next();
                 if (p.filter(tuple1, tuple2)) {
-                    Tuple merged = new Tuple(TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc()));
-                    for (int i = 0; i < tuple1.getTupleDesc().numFields(); i++){
-                        merged.setField(i, tuple1.getField(i));                     
-                    }
-                    for (int i = 0; i < tuple2.getTupleDesc().numFields(); i++){
-                        merged.setField(i+tuple1.getTupleDesc().numFields(), tuple2.getField(i));
-                    }
-                    return merged;
+                    return merge(getTupleDesc(), tuple1, tuple2);
                 }
             }
             tuple1 = null;
         }
     }
 
+    /**
+     * @return a tuple of TupleDesc td holding the fields of tuple1 followed
+     *         by the fields of tuple2
+     */
+    static Tuple merge(TupleDesc td, Tuple tuple1, Tuple tuple2) {
+        Tuple merged = new Tuple(td);
+        int n1 = tuple1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++) {
+            merged.setField(i, tuple1.getField(i));
+        }
+        for (int i = 0; i < tuple2.getTupleDesc().numFields(); i++) {
+            merged.setField(n1 + i, tuple2.getField(i));
+        }
+        return merged;
+    }
+
     /**
      * See Operator.java for additional notes
      */
@@ -0,0 +1,64 @@
+package simpledb;
+
+/**
+ * The estimated cost of performing a join with one physical algorithm,
+ * split into the cost of producing each input (as many times as the
+ * algorithm reads it) and the cost of the work done on the tuples: building
+ * and probing hash tables, sorting, and applying the join predicate.
+ * <p>
+ * Costs are in the units of {@link TableStats#estimateScanCost}: reading a
+ * page costs {@link TableStats#IOCOSTPERPAGE}, and handling one tuple or
+ * applying the predicate to one pair costs 1.
+ */
+public class JoinCost {
+
+    /** The physical join algorithms the optimizer chooses from. */
+    public enum Algorithm {
+        /** {@link Join}: the inner input is read once per outer tuple */
+        NESTED_LOOPS("nested loops"),
+        /** {@link BlockNestedLoopsJoin}: the inner input is read once per block of outer tuples */
+        BLOCK_NESTED_LOOPS("block nested loops"),
+        /** {@link HashJoin}: the inner input is read into a hash table, which each outer tuple probes */
+        HASH("hash"),
+        /** {@link SortMergeJoin}: both inputs are sorted on the join field and merged */
+        SORT_MERGE("sort-merge"),
+        /** {@link IndexNestedLoopsJoin}: each outer tuple looks up its matches in the hash index of the inner table */
+        INDEX_NESTED_LOOPS("index nested loops");
+
+        private final String description;
+
+        Algorithm(String description) {
+            this.description = description;
+        }
+
+        public String toString() {
+            return description;
+        }
+    }
+
+    /** The algorithm costed */
+    public final Algorithm algorithm;
+    /** The cost of producing the outer (left) input */
+    public final double outer;
+    /** The cost of producing the inner (right) input, or of looking up its tuples */
+    public final double inner;
+    /** The cost of building, sorting, probing and comparing tuples */
+    public final double cpu;
+
+    public JoinCost(Algorithm algorithm, double outer, double inner, double cpu) {
+        this.algorithm = algorithm;
+        this.outer = outer;
+        this.inner = inner;
+        this.cpu = cpu;
+    }
+
+    /** @return the total cost of the join */
+    public double total() {
+        return outer + inner + cpu;
+    }
+
+    public String toString() {
+        return String.format("%s join: cost %.1f = outer %.1f + inner %.1f + cpu %.1f",
+                algorithm, total(), outer, inner, cpu);
+    }
+}
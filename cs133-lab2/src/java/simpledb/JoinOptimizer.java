@@ -1,5 +1,6 @@
 package simpledb;
 
+import java.awt.GraphicsEnvironment;
 import java.util.*;
 
 import javax.swing.*;
@@ -27,6 +28,31 @@ public class JoinOptimizer {
         this.joins = joins;
     }
 
+    /** Pages of memory a join may hold tuples in. */
+    private static volatile int joinMemoryPages = BufferPool.DEFAULT_PAGES;
+
+    /**
+     * Set the memory a join may hold tuples in: the hash table of a hash
+     * join, the inputs of a sort-merge join, or a block of outer tuples of
+     * a block nested loops join.
+     *
+     * @param pages
+     *            the memory, in pages of {@link BufferPool#getPageSize}
+     *            bytes
+     * @throws IllegalArgumentException if pages is not positive
+     */
+    public static void setJoinMemory(int pages) {
+        if (pages <= 0) {
+            throw new IllegalArgumentException("join memory must be positive");
+        }
+        joinMemoryPages = pages;
+    }
+
+    /** @return the memory a join may hold tuples in, in bytes */
+    static long joinMemoryBytes() {
+        return (long) joinMemoryPages * BufferPool.getPageSize();
+    }
+
     /**
      * Return best iterator for computing a given logical join, given the
      * specified statistics, and the provided left and right subplans. Note that
@@ -34,6 +60,13 @@ public class JoinOptimizer {
      * inner/outer here -- because DbIterator's don't provide any cardinality
      * estimates, and stats only has information about the base tables. For this
      * reason, the plan1
+     * <p>
+     * The join is performed with the algorithm chosen for it by
+     * {@link #orderJoins}, if any, and with a nested loops {@link Join}
+     * otherwise. An index nested loops join whose inner plan is not a scan
+     * of the indexed table, as when a filter turned the scan into an index
+     * lookup, becomes a hash join. A semi- or anti-join with a subquery
+     * is a {@link SemiJoin}.
      * 
      * @param lj
      *            The join being considered
@@ -68,12 +101,53 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        JoinCost.Algorithm algorithm = lj.joinCost == null ? JoinCost.Algorithm.NESTED_LOOPS
+                : lj.joinCost.algorithm;
+        if (algorithm == JoinCost.Algorithm.INDEX_NESTED_LOOPS
+                && !(plan2 instanceof SeqScan && IndexNestedLoopsJoin.canProbe((SeqScan) plan2, t2id)))
+            algorithm = JoinCost.Algorithm.HASH;
+        if (lj.p != Predicate.Op.EQUALS && algorithm != JoinCost.Algorithm.BLOCK_NESTED_LOOPS)
+            algorithm = JoinCost.Algorithm.NESTED_LOOPS;
+
+        if (isSemiJoin(lj)) {
+            j = new SemiJoin(p, plan1, plan2,
+                    ((LogicalSubplanJoinNode) lj).joinType == LogicalSubplanJoinNode.JoinType.ANTI);
+        } else {
+            switch (algorithm) {
+            case BLOCK_NESTED_LOOPS:
+                j = new BlockNestedLoopsJoin(p, plan1, plan2, blockSize(plan1.getTupleDesc().getSizeInBytes()));
+                break;
+            case HASH:
+                j = new HashJoin(p, plan1, plan2);
+                break;
+            case SORT_MERGE:
+                j = new SortMergeJoin(p, plan1, plan2);
+                break;
+            case INDEX_NESTED_LOOPS:
+                j = new IndexNestedLoopsJoin(p, plan1, (SeqScan) plan2);
+                break;
+            default:
+                j = new Join(p,plan1,plan2);
+            }
+        }
+        if (lj.estimatedCard >= 0)
+            ((Operator) j).setEstimatedCardinality(lj.estimatedCard);
 
         return j;
 
     }
 
+    /** @return whether lj keeps the tuples of its outer table that match (or do not match) a subquery */
+    static boolean isSemiJoin(LogicalJoinNode lj) {
+        return lj instanceof LogicalSubplanJoinNode
+                && ((LogicalSubplanJoinNode) lj).joinType != LogicalSubplanJoinNode.JoinType.INNER;
+    }
+
+    /** @return the number of outer tuples of the given width in a block of a block nested loops join */
+    static int blockSize(int width) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, joinMemoryBytes() / Math.max(1, width)));
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -82,6 +156,10 @@ public class JoinOptimizer {
      * the amount of data that must be read over the course of the query, as
      * well as the number of CPU opertions performed by your join. Assume that
      * the cost of a single predicate application is roughly 1.
+     * <p>
+     * This is the cost of the cheapest algorithm of
+     * {@link #estimateJoinCosts}, for inputs as wide as the tables of the
+     * join, in no particular order, and without an index on the inner one.
      * 
      * 
      * @param j
@@ -102,16 +180,141 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, long card1, long card2,
             double cost1, double cost2) {
+        return cheapestJoin(estimateJoinCosts(j, card1, card2, cost1, cost2,
+                tableWidth(j.t1Alias), tableWidth(j.t2Alias), false, false, -1)).total();
+    }
+
+    /**
+     * Estimate the cost of performing a join with each physical algorithm
+     * that can perform it within the join memory (see
+     * {@link #setJoinMemory}).
+     * <p>
+     * A nested loops {@link Join} reads its inner input once per outer
+     * tuple, and a {@link BlockNestedLoopsJoin} once per block of outer
+     * tuples; both apply the predicate to every pair. Equality joins may
+     * also use a {@link HashJoin} if the inner input fits in memory, a
+     * {@link SortMergeJoin} if both inputs do, which sorts an input unless
+     * it is already sorted on its join field, and an
+     * {@link IndexNestedLoopsJoin} if the inner input is a table with a hash
+     * index on its join field. A join with a subquery is costed as a nested
+     * loops join whose subquery is read once; a semi- or anti-join with a
+     * subquery, as a {@link SemiJoin} that holds the subquery in a hash set
+     * (for an equality) or a list.
+     *
+     * @param j
+     *            the join
+     * @param card1
+     *            estimated cardinality of the outer input
+     * @param card2
+     *            estimated cardinality of the inner input
+     * @param cost1
+     *            estimated cost of producing the outer input once
+     * @param cost2
+     *            estimated cost of producing the inner input once
+     * @param width1
+     *            the size in bytes of a tuple of the outer input
+     * @param width2
+     *            the size in bytes of a tuple of the inner input
+     * @param sorted1
+     *            whether the outer input is sorted on its join field
+     * @param sorted2
+     *            whether the inner input is sorted on its join field
+     * @param probeCost
+     *            the cost of looking up the matches of one outer tuple in
+     *            the index of the inner table, or a negative number if the
+     *            inner input is not an indexed table
+     * @return the cost of each algorithm that can perform the join; the
+     *         first is always a nested loops join
+     */
+    public static List<JoinCost> estimateJoinCosts(LogicalJoinNode j, long card1, long card2,
+            double cost1, double cost2, int width1, int width2,
+            boolean sorted1, boolean sorted2, double probeCost) {
+        ArrayList<JoinCost> costs = new ArrayList<JoinCost>();
+        if (isSemiJoin(j)) {
+            // the subquery is read into memory once; each outer tuple probes
+            // it until its first match, with a hash lookup for an equality
+            if (j.p == Predicate.Op.EQUALS)
+                costs.add(new JoinCost(JoinCost.Algorithm.HASH, cost1, cost2, 2.0 * card2 + card1));
+            else
+                costs.add(new JoinCost(JoinCost.Algorithm.NESTED_LOOPS, cost1, cost2, card2 + (double) card1 * card2));
+            return costs;
+        }
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement support for these for Lab 3.
-            return card1 + cost1 + cost2;
-        } else {
-            // Insert your code here.
-            // HINT: You likely only need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic nested-loops join.
-            return -1.0;
+            costs.add(new JoinCost(JoinCost.Algorithm.NESTED_LOOPS, cost1, cost2, card1));
+            return costs;
+        }
+        double pairs = (double) card1 * card2;
+        costs.add(new JoinCost(JoinCost.Algorithm.NESTED_LOOPS, cost1, card1 * cost2, pairs));
+        long blocks = Math.max(1, (card1 + blockSize(width1) - 1) / blockSize(width1));
+        costs.add(new JoinCost(JoinCost.Algorithm.BLOCK_NESTED_LOOPS, cost1, blocks * cost2, pairs));
+        if (j.p != Predicate.Op.EQUALS) {
+            return costs;
+        }
+        long memory = joinMemoryBytes();
+        if ((double) card2 * width2 <= memory) {
+            // inserting a tuple into the hash table costs about twice as much
+            // as probing it
+            costs.add(new JoinCost(JoinCost.Algorithm.HASH, cost1, cost2, 2.0 * card2 + card1));
+        }
+        if ((double) card1 * width1 + (double) card2 * width2 <= memory) {
+            costs.add(new JoinCost(JoinCost.Algorithm.SORT_MERGE, cost1, cost2,
+                    sortCost(card1, sorted1) + sortCost(card2, sorted2) + card1 + card2));
+        }
+        if (probeCost >= 0) {
+            costs.add(new JoinCost(JoinCost.Algorithm.INDEX_NESTED_LOOPS, cost1, card1 * probeCost, card1));
+        }
+        return costs;
+    }
+
+    /** @return the cost of sorting n tuples, or of checking that they are sorted */
+    private static double sortCost(long n, boolean sorted) {
+        return sorted || n < 2 ? 0 : n * (Math.log(n) / Math.log(2));
+    }
+
+    /** @return the cheapest of costs, the first one on ties */
+    public static JoinCost cheapestJoin(List<JoinCost> costs) {
+        JoinCost best = null;
+        for (JoinCost c : costs) {
+            if (best == null || c.total() < best.total())
+                best = c;
         }
+        return best;
+    }
+
+    /**
+     * @return the size in bytes of a tuple of the table with the given
+     *         alias, or of an INT field if the alias is unknown
+     */
+    private int tableWidth(String alias) {
+        Integer computed = computedWidths.get(relation(alias));
+        if (computed != null)
+            return computed;
+        Integer id = alias == null ? null : p.getTableId(alias);
+        if (id == null)
+            return Type.INT_TYPE.getSizeInBytes();
+        return Database.getCatalog().getTupleDesc(id).getSizeInBytes();
+    }
+
+    /**
+     * @return the cost of looking up the matches of one outer tuple in the
+     *         hash index of the table with the given alias, which costs an
+     *         index page and a table page per match; or -1 if the table
+     *         has no hash index on field
+     */
+    private double probeCost(HashMap<String, TableStats> stats, String alias, String field)
+            throws ParsingException {
+        Integer id = alias == null ? null : p.getTableId(alias);
+        if (id == null || computedCards.containsKey(relation(alias)))
+            return -1;
+        HashIndexFile index = Database.getCatalog().getIndex(id);
+        if (index == null || !field.equals(Database.getCatalog().getTupleDesc(id).getFieldName(index.getKeyField())))
+            return -1;
+        TableStats s = statsOf(stats, alias);
+        double pageCost = s.estimateScanCost() / Math.max(1, s.numPages());
+        double matches = (double) s.totalTuples() / Math.max(1, s.numDistinct(index.getKeyField()));
+        return pageCost * (1 + matches) + matches;
     }
 
     /**
@@ -135,7 +338,9 @@ public class JoinOptimizer {
      */
     public long estimateJoinCardinality(LogicalJoinNode j, long card1, long card2,
             boolean t1pkey, boolean t2pkey, Map<String, TableStats> stats) {
-        if (j instanceof LogicalSubplanJoinNode) {
+        if (isSemiJoin(j)) {
+            return (long) (card1 * SEMI_JOIN_SELECTIVITY);
+        } else if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement support for these for Lab 3.
             return card1;
@@ -146,17 +351,93 @@ public class JoinOptimizer {
         }
     }
 
+    /** Fraction of the pairs of tuples assumed to satisfy a range join predicate. */
+    static final double RANGE_JOIN_SELECTIVITY = 0.3;
+
+    /** Fraction of the outer tuples a semi-join, or an anti-join, with a subquery is assumed to keep. */
+    static final double SEMI_JOIN_SELECTIVITY = 0.5;
+
     /**
      * Estimate the join cardinality of two tables.
+     * <p>
+     * An equality join matches each value with the tuples of the other input
+     * that share it, so it yields card1 * card2 / max(ndv1, ndv2), the ndvs
+     * being the numbers of distinct values of the join fields in the table
+     * statistics, capped by the cardinalities of the inputs. Without
+     * statistics it yields the larger input. A join on a primary key yields
+     * at most one tuple per tuple of the other side. Range joins keep
+     * RANGE_JOIN_SELECTIVITY of all pairs, and NOT_EQUALS keeps the pairs an
+     * equality join would not.
      * */
     public static long estimateTableJoinCardinality(Predicate.Op joinOp,
             String table1Alias, String table2Alias, String field1PureName,
             String field2PureName, long card1, long card2, boolean t1pkey,
             boolean t2pkey, Map<String, TableStats> stats,
             Map<String, Integer> tableAliasToId) {
-        long card = 1;
-        // TODO: some code goes here
-        return card <= 0 ? 1 : card;
+        long ndv1 = 0, ndv2 = 0;
+        if (joinOp == Predicate.Op.EQUALS || joinOp == Predicate.Op.LIKE || joinOp == Predicate.Op.NOT_EQUALS) {
+            ndv1 = numDistinct(table1Alias, field1PureName, stats, tableAliasToId);
+            ndv2 = numDistinct(table2Alias, field2PureName, stats, tableAliasToId);
+        }
+        return estimateTableJoinCardinality(joinOp, ndv1, ndv2, card1, card2, t1pkey, t2pkey);
+    }
+
+    /**
+     * Estimate the join cardinality of two tables whose join fields have
+     * ndv1 and ndv2 distinct values, or 0 if that is unknown.
+     *
+     * @see #estimateTableJoinCardinality(Predicate.Op, String, String, String, String, long, long, boolean, boolean, Map, Map)
+     */
+    private static long estimateTableJoinCardinality(Predicate.Op joinOp, long ndv1, long ndv2,
+            long card1, long card2, boolean t1pkey, boolean t2pkey) {
+        double pairs = (double) card1 * card2;
+        double card;
+        switch (joinOp) {
+        case EQUALS:
+        case LIKE:
+        case NOT_EQUALS: {
+            double equal;
+            if (ndv1 > 0 || ndv2 > 0) {
+                long ndv = Math.max(Math.min(ndv1, card1), Math.min(ndv2, card2));
+                equal = pairs / Math.max(1, ndv);
+            } else {
+                equal = Math.max(card1, card2);
+            }
+            if (t1pkey) {
+                equal = Math.min(equal, card2);
+            }
+            if (t2pkey) {
+                equal = Math.min(equal, card1);
+            }
+            card = joinOp == Predicate.Op.NOT_EQUALS ? pairs - equal : equal;
+            break;
+        }
+        default:
+            card = pairs * RANGE_JOIN_SELECTIVITY;
+        }
+        long result = (long) Math.min(card, Long.MAX_VALUE);
+        return result <= 0 ? 1 : result;
+    }
+
+    /**
+     * @return the number of distinct values of a field of a table in the
+     *         statistics, or 0 if they have none for it
+     */
+    private static long numDistinct(String tableAlias, String fieldPureName,
+            Map<String, TableStats> stats, Map<String, Integer> tableAliasToId) {
+        Integer tableId = tableAlias == null ? null : tableAliasToId.get(tableAlias);
+        if (tableId == null) {
+            return 0;
+        }
+        TableStats s = stats.get(Database.getCatalog().getTableName(tableId));
+        if (s == null) {
+            return 0;
+        }
+        try {
+            return s.numDistinct(Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(fieldPureName));
+        } catch (NoSuchElementException e) {
+            return 0;
+        }
     }
 
     /**
@@ -169,31 +450,156 @@ public class JoinOptimizer {
      *            The size of the subsets of interest
      * @return a set of all subsets of the specified size
      */
-    @SuppressWarnings("unchecked")
     public <T> Set<Set<T>> enumerateSubsets(Vector<T> v, int size) {
         Set<Set<T>> els = new HashSet<Set<T>>();
-        els.add(new HashSet<T>());
-        // Iterator<Set> it;
-        // long start = System.currentTimeMillis();
-
-        for (int i = 0; i < size; i++) {
-            Set<Set<T>> newels = new HashSet<Set<T>>();
-            for (Set<T> s : els) {
-                for (T t : v) {
-                    Set<T> news = (Set<T>) (((HashSet<T>) s).clone());
-                    if (news.add(t))
-                        newels.add(news);
-                }
+        for (long s = firstSubset(size); s < (1L << v.size()); s = nextSubset(s)) {
+            Set<T> set = new HashSet<T>();
+            for (long rest = s; rest != 0; rest &= rest - 1) {
+                set.add(v.get(Long.numberOfTrailingZeros(rest)));
             }
-            els = newels;
+            els.add(set);
         }
-
         return els;
+    }
+
+    /** @return the smallest bitmask with size bits set */
+    static long firstSubset(int size) {
+        return (1L << size) - 1;
+    }
+
+    /**
+     * @return the next larger bitmask with as many bits set as s (Gosper's
+     *         hack), so that starting from {@link #firstSubset} every subset
+     *         of a size is enumerated without allocating
+     */
+    static long nextSubset(long s) {
+        long lowest = s & -s;
+        long ripple = s + lowest;
+        return (((ripple ^ s) >>> 2) / lowest) | ripple;
+    }
+
+    /** The search strategies orderJoins chooses from. */
+    public enum Strategy {
+        /** every plan, bushy or not, with Selinger's dynamic programming */
+        DYNAMIC_PROGRAMMING("dynamic programming"),
+        /** the cheapest join at each step, then iterative improvement */
+        GREEDY("greedy + iterative improvement"),
+        /** the order of the query, when no order avoids a cross product */
+        QUERY_ORDER("query order");
+
+        private final String description;
+
+        Strategy(String description) {
+            this.description = description;
+        }
+
+        public String toString() {
+            return description;
+        }
+    }
+
+    /**
+     * Queries with more joins than this are ordered by the greedy search
+     * instead of dynamic programming.
+     */
+    private static volatile int maxDpJoins = 10;
+    /** Milliseconds orderJoins may spend searching before it settles. */
+    private static volatile long planningBudgetMillis = 200;
+
+    /**
+     * Set the largest number of joins orderJoins orders with dynamic
+     * programming; larger queries are ordered greedily.
+     *
+     * @throws IllegalArgumentException if n is not between 0 and MAX_DP_JOINS
+     */
+    public static void setMaxDpJoins(int n) {
+        if (n < 0 || n > MAX_DP_JOINS) {
+            throw new IllegalArgumentException("at most " + MAX_DP_JOINS + " joins can use dynamic programming");
+        }
+        maxDpJoins = n;
+    }
+
+    /**
+     * Set the time orderJoins may spend searching. Dynamic programming that
+     * runs over it falls back to the greedy search, and the iterative
+     * improvement of a greedy order stops at it.
+     *
+     * @throws IllegalArgumentException if millis is negative
+     */
+    public static void setPlanningBudget(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("negative planning budget");
+        }
+        planningBudgetMillis = millis;
+    }
+
+    private Strategy strategy = null;
+    private double planCost = Double.NaN;
+    private long planCard = -1;
+
+    /** @return the strategy that chose the last order returned by orderJoins */
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    /** @return the estimated cost of the last order returned by orderJoins, or NaN for the query order */
+    public double getPlanCost() {
+        return planCost;
+    }
+
+    /** @return the estimated cardinality of the last order returned by orderJoins, or -1 for the query order */
+    public long getPlanCardinality() {
+        return planCard;
+    }
 
+    /**
+     * Tell {@link #orderJoins} that the tables with the given aliases were
+     * already filtered and joined with each other, and that the result is
+     * held in memory. orderJoins plans it as a single input of the joins
+     * with the other tables, whose cardinality is known and which costs a
+     * tuple per tuple read; the joins among the tables themselves must not
+     * be among the joins ordered.
+     *
+     * @param aliases
+     *            the aliases of the tables of the relation
+     * @param card
+     *            the number of tuples of the relation
+     * @param width
+     *            the size in bytes of its tuples
+     * @throws IllegalArgumentException
+     *             if aliases is empty or one of them is already part of a
+     *             computed relation
+     */
+    public void addComputedRelation(Collection<String> aliases, long card, int width) {
+        if (aliases.isEmpty())
+            throw new IllegalArgumentException("a computed relation needs a table");
+        String rep = aliases.iterator().next();
+        for (String alias : aliases) {
+            if (relationOf.containsKey(alias))
+                throw new IllegalArgumentException("table " + alias + " is already part of a computed relation");
+        }
+        for (String alias : aliases)
+            relationOf.put(alias, rep);
+        computedCards.put(rep, card);
+        computedWidths.put(rep, width);
     }
 
     /**
      * Compute a logical, reasonably efficient join on the specified tables. 
+     * <p>
+     * Up to {@link #setMaxDpJoins} joins, every plan is costed with dynamic
+     * programming, including bushy ones whose joins both take the results of
+     * other joins. Larger queries, or dynamic programming that runs out of
+     * the planning budget, get a left-deep plan: they start from a greedy
+     * order, which adds the cheapest connected join at each step, and
+     * improve it by swapping pairs of joins until no swap helps or the
+     * budget runs out.
+     * <p>
+     * Each join is costed with the cheapest of the physical algorithms of
+     * {@link #estimateJoinCosts}, which is stored in its
+     * {@link LogicalJoinNode#joinCost} for {@link #instantiateJoin}, with
+     * the estimated cardinality of its result in
+     * {@link LogicalJoinNode#estimatedCard}.
      * 
      * @param stats
      *            Statistics for each table involved in the join, referenced by
@@ -205,8 +611,9 @@ public class JoinOptimizer {
      * @param explain
      *            Indicates whether your code should explain its query plan or
      *            simply execute it
-     * @return A Vector<LogicalJoinNode> that stores joins in the left-deep
-     *         order in which they should be executed.
+     * @return A Vector<LogicalJoinNode> that stores joins in the order in
+     *         which they should be executed; each join comes after the joins
+     *         producing its inputs, and joins the results of those joins.
      * @throws ParsingException
      *             when stats or filter selectivities is missing a table in the
      *             join, or or when another internal error occurs
@@ -215,23 +622,300 @@ public class JoinOptimizer {
             HashMap<String, TableStats> stats,
             HashMap<String, Double> filterSelectivities, boolean explain)
                     throws ParsingException {
-        //Not necessary for labs 1--2
-        // See the Lab writeup for some hints as to how this function
-        // should work.
+        long start = System.nanoTime();
+        long deadline = start + planningBudgetMillis * 1000000L;
+        strategy = Strategy.QUERY_ORDER;
+        planCost = Double.NaN;
+        planCard = -1;
+        for (LogicalJoinNode j : joins) {
+            j.joinCost = null;
+            j.estimatedCard = -1;
+        }
+        if (joins.isEmpty()) {
+            return joins;
+        }
+        // sets of tables are bitmasks over these
+        joinTables = new long[joins.size()];
+        HashMap<String, Long> tableBits = new HashMap<String, Long>();
+        for (int i = 0; i < joins.size(); i++) {
+            LogicalJoinNode j = joins.get(i);
+            joinTables[i] = tableBit(tableBits, relation(j.t1Alias)) | tableBit(tableBits, relation(j.t2Alias));
+        }
+        this.tableBits = tableBits;
+        // the searches cost the same inputs many times, so look up what
+        // they need of the catalog once
+        tableWidths = new int[64];
+        for (Map.Entry<String, Long> e : tableBits.entrySet()) {
+            if (e.getValue() != 0)
+                tableWidths[Long.numberOfTrailingZeros(e.getValue())] = tableWidth(e.getKey());
+        }
+        pkeyJoins = new boolean[joins.size()];
+        swappedJoins = new IdentityHashMap<LogicalJoinNode, LogicalJoinNode>();
+        baseInputs = new HashMap<String, CostCard>();
+        joinNdvs = new IdentityHashMap<LogicalJoinNode, long[]>();
+        for (int i = 0; i < joins.size(); i++) {
+            pkeyJoins[i] = hasPkey(joins.get(i));
+            swappedJoins.put(joins.get(i), joins.get(i).swapInnerOuter());
+        }
 
-        // TODO: some code goes here
-        //Replace the following
-        return joins;
+        Vector<LogicalJoinNode> order = null;
+        if (tableBits.size() <= 64) {
+            if (joins.size() <= maxDpJoins) {
+                order = dynamicProgramming(stats, filterSelectivities, explain, deadline);
+            }
+            if (order == null && strategy != Strategy.DYNAMIC_PROGRAMMING) {
+                order = greedy(stats, filterSelectivities, deadline);
+            }
+        }
+        if (order == null) {
+            // the joins do not connect all of their tables, so every order
+            // has a cross product; keep the order of the query
+            strategy = Strategy.QUERY_ORDER;
+            order = joins;
+        }
+        if (explain) {
+            System.out.printf("Join order by %s in %.1f ms: %s, estimated cost %.1f, cardinality %d%n",
+                    strategy, (System.nanoTime() - start) / 1e6, order, planCost, planCard);
+            for (LogicalJoinNode j : order) {
+                System.out.println("  " + j + ": "
+                        + (j.joinCost == null ? JoinCost.Algorithm.NESTED_LOOPS + " join" : j.joinCost));
+            }
+        }
+        return order;
+    }
 
+    /**
+     * Order the joins with Selinger's dynamic programming: the best plan of
+     * every set of joins is the cheapest way of performing one of its joins
+     * on the best plans of two disjoint subsets of the rest, so plans may be
+     * bushy.
+     *
+     * @return the best order, or null if every order has a cross product or
+     *         the deadline passed; the strategy is set to
+     *         DYNAMIC_PROGRAMMING unless the deadline passed
+     */
+    private Vector<LogicalJoinNode> dynamicProgramming(HashMap<String, TableStats> stats,
+            HashMap<String, Double> filterSelectivities, boolean explain, long deadline)
+            throws ParsingException {
+        PlanCache pc = new PlanCache();
+        long all = (1L << joins.size()) - 1;
+        int sinceCheck = 0;
+        for (int size = 1; size <= joins.size(); size++) {
+            for (long joinSet = firstSubset(size); joinSet <= all; joinSet = nextSubset(joinSet)) {
+                if (++sinceCheck == 1024) {
+                    sinceCheck = 0;
+                    if (System.nanoTime() > deadline) {
+                        return null;
+                    }
+                }
+                CostCard best = null;
+                int bestJoin = -1;
+                double bestCost = Double.MAX_VALUE;
+                for (long rest = joinSet; rest != 0; rest &= rest - 1) {
+                    int j = Long.numberOfTrailingZeros(rest);
+                    CostCard cc = computeCostAndCardOfSubplan(stats, filterSelectivities, j, joinSet, bestCost, pc);
+                    if (cc != null) {
+                        best = cc;
+                        bestJoin = j;
+                        bestCost = cc.cost;
+                    }
+                }
+                if (best != null) {
+                    pc.addPlan(joinSet, best.cost, best.card, bestJoin, best.left, best.join, best.joinCost);
+                }
+            }
+        }
+
+        strategy = Strategy.DYNAMIC_PROGRAMMING;
+        if (!pc.contains(all)) {
+            return null;
+        }
+        Vector<LogicalJoinNode> order = pc.getOrder(all);
+        setJoinCosts(all, pc);
+        planCost = pc.getCost(all);
+        planCard = pc.getCard(all);
+        if (explain) {
+            System.out.println("Join plan: " + planShape(all, pc));
+            if (!GraphicsEnvironment.isHeadless()) {
+                printJoins(order, all, pc, stats, filterSelectivities);
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Order the joins greedily, adding at each step the join that makes the
+     * plan so far cheapest, then swap pairs of joins while that makes the
+     * plan cheaper and the deadline has not passed.
+     *
+     * @return the order, or null if every order has a cross product
+     */
+    private Vector<LogicalJoinNode> greedy(HashMap<String, TableStats> stats,
+            HashMap<String, Double> filterSelectivities, long deadline) throws ParsingException {
+        int n = joins.size();
+        int[] perm = new int[n];
+        boolean[] done = new boolean[n];
+        CostCard plan = null;
+        long tables = 0;
+        boolean pkey = false;
+        for (int step = 0; step < n; step++) {
+            CostCard best = null;
+            for (int j = 0; j < n; j++) {
+                if (done[j]) {
+                    continue;
+                }
+                CostCard cc = joinCost(stats, filterSelectivities, j, tables, plan, pkey);
+                if (cc != null && (best == null || cc.cost < best.cost)) {
+                    best = cc;
+                    perm[step] = j;
+                }
+            }
+            if (best == null) {
+                return null;
+            }
+            done[perm[step]] = true;
+            tables |= joinTables[perm[step]];
+            pkey |= pkeyJoins[perm[step]];
+            plan = best;
+        }
+        strategy = Strategy.GREEDY;
+
+        // iterative improvement: take any swap of two joins that lowers the
+        // cost, until none does
+        Vector<LogicalJoinNode> order = new Vector<LogicalJoinNode>();
+        double cost = costOf(stats, filterSelectivities, perm, order);
+        boolean improved = true;
+        while (improved && System.nanoTime() < deadline) {
+            improved = false;
+            for (int a = 0; a < n - 1 && !improved && System.nanoTime() < deadline; a++) {
+                for (int b = a + 1; b < n && !improved; b++) {
+                    swap(perm, a, b);
+                    double c = costOf(stats, filterSelectivities, perm, new Vector<LogicalJoinNode>());
+                    if (c < cost) {
+                        cost = c;
+                        improved = true;
+                    } else {
+                        swap(perm, a, b);
+                    }
+                }
+            }
+        }
+        // recost the final order, which also sets planCost and planCard
+        order.clear();
+        costOf(stats, filterSelectivities, perm, order);
+        return order;
+    }
+
+    private static void swap(int[] perm, int a, int b) {
+        int t = perm[a];
+        perm[a] = perm[b];
+        perm[b] = t;
+    }
+
+    /**
+     * Cost the left-deep plan performing the joins in the order of perm.
+     *
+     * @param order
+     *            receives the joins as they are performed, and planCost and
+     *            planCard are set to the plan's, if it has no cross product
+     * @return the cost of the plan, or infinity if it has a cross product
+     */
+    private double costOf(HashMap<String, TableStats> stats, HashMap<String, Double> filterSelectivities,
+            int[] perm, Vector<LogicalJoinNode> order) throws ParsingException {
+        CostCard plan = null;
+        long tables = 0;
+        boolean pkey = false;
+        for (int j : perm) {
+            plan = joinCost(stats, filterSelectivities, j, tables, plan, pkey);
+            if (plan == null) {
+                order.clear();
+                return Double.POSITIVE_INFINITY;
+            }
+            plan.join.joinCost = plan.joinCost;
+            plan.join.estimatedCard = plan.card;
+            order.add(plan.join);
+            tables |= joinTables[j];
+            pkey |= pkeyJoins[j];
+        }
+        planCost = plan.cost;
+        planCard = plan.card;
+        return plan.cost;
     }
 
     // ===================== Private Methods =================================
 
+    /** The largest number of joins orderJoins considers every order of. */
+    static final int MAX_DP_JOINS = 62;
+
+    /** Bit of each table alias in the table bitmasks of orderJoins. */
+    private HashMap<String, Long> tableBits;
+    /** For each join, the bitmask of the tables it joins. */
+    private long[] joinTables;
+    /** For each table bit, the size in bytes of a tuple of the table. */
+    private int[] tableWidths;
+    /** For each join, whether it joins a primary key. */
+    private boolean[] pkeyJoins;
+    /** Each join with its inputs swapped. */
+    private IdentityHashMap<LogicalJoinNode, LogicalJoinNode> swappedJoins;
+    /** The inputs of orderJoins that scan a table, by alias. */
+    private HashMap<String, CostCard> baseInputs;
+    /** The numbers of distinct values of the join fields of each join, and of it swapped. */
+    private IdentityHashMap<LogicalJoinNode, long[]> joinNdvs;
+
+    /**
+     * Representative alias of each table held by a computed relation; see
+     * {@link #addComputedRelation}.
+     */
+    private final HashMap<String, String> relationOf = new HashMap<String, String>();
+    /** Cardinality of each computed relation, by representative alias. */
+    private final HashMap<String, Long> computedCards = new HashMap<String, Long>();
+    /** Tuple size in bytes of each computed relation, by representative alias. */
+    private final HashMap<String, Integer> computedWidths = new HashMap<String, Integer>();
+
+    /**
+     * @return the alias standing for the computed relation holding the table
+     *         with the given alias, or the alias itself
+     */
+    private String relation(String alias) {
+        String r = relationOf.get(alias);
+        return r == null ? alias : r;
+    }
+
+    /** @return the bit of alias, assigning the next one if it has none; 0 for null */
+    private static long tableBit(HashMap<String, Long> tableBits, String alias) {
+        if (alias == null) {
+            return 0;
+        }
+        Long bit = tableBits.get(alias);
+        if (bit == null) {
+            bit = tableBits.size() < 64 ? 1L << tableBits.size() : 0;
+            tableBits.put(alias, bit);
+        }
+        return bit;
+    }
+
+    /** @return the bitmask of the tables joined by the joins of joinSet */
+    private long tablesOf(long joinSet) {
+        long tables = 0;
+        for (long rest = joinSet; rest != 0; rest &= rest - 1) {
+            tables |= joinTables[Long.numberOfTrailingZeros(rest)];
+        }
+        return tables;
+    }
+
     /**
-     * This is a helper method that computes the cost and cardinality of joining
-     * joinToRemove to joinSet (joinSet should contain joinToRemove), given that
-     * all of the subsets of size joinSet.size() - 1 have already been computed
-     * and stored in PlanCache pc.
+     * This is a helper method that computes the cost and cardinality of the
+     * best plan of joinSet that performs joinToRemove last (joinSet should
+     * contain joinToRemove), given that the plans of all of the smaller
+     * subsets of joinSet have already been computed and stored in PlanCache
+     * pc.
+     * <p>
+     * The other joins of joinSet are split between the two inputs of
+     * joinToRemove, so the plan may be bushy: both inputs can be the results
+     * of other joins. No table may be in both inputs, so joins that share a
+     * table are on the same side, and there is only one split: the left
+     * input performs the other joins connected to j.t1, and the right input
+     * the rest, which must be connected to j.t2.
      * 
      * @param stats
      *            table stats for all of the tables, referenced by table names
@@ -241,152 +925,282 @@ public class JoinOptimizer {
      *            (where tables are indentified by their alias or name if no
      *            alias is given)
      * @param joinToRemove
-     *            the join to remove from joinSet
+     *            the index in joins of the join performed last
      * @param joinSet
-     *            the set of joins being considered
+     *            the set of joins being considered, as a bitmask over joins
      * @param bestCostSoFar
      *            the best way to join joinSet so far (minimum of previous
      *            invocations of computeCostAndCardOfSubplan for this joinSet,
      *            from returned CostCard)
      * @param pc
-     *            the PlanCache for this join; should have subplans for all
-     *            plans of size joinSet.size()-1
+     *            the PlanCache for this join; should have plans for all of
+     *            the subsets of joinSet that can be joined without a cross
+     *            product
      * @return A {@link CostCard} objects desribing the cost, cardinality,
-     *         optimal subplan
+     *         the join added last and the joins producing its left input,
+     *         or null if no plan is better than bestCostSoFar or every plan
+     *         needs a cross product
      * @throws ParsingException
      *             when stats, filterSelectivities, or pc object is missing
      *             tables involved in join
      */
-    @SuppressWarnings("unchecked")
     private CostCard computeCostAndCardOfSubplan(
             HashMap<String, TableStats> stats,
             HashMap<String, Double> filterSelectivities,
-            LogicalJoinNode joinToRemove, Set<LogicalJoinNode> joinSet,
+            int joinToRemove, long joinSet,
             double bestCostSoFar, PlanCache pc) throws ParsingException {
 
-        LogicalJoinNode j = joinToRemove;
-
-        Vector<LogicalJoinNode> prevBest;
-
-        if (this.p.getTableId(j.t1Alias) == null)
-            throw new ParsingException("Unknown table " + j.t1Alias);
-        if (this.p.getTableId(j.t2Alias) == null)
-            throw new ParsingException("Unknown table " + j.t2Alias);
-
-        String table1Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t1Alias));
-        String table2Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t2Alias));
-        String table1Alias = j.t1Alias;
-        String table2Alias = j.t2Alias;
-
-        Set<LogicalJoinNode> news = (Set<LogicalJoinNode>) ((HashSet<LogicalJoinNode>) joinSet)
-                .clone();
-        news.remove(j);
-
-        double t1cost, t2cost;
-        long t1card, t2card;
-        boolean leftPkey, rightPkey;
-
-        if (news.isEmpty()) { // base case -- both are base relations
-            prevBest = new Vector<LogicalJoinNode>();
-            t1cost = stats.get(table1Name).estimateScanCost();
-            t1card = stats.get(table1Name).estimateTableCardinality(
-                    filterSelectivities.get(j.t1Alias));
-            leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
-            t2cost = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateScanCost();
-            t2card = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateTableCardinality(
-                            filterSelectivities.get(j.t2Alias));
-            rightPkey = table2Alias == null ? false : isPkey(table2Alias,
-                    j.f2PureName);
-        } else {
-            // news is not empty -- figure best way to join j to news
-            prevBest = pc.getOrder(news);
+        LogicalJoinNode j = joins.get(joinToRemove);
+        long rest = joinSet & ~(1L << joinToRemove);
+        long t1 = tableBits.get(relation(j.t1Alias));
+        long t2 = tableBit(tableBits, relation(j.t2Alias));
+        // the empty set of joins stands for a base table
+        long left = connectedJoins(rest, t1);
+        long right = rest & ~left;
+        long leftTables = left == 0 ? t1 : tablesOf(left);
+        long rightTables = right == 0 ? t2 : tablesOf(right);
+        // a subquery is always a right input of its own
+        boolean valid = (j.t2Alias == null ? right == 0 : (rightTables & t2) != 0)
+                && (leftTables & rightTables) == 0
+                // possible that we have not cached an answer, if subset
+                // includes a cross product
+                && (left == 0 || pc.contains(left)) && (right == 0 || pc.contains(right));
+        if (!valid) {
+            return null;
+        }
+        CostCard in1 = left == 0 ? baseInput(stats, filterSelectivities, j.t1Alias) : planInput(left, pc);
+        boolean leftPkey = left == 0 ? isPkey(j.t1Alias, j.f1PureName) : hasPkey(left);
+        CostCard in2 = right == 0 ? baseInput(stats, filterSelectivities, j.t2Alias) : planInput(right, pc);
+        boolean rightPkey = right == 0 ? j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName)
+                : hasPkey(right);
+        CostCard cc = costJoin(j, in1, leftTables, leftPkey, in2, rightTables, rightPkey, stats);
+        if (cc.cost >= bestCostSoFar) {
+            return null;
+        }
+        cc.left = cc.join == j ? left : right;
+        return cc;
+    }
 
-            // possible that we have not cached an answer, if subset
-            // includes a cross product
-            if (prevBest == null) {
-                return null;
+    /**
+     * @return the joins of joinSet connected to the specified tables
+     *         through joins of joinSet, as a bitmask over joins
+     */
+    private long connectedJoins(long joinSet, long tables) {
+        long connected = 0;
+        boolean grown = true;
+        while (grown) {
+            grown = false;
+            for (long rest = joinSet & ~connected; rest != 0; rest &= rest - 1) {
+                int k = Long.numberOfTrailingZeros(rest);
+                if ((joinTables[k] & tables) != 0) {
+                    connected |= 1L << k;
+                    tables |= joinTables[k];
+                    grown = true;
+                }
             }
+        }
+        return connected;
+    }
 
-            double prevBestCost = pc.getCost(news);
-            long bestCard = pc.getCard(news);
-
-            // estimate cost of right subtree
-            if (doesJoin(prevBest, table1Alias)) { // j.t1 is in prevBest
-                t1cost = prevBestCost; // left side just has cost of whatever
-                // left
-                // subtree is
-                t1card = bestCard;
-                leftPkey = hasPkey(prevBest);
-
-                t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateScanCost();
-                t2card = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateTableCardinality(
-                                filterSelectivities.get(j.t2Alias));
-                rightPkey = j.t2Alias == null ? false : isPkey(j.t2Alias,
-                        j.f2PureName);
-            } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
-                // (both
-                // shouldn't be)
-                t2cost = prevBestCost; // left side just has cost of whatever
-                // left
-                // subtree is
-                t2card = bestCard;
-                rightPkey = hasPkey(prevBest);
-                t1cost = stats.get(table1Name).estimateScanCost();
-                t1card = stats.get(table1Name).estimateTableCardinality(
-                        filterSelectivities.get(j.t1Alias));
-                leftPkey = isPkey(j.t1Alias, j.f1PureName);
+    /**
+     * Compute the cost and cardinality of performing a join after a
+     * left-deep subplan, or of a first join of two base relations.
+     *
+     * @param joinIndex
+     *            the index in joins of the join
+     * @param prevTables
+     *            the bitmask of the tables joined by the subplan
+     * @param prev
+     *            the cost and cardinality of the subplan and the join it
+     *            performs last, or null if the join is the first one
+     * @param prevPkey
+     *            whether the subplan joins on a primary key
+     * @return the cost and cardinality of the plan, and the join with its
+     *         inputs swapped if that is cheaper, or null if the join does
+     *         not connect a table of the subplan to a new one
+     * @throws ParsingException
+     *             when stats or filterSelectivities is missing tables
+     *             involved in the join
+     */
+    private CostCard joinCost(HashMap<String, TableStats> stats,
+            HashMap<String, Double> filterSelectivities, int joinIndex,
+            long prevTables, CostCard prev, boolean prevPkey)
+            throws ParsingException {
+
+        LogicalJoinNode j = joins.get(joinIndex);
+        long t1 = tableBits.get(relation(j.t1Alias));
+        long t2 = tableBit(tableBits, relation(j.t2Alias));
+        CostCard base1 = baseInput(stats, filterSelectivities, j.t1Alias);
+        CostCard base2 = baseInput(stats, filterSelectivities, j.t2Alias);
+        boolean pkey1 = isPkey(j.t1Alias, j.f1PureName);
+        boolean pkey2 = j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName);
+
+        if (prev == null) { // base case -- both are base relations
+            return costJoin(j, base1, t1, pkey1, base2, t2, pkey2, stats);
+        } else if ((prevTables & t1) != 0) { // j.t1 is in prevBest
+            // left side just has cost of whatever left subtree is
+            return costJoin(j, prev, prevTables, prevPkey, base2, t2, pkey2, stats);
+        } else if (j.t2Alias != null && (prevTables & t2) != 0) {
+            // j.t2 is in prevbest (both shouldn't be)
+            return costJoin(j, base1, t1, pkey1, prev, prevTables, prevPkey, stats);
+        } else {
+            // don't consider this plan if one of j.t1 or j.t2
+            // isn't a table joined in prevBest (cross product)
+            return null;
+        }
+    }
 
-            } else {
-                // don't consider this plan if one of j.t1 or j.t2
-                // isn't a table joined in prevBest (cross product)
-                return null;
-            }
+    /**
+     * @return an input of a join that scans the table with the given alias,
+     *         described by its cost and filtered cardinality; for a null
+     *         alias, as the subquery of a subquery join has, an input that
+     *         costs nothing; the input is shared by the whole search, and
+     *         must not be modified
+     */
+    private CostCard baseInput(HashMap<String, TableStats> stats,
+            HashMap<String, Double> filterSelectivities, String alias) throws ParsingException {
+        CostCard in = baseInputs.get(alias);
+        if (in != null) {
+            return in;
         }
+        in = new CostCard();
+        Long computed = computedCards.get(relation(alias));
+        if (computed != null) {
+            // read from memory
+            in.cost = computed;
+            in.card = computed;
+        } else if (alias != null) {
+            TableStats s = statsOf(stats, alias);
+            in.cost = s.estimateScanCost();
+            in.card = s.planningCardinality(filterSelectivities.get(alias));
+        }
+        baseInputs.put(alias, in);
+        return in;
+    }
+
+    /** @return an input of a join that is the best plan of joinSet */
+    private static CostCard planInput(long joinSet, PlanCache pc) {
+        CostCard in = new CostCard();
+        in.cost = pc.getCost(joinSet);
+        in.card = pc.getCard(joinSet);
+        in.join = pc.getLastJoin(joinSet);
+        in.joinCost = pc.getJoinCost(joinSet);
+        return in;
+    }
 
+    /**
+     * Cost a join of two inputs both ways round, with every algorithm that
+     * can perform it.
+     *
+     * @param in1
+     *            the cost and cardinality of the input holding j.t1, and
+     *            the last join producing it (null for a base table)
+     * @param tables1
+     *            the bitmask of the tables of that input
+     * @param in2
+     *            the same for the input holding j.t2
+     * @return the cost and cardinality of the cheaper way, the join as it
+     *         is performed that way, and the cost of its algorithm
+     */
+    private CostCard costJoin(LogicalJoinNode j, CostCard in1, long tables1, boolean leftPkey,
+            CostCard in2, long tables2, boolean rightPkey, HashMap<String, TableStats> stats)
+            throws ParsingException {
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        JoinCost cost1 = cheapestJoin(estimateJoinCosts(j, in1, tables1, in2, tables2, stats));
 
-        LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
-        if (cost2 < cost1) {
+        LogicalJoinNode j2 = swappedJoins.get(j);
+        JoinCost cost2 = cheapestJoin(estimateJoinCosts(j2, in2, tables2, in1, tables1, stats));
+        if (cost2.total() < cost1.total()) {
             boolean tmp;
             j = j2;
             cost1 = cost2;
             tmp = rightPkey;
             rightPkey = leftPkey;
             leftPkey = tmp;
+            CostCard tmpIn = in1;
+            in1 = in2;
+            in2 = tmpIn;
         }
-        if (cost1 >= bestCostSoFar)
-            return null;
 
         CostCard cc = new CostCard();
 
-        cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
-                rightPkey, stats);
-        cc.cost = cost1;
-        cc.plan = (Vector<LogicalJoinNode>) prevBest.clone();
-        cc.plan.addElement(j); // prevbest is left -- add new join to end
+        cc.card = joinCardinality(j, in1.card, in2.card, leftPkey, rightPkey, stats);
+        cc.cost = cost1.total();
+        cc.join = j;
+        cc.joinCost = cost1;
         return cc;
     }
 
     /**
-     * Return true if the specified table is in the list of joins, false
-     * otherwise
+     * @return the cardinality of j, as {@link #estimateJoinCardinality}
+     *         estimates it, looking up the distinct values of the join
+     *         fields of j once per search
      */
-    private boolean doesJoin(Vector<LogicalJoinNode> joinlist, String table) {
-        for (LogicalJoinNode j : joinlist) {
-            if (j.t1Alias.equals(table)
-                    || (j.t2Alias != null && j.t2Alias.equals(table)))
-                return true;
+    private long joinCardinality(LogicalJoinNode j, long card1, long card2,
+            boolean t1pkey, boolean t2pkey, HashMap<String, TableStats> stats) {
+        if (isSemiJoin(j) || j instanceof LogicalSubplanJoinNode) {
+            return estimateJoinCardinality(j, card1, card2, t1pkey, t2pkey, stats);
         }
-        return false;
+        long[] ndvs = joinNdvs.get(j);
+        if (ndvs == null) {
+            Map<String, Integer> ids = p.getTableAliasToIdMapping();
+            ndvs = new long[] { numDistinct(j.t1Alias, j.f1PureName, stats, ids),
+                    numDistinct(j.t2Alias, j.f2PureName, stats, ids) };
+            joinNdvs.put(j, ndvs);
+        }
+        return estimateTableJoinCardinality(j.p, ndvs[0], ndvs[1], card1, card2, t1pkey, t2pkey);
+    }
+
+    /**
+     * @return the costs of the algorithms that can perform j with outer
+     *         input in1 and inner input in2 (see {@link #costJoin})
+     */
+    private List<JoinCost> estimateJoinCosts(LogicalJoinNode j, CostCard in1, long tables1,
+            CostCard in2, long tables2, HashMap<String, TableStats> stats) throws ParsingException {
+        double probeCost = in2.join == null && j.t2Alias != null
+                ? probeCost(stats, j.t2Alias, j.f2PureName) : -1;
+        return estimateJoinCosts(j, in1.card, in2.card, in1.cost, in2.cost,
+                widthOf(tables1), widthOf(tables2),
+                sortedOn(in1, j.t1Alias, j.f1PureName), sortedOn(in2, j.t2Alias, j.f2PureName),
+                probeCost);
+    }
+
+    /** @return the size in bytes of the tuples of a join of the given tables */
+    private int widthOf(long tables) {
+        int width = 0;
+        for (long rest = tables; rest != 0; rest &= rest - 1) {
+            width += tableWidths[Long.numberOfTrailingZeros(rest)];
+        }
+        return Math.max(width, Type.INT_TYPE.getSizeInBytes());
+    }
+
+    /**
+     * @return whether input in is sorted on the given field: a sort-merge
+     *         join returns its tuples sorted on both of its join fields
+     */
+    private static boolean sortedOn(CostCard in, String alias, String pureName) {
+        if (in.join == null || in.joinCost == null || alias == null
+                || in.joinCost.algorithm != JoinCost.Algorithm.SORT_MERGE)
+            return false;
+        LogicalJoinNode last = in.join;
+        return (alias.equals(last.t1Alias) && pureName.equals(last.f1PureName))
+                || (alias.equals(last.t2Alias) && pureName.equals(last.f2PureName));
+    }
+
+    /**
+     * @return the statistics of the table with the given alias
+     * @throws ParsingException
+     *             if the alias or its statistics are unknown
+     */
+    private TableStats statsOf(HashMap<String, TableStats> stats, String alias) throws ParsingException {
+        Integer id = this.p.getTableId(alias);
+        if (id == null)
+            throw new ParsingException("Unknown table " + alias);
+        String tableName = Database.getCatalog().getTableName(id);
+        TableStats s = stats.get(tableName);
+        if (s == null)
+            throw new ParsingException("No statistics for table " + tableName);
+        return s;
     }
 
     /**
@@ -399,24 +1213,34 @@ public class JoinOptimizer {
      *            The pure name of the field
      */
     private boolean isPkey(String tableAlias, String field) {
+        // a key of one table may repeat in a relation joining it with others
+        String relation = relation(tableAlias);
+        for (Map.Entry<String, String> e : relationOf.entrySet()) {
+            if (e.getValue().equals(relation) && !e.getKey().equals(tableAlias))
+                return false;
+        }
         int tid1 = p.getTableId(tableAlias);
         String pkey1 = Database.getCatalog().getPrimaryKey(tid1);
 
-        return pkey1.equals(field);
+        return field.equals(pkey1);
     }
 
     /**
      * Return true if a primary key field is joined by one of the joins in
-     * joinlist
+     * joinSet
      */
-    private boolean hasPkey(Vector<LogicalJoinNode> joinlist) {
-        for (LogicalJoinNode j : joinlist) {
-            if (isPkey(j.t1Alias, j.f1PureName)
-                    || (j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName)))
+    private boolean hasPkey(long joinSet) {
+        for (long rest = joinSet; rest != 0; rest &= rest - 1) {
+            if (pkeyJoins[Long.numberOfTrailingZeros(rest)])
                 return true;
         }
         return false;
+    }
 
+    /** Return true if the join joins a primary key field */
+    private boolean hasPkey(LogicalJoinNode j) {
+        return isPkey(j.t1Alias, j.f1PureName)
+                || (j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName));
     }
 
     /**
@@ -426,6 +1250,8 @@ public class JoinOptimizer {
      * 
      * @param js
      *            the join plan to visualize
+     * @param joinSet
+     *            the bitmask of the joins of the plan
      * @param pc
      *            the PlanCache accumulated whild building the optimal plan
      * @param stats
@@ -435,7 +1261,7 @@ public class JoinOptimizer {
      *            (where tables are indentified by their alias or name if no
      *            alias is given)
      */
-    private void printJoins(Vector<LogicalJoinNode> js, PlanCache pc,
+    private void printJoins(Vector<LogicalJoinNode> js, long joinSet, PlanCache pc,
             HashMap<String, TableStats> stats,
             HashMap<String, Double> selectivities) {
 
@@ -449,79 +1275,9 @@ public class JoinOptimizer {
 
         f.setSize(300, 500);
 
-        HashMap<String, DefaultMutableTreeNode> m = new HashMap<String, DefaultMutableTreeNode>();
-
-        // int numTabs = 0;
-
-        // int k;
-        DefaultMutableTreeNode root = null, treetop = null;
-        HashSet<LogicalJoinNode> pathSoFar = new HashSet<LogicalJoinNode>();
-        boolean neither;
-
         System.out.println(js);
-        for (LogicalJoinNode j : js) {
-            pathSoFar.add(j);
-            System.out.println("PATH SO FAR = " + pathSoFar);
-
-            String table1Name = Database.getCatalog().getTableName(
-                    this.p.getTableId(j.t1Alias));
-            String table2Name = Database.getCatalog().getTableName(
-                    this.p.getTableId(j.t2Alias));
-
-            // Double c = pc.getCost(pathSoFar);
-            neither = true;
-
-            root = new DefaultMutableTreeNode("Join " + j + " (Cost ="
-                    + pc.getCost(pathSoFar) + ", card = "
-                    + pc.getCard(pathSoFar) + ")");
-            DefaultMutableTreeNode n = m.get(j.t1Alias);
-            if (n == null) { // never seen this table before
-                n = new DefaultMutableTreeNode(j.t1Alias
-                        + " (Cost = "
-                        + stats.get(table1Name).estimateScanCost()
-                        + ", card = "
-                        + stats.get(table1Name).estimateTableCardinality(
-                                selectivities.get(j.t1Alias)) + ")");
-                root.add(n);
-            } else {
-                // make left child root n
-                root.add(n);
-                neither = false;
-            }
-            m.put(j.t1Alias, root);
-
-            n = m.get(j.t2Alias);
-            if (n == null) { // never seen this table before
-
-                n = new DefaultMutableTreeNode(
-                        j.t2Alias == null ? "Subplan"
-                                : (j.t2Alias
-                                        + " (Cost = "
-                                        + stats.get(table2Name)
-                                        .estimateScanCost()
-                                        + ", card = "
-                                        + stats.get(table2Name)
-                                        .estimateTableCardinality(
-                                                selectivities
-                                                .get(j.t2Alias)) + ")"));
-                root.add(n);
-            } else {
-                // make right child root n
-                root.add(n);
-                neither = false;
-            }
-            m.put(j.t2Alias, root);
-
-            // unless this table doesn't join with other tables,
-            // all tables are accessed from root
-            if (!neither) {
-                for (String key : m.keySet()) {
-                    m.put(key, root);
-                }
-            }
-
-            treetop = root;
-        }
+        DefaultMutableTreeNode treetop = js.size() == 0 ? null
+                : planTree(joinSet, pc, stats, selectivities);
 
         JTree tree = new JTree(treetop);
         JScrollPane treeView = new JScrollPane(tree);
@@ -551,4 +1307,57 @@ public class JoinOptimizer {
 
     }
 
+    /**
+     * Give each join of the plan of joinSet cached in pc the cost of its
+     * algorithm and the estimated cardinality of its result.
+     */
+    private static void setJoinCosts(long joinSet, PlanCache pc) {
+        if (joinSet == 0)
+            return;
+        pc.getLastJoin(joinSet).joinCost = pc.getJoinCost(joinSet);
+        pc.getLastJoin(joinSet).estimatedCard = pc.getCard(joinSet);
+        setJoinCosts(pc.getLeft(joinSet), pc);
+        setJoinCosts(pc.getRight(joinSet), pc);
+    }
+
+    /** @return the plan of joinSet cached in pc, with its inputs in parentheses */
+    private static String planShape(long joinSet, PlanCache pc) {
+        LogicalJoinNode j = pc.getLastJoin(joinSet);
+        long left = pc.getLeft(joinSet);
+        long right = pc.getRight(joinSet);
+        return "(" + (left != 0 ? planShape(left, pc) : j.t1Alias) + " JOIN "
+                + (right != 0 ? planShape(right, pc) : j.t2Alias == null ? "subplan" : j.t2Alias) + ")";
+    }
+
+    /** @return the tree of the plan of joinSet cached in pc, for printJoins */
+    private DefaultMutableTreeNode planTree(long joinSet, PlanCache pc,
+            HashMap<String, TableStats> stats,
+            HashMap<String, Double> selectivities) {
+        LogicalJoinNode j = pc.getLastJoin(joinSet);
+        DefaultMutableTreeNode root = new DefaultMutableTreeNode("Join " + j
+                + " (Cost =" + pc.getCost(joinSet) + ", card = "
+                + pc.getCard(joinSet) + ")");
+        long left = pc.getLeft(joinSet);
+        long right = pc.getRight(joinSet);
+        root.add(left != 0 ? planTree(left, pc, stats, selectivities)
+                : tableTree(j.t1Alias, stats, selectivities));
+        root.add(right != 0 ? planTree(right, pc, stats, selectivities)
+                : tableTree(j.t2Alias, stats, selectivities));
+        return root;
+    }
+
+    /** @return the leaf of a base table, or of a subquery for a null alias, for printJoins */
+    private DefaultMutableTreeNode tableTree(String alias,
+            HashMap<String, TableStats> stats,
+            HashMap<String, Double> selectivities) {
+        if (alias == null) {
+            return new DefaultMutableTreeNode("Subplan");
+        }
+        TableStats s = stats.get(Database.getCatalog().getTableName(
+                this.p.getTableId(alias)));
+        return new DefaultMutableTreeNode(alias + " (Cost = "
+                + s.estimateScanCost() + ", card = "
+                + s.planningCardinality(selectivities.get(alias)) + ")");
+    }
+
 }
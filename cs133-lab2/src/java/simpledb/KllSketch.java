@@ -0,0 +1,159 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * KllSketch estimates quantiles of the INT, LONG or STRING fields added to it in
+ * bounded memory, following Karnin, Lang and Liberty's KLL sketch. Items are
+ * kept in levels of compactors, an item at level h standing for 2^h input
+ * items. When the sketch is full, the lowest level over its capacity is
+ * sorted and every other item (starting at a random offset) is promoted to
+ * the next level. The capacity of a level is K times (2/3)^(depth below the
+ * top level), so the sketch retains about 3K items however many it has seen,
+ * and the rank error of an estimate is around 1.7 / K of the input size.
+ * <p>
+ * Sketches are mergeable: merging two sketches gives a sketch of the union
+ * of their inputs.
+ */
+class KllSketch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final int K = 200;
+    private static final double C = 2.0 / 3.0;
+
+    private static final Comparator<Field> ORDER = new Comparator<Field>() {
+        public int compare(Field a, Field b) {
+            if (a instanceof IntField) {
+                return Integer.compare(((IntField) a).getValue(), ((IntField) b).getValue());
+            }
+            if (a instanceof LongField) {
+                return Long.compare(((LongField) a).getValue(), ((LongField) b).getValue());
+            }
+            return ((StringField) a).getValue().compareTo(((StringField) b).getValue());
+        }
+    };
+
+    /** The compactors, lowest level first. */
+    private final ArrayList<ArrayList<Field>> levels = new ArrayList<ArrayList<Field>>();
+    /** Number of items retained, and number of items seen. */
+    private int size = 0;
+    private long n = 0;
+    /** Total capacity of the levels, recomputed when a level is added. */
+    private int maxSize;
+
+    KllSketch() {
+        addLevel();
+    }
+
+    private void addLevel() {
+        levels.add(new ArrayList<Field>());
+        maxSize = 0;
+        for (int h = 0; h < levels.size(); h++) {
+            maxSize += capacity(h);
+        }
+    }
+
+    /** Add a value to the sketch. */
+    void add(Field f) {
+        levels.get(0).add(f);
+        size++;
+        n++;
+        if (size >= maxSize) {
+            compress();
+        }
+    }
+
+    private int capacity(int level) {
+        int depth = levels.size() - 1 - level;
+        return Math.max(2, (int) Math.ceil(K * Math.pow(C, depth)));
+    }
+
+    /** Compact levels until the sketch is within its capacity. */
+    private void compress() {
+        while (size >= maxSize) {
+            for (int h = 0; h < levels.size(); h++) {
+                ArrayList<Field> level = levels.get(h);
+                if (level.size() < capacity(h)) {
+                    continue;
+                }
+                if (h + 1 == levels.size()) {
+                    addLevel();
+                }
+                ArrayList<Field> next = levels.get(h + 1);
+                Collections.sort(level, ORDER);
+                // an odd item out stays at this level
+                int pairs = level.size() / 2;
+                int offset = ThreadLocalRandom.current().nextBoolean() ? 1 : 0;
+                for (int i = 0; i < pairs; i++) {
+                    next.add(level.get(2 * i + offset));
+                }
+                Field leftover = level.size() % 2 == 1 ? level.get(level.size() - 1) : null;
+                level.clear();
+                if (leftover != null) {
+                    level.add(leftover);
+                }
+                size -= pairs;
+                break;
+            }
+        }
+    }
+
+    /** Merge other into this sketch, which then covers both inputs. */
+    void merge(KllSketch other) {
+        while (levels.size() < other.levels.size()) {
+            addLevel();
+        }
+        for (int h = 0; h < other.levels.size(); h++) {
+            levels.get(h).addAll(other.levels.get(h));
+        }
+        size += other.size;
+        n += other.n;
+        compress();
+    }
+
+    /** @return the number of items the sketch has seen */
+    long count() {
+        return n;
+    }
+
+    /**
+     * @param q the quantile, between 0 and 1
+     * @return an estimate of the value at quantile q of the items seen, or
+     *         null if the sketch is empty
+     */
+    Field quantile(double q) {
+        if (n == 0) {
+            return null;
+        }
+        ArrayList<Field> items = new ArrayList<Field>(size);
+        HashMap<Field, Long> weights = new HashMap<Field, Long>();
+        for (int h = 0; h < levels.size(); h++) {
+            for (Field f : levels.get(h)) {
+                Long w = weights.get(f);
+                if (w == null) {
+                    items.add(f);
+                    weights.put(f, 1L << h);
+                } else {
+                    weights.put(f, w + (1L << h));
+                }
+            }
+        }
+        Collections.sort(items, ORDER);
+        long total = 0;
+        for (Field f : items) {
+            total += weights.get(f);
+        }
+        double target = q * total;
+        long seen = 0;
+        for (Field f : items) {
+            seen += weights.get(f);
+            if (seen >= target) {
+                return f;
+            }
+        }
+        return items.get(items.size() - 1);
+    }
+}
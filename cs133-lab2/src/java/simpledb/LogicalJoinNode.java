@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.util.Objects;
+
 /** A LogicalJoinNode represens the state needed of a join of two
  * tables in a LogicalQueryPlan */
 public class LogicalJoinNode {
@@ -23,6 +25,12 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** The algorithm {@link JoinOptimizer#orderJoins} chose for the join and its cost, or null if it chose none */
+    public JoinCost joinCost;
+
+    /** The cardinality {@link JoinOptimizer#orderJoins} estimated for the result of the join, or -1 if it estimated none */
+    public long estimatedCard = -1;
+
     public LogicalJoinNode() {
     }
 
@@ -47,25 +55,28 @@ public class LogicalJoinNode {
     /** Return a new LogicalJoinNode with the inner and outer (t1.f1
      * and t2.f2) tables swapped. */
     public LogicalJoinNode swapInnerOuter() {
-        Predicate.Op newp;
+        LogicalJoinNode j2 = new LogicalJoinNode(t2Alias,t1Alias,f2PureName,f1PureName, swap(p));
+        return j2;
+    }
+
+    /** Return the operator comparing B with A that is equivalent to A p B. */
+    static Predicate.Op swap(Predicate.Op p) {
         if (p == Predicate.Op.GREATER_THAN)
-            newp = Predicate.Op.LESS_THAN;
+            return Predicate.Op.LESS_THAN;
         else if (p == Predicate.Op.GREATER_THAN_OR_EQ)
-            newp = Predicate.Op.LESS_THAN_OR_EQ;
+            return Predicate.Op.LESS_THAN_OR_EQ;
         else if (p == Predicate.Op.LESS_THAN)
-            newp = Predicate.Op.GREATER_THAN;
+            return Predicate.Op.GREATER_THAN;
         else if (p == Predicate.Op.LESS_THAN_OR_EQ)
-            newp = Predicate.Op.GREATER_THAN_OR_EQ;
+            return Predicate.Op.GREATER_THAN_OR_EQ;
         else 
-            newp = p;
-        
-        LogicalJoinNode j2 = new LogicalJoinNode(t2Alias,t1Alias,f2PureName,f1PureName, newp);
-        return j2;
+            return p;
     }
     
     @Override public boolean equals(Object o) {
         LogicalJoinNode j2 =(LogicalJoinNode)o;
-        return (j2.t1Alias.equals(t1Alias)  || j2.t1Alias.equals(t2Alias)) && (j2.t2Alias.equals(t1Alias)  || j2.t2Alias.equals(t2Alias));
+        // t2Alias is null for joins with a subquery
+        return (j2.t1Alias.equals(t1Alias)  || j2.t1Alias.equals(t2Alias)) && (Objects.equals(j2.t2Alias, t1Alias)  || Objects.equals(j2.t2Alias, t2Alias));
     }
     
     @Override public String toString() {
@@ -73,7 +84,7 @@ public class LogicalJoinNode {
     }
     
     @Override public int hashCode() {
-        return t1Alias.hashCode() + t2Alias.hashCode() + f1PureName.hashCode() + f2PureName.hashCode();
+        return t1Alias.hashCode() + Objects.hashCode(t2Alias) + f1PureName.hashCode() + Objects.hashCode(f2PureName);
     }
 }
 
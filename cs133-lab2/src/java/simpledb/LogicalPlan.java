@@ -2,6 +2,9 @@ package simpledb;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Collections;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
@@ -12,9 +15,9 @@ import java.util.NoSuchElementException;
  * the parser and is ready to be processed by the optimizer.
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
- * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * nodes, filter nodes, a select list, and a list of group by fields.
+ * Any number of aggregates can be computed over the groups; they are
+ * all evaluated by a single {@link Aggregate} node.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -29,13 +32,15 @@ public class LogicalPlan {
     private HashMap<String,Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
-    private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
+    private Vector<String> groupByFields;
+    private Vector<LogicalSelectListNode> aggregates;
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
     private String query;
+    /** Whether physicalPlan keeps the join order it chooses; see {@link #keepJoinOrder} */
+    private boolean keepJoinOrder = false;
+    /** Whether joins holds the order kept from an earlier call of physicalPlan */
+    private boolean joinsOrdered = false;
 //    private Query owner;
 
     /** Constructor -- generate an empty logical plan */
@@ -47,6 +52,8 @@ public class LogicalPlan {
         tableMap = new HashMap<String,Integer>();
 
         selectList = new Vector<LogicalSelectListNode>();
+        groupByFields = new Vector<String>();
+        aggregates = new Vector<LogicalSelectListNode>();
         this.query = "";
     }
 
@@ -81,6 +88,33 @@ public class LogicalPlan {
         return this.tableMap;
     }
 
+    /** Make {@link #physicalPlan} keep the join order and join algorithms
+     *  it chooses the next time it is called, and build every later plan
+     *  with them instead of ordering the joins again.
+     */
+    void keepJoinOrder() {
+        keepJoinOrder = true;
+        joinsOrdered = false;
+    }
+
+    /** @return the filters of the plan, in the order they were added; their
+     *  constants may be changed between calls of {@link #physicalPlan}
+     */
+    Vector<LogicalFilterNode> getFilters() {
+        return filters;
+    }
+
+    /** @return whether the plan joins a table with a subquery, whose plan
+     *  was built when the query was parsed
+     */
+    boolean hasSubqueries() {
+        for (LogicalJoinNode lj : joins) {
+            if (lj instanceof LogicalSubplanJoinNode)
+                return true;
+        }
+        return false;
+    }
+
     /** Add a new filter to the logical plan
      *   @param field The name of the over which the filter applies;
      *   this can be a fully qualified field (tablename.field or
@@ -146,12 +180,29 @@ public class LogicalPlan {
      *      or is not in one of the tables added via {@link #addScan}
      */
     public void addJoin( String joinField1, DbIterator joinField2, Predicate.Op pred) throws ParsingException {
+        addJoin(joinField1, joinField2, pred, LogicalSubplanJoinNode.JoinType.INNER);
+    }
+
+    /** Add a join between a field and a subquery, keeping the tuples of
+     *  the field's table that match a tuple of the subquery (a semi-join) or
+     *  that match none (an anti-join), or joining them as addJoin does.
+     *  @param joinField1 The name of the field, in the form table.field or
+     *     just field if unambiguous
+     *  @param joinField2 the subquery; its first field is compared with
+     *     joinField1
+     *  @param pred the comparison
+     *  @param joinType how tuples of the field's table are matched with the
+     *     subquery
+     *  @throws ParsingException if the field is unknown or ambiguous
+     */
+    public void addJoin(String joinField1, DbIterator joinField2, Predicate.Op pred,
+            LogicalSubplanJoinNode.JoinType joinType) throws ParsingException {
         joinField1 = disambiguateName(joinField1);
 
         String table1 = joinField1.split("[.]")[0];
         String pureField = joinField1.split("[.]")[1];
 
-        LogicalSubplanJoinNode lj = new LogicalSubplanJoinNode(table1,pureField, joinField2, pred);
+        LogicalSubplanJoinNode lj = new LogicalSubplanJoinNode(table1,pureField, joinField2, pred, joinType);
         System.out.println("Added subplan join on " + joinField1);
         joins.addElement(lj);
     }
@@ -186,21 +237,31 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.  Aggregates are computed in the order they are added,
+        all in the same pass over the input.
         @param op the aggregation operator
-        @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param afield the field to aggregate over, or * for COUNT(*)
+        @param gfield a field to group by, or null to add no group by field
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
         afield=disambiguateName(afield);
+        if (afield.equals("*"))
+            afield="null.*";
+        aggregates.addElement(new LogicalSelectListNode(op, afield));
         if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
-        hasAgg = true;
+            addGroupByField(gfield);
+    }
+
+    /** Add a field to the GROUP BY list of the query.  Adding a field that
+        is already in the list has no effect.
+        @param gfield the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupByField(String gfield) throws ParsingException {
+        gfield=disambiguateName(gfield);
+        if (!groupByFields.contains(gfield))
+            groupByFields.addElement(gfield);
     }
 
     /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
@@ -258,6 +319,109 @@ public class LogicalPlan {
 
     }
 
+    /** @return true if tuples of it that agree on each of fields are
+     *   adjacent, so that they can be aggregated one group at a time.
+     *   With no fields there is a single group.  Tuples that are adjacent
+     *   for each field separately are adjacent for all of them together.
+     */
+    static boolean groupedOn(DbIterator it, int[] fields) {
+        if (fields.length == 0)
+            return false;  // a single group gains nothing from streaming
+        for (int f : fields) {
+            if (!groupedOn(it, f))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the estimated number of groups of an aggregate over scan
+     *   grouped on fields: the product of their numbers of distinct values,
+     *   at most the number of tuples of the table; or -1 if the table has no
+     *   statistics
+     */
+    static long estimateGroups(SeqScan scan, int[] fields, Map<String,TableStats> statsMap) {
+        TableStats s = statsMap.get(scan.getTableName());
+        if (s == null)
+            return -1;
+        long groups = 1;
+        for (int f : fields) {
+            int tableField = scan.getProjection() == null ? f : scan.getProjection()[f];
+            groups = Math.min(s.totalTuples(), groups * Math.max(1, s.numDistinct(tableField)));
+        }
+        return groups;
+    }
+
+    /** @return true if tuples of it with equal values of field are known to
+     *   be adjacent: the input is sorted on it, or an equality predicate or
+     *   index lookup gives every tuple the same value.  Nothing is known of
+     *   an {@link AdaptiveJoin}, which may run its joins in another order
+     *   than planned, so aggregates above it are never streamed.
+     */
+    static boolean groupedOn(DbIterator it, int field) {
+        if (it instanceof OrderBy)
+            return ((OrderBy) it).getOrderByField() == field;
+        if (it instanceof HashIndexScan)
+            return ((HashIndexScan) it).getKeyField() == field;
+        if (it instanceof SeqScan) {
+            SeqScan scan = (SeqScan) it;
+            int tableField = scan.getProjection() == null ? field : scan.getProjection()[field];
+            for (Predicate p : scan.getPredicates()) {
+                if (p.getOp() == Predicate.Op.EQUALS && p.getField() == tableField)
+                    return true;
+            }
+            return false;
+        }
+        if (it instanceof Filter) {
+            for (Predicate p : ((Filter) it).getPredicates()) {
+                if (p.getOp() == Predicate.Op.EQUALS && p.getField() == field)
+                    return true;
+            }
+            return groupedOn(((Filter) it).getChildren()[0], field);
+        }
+        if (it instanceof SemiJoin) {
+            // a semi-join returns some of its outer tuples, in order
+            return groupedOn(((SemiJoin) it).getChildren()[0], field);
+        }
+        if (it instanceof SortMergeJoin) {
+            // a sort-merge join returns its tuples sorted on the join fields
+            SortMergeJoin j = (SortMergeJoin) it;
+            int outerWidth = j.getChildren()[0].getTupleDesc().numFields();
+            JoinPredicate p = j.getJoinPredicate();
+            return field == p.getField1() || field == outerWidth + p.getField2();
+        }
+        JoinPredicate p = null;
+        if (it instanceof Join)
+            p = ((Join) it).getJoinPredicate();
+        else if (it instanceof HashJoin)
+            p = ((HashJoin) it).getJoinPredicate();
+        else if (it instanceof IndexNestedLoopsJoin)
+            p = ((IndexNestedLoopsJoin) it).getJoinPredicate();
+        if (p != null) {
+            // nested loops, hash and index joins return the outer tuples in
+            // order, each followed by its matches
+            DbIterator outer = ((Operator) it).getChildren()[0];
+            int outerWidth = outer.getTupleDesc().numFields();
+            if (field < outerWidth)
+                return groupedOn(outer, field);
+            return p.getOperator() == Predicate.Op.EQUALS && p.getField2() == field - outerWidth
+                    && groupedOn(outer, p.getField1());
+        }
+        return false;
+    }
+
+    /** @return the position of the aggregate matching select list item si
+     *   among the aggregates of the plan, or -1 if there is none
+     */
+    private int aggregateIndex(LogicalSelectListNode si) {
+        for (int i = 0; i < aggregates.size(); i++) {
+            LogicalSelectListNode agg = aggregates.elementAt(i);
+            if (agg.aggOp.equalsIgnoreCase(si.aggOp) && agg.fname.equals(si.fname))
+                return i;
+        }
+        return -1;
+    }
+
     /** Convert the aggregate operator name s into an Aggregator.op operation.
      *  @throws ParsingException if s is not a valid operator name 
      */
@@ -268,9 +432,52 @@ public class LogicalPlan {
         if (s.equals("COUNT")) return Aggregator.Op.COUNT;
         if (s.equals("MIN")) return Aggregator.Op.MIN;
         if (s.equals("MAX")) return Aggregator.Op.MAX;
+        if (s.equals("APPROX_COUNT_DISTINCT")) return Aggregator.Op.APPROX_COUNT_DISTINCT;
+        if (s.equals("APPROX_MEDIAN")) return Aggregator.Op.APPROX_MEDIAN;
+        if (s.equals("APPROX_P90")) return Aggregator.Op.APPROX_P90;
+        if (s.equals("APPROX_P99")) return Aggregator.Op.APPROX_P99;
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** A filter predicate with its estimated selectivity and cost per tuple. */
+    private static class Conjunct implements Comparable<Conjunct> {
+        final Predicate pred;
+        final LogicalFilterNode filter;
+        final double selectivity;
+        final double cost;
+
+        Conjunct(Predicate pred, LogicalFilterNode filter, double selectivity, double cost) {
+            this.pred = pred;
+            this.filter = filter;
+            this.selectivity = selectivity;
+            this.cost = cost;
+        }
+
+        /** @return the change in the number of tuples per unit of cost; lower ranks go first */
+        double rank() {
+            return (selectivity - 1) / cost;
+        }
+
+        public int compareTo(Conjunct o) {
+            return Double.compare(rank(), o.rank());
+        }
+
+        public String toString() {
+            return String.format("%s %s %s (selectivity %.3f, cost %.0f)",
+                    filter.fieldQuantifiedName, filter.p, filter.c, selectivity, cost);
+        }
+    }
+
+    /** @return the relative cost of evaluating a filter with the given
+     *   operator on a field of the given type: numbers compare in one
+     *   step, strings byte by byte, and LIKE searches for a substring
+     */
+    static double evaluationCost(Predicate.Op op, Type type) {
+        if (type != Type.STRING_TYPE)
+            return 1;
+        return op == Predicate.Op.LIKE ? 8 : 2;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -306,6 +513,28 @@ public class LogicalPlan {
 
         }
 
+        // an equality filter on a primary key with a hash index becomes an
+        // index lookup in place of the scan
+        HashSet<LogicalFilterNode> indexedFilters = new HashSet<LogicalFilterNode>();
+        for (LogicalFilterNode lf : filters) {
+            if (lf.p != Predicate.Op.EQUALS || !(subplanMap.get(lf.tableAlias) instanceof SeqScan))
+                continue;
+            int tableId = this.getTableId(lf.tableAlias);
+            HashIndexFile index = Database.getCatalog().getIndex(tableId);
+            if (index == null || !lf.fieldPureName.equals(Database.getCatalog().getPrimaryKey(tableId)))
+                continue;
+            Field key;
+            if (index.getKeyType() == Type.INT_TYPE)
+                key = new IntField(Integer.parseInt(lf.c));
+            else if (index.getKeyType() == Type.LONG_TYPE)
+                key = new LongField(Long.parseLong(lf.c));
+            else
+                key = new StringField(lf.c, Type.STRING_LEN);
+            subplanMap.put(lf.tableAlias, new HashIndexScan(t, tableId, lf.tableAlias, key));
+            indexedFilters.add(lf);
+        }
+
+        LinkedHashMap<String,ArrayList<Conjunct>> conjuncts = new LinkedHashMap<String,ArrayList<Conjunct>>();
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -325,6 +554,8 @@ public class LogicalPlan {
             }
             if (ftyp == Type.INT_TYPE)
                 f = new IntField(new Integer(lf.c).intValue());
+            else if (ftyp == Type.LONG_TYPE)
+                f = new LongField(Long.parseLong(lf.c));
             else
                 f = new StringField(lf.c, Type.STRING_LEN);
 
@@ -334,22 +565,70 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
-
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
-            double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
-            filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
+            int statsField = subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName);
+            double sel= s.estimateSelectivity(statsField, lf.p, f);
+            // joins over sampled statistics are planned for the upper bound
+            // (see TableStats.planningCardinality); filters are ordered by
+            // the estimate
+            double planned = s.isSampled() ? s.estimateSelectivityBounds(statsField, lf.p, f)[1] : sel;
+            filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * planned);
+
+            if (!indexedFilters.contains(lf)) {
+                if (!conjuncts.containsKey(lf.tableAlias))
+                    conjuncts.put(lf.tableAlias, new ArrayList<Conjunct>());
+                conjuncts.get(lf.tableAlias).add(new Conjunct(p, lf, sel, evaluationCost(lf.p, ftyp)));
+            }
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        // the filters on each table are evaluated together, inside the scan
+        // of a base table or by a single Filter, most selective per unit of
+        // cost first, so that each tuple is rejected as cheaply as possible
+        for (Map.Entry<String,ArrayList<Conjunct>> e : conjuncts.entrySet()) {
+            ArrayList<Conjunct> cs = e.getValue();
+            Collections.sort(cs);
+            Predicate[] preds = new Predicate[cs.size()];
+            for (int i = 0; i < preds.length; i++)
+                preds[i] = cs.get(i).pred;
+            DbIterator subplan = subplanMap.get(e.getKey());
+            if (subplan instanceof SeqScan) {
+                for (Predicate p : preds)
+                    ((SeqScan) subplan).addPredicate(p);
+            } else {
+                subplanMap.put(e.getKey(), new Filter(preds, subplan));
+            }
+            if (explain)
+                System.out.println("Filters on " + e.getKey() + " evaluated in the order " + cs);
+        }
         
+        pushDownProjections();
+
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
-        joins = jo.orderJoins(statsMap,filterSelectivities,explain);
+        if (!joinsOrdered) {
+            joins = jo.orderJoins(statsMap,filterSelectivities,explain);
+            joinsOrdered = keepJoinOrder;
+        } else if (explain) {
+            System.out.println("Join order kept from an earlier plan: " + joins);
+        }
+
+        // with more than one join, the joins still to run are ordered again
+        // if an input a join reads into memory is far from its estimate
+        boolean adaptive = joins.size() > 1 && AdaptiveJoin.isEnabled() && !hasSubqueries();
+        if (adaptive) {
+            AdaptiveJoin j = new AdaptiveJoin(this, joins, new HashMap<String,DbIterator>(subplanMap),
+                    statsMap, filterSelectivities, explain);
+            subplanMap.clear();
+            subplanMap.put(joins.get(0).t1Alias, j);
+        }
 
+        // each join takes the subplans currently holding its two tables;
+        // in a bushy plan both may already be the results of other joins
         Iterator<LogicalJoinNode> joinIt = joins.iterator();
-        while (joinIt.hasNext()) {
+        while (!adaptive && joinIt.hasNext()) {
             LogicalJoinNode lj = joinIt.next();
             DbIterator plan1;
             DbIterator plan2;
@@ -409,33 +688,43 @@ public class LogicalPlan {
         DbIterator node =  (DbIterator)(subplanMap.entrySet().iterator().next().getValue());
 
         //walk the select list, to determine order in which to project output fields
+        boolean hasAgg = !aggregates.isEmpty();
         ArrayList<Integer> outFields = new ArrayList<Integer>();
         ArrayList<Type> outTypes = new ArrayList<Type>();
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
-                TupleDesc td = node.getTupleDesc();
-//                int  id;
-                try {
-//                    id = 
-                    td.fieldNameToIndex(si.fname);
-                } catch (NoSuchElementException e) {
-                    throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
+                int agg = aggregateIndex(si);
+                if (agg < 0) {
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") was not added to the plan");
+                }
+                outFields.add(groupByFields.size() + agg);
+                if (si.fname.equals("null.*")) {
+                    outTypes.add(Type.INT_TYPE);
+                } else {
+                    // the aggregate's result type follows from its field's type
+                    TupleDesc td = node.getTupleDesc();
+                    Type ftype;
+                    try {
+                        ftype = td.getFieldType(td.fieldNameToIndex(si.fname));
+                    } catch (NoSuchElementException e) {
+                        throw new ParsingException("Unknown field " + si.fname + " in SELECT list");
+                    }
+                    outTypes.add(getAggOp(si.aggOp).resultType(ftype));
                 }
-                outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int g = groupByFields.indexOf(si.fname);
+                    if (g < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(g);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -460,18 +749,45 @@ public class LogicalPlan {
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            int[] afields = new int[aggregates.size()];
+            Aggregator.Op[] aops = new Aggregator.Op[aggregates.size()];
+            int[] gfields = new int[groupByFields.size()];
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                for (int i = 0; i < afields.length; i++) {
+                    LogicalSelectListNode agg = aggregates.elementAt(i);
+                    aops[i] = getAggOp(agg.aggOp);
+                    if (agg.fname.equals("null.*")) {
+                        if (aops[i] != Aggregator.Op.COUNT)
+                            throw new ParsingException("Only COUNT can be applied to *");
+                        afields[i] = 0;  // COUNT(*) counts rows whatever the field
+                    } else {
+                        afields[i] = td.fieldNameToIndex(agg.fname);
+                    }
+                }
+                for (int i = 0; i < gfields.length; i++) {
+                    gfields[i] = td.fieldNameToIndex(groupByFields.elementAt(i));
+                }
+                if (groupedOn(node, gfields)) {
+                    // the groups arrive one after another, so each can be
+                    // returned as soon as it ends
+                    node = new StreamAggregate(node, afields, aops, gfields);
+                } else {
+                    Aggregate aggNode = new Aggregate(node, afields, aops, gfields);
+                    // parallel workers each hold the groups they see and
+                    // never spill, so only when they all fit in the budget
+                    int parallelism = Runtime.getRuntime().availableProcessors();
+                    if (node instanceof SeqScan) {
+                        long groups = estimateGroups((SeqScan) node, gfields, statsMap);
+                        if (groups >= 0 && groups * parallelism <= aggNode.getMaxGroups())
+                            aggNode.setParallelism(parallelism);
+                    }
+                    node = aggNode;
+                }
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
-            node = aggNode;
         }
 
         if (hasOrderBy) {
@@ -481,6 +797,68 @@ public class LogicalPlan {
         return new Project(outFields, outTypes, node);
     }
 
+    /** Narrow every base table scan to the columns the rest of the plan
+     *  references: the select list, the aggregate, GROUP BY and ORDER BY
+     *  fields, and the join fields.  Filters on base tables are evaluated
+     *  inside the scans against the full tuple, so a filtered column is only
+     *  kept if something above the scan references it too.  A select list
+     *  with * keeps every column of every table.
+     */
+    private void pushDownProjections() {
+        HashMap<String,HashSet<String>> needed = new HashMap<String,HashSet<String>>();
+        for (LogicalScanNode table : tables)
+            needed.put(table.alias, new HashSet<String>());
+
+        ArrayList<String> refs = new ArrayList<String>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.aggOp == null)
+                refs.add(si.fname);
+        }
+        for (LogicalSelectListNode agg : aggregates) {
+            if (!agg.fname.equals("null.*"))
+                refs.add(agg.fname);
+        }
+        refs.addAll(groupByFields);
+        if (hasOrderBy)
+            refs.add(oByField);
+        for (String ref : refs) {
+            String[] parts = ref.split("[.]");
+            if (parts.length != 2 || parts[1].equals("*") || !needed.containsKey(parts[0]))
+                return;
+            needed.get(parts[0]).add(parts[1]);
+        }
+        for (LogicalJoinNode lj : joins) {
+            if (!needed.containsKey(lj.t1Alias))
+                return;
+            needed.get(lj.t1Alias).add(lj.f1PureName);
+            if (!(lj instanceof LogicalSubplanJoinNode)) {
+                if (!needed.containsKey(lj.t2Alias))
+                    return;
+                needed.get(lj.t2Alias).add(lj.f2PureName);
+            }
+        }
+
+        for (Map.Entry<String,HashSet<String>> e : needed.entrySet()) {
+            DbIterator subplan = subplanMap.get(e.getKey());
+            if (!(subplan instanceof SeqScan))
+                continue;
+            TupleDesc td = Database.getCatalog().getTupleDesc(getTableId(e.getKey()));
+            ArrayList<Integer> fields = new ArrayList<Integer>();
+            for (int i = 0; i < td.numFields(); i++) {
+                if (e.getValue().contains(td.getFieldName(i)))
+                    fields.add(i);
+            }
+            if (fields.size() == td.numFields())
+                continue;
+            if (fields.isEmpty())
+                fields.add(0);  // the scan still has to produce one tuple per row
+            int[] projection = new int[fields.size()];
+            for (int i = 0; i < projection.length; i++)
+                projection[i] = fields.get(i);
+            ((SeqScan) subplan).setProjection(projection);
+        }
+    }
+
     public static void main(String argv[]) {
         // construct a 3-column table schema
         Type types[] = new Type[]{ Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
@@ -6,8 +6,21 @@ package simpledb;
  */
 public class LogicalSubplanJoinNode extends LogicalJoinNode {
     
+    /** How the tuples of t1 are matched with the tuples of a subplan */
+    public enum JoinType {
+        /** each pair of matching tuples is joined */
+        INNER,
+        /** each tuple of t1 with a match is kept, as for IN and EXISTS */
+        SEMI,
+        /** each tuple of t1 without a match is kept, as for NOT IN and NOT EXISTS */
+        ANTI
+    }
+
     /** The subplan (used on the inner) of the join */
     DbIterator subPlan;
+
+    /** How the tuples of t1 are matched with the subplan's */
+    public JoinType joinType = JoinType.INNER;
     
     public LogicalSubplanJoinNode(String table1, String joinField1, DbIterator sp, Predicate.Op pred) {
         t1Alias = table1;
@@ -20,6 +33,12 @@ public class LogicalSubplanJoinNode extends LogicalJoinNode {
         subPlan = sp;
         p = pred;
     }
+
+    public LogicalSubplanJoinNode(String table1, String joinField1, DbIterator sp, Predicate.Op pred,
+            JoinType joinType) {
+        this(table1, joinField1, sp, pred);
+        this.joinType = joinType;
+    }
     
     @Override public int hashCode() {
         return t1Alias.hashCode() + f1PureName.hashCode() + subPlan.hashCode();
@@ -34,7 +53,7 @@ public class LogicalSubplanJoinNode extends LogicalJoinNode {
     }
     
     public LogicalSubplanJoinNode swapInnerOuter() {
-        LogicalSubplanJoinNode j2 = new LogicalSubplanJoinNode(t1Alias,f1PureName,subPlan, p);
+        LogicalSubplanJoinNode j2 = new LogicalSubplanJoinNode(t1Alias,f1PureName,subPlan, p, joinType);
         return j2;
     }
 
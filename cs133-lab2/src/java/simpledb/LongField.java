@@ -0,0 +1,93 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * Instance of Field that stores a single 64-bit integer.
+ */
+public class LongField implements Field {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long value;
+
+    public long getValue() {
+        return value;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param l The value of this field.
+     */
+    public LongField(long l) {
+        value = l;
+    }
+
+    /**
+     * @return the value of f, which must be an IntField or a LongField, as
+     *         a long
+     * @throws ClassCastException if f is neither
+     */
+    static long valueOf(Field f) {
+        if (f instanceof IntField) {
+            return ((IntField) f).getValue();
+        }
+        return ((LongField) f).value;
+    }
+
+    public String toString() {
+        return Long.toString(value);
+    }
+
+    public int hashCode() {
+        return Long.hashCode(value);
+    }
+
+    public boolean equals(Object field) {
+        return ((LongField) field).value == value;
+    }
+
+    public void serialize(DataOutputStream dos) throws IOException {
+        dos.writeLong(value);
+    }
+
+    /**
+     * Compare the specified field to the value of this Field.
+     * Return semantics are as specified by Field.compare
+     *
+     * @throws IllegalCastException if val is neither a LongField nor an
+     *             IntField
+     * @see Field#compare
+     */
+    public boolean compare(Predicate.Op op, Field val) {
+
+        long lVal = valueOf(val);
+
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return value == lVal;
+        case NOT_EQUALS:
+            return value != lVal;
+        case GREATER_THAN:
+            return value > lVal;
+        case GREATER_THAN_OR_EQ:
+            return value >= lVal;
+        case LESS_THAN:
+            return value < lVal;
+        case LESS_THAN_OR_EQ:
+            return value <= lVal;
+        }
+
+        return false;
+    }
+
+    /**
+     * Return the Type of this field.
+     * @return Type.LONG_TYPE
+     */
+    public Type getType() {
+        return Type.LONG_TYPE;
+    }
+}
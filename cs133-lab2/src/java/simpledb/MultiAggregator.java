@@ -0,0 +1,290 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Computes several aggregates at once, grouped by any number of fields. Each
+ * group keeps a min, max, sum and count per aggregate, so one pass over the
+ * input is enough for every aggregate of the group. Approximate aggregates
+ * (see {@link Aggregator.Op#isSketch}) keep a {@link HyperLogLog} or
+ * {@link KllSketch} per group instead, whose memory is bounded however many
+ * tuples the group has.
+ */
+public class MultiAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int MIN = 0, MAX = 1, SUM = 2, COUNT = 3, STATS = 4;
+
+    private final int[] gbfields;
+    private final int[] afields;
+    private final Op[] ops;
+    /** For each aggregate, whether its field is an INT or LONG field. */
+    private final boolean[] numericFields;
+    /**
+     * For each aggregate, the largest value of its field type, where its MIN
+     * starts; its MAX starts at the smallest value of the type.
+     */
+    private final long[] maxValues;
+    private final TupleDesc td;
+    /** Accumulators of every group, in first-seen order. */
+    private final LinkedHashMap<List<Field>, Group> groups;
+
+    /** The state of one group. */
+    private static class Group implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        /** min, max, sum and count of each aggregate */
+        final long[] acc;
+        /** the sketch of each sketch aggregate; null for the others */
+        final Object[] sketches;
+
+        Group(long[] acc, Object[] sketches) {
+            this.acc = acc;
+            this.sketches = sketches;
+        }
+    }
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfields
+     *            the 0-based indexes of the group-by fields in the tuple;
+     *            empty if there is no grouping
+     * @param gbfieldtypes
+     *            the types of the group-by fields
+     * @param afields
+     *            the 0-based indexes of the aggregate fields in the tuple
+     * @param afieldtypes
+     *            the types of the aggregate fields
+     * @param ops
+     *            the aggregation operator of each aggregate field
+     * @throws IllegalArgumentException if the arrays do not match in length,
+     *             or an aggregate over a STRING field is neither a COUNT nor
+     *             an approximate aggregate
+     */
+    public MultiAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields, Type[] afieldtypes, Op[] ops) {
+        if (gbfields.length != gbfieldtypes.length || afields.length != afieldtypes.length
+                || afields.length != ops.length || afields.length == 0) {
+            throw new IllegalArgumentException("mismatched aggregate specification");
+        }
+        this.gbfields = gbfields.clone();
+        this.afields = afields.clone();
+        this.ops = ops.clone();
+        this.numericFields = new boolean[afields.length];
+        this.maxValues = new long[afields.length];
+        for (int i = 0; i < afields.length; i++) {
+            numericFields[i] = afieldtypes[i] != Type.STRING_TYPE;
+            maxValues[i] = afieldtypes[i] == Type.LONG_TYPE ? Long.MAX_VALUE : Integer.MAX_VALUE;
+            if (!numericFields[i] && ops[i] != Op.COUNT && !ops[i].isSketch()) {
+                throw new IllegalArgumentException(ops[i] + " is not supported over STRING fields");
+            }
+            if (ops[i] == Op.SUM_COUNT || ops[i] == Op.SC_AVG) {
+                throw new IllegalArgumentException(ops[i] + " is not supported");
+            }
+        }
+        Type[] types = new Type[gbfields.length + afields.length];
+        System.arraycopy(gbfieldtypes, 0, types, 0, gbfields.length);
+        for (int i = 0; i < afields.length; i++) {
+            types[gbfields.length + i] = ops[i].resultType(afieldtypes[i]);
+        }
+        this.td = new TupleDesc(types);
+        this.groups = new LinkedHashMap<List<Field>, Group>();
+        if (gbfields.length == 0) {
+            groups.put(Collections.<Field>emptyList(), newGroup());
+        }
+    }
+
+    private Group newGroup() {
+        long[] acc = new long[STATS * afields.length];
+        Object[] sketches = null;
+        for (int i = 0; i < afields.length; i++) {
+            acc[STATS * i + MIN] = maxValues[i];
+            acc[STATS * i + MAX] = -maxValues[i] - 1;
+            if (ops[i].isSketch()) {
+                if (sketches == null) {
+                    sketches = new Object[afields.length];
+                }
+                sketches[i] = ops[i] == Op.APPROX_COUNT_DISTINCT ? new HyperLogLog() : new KllSketch();
+            }
+        }
+        return new Group(acc, sketches);
+    }
+
+    private List<Field> keyOf(Tuple tup) {
+        if (gbfields.length == 0) {
+            return Collections.<Field>emptyList();
+        }
+        if (gbfields.length == 1) {
+            return Collections.singletonList(tup.getField(gbfields[0]));
+        }
+        Field[] key = new Field[gbfields.length];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = tup.getField(gbfields[i]);
+        }
+        return Arrays.asList(key);
+    }
+
+    /**
+     * Merge a new tuple into every aggregate of its group, creating the
+     * group if it has not been seen yet.
+     *
+     * @param tup
+     *            the Tuple containing the aggregate and group-by fields
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        List<Field> key = keyOf(tup);
+        Group group = groups.get(key);
+        if (group == null) {
+            group = newGroup();
+            groups.put(key, group);
+        }
+        long[] acc = group.acc;
+        for (int i = 0; i < afields.length; i++) {
+            int base = STATS * i;
+            if (group.sketches != null && group.sketches[i] != null) {
+                Field f = tup.getField(afields[i]);
+                if (ops[i] == Op.APPROX_COUNT_DISTINCT) {
+                    ((HyperLogLog) group.sketches[i]).add(f);
+                } else {
+                    ((KllSketch) group.sketches[i]).add(f);
+                }
+            } else if (numericFields[i]) {
+                long v = LongField.valueOf(tup.getField(afields[i]));
+                if (v < acc[base + MIN]) acc[base + MIN] = v;
+                if (v > acc[base + MAX]) acc[base + MAX] = v;
+                acc[base + SUM] += v;
+            }
+            acc[base + COUNT]++;
+        }
+    }
+
+    public void mergePartial(Aggregator partial) {
+        if (!(partial instanceof MultiAggregator)) {
+            throw new IllegalArgumentException("cannot merge " + partial.getClass().getSimpleName());
+        }
+        for (Map.Entry<List<Field>, Group> entry : ((MultiAggregator) partial).groups.entrySet()) {
+            Group group = groups.get(entry.getKey());
+            if (group == null) {
+                group = newGroup();
+                groups.put(entry.getKey(), group);
+            }
+            long[] acc = group.acc;
+            long[] other = entry.getValue().acc;
+            for (int i = 0; i < afields.length; i++) {
+                if (group.sketches == null || group.sketches[i] == null) {
+                    continue;
+                }
+                Object sketch = entry.getValue().sketches[i];
+                if (ops[i] == Op.APPROX_COUNT_DISTINCT) {
+                    ((HyperLogLog) group.sketches[i]).merge((HyperLogLog) sketch);
+                } else {
+                    ((KllSketch) group.sketches[i]).merge((KllSketch) sketch);
+                }
+            }
+            for (int base = 0; base < acc.length; base += STATS) {
+                if (other[base + MIN] < acc[base + MIN]) acc[base + MIN] = other[base + MIN];
+                if (other[base + MAX] > acc[base + MAX]) acc[base + MAX] = other[base + MAX];
+                acc[base + SUM] += other[base + SUM];
+                acc[base + COUNT] += other[base + COUNT];
+            }
+        }
+    }
+
+    public int numGroups() {
+        return groups.size();
+    }
+
+    public boolean hasGroup(Tuple tup) {
+        return groups.containsKey(keyOf(tup));
+    }
+
+    private Field result(Group group, int i) {
+        if (ops[i] == Op.APPROX_COUNT_DISTINCT) {
+            long estimate = ((HyperLogLog) group.sketches[i]).estimate();
+            return new IntField((int) Math.min(estimate, Integer.MAX_VALUE));
+        }
+        if (ops[i].isQuantile()) {
+            Field f = ((KllSketch) group.sketches[i]).quantile(ops[i].quantile());
+            if (f != null) {
+                return f;
+            }
+            // only the single group of an ungrouped, empty input has no values
+            return numericFields[i] ? IntegerAggregator.toField(td.getFieldType(gbfields.length + i), 0)
+                    : new StringField("", Type.STRING_LEN);
+        }
+        return IntegerAggregator.toField(td.getFieldType(gbfields.length + i), result(group.acc, i));
+    }
+
+    private long result(long[] acc, int i) {
+        int base = STATS * i;
+        switch (ops[i]) {
+        case MIN:
+            return acc[base + MIN];
+        case MAX:
+            return acc[base + MAX];
+        case SUM:
+            return acc[base + SUM];
+        case COUNT:
+            return acc[base + COUNT];
+        case AVG:
+            return acc[base + COUNT] == 0 ? 0 : acc[base + SUM] / acc[base + COUNT];
+        default:
+            throw new IllegalStateException("Invalid operation");
+        }
+    }
+
+    /**
+     * Returns a DbIterator over group aggregate results.
+     *
+     * @return a DbIterator whose tuples hold the group-by values, in the
+     *         order of the group-by fields, followed by one value per
+     *         aggregate, in the order of the aggregate fields
+     */
+    public DbIterator iterator() {
+        return new DbIterator() {
+            private static final long serialVersionUID = 1L;
+
+            private Iterator<Map.Entry<List<Field>, Group>> entries;
+
+            public void open() {
+                entries = groups.entrySet().iterator();
+            }
+
+            public boolean hasNext() {
+                if (entries == null) throw new IllegalStateException("iterator not open");
+                return entries.hasNext();
+            }
+
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<List<Field>, Group> entry = entries.next();
+                Tuple tuple = new Tuple(td);
+                List<Field> key = entry.getKey();
+                for (int i = 0; i < key.size(); i++) {
+                    tuple.setField(i, key.get(i));
+                }
+                for (int i = 0; i < afields.length; i++) {
+                    tuple.setField(key.size() + i, result(entry.getValue(), i));
+                }
+                return tuple;
+            }
+
+            public void rewind() {
+                close();
+                open();
+            }
+
+            public TupleDesc getTupleDesc() {
+                return td;
+            }
+
+            public void close() {
+                entries = null;
+            }
+        };
+    }
+}
@@ -0,0 +1,174 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * PagePredicate is a {@link Predicate} compiled against the on-page layout of
+ * a table, so that it can be evaluated on the serialized bytes of a HeapPage
+ * slot without building a Tuple. Rejected slots are never decoded.
+ *
+ * @see HeapPage#iterator(PagePredicate[])
+ */
+class PagePredicate {
+
+    private final Predicate pred;
+    private final Predicate.Op op;
+    private final Type type;
+    /** Byte offset of the compared field within a tuple. */
+    private final int fieldOffset;
+
+    /** The operand of a predicate over an INT or LONG field. */
+    private final long numOperand;
+    /**
+     * Serialized characters of a string operand, or null if the operand
+     * cannot be compared byte-wise and slots must be decoded instead.
+     */
+    private final byte[] strOperand;
+
+    /**
+     * Compile the specified predicate for pages holding tuples described by td.
+     */
+    PagePredicate(Predicate pred, TupleDesc td) {
+        this.pred = pred;
+        this.op = pred.getOp();
+        this.type = td.getFieldType(pred.getField());
+        int offset = 0;
+        for (int i = 0; i < pred.getField(); i++) {
+            offset += td.getFieldType(i).getSizeInBytes();
+        }
+        this.fieldOffset = offset;
+
+        if (type != Type.STRING_TYPE) {
+            numOperand = LongField.valueOf(pred.getOperand());
+            strOperand = null;
+        } else {
+            numOperand = 0;
+            strOperand = asciiBytes(((StringField) pred.getOperand()).getValue());
+        }
+    }
+
+    /**
+     * @return the bytes of s as written by StringField.serialize, or null if s
+     *         has non-ASCII characters whose stored form does not order like
+     *         the decoded String
+     */
+    private static byte[] asciiBytes(String s) {
+        if (s.length() > Type.STRING_LEN) {
+            s = s.substring(0, Type.STRING_LEN);
+        }
+        byte[] b = new byte[s.length()];
+        for (int i = 0; i < b.length; i++) {
+            char c = s.charAt(i);
+            if (c >= 128) {
+                return null;
+            }
+            b[i] = (byte) c;
+        }
+        return b;
+    }
+
+    /** @return the predicate this was compiled from */
+    Predicate getPredicate() {
+        return pred;
+    }
+
+    /** Evaluate the predicate on a decoded tuple. */
+    boolean matches(Tuple t) {
+        return pred.filter(t);
+    }
+
+    /**
+     * Evaluate the predicate on the serialized tuple starting at tupleOffset
+     * in the page data.
+     */
+    boolean matches(byte[] data, int tupleOffset) {
+        int off = tupleOffset + fieldOffset;
+        if (type != Type.STRING_TYPE) {
+            long v = type == Type.INT_TYPE ? HeapPage.readInt(data, off) : HeapPage.readLong(data, off);
+            switch (op) {
+            case EQUALS:
+            case LIKE:
+                return v == numOperand;
+            case NOT_EQUALS:
+                return v != numOperand;
+            case GREATER_THAN:
+                return v > numOperand;
+            case GREATER_THAN_OR_EQ:
+                return v >= numOperand;
+            case LESS_THAN:
+                return v < numOperand;
+            case LESS_THAN_OR_EQ:
+                return v <= numOperand;
+            }
+            return false;
+        }
+
+        int len = HeapPage.readInt(data, off);
+        int start = off + 4;
+        if (strOperand == null || len < 0 || len > Type.STRING_LEN || !isAscii(data, start, len)) {
+            // fall back to the decoded comparison
+            try {
+                Field f = Type.STRING_TYPE.parse(new DataInputStream(
+                        new ByteArrayInputStream(data, off, Type.STRING_TYPE.getSizeInBytes())));
+                return f.compare(op, pred.getOperand());
+            } catch (java.text.ParseException e) {
+                return false;
+            }
+        }
+        if (op == Predicate.Op.LIKE) {
+            return indexOf(data, start, len) >= 0;
+        }
+        int cmp = compare(data, start, len);
+        switch (op) {
+        case EQUALS:
+            return cmp == 0;
+        case NOT_EQUALS:
+            return cmp != 0;
+        case GREATER_THAN:
+            return cmp > 0;
+        case GREATER_THAN_OR_EQ:
+            return cmp >= 0;
+        case LESS_THAN:
+            return cmp < 0;
+        case LESS_THAN_OR_EQ:
+            return cmp <= 0;
+        default:
+            return false;
+        }
+    }
+
+    private static boolean isAscii(byte[] data, int start, int len) {
+        for (int i = start; i < start + len; i++) {
+            if (data[i] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Lexicographic comparison of the stored string with the operand, as String.compareTo. */
+    private int compare(byte[] data, int start, int len) {
+        int n = Math.min(len, strOperand.length);
+        for (int i = 0; i < n; i++) {
+            int d = data[start + i] - strOperand[i];
+            if (d != 0) {
+                return d;
+            }
+        }
+        return len - strOperand.length;
+    }
+
+    /** @return the position of the operand within the stored string, or -1 */
+    private int indexOf(byte[] data, int start, int len) {
+        outer:
+        for (int i = 0; i + strOperand.length <= len; i++) {
+            for (int j = 0; j < strOperand.length; j++) {
+                if (data[start + i + j] != strOperand[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -11,6 +11,17 @@ import jline.SimpleCompletor;
 
 public class Parser {
     static boolean explain = false;
+    /** Whether each query is measured as it runs and printed with its measurements afterwards */
+    static boolean analyze = false;
+
+    static {
+        // Zql only knows the standard aggregates; these parse as aggregates
+        // of one argument once registered
+        for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.APPROX_COUNT_DISTINCT,
+                Aggregator.Op.APPROX_MEDIAN, Aggregator.Op.APPROX_P90, Aggregator.Op.APPROX_P99 }) {
+            ZUtils.addCustomFunction(op.toString(), 1);
+        }
+    }
 
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
@@ -50,6 +61,21 @@ public class Parser {
         } else if (wx.getOperator().equals("OR")) {
             throw new simpledb.ParsingException(
                     "OR expressions currently unsupported.");
+        } else if ((wx.getOperator().equals("IN") || wx.getOperator().equals("NOT IN"))
+                && wx.nbOperands() == 2 && wx.getOperand(1) instanceof ZQuery) {
+            if (!(wx.getOperand(0) instanceof ZConstant)
+                    || ((ZConstant) wx.getOperand(0)).getType() != ZConstant.COLUMNNAME) {
+                throw new simpledb.ParsingException("Only fields can be tested IN a subquery.");
+            }
+            addSubqueryJoin(tid, lp, ((ZConstant) wx.getOperand(0)).getValue(), Predicate.Op.EQUALS,
+                    (ZQuery) wx.getOperand(1), wx.getOperator().equals("IN")
+                            ? LogicalSubplanJoinNode.JoinType.SEMI : LogicalSubplanJoinNode.JoinType.ANTI);
+        } else if (wx.getOperator().equals("EXISTS")) {
+            addExistsJoin(tid, lp, wx, LogicalSubplanJoinNode.JoinType.SEMI);
+        } else if (wx.getOperator().equals("NOT") && wx.nbOperands() == 1
+                && wx.getOperand(0) instanceof ZExpression
+                && ((ZExpression) wx.getOperand(0)).getOperator().equals("EXISTS")) {
+            addExistsJoin(tid, lp, (ZExpression) wx.getOperand(0), LogicalSubplanJoinNode.JoinType.ANTI);
         } else {
             // this is a binary expression comparing two constants
             @SuppressWarnings("unchecked")
@@ -132,6 +158,135 @@ public class Parser {
 
     }
 
+    /**
+     * Plan subquery sub and join lp with it on field op the first field of
+     * its result.
+     */
+    private void addSubqueryJoin(TransactionId tid, LogicalPlan lp, String field, Predicate.Op op,
+            ZQuery sub, LogicalSubplanJoinNode.JoinType joinType) throws simpledb.ParsingException {
+        try {
+            LogicalPlan sublp = parseQueryLogicalPlan(tid, sub);
+            DbIterator pp = sublp.physicalPlan(tid, TableStats.getStatsMap(), explain);
+            lp.addJoin(field, pp, op, joinType);
+        } catch (IOException e) {
+            throw new simpledb.ParsingException("Invalid subquery " + sub);
+        } catch (Zql.ParseException e) {
+            throw new simpledb.ParsingException("Invalid subquery " + sub);
+        }
+    }
+
+    /** Add the conjuncts of the AND expression e, or e itself, to conjuncts. */
+    private static void conjuncts(ZExp e, List<ZExp> conjuncts) {
+        if (e instanceof ZExpression && ((ZExpression) e).getOperator().equals("AND")) {
+            ZExpression and = (ZExpression) e;
+            for (int i = 0; i < and.nbOperands(); i++)
+                conjuncts(and.getOperand(i), conjuncts);
+        } else if (e != null) {
+            conjuncts.add(e);
+        }
+    }
+
+    /**
+     * @return whether e is a field of a table of the outer query rather than
+     *         of the subquery whose tables have the given aliases: a field
+     *         qualified with a table that is not one of them
+     */
+    private static boolean isOuterField(ZExp e, Set<String> aliases) {
+        if (!(e instanceof ZConstant) || ((ZConstant) e).getType() != ZConstant.COLUMNNAME)
+            return false;
+        String name = ((ZConstant) e).getValue();
+        int dot = name.indexOf('.');
+        return dot > 0 && !aliases.contains(name.substring(0, dot));
+    }
+
+    /**
+     * Add a semi-join (or anti-join) for the EXISTS (or NOT EXISTS)
+     * expression wx, decorrelating its subquery: the subquery may compare
+     * one field of its own tables with a field of the outer query, which
+     * must be qualified with its table. That comparison becomes the
+     * predicate of the join, and the subquery is planned once without it,
+     * returning the field it compared, instead of once per outer tuple.
+     *
+     * @throws simpledb.ParsingException
+     *             if the subquery does not make exactly one such
+     *             comparison, refers to the outer query in any other way,
+     *             or has aggregates
+     */
+    private void addExistsJoin(TransactionId tid, LogicalPlan lp, ZExpression wx,
+            LogicalSubplanJoinNode.JoinType joinType) throws simpledb.ParsingException {
+        if (wx.nbOperands() != 1 || !(wx.getOperand(0) instanceof ZQuery)) {
+            throw new simpledb.ParsingException("EXISTS takes a subquery.");
+        }
+        ZQuery sub = (ZQuery) wx.getOperand(0);
+        HashSet<String> aliases = new HashSet<String>();
+        for (Object o : sub.getFrom()) {
+            ZFromItem fromIt = (ZFromItem) o;
+            aliases.add(fromIt.getAlias() != null ? fromIt.getAlias() : fromIt.getTable());
+        }
+        for (Object o : sub.getSelect()) {
+            if (((ZSelectItem) o).getAggregate() != null)
+                throw new simpledb.ParsingException("Cannot decorrelate an EXISTS subquery with aggregates.");
+        }
+        if (sub.getGroupBy() != null)
+            throw new simpledb.ParsingException("Cannot decorrelate an EXISTS subquery with GROUP BY.");
+
+        ArrayList<ZExp> conjuncts = new ArrayList<ZExp>();
+        conjuncts(sub.getWhere(), conjuncts);
+        ZExpression correlated = null;
+        ArrayList<ZExp> rest = new ArrayList<ZExp>();
+        for (ZExp c : conjuncts) {
+            boolean outer = false;
+            boolean inner = false;
+            if (c instanceof ZExpression && ((ZExpression) c).nbOperands() == 2) {
+                ZExpression e = (ZExpression) c;
+                for (int i = 0; i < 2; i++) {
+                    if (isOuterField(e.getOperand(i), aliases))
+                        outer = true;
+                    else if (e.getOperand(i) instanceof ZConstant
+                            && ((ZConstant) e.getOperand(i)).getType() == ZConstant.COLUMNNAME)
+                        inner = true;
+                }
+            }
+            if (outer && (!inner || correlated != null)) {
+                throw new simpledb.ParsingException("Cannot decorrelate " + c
+                        + ": an EXISTS subquery may only compare one of its fields with the outer query.");
+            }
+            if (outer)
+                correlated = (ZExpression) c;
+            else
+                rest.add(c);
+        }
+        if (correlated == null) {
+            throw new simpledb.ParsingException(
+                    "EXISTS subqueries must compare one of their fields with the outer query.");
+        }
+
+        // outer.field op inner.field
+        Predicate.Op op = getOp(correlated.getOperator());
+        ZConstant outerField = (ZConstant) correlated.getOperand(0);
+        ZConstant innerField = (ZConstant) correlated.getOperand(1);
+        if (!isOuterField(outerField, aliases)) {
+            outerField = (ZConstant) correlated.getOperand(1);
+            innerField = (ZConstant) correlated.getOperand(0);
+            op = LogicalJoinNode.swap(op);
+        }
+
+        ZQuery decorrelated = new ZQuery();
+        Vector<ZSelectItem> select = new Vector<ZSelectItem>();
+        select.add(new ZSelectItem(innerField.getValue()));
+        decorrelated.addSelect(select);
+        decorrelated.addFrom(sub.getFrom());
+        if (rest.size() == 1) {
+            decorrelated.addWhere(rest.get(0));
+        } else if (rest.size() > 1) {
+            ZExpression and = new ZExpression("AND");
+            for (ZExp c : rest)
+                and.addOperand(c);
+            decorrelated.addWhere(and);
+        }
+        addSubqueryJoin(tid, lp, outerField.getValue(), op, decorrelated, joinType);
+    }
+
     public LogicalPlan parseQueryLogicalPlan(TransactionId tid, ZQuery q)
             throws IOException, Zql.ParseException, simpledb.ParsingException {
         @SuppressWarnings("unchecked")
@@ -182,23 +337,20 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        ArrayList<String> groupByFields = new ArrayList<String>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             Vector<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.elementAt(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
                 System.out.println("GROUP BY FIELD : " + groupByField);
+                groupByFields.add(groupByField);
+                lp.addGroupByField(groupByField);
             }
 
         }
@@ -207,8 +359,7 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         Vector<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        boolean hasAgg = false;
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.elementAt(i);
@@ -218,21 +369,32 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
+                ZExp operand = ((ZExpression) si.getExpression()).getOperand(0);
+                if (!(operand instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
+                            "Aggregates over expressions are not supported.");
+                }
+                String aggField = ((ZConstant) operand).getValue();
+                String aggFun = si.getAggregate();
+                if (aggField.toLowerCase().startsWith("distinct ")) {
+                    // only estimated, and only when the query asks for it
+                    throw new simpledb.ParsingException(aggFun.toUpperCase()
+                            + "(DISTINCT) is not supported; APPROX_COUNT_DISTINCT estimates the number of distinct values.");
                 }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
-                        .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
+                lp.addAggregate(aggFun, aggField, null);
+                hasAgg = true;
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                                + si.getColumn()) || groupByField.equals(si
-                                .getColumn()))) {
+                boolean grouped = false;
+                for (String groupByField : groupByFields) {
+                    if (groupByField.equals(si.getTable() + "." + si.getColumn())
+                            || groupByField.equals(si.getColumn())) {
+                        grouped = true;
+                    }
+                }
+                if (!groupByFields.isEmpty() && !grouped) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
                             + " does not appear in GROUP BY list.");
@@ -241,13 +403,10 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && !hasAgg) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
-        }
         // sort the data
 
         if (q.getOrderBy() != null) {
@@ -281,6 +440,8 @@ public class Parser {
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
         DbIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
+        if (analyze)
+            physicalPlan = AnalyzedOperator.instrument(physicalPlan);
         query.setPhysicalPlan(physicalPlan);
         query.setLogicalPlan(lp);
 
@@ -357,12 +518,14 @@ public class Parser {
                             "Complex expressions not allowed in INSERT statements.");
                 ZConstant zc = (ZConstant) e;
                 if (zc.getType() == ZConstant.NUMBER) {
-                    if (td.getFieldType(i) != Type.INT_TYPE) {
+                    if (td.getFieldType(i) == Type.STRING_TYPE) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
                                 + " is not an integer, expected a string.");
                     }
-                    IntField f = new IntField(new Integer(zc.getValue()));
+                    Field f = td.getFieldType(i) == Type.LONG_TYPE
+                            ? new LongField(Long.parseLong(zc.getValue()))
+                            : new IntField(new Integer(zc.getValue()));
                     t.setField(i, f);
                 } else if (zc.getType() == ZConstant.STRING) {
                     if (td.getFieldType(i) != Type.STRING_TYPE) {
@@ -484,6 +647,15 @@ public class Parser {
                 "Cannot generate logical plan for expression : " + s);
     }
 
+    /**
+     * Prepare a SELECT statement whose filter constants may be parameters,
+     * written ?, reusing the plan of the same statement if it was prepared
+     * before. See {@link PreparedQuery}.
+     */
+    public PreparedQuery prepare(String s) throws simpledb.ParsingException {
+        return PreparedQuery.prepare(this, s);
+    }
+
     public void setTransaction(Transaction t) {
         curtrans = t;
     }
@@ -517,6 +689,7 @@ public class Parser {
                             + curtrans.getId().getId());
                 }
                 try {
+                    TableStats.refreshStatistics();
                     if (s instanceof ZInsert)
                         query = handleInsertStatement((ZInsert) s,
                                 curtrans.getId());
@@ -532,8 +705,11 @@ public class Parser {
                                         + s
                                         + "\n -- parser only handles SQL transactions, insert, delete, and select statements");
                     }
-                    if (query != null)
+                    if (query != null) {
                         query.execute();
+                        if (query.getPhysicalPlan() instanceof AnalyzedOperator)
+                            System.out.print(((AnalyzedOperator) query.getPhysicalPlan()).format());
+                    }
 
                     if (!inUserTrans && curtrans != null) {
                         curtrans.commit();
@@ -595,10 +771,20 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-analyze] [-f queryFile]";
     static final int SLEEP_TIME = 1000;
 
+    /** The file table statistics are saved to, next to the catalog file. */
+    protected String statsFile = null;
+
     protected void shutdown() {
+        if (statsFile != null) {
+            try {
+                TableStats.saveStatistics(statsFile);
+            } catch (IOException e) {
+                System.out.println("Could not save table stats: " + e);
+            }
+        }
         System.out.println("Bye");
     }
 
@@ -607,7 +793,9 @@ public class Parser {
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
-        TableStats.computeStatistics();
+        statsFile = argv[0] + ".stats";
+        TableStats.loadStatistics(statsFile);
+        TableStats.saveStatistics(statsFile);
 
         String queryFile = null;
 
@@ -616,6 +804,9 @@ public class Parser {
                 if (argv[i].equals("-explain")) {
                     explain = true;
                     System.out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-analyze")) {
+                    analyze = true;
+                    System.out.println("Explain analyze mode enabled.");
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
                     if (i++ == argv.length) {
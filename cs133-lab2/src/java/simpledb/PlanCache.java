@@ -1,50 +1,177 @@
 package simpledb;
-import java.util.HashMap;
-import java.util.Set;
+import java.util.NoSuchElementException;
 import java.util.Vector;
 
 /** A PlanCache is a helper class that can be used to store the best
- * way to order a given set of joins */
+ * way to order a given set of joins.
+ * <p>
+ * A set of joins is a bitmask, bit i standing for the i-th join of the
+ * query, and the plans are kept in an open addressing hash table keyed on
+ * it. A plan is stored as the join performed last and the sets of joins
+ * producing its left and right inputs, whose plans are the ones cached for
+ * those sets; an empty set stands for a base table. Plans may therefore be
+ * bushy, and adding one allocates nothing but the occasional larger table. */
 public class PlanCache {
-    HashMap<Set<LogicalJoinNode>,Vector<LogicalJoinNode>> bestOrders= new HashMap<Set<LogicalJoinNode>,Vector<LogicalJoinNode>>();
-    HashMap<Set<LogicalJoinNode>,Double> bestCosts= new HashMap<Set<LogicalJoinNode>,Double>();
-    HashMap<Set<LogicalJoinNode>,Long> bestCardinalities = new HashMap<Set<LogicalJoinNode>,Long>();
-    
+    /** The keys of the table; 0, which is never a set of joins, marks free slots */
+    private long[] keys = new long[64];
+    private double[] costs = new double[64];
+    private long[] cards = new long[64];
+    private int[] lastIndexes = new int[64];
+    private long[] lefts = new long[64];
+    private LogicalJoinNode[] lastJoins = new LogicalJoinNode[64];
+    private JoinCost[] joinCosts = new JoinCost[64];
+    private int size = 0;
+
+    /** @return the slot of s, or the free slot where it would go */
+    private int slot(long s) {
+        int mask = keys.length - 1;
+        long h = s * 0x9E3779B97F4A7C15L;
+        int i = (int) (h ^ (h >>> 32)) & mask;
+        while (keys[i] != 0 && keys[i] != s) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        double[] oldCosts = costs;
+        long[] oldCards = cards;
+        int[] oldIndexes = lastIndexes;
+        long[] oldLefts = lefts;
+        LogicalJoinNode[] oldJoins = lastJoins;
+        JoinCost[] oldJoinCosts = joinCosts;
+        int n = oldKeys.length * 2;
+        keys = new long[n];
+        costs = new double[n];
+        cards = new long[n];
+        lastIndexes = new int[n];
+        lefts = new long[n];
+        lastJoins = new LogicalJoinNode[n];
+        joinCosts = new JoinCost[n];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int k = slot(oldKeys[i]);
+                keys[k] = oldKeys[i];
+                costs[k] = oldCosts[i];
+                cards[k] = oldCards[i];
+                lastIndexes[k] = oldIndexes[i];
+                lefts[k] = oldLefts[i];
+                lastJoins[k] = oldJoins[i];
+                joinCosts[k] = oldJoinCosts[i];
+            }
+        }
+    }
+
     /** Add a new cost, cardinality and ordering for a particular join set.  Does not verify that the
         new cost is less than any previously added cost -- simply adds or replaces an existing plan for the
         specified join set
         @param s the set of joins for which a new ordering (plan) is being added
         @param cost the estimated cost of the specified plan
         @param card the estimatied cardinality of the specified plan
-        @param order the ordering of the joins in the plan
+        @param lastIndex the index of the join performed last
+        @param left the set of joins producing the left input of the last join, or 0 if that input
+            is a base table; it and the rest of s without the last join must be in the cache
+        @param lastJoin the join performed last, as it is performed (its inputs may be swapped)
+        @param joinCost the algorithm of the last join and its cost
     */
-    void addPlan(Set<LogicalJoinNode> s, double cost, long card, Vector<LogicalJoinNode> order) {
-        bestOrders.put(s,order);                        
-        bestCosts.put(s,cost);
-        bestCardinalities.put(s,card);
+    void addPlan(long s, double cost, long card, int lastIndex, long left, LogicalJoinNode lastJoin,
+            JoinCost joinCost) {
+        if (s == 0) {
+            throw new IllegalArgumentException("empty join set");
+        }
+        if (2 * (size + 1) > keys.length) {
+            grow();
+        }
+        int k = slot(s);
+        if (keys[k] == 0) {
+            keys[k] = s;
+            size++;
+        }
+        costs[k] = cost;
+        cards[k] = card;
+        lastIndexes[k] = lastIndex;
+        lefts[k] = left;
+        lastJoins[k] = lastJoin;
+        joinCosts[k] = joinCost;
     }
-    
+
+    /** @return whether the cache has a plan for the set of joins s */
+    boolean contains(long s) {
+        return s != 0 && keys[slot(s)] == s;
+    }
+
+    private int find(long s) {
+        int k = slot(s);
+        if (s == 0 || keys[k] != s) {
+            throw new NoSuchElementException("no plan for join set " + Long.toBinaryString(s));
+        }
+        return k;
+    }
+
     /** Find the best join order in the cache for the specified plan 
         @param s the set of joins to look up the best order for
-        @return the best order for s in the cache
+        @return the best order for s in the cache, or null if it has none; each join comes after
+            the joins producing its inputs, the joins of its left input first
     */
-    Vector<LogicalJoinNode> getOrder(Set<LogicalJoinNode> s) {
-        return bestOrders.get(s);
+    Vector<LogicalJoinNode> getOrder(long s) {
+        if (!contains(s)) {
+            return null;
+        }
+        Vector<LogicalJoinNode> order = new Vector<LogicalJoinNode>();
+        addOrder(s, order);
+        return order;
     }
-    
+
+    private void addOrder(long s, Vector<LogicalJoinNode> order) {
+        if (s == 0) {
+            return;
+        }
+        int k = find(s);
+        addOrder(lefts[k], order);
+        addOrder(getRight(s), order);
+        order.add(lastJoins[k]);
+    }
+
     /** Find the cost of the best join order in the cache for the specified plan 
         @param s the set of joins to look up the best cost for
         @return the cost of the best order for s in the cache
     */
-    double getCost(Set<LogicalJoinNode> s) {
-        return bestCosts.get(s);
+    double getCost(long s) {
+        return costs[find(s)];
     }
     
     /** Find the cardinality of the best join order in the cache for the specified plan 
         @param s the set of joins to look up the best cardinality for
         @return the cardinality of the best order for s in the cache
     */
-    long getCard(Set<LogicalJoinNode> s) {
-        return bestCardinalities.get(s);
+    long getCard(long s) {
+        return cards[find(s)];
+    }
+
+    /** @return the index of the join performed last by the best plan for s */
+    int getLastJoinIndex(long s) {
+        return lastIndexes[find(s)];
+    }
+
+    /** @return the join performed last by the best plan for s, as it is performed */
+    LogicalJoinNode getLastJoin(long s) {
+        return lastJoins[find(s)];
+    }
+
+    /** @return the algorithm of the join performed last by the best plan for s, and its cost */
+    JoinCost getJoinCost(long s) {
+        return joinCosts[find(s)];
+    }
+
+    /** @return the set of joins producing the left input of the last join of s, or 0 for a base table */
+    long getLeft(long s) {
+        return lefts[find(s)];
+    }
+
+    /** @return the set of joins producing the right input of the last join of s, or 0 for a base table */
+    long getRight(long s) {
+        int k = find(s);
+        return s & ~(1L << lastIndexes[k]) & ~lefts[k];
     }
 }
@@ -0,0 +1,261 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * A PreparedQuery is a SELECT statement whose filter constants may be left
+ * as parameters, written ?, and supplied each time it runs. The statement
+ * is parsed and its joins are ordered once: every run builds its operators
+ * from the same {@link LogicalPlan}, with the join order and join
+ * algorithms chosen for the parameters of the first run.
+ * <p>
+ * Prepared queries are cached by their normalized text (see
+ * {@link #normalize}), so preparing a statement that was prepared before
+ * reuses its plan. The plan is made again, from the text, when the catalog
+ * changes or when the estimated cardinality of one of its tables changes
+ * by more than STATS_CHANGE_FRACTION.
+ */
+public class PreparedQuery {
+
+    /** The largest number of prepared queries cached; the least recently used ones are dropped. */
+    static final int MAX_CACHED_QUERIES = 256;
+
+    /** The relative change in the cardinality of a table that makes a plan using it stale. */
+    static final double STATS_CHANGE_FRACTION = 0.5;
+
+    private static final LinkedHashMap<String, PreparedQuery> cache = new LinkedHashMap<String, PreparedQuery>(
+            16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        protected boolean removeEldestEntry(Map.Entry<String, PreparedQuery> eldest) {
+            return size() > MAX_CACHED_QUERIES;
+        }
+    };
+
+    private final Parser parser;
+    private final String sql;
+    private final int numParameters;
+
+    private LogicalPlan lp;
+    /** The filter whose constant is each parameter */
+    private LogicalFilterNode[] parameterFilters;
+    private Catalog catalog;
+    private long catalogVersion;
+    /** The statistics and cardinality of each table when its joins were ordered, or null before */
+    private HashMap<String, TableStats> plannedStats;
+    private HashMap<String, Integer> plannedCards;
+    private int plans = 0;
+
+    /**
+     * Return the prepared query of a statement, from the cache if it was
+     * prepared before.
+     *
+     * @param parser
+     *            the parser to parse the statement with
+     * @param sql
+     *            a SELECT statement, whose filter constants may be ?
+     * @throws ParsingException
+     *             if the statement is not a valid SELECT statement, joins
+     *             with a subquery, or has a parameter that is not the
+     *             constant of a filter
+     */
+    static PreparedQuery prepare(Parser parser, String sql) throws ParsingException {
+        String key = normalize(sql);
+        synchronized (cache) {
+            PreparedQuery pq = cache.get(key);
+            if (pq == null) {
+                pq = new PreparedQuery(parser, key);
+                cache.put(key, pq);
+            }
+            return pq;
+        }
+    }
+
+    /** Drop every cached prepared query. */
+    public static void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /** @return the number of cached prepared queries */
+    static int cacheSize() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * Normalize the text of a statement: runs of white space outside quoted
+     * strings become a single space, and the statement ends with exactly
+     * one semicolon. Letter case is kept, since table names are case
+     * sensitive.
+     */
+    public static String normalize(String sql) {
+        StringBuilder sb = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (!quoted && Character.isWhitespace(c)) {
+                if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ' ')
+                    sb.append(' ');
+                continue;
+            }
+            sb.append(c);
+        }
+        String s = sb.toString().trim();
+        while (s.endsWith(";"))
+            s = s.substring(0, s.length() - 1).trim();
+        return s + ";";
+    }
+
+    private PreparedQuery(Parser parser, String sql) throws ParsingException {
+        this.parser = parser;
+        this.sql = sql;
+        int n = 0;
+        boolean quoted = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\'')
+                quoted = !quoted;
+            else if (c == '?' && !quoted)
+                n++;
+        }
+        this.numParameters = n;
+        parse();
+    }
+
+    /** @return the placeholder constant parameter i is parsed as */
+    private static String placeholder(int i) {
+        return "?" + i;
+    }
+
+    /** Parse the statement, with each parameter replaced by a placeholder constant. */
+    private void parse() throws ParsingException {
+        StringBuilder sb = new StringBuilder();
+        boolean quoted = false;
+        int param = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\'')
+                quoted = !quoted;
+            if (c == '?' && !quoted)
+                sb.append('\'').append(placeholder(param++)).append('\'');
+            else
+                sb.append(c);
+        }
+        catalog = Database.getCatalog();
+        catalogVersion = catalog.getVersion();
+        LogicalPlan plan = parser.generateLogicalPlan(new TransactionId(), sb.toString());
+        if (plan.hasSubqueries())
+            throw new ParsingException("Prepared queries cannot join with subqueries.");
+
+        LogicalFilterNode[] filters = new LogicalFilterNode[numParameters];
+        for (LogicalFilterNode lf : plan.getFilters()) {
+            for (int i = 0; i < numParameters; i++) {
+                if (lf.c.equals(placeholder(i)))
+                    filters[i] = lf;
+            }
+        }
+        for (int i = 0; i < numParameters; i++) {
+            if (filters[i] == null)
+                throw new ParsingException("Parameter " + (i + 1) + " is not the constant of a filter.");
+        }
+        plan.keepJoinOrder();
+        lp = plan;
+        parameterFilters = filters;
+        plannedStats = null;
+        plannedCards = null;
+        plans++;
+    }
+
+    /**
+     * @return whether the plan was made against the current catalog and the
+     *         current statistics of its tables, give or take
+     *         STATS_CHANGE_FRACTION
+     */
+    synchronized boolean isValid() {
+        if (Database.getCatalog() != catalog || catalog.getVersion() != catalogVersion)
+            return false;
+        if (plannedStats == null)
+            return true;
+        for (Map.Entry<String, TableStats> e : plannedStats.entrySet()) {
+            TableStats s = TableStats.getTableStats(e.getKey());
+            if (s == null) {
+                if (e.getValue() == null)
+                    continue;
+                return false;
+            }
+            // the same TableStats counts inserts and deletes as they happen,
+            // so its size is compared even if it was not replaced
+            int planned = plannedCards.get(e.getKey());
+            if (Math.abs(s.totalTuples() - planned) > STATS_CHANGE_FRACTION * Math.max(planned, 1))
+                return false;
+        }
+        return true;
+    }
+
+    /** @return the normalized text of the statement */
+    public String getSql() {
+        return sql;
+    }
+
+    /** @return the number of parameters of the statement */
+    public int numParameters() {
+        return numParameters;
+    }
+
+    /** @return the number of times the statement was parsed and planned */
+    synchronized int numPlans() {
+        return plans;
+    }
+
+    /**
+     * Build a query running the statement with the given parameters, planning
+     * it again first if its plan is stale.
+     *
+     * @param tid
+     *            the transaction the query runs in
+     * @param params
+     *            the value of each parameter, as it would be written in the
+     *            statement (without quotes)
+     * @return the query, ready to be started or executed
+     * @throws ParsingException
+     *             if the number of parameters is wrong, a parameter does not
+     *             fit the type of its field, or the statement no longer fits
+     *             the catalog
+     */
+    public synchronized Query bind(TransactionId tid, String... params) throws ParsingException {
+        if (params.length != numParameters) {
+            throw new ParsingException("Expected " + numParameters + " parameters but got " + params.length);
+        }
+        if (!isValid())
+            parse();
+        for (int i = 0; i < numParameters; i++) {
+            parameterFilters[i].c = params[i];
+        }
+        DbIterator physicalPlan;
+        try {
+            physicalPlan = lp.physicalPlan(tid, TableStats.getStatsMap(), Parser.explain);
+        } catch (NumberFormatException e) {
+            throw new ParsingException("Invalid parameter: " + e.getMessage());
+        }
+        if (plannedStats == null) {
+            plannedStats = new HashMap<String, TableStats>();
+            plannedCards = new HashMap<String, Integer>();
+            for (int tableId : lp.getTableAliasToIdMapping().values()) {
+                String name = catalog.getTableName(tableId);
+                TableStats s = TableStats.getTableStats(name);
+                plannedStats.put(name, s);
+                plannedCards.put(name, s == null ? 0 : s.totalTuples());
+            }
+        }
+
+        Query query = new Query(tid);
+        query.setPhysicalPlan(physicalPlan);
+        query.setLogicalPlan(lp);
+        return query;
+    }
+}
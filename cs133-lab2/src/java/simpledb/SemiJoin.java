@@ -0,0 +1,119 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SemiJoin returns the tuples of the left (outer) child that have a match in
+ * the right (inner) child, or, as an anti-join, those that have none; each
+ * is returned once, with only its own fields, however many matches it has.
+ * It performs IN and EXISTS subqueries, and their NOT forms.
+ * <p>
+ * On open it reads the inner child into memory: for an equality predicate
+ * into a hash set of its join field values, which each outer tuple probes
+ * once; for any other predicate into a list, which each outer tuple scans
+ * only until its first match. Outer tuples are returned in order.
+ */
+public class SemiJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate p;
+    private final boolean anti;
+    private DbIterator child1;
+    private DbIterator child2;
+
+    private transient HashSet<Field> keys;
+    private transient ArrayList<Tuple> inner;
+
+    /**
+     * @param p
+     *            The predicate a tuple of child1 and a tuple of child2 match on
+     * @param child1
+     *            Iterator for the left(outer) relation, whose tuples are
+     *            returned
+     * @param child2
+     *            Iterator for the right(inner) relation, held in memory
+     *            while the join is open
+     * @param anti
+     *            whether to return the outer tuples with no match rather
+     *            than those with one
+     */
+    public SemiJoin(JoinPredicate p, DbIterator child1, DbIterator child2, boolean anti) {
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.anti = anti;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /** @return whether the outer tuples with no match are returned */
+    public boolean isAnti() {
+        return anti;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child1.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        child1.open();
+        child2.open();
+        if (p.getOperator() == Predicate.Op.EQUALS) {
+            keys = new HashSet<Field>();
+            while (child2.hasNext())
+                keys.add(child2.next().getField(p.getField2()));
+        } else {
+            inner = new ArrayList<Tuple>();
+            while (child2.hasNext())
+                inner.add(child2.next());
+        }
+        child2.close();
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        keys = null;
+        inner = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+    }
+
+    /** @return whether t has a match in the inner relation */
+    private boolean matches(Tuple t) {
+        if (keys != null)
+            return keys.contains(t.getField(p.getField1()));
+        for (Tuple t2 : inner) {
+            if (p.filter(t, t2))
+                return true;
+        }
+        return false;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (child1.hasNext()) {
+            Tuple t = child1.next();
+            if (matches(t) != anti)
+                return t;
+        }
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
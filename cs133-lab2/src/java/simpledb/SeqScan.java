@@ -18,6 +18,12 @@ public class SeqScan implements DbIterator {
 
     private DbFileIterator currIter;
 
+    private final ArrayList<Predicate> preds = new ArrayList<Predicate>();
+    private int[] fields = null;
+    private TupleDesc projectedTd;
+    private Tuple lookahead;
+    private int pagesSkipped = 0;
+
     private Boolean open = false;
 
     /**
@@ -37,9 +43,80 @@ public class SeqScan implements DbIterator {
      *            tableAlias.null, or null.null).
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, null);
+    }
+
+    /**
+     * Creates a sequential scan that only returns the tuples satisfying the
+     * specified predicate. Over a HeapFile, pages whose zone map shows they
+     * cannot hold a match are skipped without being read, and the predicate
+     * is evaluated before tuples are decoded.
+     *
+     * @param pred
+     *            the predicate to apply, with field numbers relative to the
+     *            table's TupleDesc, or null to return every tuple.
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, Predicate pred) {
         this.tid = tid;
         this.tableid = tableid;
         this.tableAlias = tableAlias;
+        if (pred != null) {
+            preds.add(pred);
+        }
+    }
+
+    /**
+     * Push down another predicate into this scan; the scan returns the tuples
+     * satisfying all of its predicates. Takes effect the next time the scan
+     * is opened.
+     *
+     * @param pred
+     *            the predicate to apply, with field numbers relative to the
+     *            table's TupleDesc
+     */
+    public void addPredicate(Predicate pred) {
+        preds.add(pred);
+    }
+
+    /**
+     * @return the predicates pushed down into this scan
+     */
+    public List<Predicate> getPredicates() {
+        return Collections.unmodifiableList(preds);
+    }
+
+    /**
+     * Narrow the tuples returned by this scan to the specified fields of the
+     * table; over a HeapFile the other fields are never decoded. Takes effect
+     * the next time the scan is opened.
+     *
+     * @param fields
+     *            the indexes of the fields to return, in order, relative to
+     *            the table's TupleDesc, or null to return every field.
+     *            Predicates are still relative to the full TupleDesc.
+     */
+    public void setProjection(int[] fields) {
+        this.fields = fields == null ? null : fields.clone();
+    }
+
+    /**
+     * @return the indexes of the fields returned by this scan, or null if it
+     *         returns every field
+     */
+    public int[] getProjection() {
+        return fields == null ? null : fields.clone();
+    }
+
+    /**
+     * @return the number of pages skipped using the zone map by this scan,
+     *         accumulated across rewinds
+     */
+    public int getPagesSkipped() {
+        int skipped = pagesSkipped;
+        if (currIter instanceof HeapFile.HeapFileIterator) {
+            skipped += ((HeapFile.HeapFileIterator) currIter).pagesSkipped();
+        }
+        return skipped;
     }
 
     /**
@@ -59,6 +136,16 @@ public class SeqScan implements DbIterator {
         return this.tableAlias;
     }
 
+    /** @return the id of the table this operator scans */
+    int getTableId() {
+        return this.tableid;
+    }
+
+    /** @return the transaction this scan is running as a part of */
+    TransactionId getTransactionId() {
+        return this.tid;
+    }
+
     /**
      * Reset the tableid, and tableAlias of this operator.
      * @param tableid
@@ -80,8 +167,47 @@ public class SeqScan implements DbIterator {
         this(tid, tableid, Database.getCatalog().getTableName(tableid));
     }
 
+    /**
+     * @return the number of pages of the scanned table if it is a HeapFile,
+     *         or -1 if it cannot be split into page ranges
+     */
+    int numPages() {
+        DbFile file = catalog.getDatabaseFile(this.tableid);
+        return file instanceof HeapFile ? ((HeapFile) file).numPages() : -1;
+    }
+
+    /**
+     * Returns an iterator over pages fromPage (inclusive) to toPage
+     * (exclusive) of the scanned HeapFile, applying this scan's predicates
+     * and projection. Iterators over disjoint ranges may be used from
+     * different threads. The tuples have the same fields as those of this
+     * scan, but their names are not prefixed with the alias.
+     *
+     * @see #numPages
+     */
+    DbFileIterator pageRangeIterator(int fromPage, int toPage) {
+        HeapFile file = (HeapFile) catalog.getDatabaseFile(this.tableid);
+        return file.iterator(tid, preds.isEmpty() ? null : preds, fields, fromPage, toPage);
+    }
+
     public void open() throws DbException, TransactionAbortedException {
-        currIter = catalog.getDatabaseFile(this.tableid).iterator(tid);
+        DbFile file = catalog.getDatabaseFile(this.tableid);
+        if (file instanceof HeapFile && (!preds.isEmpty() || fields != null)) {
+            currIter = ((HeapFile) file).iterator(tid, preds, fields);
+        } else {
+            currIter = file.iterator(tid);
+            if (fields != null) {
+                TupleDesc td = file.getTupleDesc();
+                Type[] types = new Type[fields.length];
+                String[] names = new String[fields.length];
+                for (int i = 0; i < fields.length; i++) {
+                    types[i] = td.getFieldType(fields[i]);
+                    names[i] = td.getFieldName(fields[i]);
+                }
+                projectedTd = new TupleDesc(types, names);
+            }
+        }
+        lookahead = null;
         open = true;
         currIter.open();
     }
@@ -93,20 +219,24 @@ public class SeqScan implements DbIterator {
      * name. The alias and name should be separated with a "." character
      * (e.g., "alias.fieldName").
      * 
+     * If a projection is set, only the projected fields are included.
+     * 
      * @return the TupleDesc with field names from the underlying HeapFile,
      *         prefixed with the tableAlias string from the constructor.
      */
     public TupleDesc getTupleDesc() {
         TupleDesc myTupleDesc = Database.getCatalog().getTupleDesc(tableid);
-        Type[] typeAr = new Type[myTupleDesc.numFields()];
-        String[] fieldAr = new String[myTupleDesc.numFields()];
-        for(int i = 0; i<myTupleDesc.numFields(); i++){
-            typeAr[i] = myTupleDesc.getFieldType(i);
+        int n = fields == null ? myTupleDesc.numFields() : fields.length;
+        Type[] typeAr = new Type[n];
+        String[] fieldAr = new String[n];
+        for(int j = 0; j<n; j++){
+            int i = fields == null ? j : fields[j];
+            typeAr[j] = myTupleDesc.getFieldType(i);
 
             String oldFieldName = myTupleDesc.getFieldName(i) == null ? "null" : myTupleDesc.getFieldName(i);
             String myTableAlias = tableAlias == null ? "null" : tableAlias;
 
-            fieldAr[i] = myTableAlias+"."+oldFieldName;
+            fieldAr[j] = myTableAlias+"."+oldFieldName;
         } 
         return new TupleDesc(typeAr, fieldAr);
     }
@@ -116,7 +246,38 @@ public class SeqScan implements DbIterator {
         if(!open){
             throw new IllegalStateException("Error: couldn't access the iterator without opening it");
         }
-        return currIter.hasNext();
+        if ((preds.isEmpty() && fields == null) || currIter instanceof HeapFile.HeapFileIterator) {
+            return currIter.hasNext();
+        }
+        // other files do not filter or narrow their tuples themselves
+        while (lookahead == null && currIter.hasNext()) {
+            Tuple t = currIter.next();
+            if (matches(t)) {
+                lookahead = project(t);
+            }
+        }
+        return lookahead != null;
+    }
+
+    private boolean matches(Tuple t) {
+        for (Predicate p : preds) {
+            if (!p.filter(t)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Tuple project(Tuple t) {
+        if (fields == null) {
+            return t;
+        }
+        Tuple out = new Tuple(projectedTd);
+        out.setRecordId(t.getRecordId());
+        for (int i = 0; i < fields.length; i++) {
+            out.setField(i, t.getField(fields[i]));
+        }
+        return out;
     }
 
     public Tuple next() throws NoSuchElementException,
@@ -124,10 +285,16 @@ public class SeqScan implements DbIterator {
         if(!hasNext()){
             throw new NoSuchElementException("Error, no more tuples in heapfile");
         }
+        if (lookahead != null) {
+            Tuple t = lookahead;
+            lookahead = null;
+            return t;
+        }
         return currIter.next();
     }
 
     public void close() {
+        pagesSkipped = getPagesSkipped();
         currIter.close();
         open = false;
     }
@@ -32,6 +32,8 @@ public class SimpleDb {
                 for (String s: typeStringAr) {
                         if (s.toLowerCase().equals("int"))
                             ts[index++]=Type.INT_TYPE;
+                        else if (s.toLowerCase().equals("long"))
+                            ts[index++]=Type.LONG_TYPE;
                         else if (s.toLowerCase().equals("string"))
                                 ts[index++]=Type.STRING_TYPE;
                             else {
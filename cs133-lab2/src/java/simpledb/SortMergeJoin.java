@@ -0,0 +1,157 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin is an in-memory equi-join. On open it reads both children,
+ * sorts each on its join field (an input that is already sorted is only
+ * checked), and merges them: each run of outer tuples with the same key is
+ * joined with the run of inner tuples with that key. The output is sorted on
+ * the join fields; each output tuple holds the fields of the outer tuple
+ * followed by the fields of the inner one.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate p;
+    private DbIterator child1;
+    private DbIterator child2;
+    private TupleDesc td;
+
+    private transient ArrayList<Tuple> left;
+    private transient ArrayList<Tuple> right;
+    // merge position: the current outer tuple, the run of inner tuples with
+    // its key, and the next inner tuple of the run to return with it
+    private transient int leftPos;
+    private transient int runStart;
+    private transient int runEnd;
+    private transient int runPos;
+
+    /**
+     * @param p
+     *            The predicate to use to join the children; its operator
+     *            must be EQUALS
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @throws IllegalArgumentException if the predicate is not an equality
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("sort-merge joins only support equality predicates");
+        }
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return -1, 0 or 1 as f1 is less than, equal to or greater than f2 */
+    private static int compare(Field f1, Field f2) {
+        if (f1.compare(Predicate.Op.LESS_THAN, f2))
+            return -1;
+        return f1.compare(Predicate.Op.GREATER_THAN, f2) ? 1 : 0;
+    }
+
+    /** Read it into a list sorted on field. */
+    private static ArrayList<Tuple> readSorted(DbIterator it, final int field)
+            throws DbException, TransactionAbortedException {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        it.open();
+        boolean sorted = true;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (sorted && !tuples.isEmpty()
+                    && compare(tuples.get(tuples.size() - 1).getField(field), t.getField(field)) > 0) {
+                sorted = false;
+            }
+            tuples.add(t);
+        }
+        it.close();
+        if (!sorted) {
+            Collections.sort(tuples, new Comparator<Tuple>() {
+                public int compare(Tuple t1, Tuple t2) {
+                    return SortMergeJoin.compare(t1.getField(field), t2.getField(field));
+                }
+            });
+        }
+        return tuples;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        left = readSorted(child1, p.getField1());
+        right = readSorted(child2, p.getField2());
+        rewind();
+    }
+
+    public void close() {
+        super.close();
+        left = null;
+        right = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        leftPos = 0;
+        runStart = runEnd = runPos = 0;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        int f1 = p.getField1();
+        int f2 = p.getField2();
+        while (leftPos < left.size()) {
+            Tuple t1 = left.get(leftPos);
+            if (runPos < runEnd) {
+                return Join.merge(td, t1, right.get(runPos++));
+            }
+            if (runEnd > runStart) {
+                // the run is done for this outer tuple; the next one may
+                // have the same key and join with the same run
+                leftPos++;
+                if (leftPos < left.size() && compare(left.get(leftPos).getField(f1), t1.getField(f1)) == 0) {
+                    runPos = runStart;
+                } else {
+                    runStart = runPos = runEnd;
+                }
+                continue;
+            }
+            // find the run of inner tuples with the key of t1
+            Field key = t1.getField(f1);
+            while (runStart < right.size() && compare(right.get(runStart).getField(f2), key) < 0) {
+                runStart++;
+            }
+            runEnd = runStart;
+            while (runEnd < right.size() && compare(right.get(runEnd).getField(f2), key) == 0) {
+                runEnd++;
+            }
+            runPos = runStart;
+            if (runEnd == runStart) {
+                leftPos++;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+}
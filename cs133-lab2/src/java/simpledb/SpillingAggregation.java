@@ -0,0 +1,402 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * SpillingAggregation computes grouped aggregates while keeping at most
+ * maxGroups groups in memory. Groups seen before the budget is reached are
+ * aggregated in memory as usual. After that, tuples of any other group are
+ * written (group-by and aggregate values only) to one of FANOUT partition
+ * files chosen by hashing the group-by values, so every group lives entirely
+ * in memory or entirely in one partition.
+ * <p>
+ * A single aggregate with at most one group-by field uses an
+ * {@link IntegerAggregator} or {@link StringAggregator}; anything else uses a
+ * {@link MultiAggregator}.
+ * <p>
+ * A scan of a HeapFile can instead be aggregated in parallel with
+ * {@link #mergeParallel}: page ranges of the file are aggregated into
+ * partial aggregators by the tasks of a fork-join pool, and the partials are
+ * combined with {@link Aggregator#mergePartial}. Parallel aggregation holds
+ * every group in memory, once per task that sees it, whatever maxGroups is.
+ * <p>
+ * Results are streamed: first the in-memory groups, then each partition in
+ * turn, aggregated by a nested SpillingAggregation that partitions again
+ * (with a different hash) if the partition itself has too many groups. Only
+ * one partition is aggregated in memory at a time. The partition files are
+ * deleted on close.
+ */
+class SpillingAggregation implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of partitions each level of spilling writes. */
+    static final int FANOUT = 16;
+    /** Smallest page range a parallel aggregation task splits. */
+    static final int MIN_TASK_PAGES = 8;
+    /** Partition bits are taken from a 32-bit hash, so levels beyond this repeat. */
+    private static final int MAX_LEVEL = 32 / 4;
+
+    private final TupleDesc inTd;
+    private final int[] afields;
+    private final int[] gfields;
+    private final Aggregator.Op[] aops;
+    private final int maxGroups;
+    private final int level;
+
+    private transient Aggregator aggregator;
+    private transient DbIterator inMemory;
+    private transient File[] partitions;
+    private transient DataOutputStream[] writers;
+    private transient long[] counts;
+    private transient long spilled;
+
+    // result position: the in-memory groups, then partition nextPartition - 1
+    private transient int nextPartition;
+    private transient SpillingAggregation current;
+
+    /**
+     * @param inTd
+     *            the TupleDesc of the tuples that will be merged
+     * @param afields
+     *            the columns over which we are computing aggregates
+     * @param aops
+     *            the aggregation operator of each aggregate column
+     * @param gfields
+     *            the columns over which we are grouping the result; empty
+     *            if there is no grouping
+     * @param maxGroups
+     *            the maximum number of groups to keep in memory
+     */
+    SpillingAggregation(TupleDesc inTd, int[] afields, Aggregator.Op[] aops, int[] gfields, int maxGroups) {
+        this(inTd, afields, aops, gfields, maxGroups, 0);
+    }
+
+    private SpillingAggregation(TupleDesc inTd, int[] afields, Aggregator.Op[] aops, int[] gfields,
+            int maxGroups, int level) {
+        if (maxGroups < 1) {
+            throw new IllegalArgumentException("maxGroups must be positive");
+        }
+        this.inTd = inTd;
+        this.afields = afields;
+        this.aops = aops;
+        this.gfields = gfields;
+        this.maxGroups = maxGroups;
+        this.level = level;
+        this.aggregator = newAggregator();
+    }
+
+    private Aggregator newAggregator() {
+        if (afields.length == 1 && gfields.length <= 1 && !aops[0].isSketch()) {
+            int gfield = gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0];
+            Type gbfieldType = gfields.length == 0 ? null : inTd.getFieldType(gfield);
+            if (inTd.getFieldType(afields[0]) == Type.STRING_TYPE) {
+                return new StringAggregator(gfield, gbfieldType, afields[0], aops[0]);
+            }
+            return new IntegerAggregator(gfield, gbfieldType, afields[0], inTd.getFieldType(afields[0]),
+                    aops[0]);
+        }
+        return new MultiAggregator(gfields, types(gfields), afields, types(afields), aops);
+    }
+
+    private Type[] types(int[] fields) {
+        Type[] types = new Type[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            types[i] = inTd.getFieldType(fields[i]);
+        }
+        return types;
+    }
+
+    /**
+     * Merge a tuple into its in-memory group, or write it to its partition
+     * if its group is not in memory and the budget is used up.
+     */
+    void merge(Tuple t) throws DbException {
+        if (gfields.length == 0 || level >= MAX_LEVEL
+                || aggregator.numGroups() < maxGroups) {
+            aggregator.mergeTupleIntoGroup(t);
+            return;
+        }
+        if (aggregator.hasGroup(t)) {
+            aggregator.mergeTupleIntoGroup(t);
+            return;
+        }
+        try {
+            if (writers == null) {
+                partitions = new File[FANOUT];
+                writers = new DataOutputStream[FANOUT];
+                counts = new long[FANOUT];
+            }
+            int p = partitionOf(t);
+            if (writers[p] == null) {
+                partitions[p] = File.createTempFile("aggspill", ".dat");
+                partitions[p].deleteOnExit();
+                writers[p] = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(partitions[p])));
+            }
+            for (int f : gfields) {
+                t.getField(f).serialize(writers[p]);
+            }
+            for (int f : afields) {
+                t.getField(f).serialize(writers[p]);
+            }
+            counts[p]++;
+            spilled++;
+        } catch (IOException e) {
+            throw new DbException("could not spill aggregate partition: " + e.getMessage());
+        }
+    }
+
+    private int partitionOf(Tuple t) {
+        int h = 0;
+        for (int f : gfields) {
+            h = 31 * h + t.getField(f).hashCode();
+        }
+        h *= 0x9E3779B9;
+        return (h >>> (level * 4)) & (FANOUT - 1);
+    }
+
+    /** Merge every remaining tuple of input. */
+    void mergeAll(DbIterator input) throws DbException, TransactionAbortedException {
+        while (input.hasNext()) {
+            merge(input.next());
+        }
+    }
+
+    /**
+     * Merge every tuple of scan, which must be over a HeapFile, by
+     * aggregating page ranges of the file in parallel.
+     *
+     * @param parallelism the number of worker threads to use
+     * @see SeqScan#numPages
+     */
+    void mergeParallel(SeqScan scan, int parallelism) throws DbException, TransactionAbortedException {
+        int pages = scan.numPages();
+        int taskPages = Math.max(MIN_TASK_PAGES, pages / (4 * parallelism));
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            aggregator.mergePartial(pool.invoke(new PartialAggregation(scan, 0, pages, taskPages)));
+        } catch (RuntimeException e) {
+            // the pool may rethrow a copy of the task's exception, wrapping the original
+            for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                if (cause instanceof DbException) {
+                    throw (DbException) cause;
+                }
+                if (cause instanceof TransactionAbortedException) {
+                    throw (TransactionAbortedException) cause;
+                }
+            }
+            throw e;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Aggregates pages [from, to) of a scan, splitting the range in half
+     * until it is at most taskPages long.
+     */
+    private class PartialAggregation extends RecursiveTask<Aggregator> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final SeqScan scan;
+        private final int from, to, taskPages;
+
+        PartialAggregation(SeqScan scan, int from, int to, int taskPages) {
+            this.scan = scan;
+            this.from = from;
+            this.to = to;
+            this.taskPages = taskPages;
+        }
+
+        protected Aggregator compute() {
+            if (to - from > taskPages) {
+                int mid = (from + to) >>> 1;
+                PartialAggregation right = new PartialAggregation(scan, mid, to, taskPages);
+                right.fork();
+                Aggregator partial = new PartialAggregation(scan, from, mid, taskPages).compute();
+                partial.mergePartial(right.join());
+                return partial;
+            }
+            Aggregator partial = newAggregator();
+            DbFileIterator it = scan.pageRangeIterator(from, to);
+            try {
+                it.open();
+                while (it.hasNext()) {
+                    partial.mergeTupleIntoGroup(it.next());
+                }
+            } catch (DbException e) {
+                throw new RuntimeException(e);
+            } catch (TransactionAbortedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                it.close();
+            }
+            return partial;
+        }
+    }
+
+    /** @return the number of tuples written to partition files */
+    long getTuplesSpilled() {
+        return spilled;
+    }
+
+    public void open() throws DbException {
+        if (writers != null) {
+            try {
+                for (DataOutputStream w : writers) {
+                    if (w != null) {
+                        w.close();
+                    }
+                }
+            } catch (IOException e) {
+                throw new DbException("could not spill aggregate partition: " + e.getMessage());
+            }
+            writers = null;
+        }
+        inMemory = aggregator.iterator();
+        try {
+            inMemory.open();
+        } catch (TransactionAbortedException e) {
+            throw new RuntimeException(e);
+        }
+        nextPartition = 0;
+        current = null;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (inMemory == null) {
+            throw new IllegalStateException("SpillingAggregation not open");
+        }
+        if (inMemory.hasNext()) {
+            return true;
+        }
+        while (current == null || !current.hasNext()) {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+            if (partitions == null || nextPartition >= FANOUT) {
+                return false;
+            }
+            int p = nextPartition++;
+            if (partitions[p] != null) {
+                current = aggregatePartition(partitions[p], counts[p]);
+            }
+        }
+        return true;
+    }
+
+    /** Aggregate one partition file with a nested SpillingAggregation. */
+    private SpillingAggregation aggregatePartition(File f, long count) throws DbException {
+        // a partition holds the group-by fields followed by the aggregate fields
+        Type[] types = new Type[gfields.length + afields.length];
+        System.arraycopy(types(gfields), 0, types, 0, gfields.length);
+        System.arraycopy(types(afields), 0, types, gfields.length, afields.length);
+        TupleDesc td = new TupleDesc(types);
+        int[] pgfields = new int[gfields.length];
+        int[] pafields = new int[afields.length];
+        for (int i = 0; i < pgfields.length; i++) {
+            pgfields[i] = i;
+        }
+        for (int i = 0; i < pafields.length; i++) {
+            pafields[i] = gfields.length + i;
+        }
+        SpillingAggregation agg = new SpillingAggregation(td, pafields, aops, pgfields, maxGroups, level + 1);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+            for (long i = 0; i < count; i++) {
+                Tuple t = new Tuple(td);
+                for (int j = 0; j < types.length; j++) {
+                    t.setField(j, types[j].parse(in));
+                }
+                agg.merge(t);
+            }
+        } catch (IOException e) {
+            throw new DbException("could not read aggregate partition: " + e.getMessage());
+        } catch (ParseException e) {
+            throw new DbException("corrupt aggregate partition " + f);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // nothing more to read
+                }
+            }
+        }
+        agg.open();
+        return agg;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        if (inMemory.hasNext()) {
+            return inMemory.next();
+        }
+        return current.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (inMemory == null) {
+            throw new IllegalStateException("SpillingAggregation not open");
+        }
+        inMemory.rewind();
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+        nextPartition = 0;
+    }
+
+    public TupleDesc getTupleDesc() {
+        Type[] types = new Type[gfields.length + afields.length];
+        System.arraycopy(types(gfields), 0, types, 0, gfields.length);
+        for (int i = 0; i < afields.length; i++) {
+            types[gfields.length + i] = aops[i].resultType(inTd.getFieldType(afields[i]));
+        }
+        return new TupleDesc(types);
+    }
+
+    /** Release the in-memory groups and delete the partition files. */
+    public void close() {
+        if (inMemory != null) {
+            inMemory.close();
+            inMemory = null;
+        }
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+        if (writers != null) {
+            for (DataOutputStream w : writers) {
+                try {
+                    if (w != null) {
+                        w.close();
+                    }
+                } catch (IOException e) {
+                    // the file is deleted below
+                }
+            }
+            writers = null;
+        }
+        if (partitions != null) {
+            for (File f : partitions) {
+                if (f != null) {
+                    f.delete();
+                }
+            }
+            partitions = null;
+            counts = null;
+        }
+        aggregator = null;
+    }
+}
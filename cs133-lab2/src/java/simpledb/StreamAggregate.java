@@ -0,0 +1,186 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * StreamAggregate computes the same result as {@link Aggregate} for a child
+ * whose tuples with equal group-by values are adjacent, for instance
+ * because the child is sorted on the group-by fields or all of its tuples
+ * share the same values. Only the current group is held in memory: each
+ * group's result is returned as soon as a tuple of the next group arrives.
+ */
+public class StreamAggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child;
+    private final int[] afields;
+    private final Aggregator.Op[] aops;
+    private final int[] gfields;
+
+    /** Accumulators of the current group, and its group-by values. */
+    private transient MultiAggregator current;
+    private transient Field[] currentKey;
+    /** Whether any group has been returned since open or rewind. */
+    private transient boolean emitted;
+
+    /**
+     * @param child
+     *            The DbIterator that is feeding us tuples, grouped on the
+     *            group-by fields.
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param aops
+     *            The aggregation operator of each aggregate column
+     * @param gfields
+     *            The columns over which we are grouping the result; empty if
+     *            there is no grouping
+     * @throws IllegalArgumentException if there are no aggregates, afields
+     *             and aops differ in length, or an aggregate over a STRING
+     *             field is neither a COUNT nor an approximate aggregate
+     */
+    public StreamAggregate(DbIterator child, int[] afields, Aggregator.Op[] aops, int[] gfields) {
+        if (afields.length == 0 || afields.length != aops.length) {
+            throw new IllegalArgumentException("each aggregate needs one field and one operator");
+        }
+        TupleDesc td = child.getTupleDesc();
+        for (int i = 0; i < afields.length; i++) {
+            if (td.getFieldType(afields[i]) == Type.STRING_TYPE && aops[i] != Aggregator.Op.COUNT
+                    && !aops[i].isSketch()) {
+                throw new IllegalArgumentException(aops[i] + " is not supported over STRING fields");
+            }
+        }
+        this.child = child;
+        this.afields = afields.clone();
+        this.aops = aops.clone();
+        this.gfields = gfields.clone();
+    }
+
+    /**
+     * @return the group-by field indexes in the <b>INPUT</b> tuples
+     */
+    public int[] groupFields() {
+        return gfields.clone();
+    }
+
+    /**
+     * @return the aggregate fields, in output order
+     */
+    public int[] aggregateFields() {
+        return afields.clone();
+    }
+
+    /**
+     * @return the aggregate operators, in output order
+     */
+    public Aggregator.Op[] aggregateOps() {
+        return aops.clone();
+    }
+
+    /**
+     * @return the same TupleDesc as an {@link Aggregate} with these
+     *         arguments: the group-by fields followed by the aggregates
+     */
+    public TupleDesc getTupleDesc() {
+        return Aggregate.aggregateTupleDesc(child.getTupleDesc(), afields, aops, gfields);
+    }
+
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        child.open();
+        super.open();
+        current = null;
+        emitted = false;
+    }
+
+    private MultiAggregator newAggregator() {
+        TupleDesc td = child.getTupleDesc();
+        Type[] gtypes = new Type[gfields.length];
+        Type[] atypes = new Type[afields.length];
+        for (int i = 0; i < gfields.length; i++) {
+            gtypes[i] = td.getFieldType(gfields[i]);
+        }
+        for (int i = 0; i < afields.length; i++) {
+            atypes[i] = td.getFieldType(afields[i]);
+        }
+        return new MultiAggregator(gfields, gtypes, afields, atypes, aops);
+    }
+
+    private boolean inCurrentGroup(Tuple t) {
+        for (int i = 0; i < gfields.length; i++) {
+            if (!currentKey[i].equals(t.getField(gfields[i]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void startGroup(Tuple t) {
+        current = newAggregator();
+        currentKey = new Field[gfields.length];
+        for (int i = 0; i < gfields.length; i++) {
+            currentKey[i] = t.getField(gfields[i]);
+        }
+        current.mergeTupleIntoGroup(t);
+    }
+
+    /** @return the result tuple of the aggregator, which holds one group */
+    private Tuple result(MultiAggregator agg) throws DbException, TransactionAbortedException {
+        DbIterator it = agg.iterator();
+        it.open();
+        Tuple t = it.next();
+        it.close();
+        emitted = true;
+        return t;
+    }
+
+    /**
+     * Reads the child until the current group ends, and returns the
+     * group's result. Without grouping, an empty child still produces one
+     * result, as with {@link Aggregate}.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (current == null) {
+                startGroup(t);
+            } else if (inCurrentGroup(t)) {
+                current.mergeTupleIntoGroup(t);
+            } else {
+                Tuple result = result(current);
+                startGroup(t);
+                return result;
+            }
+        }
+        if (current != null) {
+            Tuple result = result(current);
+            current = null;
+            return result;
+        }
+        if (gfields.length == 0 && !emitted) {
+            return result(newAggregator());
+        }
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        current = null;
+        emitted = false;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        current = null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] {child};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+}
@@ -44,16 +44,32 @@ public class StringAggregator implements Aggregator {
      * @param tup the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
-        Field key = tup.getField(gbfield);
-        if (!groups.containsKey(key)) {
-            groups.put(key, 1);
-        } else {
-            groups.replace(key, groups.get(key) + 1);
+        Field key = gbfield == NO_GROUPING ? null : tup.getField(gbfield);
+        Integer count = groups.get(key);
+        groups.put(key, count == null ? 1 : count + 1);
+    }
+
+    public void mergePartial(Aggregator partial) {
+        if (!(partial instanceof StringAggregator)) {
+            throw new IllegalArgumentException("cannot merge " + partial.getClass().getSimpleName());
         }
+        for (Map.Entry<Field, Integer> entry : ((StringAggregator) partial).groups.entrySet()) {
+            Integer count = groups.get(entry.getKey());
+            groups.put(entry.getKey(), count == null ? entry.getValue() : count + entry.getValue());
+        }
+    }
+
+    public int numGroups() {
+        return groups.size();
+    }
+
+    public boolean hasGroup(Tuple tup) {
+        return groups.containsKey(gbfield == NO_GROUPING ? null : tup.getField(gbfield));
     }
 
     /**
-     * Returns a DbIterator over group aggregate results.
+     * Returns a DbIterator over group aggregate results. The result tuples
+     * are created as they are returned rather than all at once.
      *
      * @return a DbIterator whose tuples are the pair (groupVal,
      *   aggregateVal) if using group, or a single (aggregateVal) if no
@@ -61,17 +77,41 @@ public class StringAggregator implements Aggregator {
      *   aggregate specified in the constructor.
      */
     public DbIterator iterator() {
-
-        List<Tuple> tuples = new ArrayList<>();
-
         TupleDesc td;
         if (gbfield == NO_GROUPING) {
             td = new TupleDesc(new Type[] {Type.INT_TYPE});
         } else{
             td = new TupleDesc(new Type[] {gbfieldtype, Type.INT_TYPE});
         }
-        
-        for (Map.Entry<Field, Integer> entry : groups.entrySet()) {
+
+        return new ResultIterator(td);
+    }
+
+    private class ResultIterator implements DbIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TupleDesc td;
+        private Iterator<Map.Entry<Field, Integer>> entries;
+
+        ResultIterator(TupleDesc td) {
+            this.td = td;
+        }
+
+        public void open() {
+            entries = groups.entrySet().iterator();
+        }
+
+        public boolean hasNext() {
+            if (entries == null) throw new IllegalStateException("iterator not open");
+            return entries.hasNext();
+        }
+
+        public Tuple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<Field, Integer> entry = entries.next();
             Tuple tuple = new Tuple(td);
             if (gbfield == NO_GROUPING) {
                 tuple.setField(0, new IntField(entry.getValue()));
@@ -79,10 +119,21 @@ public class StringAggregator implements Aggregator {
                 tuple.setField(0, entry.getKey());
                 tuple.setField(1, new IntField(entry.getValue()));
             }
-            tuples.add(tuple);
+            return tuple;
+        }
+
+        public void rewind() {
+            close();
+            open();
         }
 
-        return new TupleIterator(td, tuples);
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            entries = null;
+        }
     }
 
 }
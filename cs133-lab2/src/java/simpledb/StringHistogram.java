@@ -0,0 +1,190 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * A histogram over a single STRING field. It keeps a list of the most
+ * common values with their counts, found in one pass with the Space-Saving
+ * algorithm, which answers equality predicates on frequent values exactly
+ * (up to the algorithm's error bound). Range predicates are answered by an
+ * {@link IntHistogram} over the first four characters of each value, and
+ * the number of distinct values is estimated with a {@link HyperLogLog}.
+ */
+public class StringHistogram implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of most common values reported. */
+    static final int NUM_MCVS = 10;
+    /** Number of values tracked to find them; more tracked values give more exact counts. */
+    private static final int TRACKED = 4 * NUM_MCVS;
+    /** Selectivity assumed for LIKE on values that are not among the most common. */
+    private static final double LIKE_SELECTIVITY = 0.1;
+
+    private final IntHistogram prefixes;
+    private final HyperLogLog distinct = new HyperLogLog();
+    /** Space-Saving counters: an upper bound of the count of each tracked value. */
+    private final HashMap<String, long[]> counters = new HashMap<String, long[]>();
+    private long count = 0;
+
+    /**
+     * Create a new StringHistogram.
+     *
+     * @param buckets the number of buckets of the histogram over prefixes
+     */
+    public StringHistogram(int buckets) {
+        this.prefixes = new IntHistogram(buckets);
+    }
+
+    /**
+     * Convert a string to an integer, with the property that if the return
+     * value(s1) < return value(s2), then s1 < s2
+     */
+    static int stringToInt(String s) {
+        int v = 0;
+        for (int i = 0; i < 4; i++) {
+            v <<= 8;
+            if (i < s.length()) {
+                v |= s.charAt(i) & 0x7f;
+            }
+        }
+        return v;
+    }
+
+    /** Add a new value to the histogram. */
+    public void addValue(String s) {
+        count++;
+        prefixes.addValue(stringToInt(s));
+        distinct.add(s);
+        long[] c = counters.get(s);
+        if (c != null) {
+            c[0]++;
+        } else if (counters.size() < TRACKED) {
+            counters.put(s, new long[] {1});
+        } else {
+            // replace the least counted value, inheriting its count
+            String victim = null;
+            long least = Long.MAX_VALUE;
+            for (Map.Entry<String, long[]> e : counters.entrySet()) {
+                if (e.getValue()[0] < least) {
+                    least = e.getValue()[0];
+                    victim = e.getKey();
+                }
+            }
+            c = counters.remove(victim);
+            c[0]++;
+            counters.put(s, c);
+        }
+    }
+
+    /** @return the number of values added */
+    public long count() {
+        return count;
+    }
+
+    /** @return the estimated number of distinct values added */
+    public long numDistinct() {
+        return distinct.estimate();
+    }
+
+    /**
+     * @return up to NUM_MCVS of the most common values, most common first,
+     *         with (an upper bound of) the number of times each was added
+     */
+    public LinkedHashMap<String, Long> mostCommonValues() {
+        List<Map.Entry<String, long[]>> entries = new ArrayList<Map.Entry<String, long[]>>(counters.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, long[]>>() {
+            public int compare(Map.Entry<String, long[]> a, Map.Entry<String, long[]> b) {
+                return Long.compare(b.getValue()[0], a.getValue()[0]);
+            }
+        });
+        LinkedHashMap<String, Long> mcvs = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, long[]> e : entries) {
+            if (mcvs.size() == NUM_MCVS) {
+                break;
+            }
+            mcvs.put(e.getKey(), e.getValue()[0]);
+        }
+        return mcvs;
+    }
+
+    /** @return the estimated fraction of values equal to s */
+    private double fractionEqual(String s) {
+        Map<String, Long> mcvs = mostCommonValues();
+        Long c = mcvs.get(s);
+        if (c != null) {
+            return (double) c / count;
+        }
+        long mcvTotal = 0;
+        for (long n : mcvs.values()) {
+            mcvTotal += n;
+        }
+        long others = Math.max(1, numDistinct() - mcvs.size());
+        return Math.max(0, (double) (count - mcvTotal) / count) / others;
+    }
+
+    /**
+     * Estimate the selectivity (as a double between 0 and 1) of the specified
+     * predicate over the specified string
+     *
+     * @param op
+     *            The operation being applied
+     * @param s
+     *            The string to apply op to
+     */
+    public double estimateSelectivity(Predicate.Op op, String s) {
+        if (count == 0) {
+            return 0;
+        }
+        switch (op) {
+        case EQUALS:
+            return fractionEqual(s);
+        case NOT_EQUALS:
+            return 1 - fractionEqual(s);
+        case LIKE: {
+            double f = 0;
+            long mcvTotal = 0;
+            for (Map.Entry<String, Long> e : mostCommonValues().entrySet()) {
+                mcvTotal += e.getValue();
+                if (e.getKey().contains(s)) {
+                    f += (double) e.getValue() / count;
+                }
+            }
+            return Math.min(1, f + LIKE_SELECTIVITY * Math.max(0, (double) (count - mcvTotal) / count));
+        }
+        default:
+            // only the prefix is compared, so ranges are approximate
+            return prefixes.estimateSelectivity(op, stringToInt(s));
+        }
+    }
+
+    /**
+     * @return the average selectivity of op over the values of this
+     *         histogram, for predicates whose operand is not known
+     */
+    public double avgSelectivity(Predicate.Op op) {
+        if (count == 0) {
+            return 0;
+        }
+        double eq = 1.0 / Math.max(1, numDistinct());
+        switch (op) {
+        case EQUALS:
+            return eq;
+        case NOT_EQUALS:
+            return 1 - eq;
+        case LIKE:
+            return LIKE_SELECTIVITY;
+        default:
+            return prefixes.avgSelectivity(op);
+        }
+    }
+
+    /**
+     * @return A string describing this histogram, for debugging purposes
+     */
+    public String toString() {
+        return "StringHistogram(count=" + count + ", distinct=" + numDistinct()
+                + ", mcvs=" + mostCommonValues() + ")";
+    }
+}
@@ -1,17 +1,37 @@
 package simpledb;
 
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.*;
 
 /**
  * TableStats represents statistics (e.g., histograms) about base tables in a
- * query. 
- * 
- * This class is not needed in implementing lab1 and lab2.
+ * query: the number of tuples and pages of the table, and for each field its
+ * number of nulls and an {@link IntHistogram} (INT and LONG fields) or
+ * {@link StringHistogram} (STRING fields), which also give the field's
+ * minimum, maximum, distinct count and most common values. All of them are
+ * collected in a single scan of the table, or from a random sample of its
+ * pages (see {@link #isSampled}), in which case counts are scaled up to the
+ * whole table and estimates come with confidence bounds.
+ * <p>
+ * Statistics are kept up to date as tables change: BufferPool reports every
+ * inserted tuple, which is added to the histograms, and every deleted one,
+ * which only adjusts the tuple count. Each table counts its modifications
+ * since it was last scanned, and {@link #refreshStatistics} rescans the
+ * tables whose count passed STALE_FRACTION of their size. Statistics can be
+ * saved to a file and loaded back, so that a restart only scans the tables
+ * that changed since they were saved.
  */
-public class TableStats {
+public class TableStats implements Serializable {
+
+    private static final long serialVersionUID = 1L;
     // Note: the constructor you will implement is below these static methods
 
     private static final ConcurrentHashMap<String, TableStats> statsMap = new ConcurrentHashMap<String, TableStats>();
@@ -48,18 +68,225 @@ public class TableStats {
         return statsMap;
     }
 
+    private static volatile double sampleFraction = 1.0;
+    private static volatile int maxSampledPages = Integer.MAX_VALUE;
+
+    /**
+     * Make {@link #computeStatistics} and the other methods that scan tables
+     * sample them instead; see {@link #TableStats(int, int, double, int)}.
+     * setSampling(1.0, Integer.MAX_VALUE) scans whole tables again.
+     *
+     * @param fraction the largest fraction of the pages of a table to read
+     * @param maxPages the largest number of pages of a table to read
+     * @throws IllegalArgumentException if fraction or maxPages is out of range
+     */
+    public static void setSampling(double fraction, int maxPages) {
+        checkSampleSize(fraction, maxPages);
+        sampleFraction = fraction;
+        maxSampledPages = maxPages;
+    }
+
+    private static void checkSampleSize(double fraction, int maxPages) {
+        if (!(fraction > 0 && fraction <= 1) || maxPages < 1) {
+            throw new IllegalArgumentException("invalid sample size " + fraction + ", " + maxPages);
+        }
+    }
+
+    /**
+     * Compute the statistics of every table of the catalog. Tables are
+     * scanned concurrently, one per available processor.
+     */
     public static void computeStatistics() {
         Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
 
         System.out.println("Computing table stats.");
+        List<Integer> tableIds = new ArrayList<Integer>();
         while (tableIt.hasNext()) {
-            int tableid = tableIt.next();
-            TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
-            setTableStats(Database.getCatalog().getTableName(tableid), s);
+            tableIds.add(tableIt.next());
         }
+        computeStatistics(tableIds);
         System.out.println("Done.");
     }
 
+    /** Scan the given tables concurrently and replace their statistics. */
+    private static void computeStatistics(List<Integer> tableIds) {
+        if (tableIds.isEmpty()) {
+            return;
+        }
+        int threads = Math.max(1, Math.min(tableIds.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<TableStats>> futures = new ArrayList<Future<TableStats>>();
+            for (final int tableid : tableIds) {
+                futures.add(pool.submit(new Callable<TableStats>() {
+                    public TableStats call() {
+                        return new TableStats(tableid, IOCOSTPERPAGE, sampleFraction, maxSampledPages);
+                    }
+                }));
+            }
+            for (int i = 0; i < tableIds.size(); i++) {
+                TableStats s = futures.get(i).get();
+                setTableStats(Database.getCatalog().getTableName(tableIds.get(i)), s);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("computing table statistics failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Rescan the tables that were modified too much since their statistics
+     * were computed.
+     */
+    public static void refreshStatistics() {
+        List<Integer> stale = new ArrayList<Integer>();
+        Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
+        while (tableIt.hasNext()) {
+            int tableid = tableIt.next();
+            TableStats s = getTableStats(Database.getCatalog().getTableName(tableid));
+            if (s != null && s.isStale()) {
+                stale.add(tableid);
+            }
+        }
+        computeStatistics(stale);
+    }
+
+    /**
+     * Save the statistics of every table of the catalog to a file, from
+     * which {@link #loadStatistics} can restore them. Statistics of tables
+     * that are no longer in the catalog, or were computed for another table
+     * of the same name, are not saved.
+     *
+     * @param statsFile the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public static void saveStatistics(String statsFile) throws IOException {
+        HashMap<String, TableStats> saved = new HashMap<String, TableStats>();
+        Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
+        while (tableIt.hasNext()) {
+            int tableid = tableIt.next();
+            String name = Database.getCatalog().getTableName(tableid);
+            TableStats s = name == null ? null : statsMap.get(name);
+            if (s == null || s.tableid != tableid) {
+                continue;
+            }
+            synchronized (s) {
+                s.fileLength = fileLength(tableid);
+            }
+            saved.put(name, s);
+        }
+        File tmp = new File(statsFile + ".tmp");
+        ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeObject(saved);
+        } finally {
+            out.close();
+        }
+        // replace the old file only once the new one is complete
+        File target = new File(statsFile);
+        if (!tmp.renameTo(target) && !(target.delete() && tmp.renameTo(target))) {
+            throw new IOException("cannot replace " + statsFile);
+        }
+    }
+
+    /**
+     * Load the statistics saved by {@link #saveStatistics}, and scan the
+     * tables of the catalog whose statistics are missing from the file, were
+     * saved for another table or schema, whose data file changed size since, or that
+     * are stale. A missing or unreadable file makes every table be scanned.
+     *
+     * @param statsFile the file to read
+     */
+    @SuppressWarnings("unchecked")
+    public static void loadStatistics(String statsFile) {
+        Map<String, TableStats> saved = new HashMap<String, TableStats>();
+        File f = new File(statsFile);
+        if (f.exists()) {
+            try {
+                ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(f)));
+                try {
+                    saved = (Map<String, TableStats>) in.readObject();
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                System.out.println("Ignoring unreadable table stats " + statsFile + ": " + e);
+            } catch (ClassNotFoundException e) {
+                System.out.println("Ignoring unreadable table stats " + statsFile + ": " + e);
+            } catch (ClassCastException e) {
+                System.out.println("Ignoring unreadable table stats " + statsFile + ": " + e);
+            }
+        }
+
+        List<Integer> scan = new ArrayList<Integer>();
+        Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
+        while (tableIt.hasNext()) {
+            int tableid = tableIt.next();
+            String name = Database.getCatalog().getTableName(tableid);
+            TableStats s = saved.get(name);
+            if (s == null || s.tableid != tableid || !s.td.equals(Database.getCatalog().getTupleDesc(tableid))
+                    || s.fileLength != fileLength(tableid) || s.isStale()) {
+                scan.add(tableid);
+            } else {
+                setTableStats(name, s);
+            }
+        }
+        if (!scan.isEmpty()) {
+            System.out.println("Computing table stats for " + scan.size() + " table(s).");
+            computeStatistics(scan);
+            System.out.println("Done.");
+        }
+    }
+
+    /** @return the size of the table's data file, or -1 if it has none */
+    private static long fileLength(int tableid) {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        return file instanceof HeapFile ? ((HeapFile) file).getFile().length() : -1;
+    }
+
+    /** @return the statistics of the table, or null if it has none */
+    private static TableStats statsOf(int tableid) {
+        String name = Database.getCatalog().getTableName(tableid);
+        TableStats s = name == null ? null : getTableStats(name);
+        // the name may have been reused for another table
+        return s != null && s.tableid == tableid ? s : null;
+    }
+
+    /**
+     * Record that t was inserted into a table. Called by BufferPool.
+     */
+    static void tupleInserted(int tableid, Tuple t) {
+        TableStats s = statsOf(tableid);
+        if (s != null) {
+            DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+            synchronized (s) {
+                s.add(t);
+                s.numTuples++;
+                s.modifications++;
+                s.numPages = pagesOf(file, s.td, s.numTuples);
+            }
+        }
+    }
+
+    /**
+     * Record that a tuple was deleted from a table. Called by BufferPool.
+     * The histograms cannot forget its values, so only the tuple count is
+     * adjusted until the table is rescanned.
+     */
+    static void tupleDeleted(int tableid) {
+        TableStats s = statsOf(tableid);
+        if (s != null) {
+            synchronized (s) {
+                s.numTuples = Math.max(0, s.numTuples - 1);
+                s.modifications++;
+            }
+        }
+    }
+
     /**
      * Number of bins for the histogram. Feel free to increase this value over
      * 100, though our tests assume that you have at least 100 bins in your
@@ -67,6 +294,43 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    /**
+     * Fraction of its tuples a table may have inserted or deleted before its
+     * statistics are stale.
+     */
+    static final double STALE_FRACTION = 0.2;
+    /** Tables smaller than this are made stale as if they had this size. */
+    static final long MIN_STALE_TUPLES = 1000;
+
+    /** Standard errors spanned by the confidence bounds of sampled statistics (95%). */
+    static final double CONFIDENCE_Z = 1.96;
+    private static final long SAMPLE_SEED = 0x5a3b1e;
+
+    private final int tableid;
+    private final int ioCostPerPage;
+    private int numPages;
+    private long numTuples;
+    /** Number of tuples when the table was scanned. */
+    private final long scannedTuples;
+    /** Number of tuples inserted or deleted since the table was scanned. */
+    private long modifications = 0;
+    /** Length of the data file when the statistics were saved. */
+    private long fileLength = -1;
+    /** Number of pages sampled, or -1 if the whole table was scanned. */
+    private final int sampledPages;
+    /** Number of tuples read from the sampled pages. */
+    private long sampledTuples = 0;
+    /** Standard error of numTuples when it was estimated from a sample. */
+    private double numTuplesStdErr = 0;
+    /** Per field: the distinct count scaled up from the sample, or null if not sampled. */
+    private long[] distinctEstimates = null;
+    private final TupleDesc td;
+    /** Per field: the histogram of an INT or LONG field, or null. */
+    private final IntHistogram[] intHists;
+    /** Per field: the histogram of a STRING field, or null. */
+    private final StringHistogram[] stringHists;
+    private final long[] nulls;
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
@@ -76,18 +340,276 @@ public class TableStats {
      * @param ioCostPerPage
      *            The cost per page of IO. This doesn't differentiate between
      *            sequential-scan IO and disk seeks.
+     * @throws RuntimeException if the table cannot be scanned
      */
     public TableStats(int tableid, int ioCostPerPage) {
-        // For this function, you'll have to get the
-        // DbFile for the table in question,
-        // then scan through its tuples and calculate
-        // the values that you need.
-        // You should try to do this reasonably efficiently, but you don't
-        // necessarily have to (for example) do everything
-        // in a single scan of the table.
-        // Note: See project description for hint on using a Transaction
+        this(tableid, ioCostPerPage, 1.0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Create a new TableStats object from a sample of the pages of a table.
+     * At most sampleFraction of the pages, and at most maxSampledPages of
+     * them, are read at random with {@link HeapFile#readPage}, bypassing the
+     * buffer pool, and the statistics are scaled up from their tuples. If
+     * that covers every page, or the table is not a HeapFile, the whole
+     * table is scanned instead and the statistics are exact.
+     *
+     * @param tableid
+     *            The table over which to compute statistics
+     * @param ioCostPerPage
+     *            The cost per page of IO.
+     * @param sampleFraction
+     *            The largest fraction of the pages to read, in (0, 1]
+     * @param maxSampledPages
+     *            The largest number of pages to read, at least 1
+     * @throws IllegalArgumentException if sampleFraction or maxSampledPages
+     *             is out of range
+     * @throws RuntimeException if the table cannot be scanned
+     */
+    public TableStats(int tableid, int ioCostPerPage, double sampleFraction, int maxSampledPages) {
+        checkSampleSize(sampleFraction, maxSampledPages);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        this.tableid = tableid;
+        this.ioCostPerPage = ioCostPerPage;
+        this.td = file.getTupleDesc();
+        this.intHists = new IntHistogram[td.numFields()];
+        this.stringHists = new StringHistogram[td.numFields()];
+        this.nulls = new long[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                stringHists[i] = new StringHistogram(NUM_HIST_BINS);
+            } else {
+                intHists[i] = new IntHistogram(NUM_HIST_BINS);
+            }
+        }
+
+        int totalPages = file instanceof HeapFile ? ((HeapFile) file).numPages() : -1;
+        long pages = (long) Math.ceil(sampleFraction * totalPages);
+        if (totalPages >= 0 && Math.min(pages, maxSampledPages) < totalPages) {
+            this.sampledPages = (int) Math.min(pages, maxSampledPages);
+            this.numPages = totalPages;
+            this.numTuples = sample((HeapFile) file);
+        } else {
+            this.sampledPages = -1;
+            this.numTuples = scan(file);
+            this.numPages = pagesOf(file, td, numTuples);
+        }
+        this.scannedTuples = numTuples;
+    }
+
+    /**
+     * Add every tuple of the file to the statistics.
+     *
+     * @return the number of tuples of the file
+     */
+    private long scan(DbFile file) {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
+        long n = 0;
+        try {
+            it.open();
+            while (it.hasNext()) {
+                add(it.next());
+                n++;
+            }
+            it.close();
+            Database.getBufferPool().transactionComplete(tid);
+        } catch (DbException e) {
+            throw new RuntimeException(e);
+        } catch (TransactionAbortedException e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return n;
+    }
+
+    /**
+     * Add the tuples of sampledPages random pages of the file to the
+     * statistics, and scale the tuple and distinct counts up to the file.
+     *
+     * @return the estimated number of tuples of the file
+     */
+    private long sample(HeapFile file) {
+        // a fixed seed, so that the same table always gives the same sample
+        Random random = new Random(SAMPLE_SEED ^ tableid);
+        // The last page is usually only partly filled, so when several pages
+        // are sampled it is one of them, and is counted rather than scaled
+        // up. Floyd's algorithm picks the other pages; reading them in order
+        // keeps the IO as sequential as it can be.
+        int last = sampledPages > 1 ? numPages - 1 : -1;
+        int others = last < 0 ? numPages : numPages - 1;
+        int k = last < 0 ? sampledPages : sampledPages - 1;
+        TreeSet<Integer> chosen = new TreeSet<Integer>();
+        for (int j = others - k; j < others; j++) {
+            int t = random.nextInt(j + 1);
+            chosen.add(chosen.contains(t) ? j : t);
+        }
+        if (last >= 0) {
+            chosen.add(last);
+        }
+
+        long[][] hashes = new long[td.numFields()][IntHistogram.SAMPLE_SIZE];
+        long n = 0;
+        long onLast = 0;
+        double sumSq = 0;
+        for (int pageNo : chosen) {
+            HeapPage page = (HeapPage) file.readPage(new HeapPageId(tableid, pageNo));
+            Iterator<Tuple> it = page.iterator();
+            int onPage = 0;
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                add(t);
+                // reservoir of the hashes of each field's values, for the
+                // distinct count estimates below
+                long slot = n < IntHistogram.SAMPLE_SIZE ? n : (long) (random.nextDouble() * (n + 1));
+                if (slot < IntHistogram.SAMPLE_SIZE) {
+                    for (int i = 0; i < hashes.length; i++) {
+                        Field f = t.getField(i);
+                        hashes[i][(int) slot] = f == null ? 0 : HyperLogLog.hash(f);
+                    }
+                }
+                onPage++;
+                n++;
+            }
+            if (pageNo == last) {
+                onLast = onPage;
+            } else {
+                sumSq += (double) onPage * onPage;
+            }
+        }
+
+        // the tuple count of the other pages is their mean tuples per page
+        // times their number, with the standard error of a sample without
+        // replacement
+        double mean = (double) (n - onLast) / k;
+        double variance = k > 1 ? Math.max(0, (sumSq - k * mean * mean) / (k - 1)) : mean * mean;
+        double fpc = 1 - (double) k / others;
+        long estimate = onLast + Math.round(mean * others);
+        this.numTuplesStdErr = others * Math.sqrt(variance / k * fpc);
+        this.sampledTuples = n;
+
+        this.distinctEstimates = new long[hashes.length];
+        int r = (int) Math.min(n, IntHistogram.SAMPLE_SIZE);
+        for (int i = 0; i < hashes.length; i++) {
+            distinctEstimates[i] = scaleDistinct(Arrays.copyOf(hashes[i], r), estimate);
+        }
+        return estimate;
+    }
+
+    /**
+     * Estimate the number of distinct values of a table of total tuples from
+     * the hashes of a uniform sample of its values, with Haas and Stokes'
+     * Duj1 estimator d / (1 - (1 - q) f1 / n), where the sample of n values
+     * is a fraction q of the table and has d distinct values, f1 of which
+     * were seen once: a sample of unique values scales up to the table, a
+     * sample without singletons is taken to have seen every value.
+     */
+    private static long scaleDistinct(long[] sample, long total) {
+        if (sample.length == 0) {
+            return 0;
+        }
+        Arrays.sort(sample);
+        long distinct = 0;
+        long once = 0;
+        for (int i = 0; i < sample.length; ) {
+            int j = i + 1;
+            while (j < sample.length && sample[j] == sample[i]) {
+                j++;
+            }
+            distinct++;
+            if (j - i == 1) {
+                once++;
+            }
+            i = j;
+        }
+        double n = sample.length;
+        double q = Math.min(1, n / total);
+        double duj1 = distinct / (1 - (1 - q) * once / n);
+        return Math.max(distinct, Math.min(total, Math.round(duj1)));
+    }
+
+    private static int pagesOf(DbFile file, TupleDesc td, long tuples) {
+        if (file instanceof HeapFile) {
+            return ((HeapFile) file).numPages();
+        }
+        return (int) Math.ceil((double) tuples * td.getSizeInBytes() / BufferPool.getPageSize());
+    }
+
+    /** @return whether the statistics were computed from a sample of the pages */
+    public boolean isSampled() {
+        return sampledPages >= 0;
+    }
+
+    /** @return the number of pages sampled, or -1 if the table was scanned */
+    public int sampledPages() {
+        return sampledPages;
+    }
+
+    /**
+     * @return the bounds of the confidence interval, at CONFIDENCE_Z
+     *         standard errors, of the number of tuples of the table when
+     *         it was sampled; both are the exact count if it was scanned
+     */
+    public synchronized double[] totalTuplesBounds() {
+        double margin = CONFIDENCE_Z * numTuplesStdErr;
+        return new double[] { Math.max(sampledTuples, numTuples - margin), numTuples + margin };
+    }
+
+    /**
+     * Bound the estimate of {@link #estimateSelectivity} by its confidence
+     * interval (Wilson's score interval at CONFIDENCE_Z) if the statistics
+     * were sampled. Tuples on a page are often alike, so the interval counts
+     * each sampled page as a single observation rather than each tuple;
+     * that overstates the error of tables whose pages are well mixed.
+     *
+     * @return the lower and upper bound of the selectivity; both are the
+     *         estimate if the table was scanned
+     */
+    public synchronized double[] estimateSelectivityBounds(int field, Predicate.Op op, Field constant) {
+        double p = estimateSelectivity(field, op, constant);
+        if (!isSampled()) {
+            return new double[] { p, p };
+        }
+        double n = sampledPages;
+        double z2 = CONFIDENCE_Z * CONFIDENCE_Z;
+        double center = (p + z2 / (2 * n)) / (1 + z2 / n);
+        double margin = CONFIDENCE_Z / (1 + z2 / n) * Math.sqrt(p * (1 - p) / n + z2 / (4 * n * n));
+        return new double[] { Math.max(0, center - margin), Math.min(1, center + margin) };
+    }
+
+    /** Hold the lock while serializing, so that concurrent inserts wait. */
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+    }
+
+    /**
+     * @return whether more than STALE_FRACTION of the table was modified
+     *         since it was scanned
+     */
+    public synchronized boolean isStale() {
+        return modifications > STALE_FRACTION * Math.max(scannedTuples, MIN_STALE_TUPLES);
+    }
+
+    /** @return the number of tuples inserted or deleted since the table was scanned */
+    public synchronized long numModifications() {
+        return modifications;
+    }
 
-        // TODO: some code goes here
+    /** Add the fields of t to the histograms. */
+    private void add(Tuple t) {
+        for (int i = 0; i < nulls.length; i++) {
+            Field f = t.getField(i);
+            if (f == null) {
+                nulls[i]++;
+            } else if (f instanceof IntField) {
+                intHists[i].addValue(((IntField) f).getValue());
+            } else if (f instanceof LongField) {
+                intHists[i].addValue(((LongField) f).getValue());
+            } else {
+                stringHists[i].addValue(((StringField) f).getValue());
+            }
+        }
     }
 
     /**
@@ -102,9 +624,8 @@ public class TableStats {
      * 
      * @return The estimated cost of scanning the table.
      */
-    public double estimateScanCost() {
-        // TODO: some code goes here
-        return 0;
+    public synchronized double estimateScanCost() {
+        return (double) numPages * ioCostPerPage;
     }
 
     /**
@@ -116,9 +637,24 @@ public class TableStats {
      * @return The estimated cardinality of the scan with the specified
      *         selectivityFactor
      */
-    public int estimateTableCardinality(double selectivityFactor) {
-        // TODO: some code goes here
-        return 0;
+    public synchronized int estimateTableCardinality(double selectivityFactor) {
+        return (int) Math.round(numTuples * selectivityFactor);
+    }
+
+    /**
+     * The number of tuples the optimizer plans for when a predicate with
+     * selectivity selectivityFactor is applied: the estimate if the table
+     * was scanned, and the upper bound of {@link #totalTuplesBounds} if it
+     * was sampled, so that an uncertain estimate is costed pessimistically.
+     *
+     * @param selectivityFactor
+     *            The selectivity of any predicates over the table; for
+     *            sampled statistics, the upper bound of
+     *            {@link #estimateSelectivityBounds}
+     */
+    public synchronized int planningCardinality(double selectivityFactor) {
+        double tuples = isSampled() ? totalTuplesBounds()[1] : numTuples;
+        return (int) Math.min(Integer.MAX_VALUE, Math.round(tuples * selectivityFactor));
     }
 
     /**
@@ -130,12 +666,12 @@ public class TableStats {
      * The semantic of the method is that, given the table, and then given a
      * tuple, of which we do not know the value of the field, return the
      * expected selectivity. You may estimate this value from the histograms.
-     *
-     * Not necessary for lab 3
      * */
-    public double avgSelectivity(int field, Predicate.Op op) {
-        // TODO: some code goes here
-        return 0.5;
+    public synchronized double avgSelectivity(int field, Predicate.Op op) {
+        if (intHists[field] != null) {
+            return intHists[field].avgSelectivity(op);
+        }
+        return stringHists[field].avgSelectivity(op);
     }
 
     /**
@@ -151,17 +687,69 @@ public class TableStats {
      * @return The estimated selectivity (fraction of tuples that satisfy) the
      *         predicate
      */
-    public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
-        // TODO: some code goes here
-        return 1.0;
+    public synchronized double estimateSelectivity(int field, Predicate.Op op, Field constant) {
+        if (numTuples == 0) {
+            return 0;
+        }
+        // nulls satisfy no comparison
+        double nonNull = 1 - (double) nulls[field] / Math.max(1, valuesSeen(field));
+        if (intHists[field] != null) {
+            return nonNull * intHists[field].estimateSelectivity(op, LongField.valueOf(constant));
+        }
+        return nonNull * stringHists[field].estimateSelectivity(op, ((StringField) constant).getValue());
     }
 
     /**
      * return the total number of tuples in this table
      * */
-    public int totalTuples() {
-        // TODO: some code goes here
-        return 0;
+    public synchronized int totalTuples() {
+        return (int) Math.min(numTuples, Integer.MAX_VALUE);
+    }
+
+    /** @return the number of pages of the table */
+    public synchronized int numPages() {
+        return numPages;
+    }
+
+    /** @return the number of values of the field added to the statistics, nulls included */
+    private long valuesSeen(int field) {
+        return nulls[field] + (intHists[field] != null ? intHists[field].count() : stringHists[field].count());
+    }
+
+    /** @return the estimated number of tuples whose field is null */
+    public synchronized long numNulls(int field) {
+        long seen = valuesSeen(field);
+        return seen == 0 ? 0 : Math.round((double) nulls[field] * numTuples / seen);
+    }
+
+    /** @return the estimated number of distinct values of the field */
+    public synchronized long numDistinct(int field) {
+        long seen = intHists[field] != null ? intHists[field].numDistinct() : stringHists[field].numDistinct();
+        return distinctEstimates == null ? seen : Math.max(seen, distinctEstimates[field]);
+    }
+
+    /**
+     * @return the histogram of an INT or LONG field, which also gives its
+     *         minimum and maximum
+     * @throws IllegalArgumentException if the field is a STRING field
+     */
+    public IntHistogram getIntHistogram(int field) {
+        if (intHists[field] == null) {
+            throw new IllegalArgumentException("field " + field + " is not numeric");
+        }
+        return intHists[field];
+    }
+
+    /**
+     * @return the histogram of a STRING field, which also gives its most
+     *         common values
+     * @throws IllegalArgumentException if the field is not a STRING field
+     */
+    public StringHistogram getStringHistogram(int field) {
+        if (stringHists[field] == null) {
+            throw new IllegalArgumentException("field " + field + " is not a STRING field");
+        }
+        return stringHists[field];
     }
 
 }
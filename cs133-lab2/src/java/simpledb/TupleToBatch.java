@@ -0,0 +1,55 @@
+package simpledb;
+
+/**
+ * TupleToBatch adapts a tuple-at-a-time {@link DbIterator} to the
+ * {@link BatchIterator} interface by packing its tuples into batches.
+ */
+public class TupleToBatch implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final DbIterator child;
+    private transient ColumnBatch batch;
+
+    /**
+     * @param child
+     *            the iterator whose tuples are packed into batches
+     */
+    public TupleToBatch(DbIterator child) {
+        this.child = child;
+    }
+
+    /** @return the wrapped iterator */
+    public DbIterator getChild() {
+        return child;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = new ColumnBatch(child.getTupleDesc());
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null) {
+            throw new IllegalStateException("TupleToBatch not open");
+        }
+        batch.clear();
+        while (!batch.isFull() && child.hasNext()) {
+            batch.append(child.next());
+        }
+        return batch.size() == 0 ? null : batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+        batch = null;
+    }
+}
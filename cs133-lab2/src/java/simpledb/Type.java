@@ -24,6 +24,21 @@ public enum Type implements Serializable {
             }
         }
 
+    }, LONG_TYPE() {
+        @Override
+        public int getSizeInBytes() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new LongField(dis.readLong());
+            }  catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getSizeInBytes() {
@@ -0,0 +1,364 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A ZoneMap records, for every page of a HeapFile, the minimum and maximum
+ * value of each INT column stored on that page. Scans consult it to skip
+ * pages that cannot hold a tuple satisfying a predicate.
+ * <p>
+ * The zone map is kept next to the data file in a sidecar file named
+ * <tt>&lt;datafile&gt;.zmap</tt>. The sidecar header records the length and
+ * modification time of the data file it describes; if they disagree with the
+ * data file (or the sidecar is missing or unreadable) the zone map is rebuilt
+ * by reading the data file directly. The sidecar is only written when a page
+ * of the data file is, so scanning a table that is never modified leaves no
+ * sidecar behind.
+ * <p>
+ * Sidecar format: the data file length (long), the data file modification
+ * time (long), the number of INT columns (int) and the number of pages (int),
+ * followed by one fixed-size entry per page holding a (min, max) pair of ints
+ * for each INT column. An empty page has min &gt; max.
+ *
+ * @see HeapFile#getZoneMap
+ */
+public class ZoneMap {
+
+    /** Bytes in the sidecar header: length, modification time, columns, pages. */
+    private static final int HEADER_SIZE = 24;
+
+    private final File dataFile;
+    private final File file;
+    private final TupleDesc td;
+
+    /** Field indexes of the INT columns of the table. */
+    private final int[] intFields;
+    /** Maps a field index to its column in the zone map, or -1. */
+    private final int[] columnOf;
+    /** Byte offset of each INT column inside a tuple. */
+    private final int[] fieldOffsets;
+
+    private int numPages;
+    private int[] mins;
+    private int[] maxs;
+    /** Whether the sidecar holds every entry of this zone map. */
+    private boolean persisted;
+
+    /**
+     * Open the zone map of the specified heap file, loading it from its
+     * sidecar file or rebuilding it from the data file. A rebuilt zone map
+     * is not written to the sidecar until a page is written.
+     */
+    ZoneMap(HeapFile hf) {
+        this.dataFile = hf.getFile();
+        this.file = new File(dataFile.getPath() + ".zmap");
+        this.td = hf.getTupleDesc();
+
+        int n = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                n++;
+            }
+        }
+        intFields = new int[n];
+        fieldOffsets = new int[n];
+        columnOf = new int[td.numFields()];
+        int col = 0;
+        int offset = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            columnOf[i] = -1;
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                intFields[col] = i;
+                fieldOffsets[col] = offset;
+                columnOf[i] = col++;
+            }
+            offset += td.getFieldType(i).getSizeInBytes();
+        }
+
+        mins = new int[0];
+        maxs = new int[0];
+        if (intFields.length > 0) {
+            persisted = load();
+            if (!persisted) {
+                rebuild();
+            }
+        }
+    }
+
+    /** @return the sidecar file holding this zone map */
+    public File getFile() {
+        return file;
+    }
+
+    /** @return the number of pages covered by this zone map */
+    public synchronized int numPages() {
+        return numPages;
+    }
+
+    /**
+     * Returns false if no tuple on the specified page can satisfy the
+     * predicate, true if some tuple might. Predicates on non-INT fields and
+     * pages this zone map does not know about always return true.
+     */
+    public synchronized boolean mayMatch(int pageNo, Predicate p) {
+        int col = p.getField() < columnOf.length ? columnOf[p.getField()] : -1;
+        if (col < 0 || pageNo < 0 || pageNo >= numPages) {
+            return true;
+        }
+        int idx = pageNo * intFields.length + col;
+        int min = mins[idx];
+        int max = maxs[idx];
+        if (min > max) {
+            return false;
+        }
+        int v = ((IntField) p.getOperand()).getValue();
+        switch (p.getOp()) {
+        case EQUALS:
+        case LIKE:
+            return v >= min && v <= max;
+        case NOT_EQUALS:
+            return !(min == v && max == v);
+        case GREATER_THAN:
+            return max > v;
+        case GREATER_THAN_OR_EQ:
+            return max >= v;
+        case LESS_THAN:
+            return min < v;
+        case LESS_THAN_OR_EQ:
+            return min <= v;
+        }
+        return true;
+    }
+
+    /** @return the smallest value of field on the page, or null if unknown or empty */
+    public synchronized Integer getMin(int pageNo, int field) {
+        int idx = index(pageNo, field);
+        return idx < 0 || mins[idx] > maxs[idx] ? null : mins[idx];
+    }
+
+    /** @return the largest value of field on the page, or null if unknown or empty */
+    public synchronized Integer getMax(int pageNo, int field) {
+        int idx = index(pageNo, field);
+        return idx < 0 || mins[idx] > maxs[idx] ? null : maxs[idx];
+    }
+
+    private int index(int pageNo, int field) {
+        int col = field < columnOf.length ? columnOf[field] : -1;
+        if (col < 0 || pageNo < 0 || pageNo >= numPages) {
+            return -1;
+        }
+        return pageNo * intFields.length + col;
+    }
+
+    /**
+     * Widen the entry of the specified page to cover t. Called when t is
+     * inserted on the page; the sidecar is brought up to date when the page
+     * is written back.
+     */
+    synchronized void tupleInserted(int pageNo, Tuple t) {
+        if (intFields.length == 0) {
+            return;
+        }
+        ensurePages(pageNo + 1);
+        int base = pageNo * intFields.length;
+        for (int c = 0; c < intFields.length; c++) {
+            int v = ((IntField) t.getField(intFields[c])).getValue();
+            if (v < mins[base + c]) {
+                mins[base + c] = v;
+            }
+            if (v > maxs[base + c]) {
+                maxs[base + c] = v;
+            }
+        }
+    }
+
+    /**
+     * Recompute the entry of a page from its current contents. Deletes can
+     * only narrow an entry, so it is recomputed rather than adjusted.
+     */
+    synchronized void pageChanged(HeapPage page) {
+        if (intFields.length == 0) {
+            return;
+        }
+        int pageNo = page.getId().getPageNumber();
+        ensurePages(pageNo + 1);
+        clearEntry(pageNo);
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            tupleInserted(pageNo, it.next());
+        }
+    }
+
+    /**
+     * Recompute the entry of a page that was just written to the data file,
+     * and persist it together with the new length and modification time of
+     * the data file. The whole zone map is written if the sidecar does not
+     * hold it yet.
+     *
+     * @throws IOException if the sidecar cannot be written
+     */
+    synchronized void pageWritten(HeapPage page) throws IOException {
+        if (intFields.length == 0) {
+            return;
+        }
+        pageChanged(page);
+        int pageNo = page.getId().getPageNumber();
+        if (!persisted || !file.exists()) {
+            persist();
+            return;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            writeHeader(raf);
+            raf.seek(HEADER_SIZE + (long) pageNo * intFields.length * 8);
+            raf.write(entryData(pageNo, pageNo + 1));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /** Rebuild the whole zone map by reading the pages of the data file. */
+    synchronized void rebuild() {
+        int pageSize = BufferPool.getPageSize();
+        int pages = (int) (dataFile.length() / pageSize);
+        numPages = 0;
+        mins = new int[0];
+        maxs = new int[0];
+        ensurePages(pages);
+        if (pages == 0) {
+            return;
+        }
+
+        int slots = HeapPage.numSlots(td);
+        int headerSize = HeapPage.headerSize(td);
+        int tupleSize = td.getSizeInBytes();
+        byte[] data = new byte[pageSize];
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(dataFile)));
+            try {
+                for (int p = 0; p < pages; p++) {
+                    in.readFully(data);
+                    int base = p * intFields.length;
+                    for (int s = 0; s < slots; s++) {
+                        if (!HeapPage.isSlotUsed(data, s)) {
+                            continue;
+                        }
+                        int tupleOffset = headerSize + s * tupleSize;
+                        for (int c = 0; c < intFields.length; c++) {
+                            int v = HeapPage.readInt(data, tupleOffset + fieldOffsets[c]);
+                            if (v < mins[base + c]) {
+                                mins[base + c] = v;
+                            }
+                            if (v > maxs[base + c]) {
+                                maxs[base + c] = v;
+                            }
+                        }
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("unable to build zone map for " + dataFile, e);
+        }
+    }
+
+    private void ensurePages(int pages) {
+        if (pages <= numPages) {
+            return;
+        }
+        int n = intFields.length;
+        if (pages * n > mins.length) {
+            int cap = Math.max(pages, numPages * 2) * n;
+            mins = Arrays.copyOf(mins, cap);
+            maxs = Arrays.copyOf(maxs, cap);
+        }
+        int old = numPages;
+        numPages = pages;
+        for (int p = old; p < pages; p++) {
+            clearEntry(p);
+        }
+    }
+
+    private void clearEntry(int pageNo) {
+        int base = pageNo * intFields.length;
+        for (int c = 0; c < intFields.length; c++) {
+            mins[base + c] = Integer.MAX_VALUE;
+            maxs[base + c] = Integer.MIN_VALUE;
+        }
+    }
+
+    private byte[] entryData(int from, int to) {
+        int n = intFields.length;
+        ByteArrayOutputStream baos = new ByteArrayOutputStream((to - from) * n * 8);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int i = from * n; i < to * n; i++) {
+                dos.writeInt(mins[i]);
+                dos.writeInt(maxs[i]);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    private void writeHeader(RandomAccessFile raf) throws IOException {
+        raf.seek(0);
+        raf.writeLong(dataFile.length());
+        raf.writeLong(dataFile.lastModified());
+        raf.writeInt(intFields.length);
+        raf.writeInt(numPages);
+    }
+
+    /** Write the whole zone map to its sidecar file. */
+    private void persist() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            writeHeader(raf);
+            raf.write(entryData(0, numPages));
+            raf.setLength(raf.getFilePointer());
+        } finally {
+            raf.close();
+        }
+        persisted = true;
+    }
+
+    /**
+     * Load the zone map from its sidecar file.
+     * @return false if the sidecar is missing, unreadable or stale
+     */
+    private boolean load() {
+        if (!file.exists()) {
+            return false;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                long length = in.readLong();
+                long modified = in.readLong();
+                int cols = in.readInt();
+                int pages = in.readInt();
+                if (length != dataFile.length() || modified != dataFile.lastModified()
+                        || cols != intFields.length
+                        || pages != dataFile.length() / BufferPool.getPageSize()) {
+                    return false;
+                }
+                ensurePages(pages);
+                for (int i = 0; i < pages * cols; i++) {
+                    mins[i] = in.readInt();
+                    maxs[i] = in.readInt();
+                }
+                return true;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            numPages = 0;
+            return false;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class AdaptiveJoinTest extends SimpleDbTestBase {
+
+    private static final String QUERY = "SELECT a.c0, b.c1, c.c1 FROM a, b, c WHERE a.c0 = b.c0 AND b.c1 = c.c0;";
+
+    private HeapFile small;
+    private Parser parser;
+
+    /**
+     * Create a table whose column 0 holds the row number and column 1 the
+     * row number modulo 50, with statistics
+     */
+    private HeapFile createTable(String name, int rows) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i % 50)));
+        }
+        File f = File.createTempFile("table_" + name, ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".zmap").deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(hf, name);
+        TableStats.setTableStats(name, new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+        return hf;
+    }
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        createTable("a", 2000);
+        createTable("b", 2000);
+        createTable("c", 100);
+        small = createTable("small", 5);
+        parser = new Parser();
+    }
+
+    @After public void tearDown() {
+        AdaptiveJoin.setReoptimizationThreshold(4);
+    }
+
+    /** @return the AdaptiveJoin in plan, or null if there is none */
+    private static AdaptiveJoin find(DbIterator plan) {
+        if (plan instanceof AdaptiveJoin)
+            return (AdaptiveJoin) plan;
+        if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren()) {
+                AdaptiveJoin j = find(child);
+                if (j != null)
+                    return j;
+            }
+        }
+        return null;
+    }
+
+    /** Run plan and return its tuples, sorted */
+    private static List<String> run(DbIterator plan) throws Exception {
+        ArrayList<String> tuples = new ArrayList<String>();
+        plan.open();
+        while (plan.hasNext())
+            tuples.add(plan.next().toString());
+        plan.close();
+        Collections.sort(tuples);
+        return tuples;
+    }
+
+    private DbIterator plan(TransactionId tid) throws Exception {
+        LogicalPlan lp = parser.generateLogicalPlan(tid, QUERY);
+        return lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    }
+
+    /**
+     * Unit test that joins whose estimates hold are not ordered again
+     */
+    @Test public void accurateEstimates() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbIterator plan = plan(tid);
+        AdaptiveJoin j = find(plan);
+        assertNotNull(j);
+        assertEquals(2000, run(plan).size());
+        assertEquals(0, j.getReplans());
+        // the inputs read into memory are read again on the next open
+        assertEquals(2000, run(plan).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test that an input read into memory for a join that holds it
+     * itself is released as the join reads it
+     */
+    @Test public void releaseHeldInputs() throws Exception {
+        AdaptiveJoin.Materialized m = new AdaptiveJoin.Materialized(TestUtil.createTupleList(1, new int[] { 1, 2, 3 }));
+        m.readOnce();
+        HashJoin j = new HashJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                TestUtil.createTupleList(1, new int[] { 2, 3, 4 }), m);
+        assertEquals(2, run(j).size());
+        assertEquals(3, m.size());
+        try {
+            m.open();
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Unit test that the joins still to run are ordered again when an input
+     * read into memory is far larger than estimated, and that the query
+     * returns the same tuples as without reoptimization
+     */
+    @Test public void reoptimize() throws Exception {
+        // b looks like a table of 5 tuples, so it is the build input of the
+        // first hash join
+        TableStats.setTableStats("b", new TableStats(small.getId(), TableStats.IOCOSTPERPAGE));
+        TransactionId tid = new TransactionId();
+
+        AdaptiveJoin.setReoptimizationThreshold(Double.POSITIVE_INFINITY);
+        DbIterator plain = plan(tid);
+        assertNull(find(plain));
+        List<String> expected = run(plain);
+        assertEquals(2000, expected.size());
+
+        AdaptiveJoin.setReoptimizationThreshold(4);
+        DbIterator plan = plan(tid);
+        AdaptiveJoin j = find(plan);
+        assertEquals(expected, run(plan));
+        assertTrue(j.getReplans() > 0);
+        assertEquals(plain.getTupleDesc(), plan.getTupleDesc());
+        Database.getBufferPool().transactionComplete(tid);
+
+        try {
+            AdaptiveJoin.setReoptimizationThreshold(0.5);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(AdaptiveJoinTest.class);
+    }
+}
@@ -55,13 +55,13 @@ public class AggregateTest extends SimpleDbTestBase {
                     "c", 7 });
 
     this.sum = TestUtil.createTupleList(width1,
-        new int[] { 1, 12,
-                    3, 12,
-                    5, 7 });
+        new Object[] { 1, 12L,
+                    3, 12L,
+                    5, 7L });
     this.sumstring = TestUtil.createTupleList(width1,
-        new Object[] { "a", 12,
-                    "b", 12,
-                    "c", 7 });
+        new Object[] { "a", 12L,
+                    "b", 12L,
+                    "c", 7L });
 
     this.avg = TestUtil.createTupleList(width1,
         new int[] { 1, 4,
@@ -176,6 +176,182 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Unit test for several aggregates over a composite group key, with and
+   * without spilling to disk
+   */
+  @Test public void multipleAggregates() throws Exception {
+    int[] data = new int[3 * 600];
+    for (int i = 0; i < 600; i++) {
+      data[3 * i] = i % 4;
+      data[3 * i + 1] = i % 20;
+      data[3 * i + 2] = i;
+    }
+    int[] afields = new int[] { 2, 2, 2, 1 };
+    Aggregator.Op[] aops = new Aggregator.Op[] { Aggregator.Op.MIN,
+        Aggregator.Op.MAX, Aggregator.Op.SUM, Aggregator.Op.COUNT };
+    for (int maxGroups : new int[] { Aggregate.DEFAULT_MAX_GROUPS, 3 }) {
+      Aggregate op = new Aggregate(TestUtil.createTupleList(3, data),
+          afields, aops, new int[] { 1, 0 }, maxGroups);
+      assertEquals(6, op.getTupleDesc().numFields());
+      op.open();
+      int groups = 0;
+      while (op.hasNext()) {
+        Tuple t = op.next();
+        int g1 = ((IntField) t.getField(0)).getValue();
+        int g0 = ((IntField) t.getField(1)).getValue();
+        // i % 20 == g1 fixes i % 4 too, so each group is i = g1 + 20k
+        assertEquals(g1 % 4, g0);
+        assertEquals(g1, ((IntField) t.getField(2)).getValue());
+        assertEquals(g1 + 580, ((IntField) t.getField(3)).getValue());
+        assertEquals(30 * g1 + 20 * 435, ((LongField) t.getField(4)).getValue());
+        assertEquals(30, ((IntField) t.getField(5)).getValue());
+        groups++;
+      }
+      assertEquals(20, groups);
+      assertEquals(maxGroups == 3, op.getTuplesSpilled() > 0);
+      op.close();
+    }
+  }
+
+  /**
+   * Unit test for StreamAggregate over sorted input against Aggregate
+   */
+  @Test public void streamAggregate() throws Exception {
+    int[] data = new int[3 * 500];
+    for (int i = 0; i < 500; i++) {
+      data[3 * i] = (i * 37) % 11;
+      data[3 * i + 1] = (i * 13) % 17;
+      data[3 * i + 2] = i;
+    }
+    int[] afields = new int[] { 2, 2, 1 };
+    Aggregator.Op[] aops = new Aggregator.Op[] { Aggregator.Op.AVG,
+        Aggregator.Op.MAX, Aggregator.Op.COUNT };
+    Aggregate hashed = new Aggregate(TestUtil.createTupleList(3, data),
+        afields, aops, new int[] { 0 });
+    StreamAggregate streamed = new StreamAggregate(
+        new OrderBy(0, false, TestUtil.createTupleList(3, data)),
+        afields, aops, new int[] { 0 });
+    assertEquals(hashed.getTupleDesc(), streamed.getTupleDesc());
+
+    hashed.open();
+    streamed.open();
+    java.util.List<String> expected = new java.util.ArrayList<String>();
+    while (hashed.hasNext())
+      expected.add(hashed.next().toString());
+    java.util.List<String> actual = new java.util.ArrayList<String>();
+    int previous = Integer.MAX_VALUE;
+    while (streamed.hasNext()) {
+      Tuple t = streamed.next();
+      int key = ((IntField) t.getField(0)).getValue();
+      assertTrue(key < previous);
+      previous = key;
+      actual.add(t.toString());
+    }
+    java.util.Collections.sort(expected);
+    java.util.Collections.sort(actual);
+    assertEquals(expected, actual);
+
+    // without grouping, an empty input still produces one row
+    StreamAggregate empty = new StreamAggregate(TestUtil.createTupleList(3, new int[0]),
+        new int[] { 2 }, new Aggregator.Op[] { Aggregator.Op.COUNT }, new int[0]);
+    empty.open();
+    assertEquals(0, ((IntField) empty.next().getField(0)).getValue());
+    assertTrue(TestUtil.checkExhausted(empty));
+
+    // the MIN and MAX of no INT values are the largest and smallest INT
+    empty = new StreamAggregate(TestUtil.createTupleList(3, new int[0]), new int[] { 2, 2 },
+        new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.MAX }, new int[0]);
+    empty.open();
+    Tuple t = empty.next();
+    assertEquals(Integer.MAX_VALUE, ((IntField) t.getField(0)).getValue());
+    assertEquals(Integer.MIN_VALUE, ((IntField) t.getField(1)).getValue());
+  }
+
+  private static java.util.Map<Field, Long> results(DbIterator it) throws Exception {
+    java.util.Map<Field, Long> m = new java.util.HashMap<Field, Long>();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      assertEquals(null, m.put(t.getField(0), LongField.valueOf(t.getField(1))));
+    }
+    return m;
+  }
+
+  /**
+   * Unit test for an Aggregate whose groups exceed its memory budget, so
+   * that partitions are spilled to disk and themselves partitioned again
+   */
+  @Test public void spillToDisk() throws Exception {
+    int groups = 2000;
+    int[] data = new int[2 * 5 * groups];
+    for (int i = 0; i < data.length / 2; i++) {
+      data[2 * i] = (i * 7) % groups - groups / 2;
+      data[2 * i + 1] = i;
+    }
+    for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.SUM,
+        Aggregator.Op.AVG, Aggregator.Op.MIN, Aggregator.Op.COUNT }) {
+      Aggregate inMemory = new Aggregate(TestUtil.createTupleList(width1, data), 1, 0, op);
+      Aggregate spilling = new Aggregate(TestUtil.createTupleList(width1, data), 1, 0, op, 10);
+      inMemory.open();
+      spilling.open();
+      assertEquals(0, inMemory.getTuplesSpilled());
+      assertTrue(spilling.getTuplesSpilled() > 0);
+
+      java.util.Map<Field, Long> expected = results(inMemory);
+      assertEquals(groups, expected.size());
+      assertEquals(expected, results(spilling));
+      spilling.rewind();
+      assertEquals(expected, results(spilling));
+      inMemory.close();
+      spilling.close();
+    }
+
+    Aggregate op = new Aggregate(scan3, 1, 0, Aggregator.Op.SUM, 1);
+    op.open();
+    sumstring.open();
+    assertEquals(results(sumstring), results(op));
+    assertTrue(op.getTuplesSpilled() > 0);
+  }
+
+  /**
+   * Unit test for the sketch-based aggregates, in memory and spilling
+   */
+  @Test public void approximateAggregates() throws Exception {
+    int rows = 30000;
+    Object[] data = new Object[3 * rows];
+    for (int i = 0; i < rows; i++) {
+      data[3 * i] = i % 3;
+      data[3 * i + 1] = i;
+      data[3 * i + 2] = "s" + (i % 5000);
+    }
+    int[] afields = new int[] { 1, 2, 1, 1, 2 };
+    Aggregator.Op[] aops = new Aggregator.Op[] { Aggregator.Op.APPROX_COUNT_DISTINCT,
+        Aggregator.Op.APPROX_COUNT_DISTINCT, Aggregator.Op.APPROX_MEDIAN,
+        Aggregator.Op.APPROX_P99, Aggregator.Op.APPROX_MEDIAN };
+    for (int maxGroups : new int[] { Aggregate.DEFAULT_MAX_GROUPS, 1 }) {
+      Aggregate op = new Aggregate(TestUtil.createTupleList(3, data), afields, aops,
+          new int[] { 0 }, maxGroups);
+      TupleDesc td = op.getTupleDesc();
+      assertEquals(Type.INT_TYPE, td.getFieldType(3));
+      assertEquals(Type.STRING_TYPE, td.getFieldType(5));
+      op.open();
+      assertEquals(maxGroups == 1, op.getTuplesSpilled() > 0);
+      int groups = 0;
+      while (op.hasNext()) {
+        Tuple t = op.next();
+        groups++;
+        // each group holds 10000 distinct ints and all 5000 strings
+        assertEquals(10000, ((IntField) t.getField(1)).getValue(), 500);
+        assertEquals(5000, ((IntField) t.getField(2)).getValue(), 250);
+        assertEquals(15000, ((IntField) t.getField(3)).getValue(), 600);
+        assertEquals(29700, ((IntField) t.getField(4)).getValue(), 600);
+        assertNotNull(t.getField(5));
+      }
+      assertEquals(3, groups);
+      op.close();
+    }
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,134 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class AnalyzedOperatorTest extends SimpleDbTestBase {
+
+    private HeapFile a;
+    private Parser parser;
+
+    /**
+     * Create a table whose column 0 holds the row number and column 1 the
+     * row number modulo 10, with statistics
+     */
+    private HeapFile createTable(String name, int rows) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i % 10)));
+        }
+        File f = File.createTempFile("table_" + name, ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".zmap").deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(hf, name);
+        TableStats.setTableStats(name, new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+        return hf;
+    }
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        a = createTable("a", 1000);
+        createTable("b", 100);
+        parser = new Parser();
+    }
+
+    /** @return the AnalyzedOperators of plan, in preorder */
+    private static List<AnalyzedOperator> measured(DbIterator plan) {
+        ArrayList<AnalyzedOperator> all = new ArrayList<AnalyzedOperator>();
+        if (plan instanceof AnalyzedOperator)
+            all.add((AnalyzedOperator) plan);
+        if (plan instanceof Operator) {
+            for (DbIterator c : ((Operator) plan).getChildren())
+                all.addAll(measured(c));
+        }
+        return all;
+    }
+
+    /**
+     * Unit test that every iterator of a plan is measured, with the tuples
+     * it returned and the pages it read
+     */
+    @Test public void measurePlan() throws Exception {
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = parser.generateLogicalPlan(tid,
+                "SELECT a.c0, b.c0 FROM a, b WHERE a.c0 = b.c0 AND a.c1 = 3;");
+        AnalyzedOperator plan = AnalyzedOperator.instrument(lp.physicalPlan(tid, TableStats.getStatsMap(), false));
+        int n = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            plan.next();
+            n++;
+        }
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        // project, join and the two scans
+        List<AnalyzedOperator> ops = measured(plan);
+        assertEquals(4, ops.size());
+        assertEquals(10, n);
+        assertEquals(10, plan.getRows());
+        assertEquals(21, plan.getCalls());
+        long pages = 0;
+        for (AnalyzedOperator op : ops) {
+            assertTrue(op.getExclusiveNanos() <= op.getInclusiveNanos());
+            assertEquals(op.getPageMisses() * BufferPool.getPageSize(), op.getBytesRead());
+            pages += op.getPageHits() + op.getPageMisses();
+            if (op.getChild() instanceof SeqScan && ((SeqScan) op.getChild()).getAlias().equals("a")) {
+                assertEquals(100, op.getRows());
+                assertEquals(a.numPages(), op.getPageHits() + op.getPageMisses());
+                assertEquals(100, op.getEstimatedCardinality());
+            }
+        }
+        assertTrue(pages > 0);
+        // the scans read every page; the operators above them read none
+        assertEquals(0, plan.getPageHits() + plan.getPageMisses());
+
+        String tree = plan.format();
+        assertEquals(4, tree.split("\n").length);
+        assertTrue(tree.startsWith("Project"));
+        assertTrue(tree.contains("SeqScan a  (estimated 100 rows)  actual 100 rows"));
+    }
+
+    /**
+     * Unit test that the scan of a parallel aggregate is left unwrapped, so
+     * the measured plan aggregates in parallel as the plan would
+     */
+    @Test public void parallelAggregate() throws Exception {
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = parser.generateLogicalPlan(tid, "SELECT a.c1, COUNT(a.c0) FROM a GROUP BY a.c1;");
+        DbIterator physical = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        Aggregate agg = (Aggregate) ((Operator) physical).getChildren()[0];
+        agg.setParallelism(4);
+        AnalyzedOperator plan = AnalyzedOperator.instrument(physical);
+        assertSame(agg, ((AnalyzedOperator) ((Operator) plan.getChild()).getChildren()[0]).getChild());
+        assertTrue(agg.getChildren()[0] instanceof SeqScan);
+
+        int n = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            assertEquals(100, ((IntField) plan.next().getField(1)).getValue());
+            n++;
+        }
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(10, n);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(AnalyzedOperatorTest.class);
+    }
+}
@@ -0,0 +1,128 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BatchOperatorTest extends SimpleDbTestBase {
+
+    private HeapFile table1;
+    private HeapFile table2;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        table1 = SystemTestUtil.createRandomHeapFile(3, 3000, 100, null, new ArrayList<ArrayList<Integer>>());
+        table2 = SystemTestUtil.createRandomHeapFile(2, 500, 100, null, new ArrayList<ArrayList<Integer>>());
+        tid = new TransactionId();
+    }
+
+    private static List<ArrayList<Integer>> rows(DbIterator it) throws Exception {
+        List<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext())
+            rows.add(SystemTestUtil.tupleToList(it.next()));
+        it.close();
+        Collections.sort(rows, new Comparator<ArrayList<Integer>>() {
+            public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                return a.toString().compareTo(b.toString());
+            }
+        });
+        return rows;
+    }
+
+    /**
+     * Unit test that a batch scan returns every tuple of the table
+     */
+    @Test public void scan() throws Exception {
+        List<ArrayList<Integer>> expected = rows(new SeqScan(tid, table1.getId(), "t"));
+        BatchToTuple actual = new BatchToTuple(new BatchScan(tid, table1.getId(), "t"));
+        assertEquals(expected, rows(actual));
+        assertEquals(new SeqScan(tid, table1.getId(), "t").getTupleDesc(), actual.getTupleDesc());
+        assertEquals(3000, expected.size());
+    }
+
+    /**
+     * Unit test for BatchFilter and BatchProject against Filter and Project
+     */
+    @Test public void filterProject() throws Exception {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            Predicate p = new Predicate(1, op, new IntField(50));
+            List<ArrayList<Integer>> expected = rows(new Filter(p, new SeqScan(tid, table1.getId(), "t")));
+            List<ArrayList<Integer>> actual = rows(new BatchToTuple(
+                    new BatchFilter(p, new BatchScan(tid, table1.getId(), "t"))));
+            assertEquals(op.toString(), expected, actual);
+        }
+
+        Predicate lt = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(30));
+        Predicate gt = new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(60));
+        ArrayList<Integer> fields = new ArrayList<Integer>(Arrays.asList(2, 0));
+        ArrayList<Type> types = new ArrayList<Type>(Arrays.asList(Type.INT_TYPE, Type.INT_TYPE));
+        List<ArrayList<Integer>> expected = rows(new Project(fields, types,
+                new Filter(gt, new Filter(lt, new SeqScan(tid, table1.getId(), "t")))));
+        List<ArrayList<Integer>> actual = rows(new BatchToTuple(new BatchProject(new int[] {2, 0},
+                new BatchFilter(gt, new BatchFilter(lt, new BatchScan(tid, table1.getId(), "t"))))));
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * Unit test for BatchAggregate against Aggregate
+     */
+    @Test public void aggregate() throws Exception {
+        for (Aggregator.Op op : new Aggregator.Op[] {Aggregator.Op.MIN, Aggregator.Op.MAX,
+                Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT}) {
+            List<ArrayList<Integer>> expected = rows(new Aggregate(
+                    new SeqScan(tid, table1.getId(), "t"), 1, 0, op));
+            List<ArrayList<Integer>> actual = rows(new BatchToTuple(new BatchAggregate(
+                    new BatchScan(tid, table1.getId(), "t"), 1, 0, op)));
+            assertEquals(op.toString(), expected, actual);
+
+            expected = rows(new Aggregate(new SeqScan(tid, table1.getId(), "t"), 2, Aggregator.NO_GROUPING, op));
+            actual = rows(new BatchToTuple(new BatchAggregate(
+                    new BatchScan(tid, table1.getId(), "t"), 2, Aggregator.NO_GROUPING, op)));
+            assertEquals(op.toString(), expected, actual);
+
+            // an ungrouped aggregate of no tuples still returns one row,
+            // except for an AVG, which Aggregate cannot compute
+            if (op == Aggregator.Op.AVG)
+                continue;
+            Predicate none = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(100));
+            expected = rows(new Aggregate(new Filter(none, new SeqScan(tid, table1.getId(), "t")),
+                    2, Aggregator.NO_GROUPING, op));
+            actual = rows(new BatchToTuple(new BatchAggregate(
+                    new BatchFilter(none, new BatchScan(tid, table1.getId(), "t")), 2, Aggregator.NO_GROUPING, op)));
+            assertEquals(op.toString(), expected, actual);
+        }
+    }
+
+    /**
+     * Unit test for BatchHashJoin against Join, mixing batch and tuple
+     * operators through the adapters
+     */
+    @Test public void hashJoin() throws Exception {
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        List<ArrayList<Integer>> expected = rows(new Join(p,
+                new SeqScan(tid, table1.getId(), "a"), new SeqScan(tid, table2.getId(), "b")));
+        List<ArrayList<Integer>> actual = rows(new BatchToTuple(new BatchHashJoin(p,
+                new BatchScan(tid, table1.getId(), "a"),
+                new TupleToBatch(new SeqScan(tid, table2.getId(), "b")))));
+        assertEquals(expected, actual);
+        // 3000 x 500 rows over 100 values produce enough output to span many batches
+        assertTrue(actual.size() > 2 * ColumnBatch.CAPACITY);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchOperatorTest.class);
+    }
+}
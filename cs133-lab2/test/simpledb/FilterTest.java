@@ -120,6 +120,22 @@ public class FilterTest extends SimpleDbTestBase {
     op.close();
   }
 
+  /**
+   * Unit test for Filter.getNext() with a conjunction of predicates
+   */
+  @Test public void filterConjunction() throws Exception {
+    Predicate[] preds = {
+        new Predicate(0, Predicate.Op.GREATER_THAN, TestUtil.getField(-3)),
+        new Predicate(0, Predicate.Op.LESS_THAN, TestUtil.getField(2)) };
+    Filter op = new Filter(preds, scan);
+    assertEquals(2, op.getPredicates().size());
+    assertEquals(preds[0], op.getPredicate());
+    op.open();
+    TestUtil.MockScan expectedOut = new TestUtil.MockScan(-2, 2, testWidth);
+    TestUtil.compareDbIterators(op, expectedOut);
+    op.close();
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,110 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashIndexFileTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private HashIndexFile index;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 2000, 500, null, tuples, "c");
+        Database.getCatalog().addTable(hf, "indexed", "c0", true);
+        index = Database.getCatalog().getIndex(hf.getId());
+        index.getFile().deleteOnExit();
+        tid = new TransactionId();
+    }
+
+    private int countMatches(int key) {
+        int count = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) == key)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Unit test for bulk loading the index from an existing table
+     */
+    @Test public void bulkLoadLookup() throws Exception {
+        assertNotNull(index);
+        for (int key = 0; key < 500; key += 7) {
+            ArrayList<RecordId> rids = index.lookup(tid, new IntField(key));
+            assertEquals(countMatches(key), rids.size());
+            for (RecordId rid : rids) {
+                HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+                assertEquals(new IntField(key), page.getTuple(rid.getTupleNumber()).getField(0));
+            }
+        }
+        assertEquals(0, index.lookup(tid, new IntField(-1)).size());
+    }
+
+    /**
+     * Unit test for index maintenance through BufferPool.insertTuple, which
+     * must split buckets as the index grows
+     */
+    @Test public void insertSplits() throws Exception {
+        int bucketsBefore = index.numBuckets();
+        for (int i = 0; i < 5000; i++) {
+            Tuple t = new Tuple(hf.getTupleDesc());
+            t.setField(0, new IntField(1000 + i));
+            t.setField(1, new IntField(i));
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        }
+        assertTrue(index.numBuckets() > bucketsBefore);
+        for (int i = 0; i < 5000; i += 13) {
+            assertEquals(1, index.lookup(tid, new IntField(1000 + i)).size());
+        }
+        assertEquals(countMatches(3), index.lookup(tid, new IntField(3)).size());
+    }
+
+    /**
+     * Unit test for index maintenance through BufferPool.deleteTuple
+     */
+    @Test public void deleteRemovesEntry() throws Exception {
+        int key = tuples.get(0).get(0);
+        ArrayList<RecordId> rids = index.lookup(tid, new IntField(key));
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, rids.get(0).getPageId(), Permissions.READ_ONLY);
+        Database.getBufferPool().deleteTuple(tid, page.getTuple(rids.get(0).getTupleNumber()));
+        assertEquals(rids.size() - 1, index.lookup(tid, new IntField(key)).size());
+    }
+
+    /**
+     * Unit test for HashIndexScan
+     */
+    @Test public void indexScan() throws Exception {
+        int key = tuples.get(0).get(0);
+        HashIndexScan scan = new HashIndexScan(tid, hf.getId(), "indexed", new IntField(key));
+        assertEquals("indexed.c0", scan.getTupleDesc().getFieldName(0));
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            assertEquals(new IntField(key), scan.next().getField(0));
+            count++;
+        }
+        scan.close();
+        assertEquals(countMatches(key), count);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashIndexFileTest.class);
+    }
+}
@@ -15,7 +15,7 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
 
   int width1 = 2;
   DbIterator scan1;
-  int[][] sum = null;
+  Object[][] sum = null;
   int[][] min = null;
   int[][] max = null;
   int[][] avg = null;
@@ -34,11 +34,12 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
                     5, 7 });
 
     // verify how the results progress after a few merges
-    this.sum = new int[][] {
-      { 1, 2 },
-      { 1, 6 },
-      { 1, 12 },
-      { 1, 12, 3, 2 }
+    // sums are LONG
+    this.sum = new Object[][] {
+      { 1, 2L },
+      { 1, 6L },
+      { 1, 12L },
+      { 1, 12L, 3, 2L }
     };
 
     this.min = new int[][] {
@@ -70,7 +71,7 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     scan1.open();
     IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
     
-    for (int[] step : sum) {
+    for (Object[] step : sum) {
       agg.mergeTupleIntoGroup(scan1.next());
       DbIterator it = agg.iterator();
       it.open();
@@ -126,6 +127,52 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test grouping on many INT keys, which grows the group table several times
+   */
+  @Test public void manyGroups() throws Exception {
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+    int groups = 10000;
+    for (int i = 0; i < 3 * groups; i++) {
+      int key = (i % groups) * 7919 - groups;
+      agg.mergeTupleIntoGroup(Utility.getHeapTuple(new int[] { key, i % 10 }));
+    }
+
+    DbIterator it = agg.iterator();
+    it.open();
+    int count = 0;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      int key = ((IntField) t.getField(0)).getValue();
+      int g = (key + groups) / 7919;
+      assertEquals(key, g * 7919 - groups);
+      int expected = g % 10 + (g + groups) % 10 + (g + 2 * groups) % 10;
+      assertEquals(expected, ((LongField) t.getField(1)).getValue());
+      count++;
+    }
+    assertEquals(groups, count);
+  }
+
+  /**
+   * Test that the MIN and MAX of no INT values are the largest and smallest
+   * INT, and those of no LONG values the largest and smallest LONG
+   */
+  @Test public void emptyMinMax() throws Exception {
+    Type[] types = { Type.INT_TYPE, Type.LONG_TYPE };
+    for (Type type : types) {
+      IntegerAggregator min = new IntegerAggregator(Aggregator.NO_GROUPING, null, 0, type, Aggregator.Op.MIN);
+      IntegerAggregator max = new IntegerAggregator(Aggregator.NO_GROUPING, null, 0, type, Aggregator.Op.MAX);
+      DbIterator it = min.iterator();
+      it.open();
+      long v = LongField.valueOf(it.next().getField(0));
+      assertEquals(type == Type.INT_TYPE ? Integer.MAX_VALUE : Long.MAX_VALUE, v);
+      it = max.iterator();
+      it.open();
+      v = LongField.valueOf(it.next().getField(0));
+      assertEquals(type == Type.INT_TYPE ? Integer.MIN_VALUE : Long.MIN_VALUE, v);
+    }
+  }
+
   /**
    * Test IntegerAggregator.iterator() for DbIterator behaviour
    */
@@ -0,0 +1,400 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class JoinOptimizerTest extends SimpleDbTestBase {
+
+    private HashMap<String, TableStats> stats;
+    private LogicalPlan lp;
+
+    /**
+     * Create a table whose column 0 holds the row number and column 1 the
+     * row number modulo mod, and add a scan of it to the logical plan
+     */
+    private void createTable(String name, int rows, int mod) throws Exception {
+        createTable(name, rows, mod, false);
+    }
+
+    /** Create a table as above, with a hash index on column 0 if indexed is set */
+    private void createTable(String name, int rows, int mod, boolean indexed) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i % mod)));
+        }
+        File f = File.createTempFile("table_" + name, ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".zmap").deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2, "c"));
+        if (indexed)
+            Database.getCatalog().addTable(hf, name, "c0", true);
+        else
+            Database.getCatalog().addTable(hf, name);
+        stats.put(name, new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+        lp.addScan(hf.getId(), name);
+    }
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        stats = new HashMap<String, TableStats>();
+        lp = new LogicalPlan();
+        createTable("a", 2000, 100);
+        createTable("b", 2000, 100);
+        createTable("c", 100, 10);
+        createTable("d", 10, 10);
+    }
+
+    /**
+     * Unit test for JoinOptimizer.estimateJoinCost: a nested loops join
+     * scans its inner input once per outer tuple, and an equality join whose
+     * inner input fits in memory is cheapest as a hash join
+     */
+    @Test public void estimateJoinCost() {
+        JoinOptimizer jo = new JoinOptimizer(lp, new Vector<LogicalJoinNode>());
+        LogicalJoinNode j = new LogicalJoinNode("a", "b", "c0", "c0", Predicate.Op.EQUALS);
+        List<JoinCost> costs = JoinOptimizer.estimateJoinCosts(j, 10, 20, 100, 200, 8, 8, false, false, -1);
+        assertEquals(JoinCost.Algorithm.NESTED_LOOPS, costs.get(0).algorithm);
+        assertEquals(100 + 10 * 200 + 10 * 20, costs.get(0).total(), 0);
+        assertEquals(100 + 200 + 2 * 20 + 10, jo.estimateJoinCost(j, 10, 20, 100, 200), 0);
+        // the smaller input is the cheaper outer of a nested loops join, and
+        // the cheaper inner of a hash join
+        assertTrue(JoinOptimizer.estimateJoinCosts(j, 10, 1000, 100, 100, 8, 8, false, false, -1).get(0).total()
+                < JoinOptimizer.estimateJoinCosts(j, 1000, 10, 100, 100, 8, 8, false, false, -1).get(0).total());
+        assertTrue(jo.estimateJoinCost(j, 1000, 10, 100, 100) < jo.estimateJoinCost(j, 10, 1000, 100, 100));
+    }
+
+    /**
+     * Unit test for JoinOptimizer.estimateJoinCosts: the algorithms that can
+     * perform a join depend on its predicate, the join memory, the order of
+     * its inputs and the indexes of the inner table
+     */
+    @Test public void estimateJoinCosts() {
+        LogicalJoinNode eq = new LogicalJoinNode("a", "b", "c0", "c0", Predicate.Op.EQUALS);
+        LogicalJoinNode lt = new LogicalJoinNode("a", "b", "c0", "c0", Predicate.Op.LESS_THAN);
+
+        // a range join can only use nested loops, cheapest in blocks
+        List<JoinCost> costs = JoinOptimizer.estimateJoinCosts(lt, 1000, 1000, 8000, 8000, 8, 8, false, false, 10);
+        assertEquals(2, costs.size());
+        assertEquals(JoinCost.Algorithm.BLOCK_NESTED_LOOPS, JoinOptimizer.cheapestJoin(costs).algorithm);
+        assertEquals(8000 + 8000 + 1000 * 1000, JoinOptimizer.cheapestJoin(costs).total(), 0);
+
+        // inputs already sorted on their join fields make a sort-merge join
+        // cheaper than a hash join
+        costs = JoinOptimizer.estimateJoinCosts(eq, 1000, 1000, 8000, 8000, 8, 8, true, true, -1);
+        assertEquals(JoinCost.Algorithm.SORT_MERGE, JoinOptimizer.cheapestJoin(costs).algorithm);
+
+        // a cheap index lookup beats reading the inner input
+        costs = JoinOptimizer.estimateJoinCosts(eq, 10, 1000, 8000, 8000, 8, 8, false, false, 10);
+        assertEquals(JoinCost.Algorithm.INDEX_NESTED_LOOPS, JoinOptimizer.cheapestJoin(costs).algorithm);
+        assertEquals(8000 + 10 * 10 + 10, JoinOptimizer.cheapestJoin(costs).total(), 0);
+
+        // with a page of memory, neither input fits and a block holds 512
+        // tuples of 8 bytes
+        JoinOptimizer.setJoinMemory(1);
+        try {
+            costs = JoinOptimizer.estimateJoinCosts(eq, 1000, 1000, 8000, 8000, 8, 8, false, false, -1);
+            assertEquals(2, costs.size());
+            JoinCost best = JoinOptimizer.cheapestJoin(costs);
+            assertEquals(JoinCost.Algorithm.BLOCK_NESTED_LOOPS, best.algorithm);
+            assertEquals(2 * 8000, best.inner, 0);
+        } finally {
+            JoinOptimizer.setJoinMemory(BufferPool.DEFAULT_PAGES);
+        }
+
+        try {
+            JoinOptimizer.setJoinMemory(0);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Unit test that a small table joined to a large one on its indexed
+     * field is planned as an index nested loops join, which gives the right
+     * answer
+     */
+    @Test public void indexJoin() throws Exception {
+        createTable("e", 20000, 100, true);
+
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        joins.add(new LogicalJoinNode("d", "e", "c1", "c0", Predicate.Op.EQUALS));
+        HashMap<String, Double> selectivities = new HashMap<String, Double>();
+        selectivities.put("d", 1.0);
+        selectivities.put("e", 1.0);
+        Vector<LogicalJoinNode> order = new JoinOptimizer(lp, joins).orderJoins(stats, selectivities, false);
+        assertEquals("d", order.get(0).t1Alias);
+        assertEquals(JoinCost.Algorithm.INDEX_NESTED_LOOPS, order.get(0).joinCost.algorithm);
+
+        LogicalPlan de = new LogicalPlan();
+        de.addScan(Database.getCatalog().getTableId("d"), "d");
+        de.addScan(Database.getCatalog().getTableId("e"), "e");
+        de.addJoin("d.c1", "e.c0", Predicate.Op.EQUALS);
+        TransactionId tid = new TransactionId();
+        DbIterator plan = de.physicalPlan(tid, stats, false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof IndexNestedLoopsJoin);
+        // d.c1 holds 0..9, each matching one tuple of e
+        assertEquals(10, count(plan));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for JoinOptimizer.estimateTableJoinCardinality
+     */
+    @Test public void estimateTableJoinCardinality() {
+        Map<String, Integer> ids = lp.getTableAliasToIdMapping();
+        // unique join fields: one match per tuple
+        assertEquals(2000, JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS,
+                "a", "b", "c0", "c0", 2000, 2000, false, false, stats, ids), 2000 * 0.05);
+        // 100 distinct values on both sides: 20 x 20 matches per value
+        assertEquals(40000, JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS,
+                "a", "b", "c1", "c1", 2000, 2000, false, false, stats, ids), 40000 * 0.05);
+        // a filtered input has no more distinct values than tuples
+        assertEquals(100, JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS,
+                "a", "c", "c0", "c0", 200, 100, false, false, stats, ids), 100 * 0.05);
+        // a join on a primary key yields at most one tuple per tuple of the other side
+        assertEquals(100, JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS,
+                "a", "c", "c1", "c1", 2000, 100, true, false, stats, ids));
+        assertEquals((long) (0.3 * 2000 * 100), JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.LESS_THAN,
+                "a", "c", "c0", "c0", 2000, 100, false, false, stats, ids));
+        long eq = JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS,
+                "a", "b", "c1", "c1", 2000, 2000, false, false, stats, ids);
+        assertEquals(2000L * 2000 - eq, JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.NOT_EQUALS,
+                "a", "b", "c1", "c1", 2000, 2000, false, false, stats, ids));
+        // unknown tables fall back to the larger input
+        assertEquals(300, JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS,
+                "x", "y", "c0", "c0", 300, 200, false, false, stats, ids));
+    }
+
+    /**
+     * Unit test that orderJoins starts a chain of joins written from its
+     * largest tables with its smallest, filtered ones, and that the plan
+     * gives the right answer
+     */
+    @Test public void orderJoins() throws Exception {
+        lp.addJoin("a.c0", "b.c0", Predicate.Op.EQUALS);
+        lp.addJoin("b.c1", "c.c0", Predicate.Op.EQUALS);
+        lp.addJoin("c.c1", "d.c0", Predicate.Op.EQUALS);
+        lp.addFilter("d.c0", Predicate.Op.EQUALS, "3");
+
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        joins.add(new LogicalJoinNode("a", "b", "c0", "c0", Predicate.Op.EQUALS));
+        joins.add(new LogicalJoinNode("b", "c", "c1", "c0", Predicate.Op.EQUALS));
+        joins.add(new LogicalJoinNode("c", "d", "c1", "c0", Predicate.Op.EQUALS));
+        HashMap<String, Double> selectivities = new HashMap<String, Double>();
+        for (String t : new String[] { "a", "b", "c", "d" }) {
+            selectivities.put(t, 1.0);
+        }
+        selectivities.put("d", 0.1);
+        Vector<LogicalJoinNode> order = new JoinOptimizer(lp, joins).orderJoins(stats, selectivities, false);
+        assertEquals(3, order.size());
+        assertEquals(new HashSet<String>(Arrays.asList("c", "d")),
+                new HashSet<String>(Arrays.asList(order.get(0).t1Alias, order.get(0).t2Alias)));
+        assertEquals(new HashSet<LogicalJoinNode>(joins), new HashSet<LogicalJoinNode>(order));
+
+        // d.c0 = 3 keeps the 10 tuples of c with c1 = 3, which match 20
+        // tuples of b each, which match one tuple of a each
+        TransactionId tid = new TransactionId();
+        assertEquals(200, count(lp.physicalPlan(tid, stats, false)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for the bitmask subset enumeration
+     */
+    @Test public void enumerateSubsets() {
+        JoinOptimizer jo = new JoinOptimizer(lp, new Vector<LogicalJoinNode>());
+        Vector<Integer> v = new Vector<Integer>(Arrays.asList(1, 2, 3, 4, 5));
+        Set<Set<Integer>> subsets = jo.enumerateSubsets(v, 3);
+        assertEquals(10, subsets.size());
+        for (Set<Integer> s : subsets) {
+            assertEquals(3, s.size());
+        }
+        int n = 0;
+        for (long s = JoinOptimizer.firstSubset(2); s < (1L << 6); s = JoinOptimizer.nextSubset(s)) {
+            assertEquals(2, Long.bitCount(s));
+            n++;
+        }
+        assertEquals(15, n);
+    }
+
+    /**
+     * Unit test that a chain of 14 joins is ordered quickly, and that the
+     * order connects every join to the joins before it
+     */
+    @Test public void manyJoins() throws Exception {
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        HashMap<String, Double> selectivities = new HashMap<String, Double>();
+        for (int i = 0; i < 15; i++) {
+            createTable("t" + i, 10 + 10 * (i % 4), 10);
+            selectivities.put("t" + i, 1.0);
+        }
+        for (int i = 0; i < 14; i++) {
+            joins.add(new LogicalJoinNode("t" + i, "t" + (i + 1), "c1", "c0", Predicate.Op.EQUALS));
+        }
+        long start = System.currentTimeMillis();
+        JoinOptimizer jo = new JoinOptimizer(lp, joins);
+        Vector<LogicalJoinNode> order = jo.orderJoins(stats, selectivities, false);
+        assertTrue(System.currentTimeMillis() - start < 500);
+        assertEquals(JoinOptimizer.Strategy.GREEDY, jo.getStrategy());
+        assertEquals(14, order.size());
+        HashSet<String> joined = new HashSet<String>(Arrays.asList(order.get(0).t1Alias, order.get(0).t2Alias));
+        for (LogicalJoinNode j : order.subList(1, order.size())) {
+            assertTrue(joined.contains(j.t1Alias) != joined.contains(j.t2Alias));
+            joined.add(j.t1Alias);
+            joined.add(j.t2Alias);
+        }
+    }
+
+    /**
+     * Unit test that chains and stars of 10 joins, the most that are ordered
+     * with dynamic programming by default, are ordered in milliseconds
+     */
+    @Test public void dynamicProgrammingTime() throws Exception {
+        HashMap<String, Double> selectivities = new HashMap<String, Double>();
+        for (int i = 0; i < 11; i++) {
+            createTable("t" + i, 10 + 10 * (i % 4), 10);
+            selectivities.put("t" + i, 1.0);
+        }
+        for (boolean star : new boolean[] { false, true }) {
+            Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+            for (int i = 0; i < 10; i++) {
+                joins.add(new LogicalJoinNode(star ? "t0" : "t" + i, "t" + (i + 1), "c1", "c0", Predicate.Op.EQUALS));
+            }
+            // the first search also loads and compiles the optimizer
+            new JoinOptimizer(lp, joins).orderJoins(stats, selectivities, false);
+            long start = System.currentTimeMillis();
+            JoinOptimizer jo = new JoinOptimizer(lp, joins);
+            jo.orderJoins(stats, selectivities, false);
+            assertTrue(System.currentTimeMillis() - start < 100);
+            assertEquals(JoinOptimizer.Strategy.DYNAMIC_PROGRAMMING, jo.getStrategy());
+        }
+    }
+
+    /**
+     * Unit test that queries with more joins than setMaxDpJoins are ordered
+     * greedily, that improving the greedy order never makes it worse, and
+     * that dynamic programming finds an order no worse than the greedy one
+     */
+    @Test public void heuristicOrder() throws Exception {
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        joins.add(new LogicalJoinNode("a", "b", "c0", "c0", Predicate.Op.EQUALS));
+        joins.add(new LogicalJoinNode("b", "c", "c1", "c0", Predicate.Op.EQUALS));
+        joins.add(new LogicalJoinNode("c", "d", "c1", "c0", Predicate.Op.EQUALS));
+        HashMap<String, Double> selectivities = new HashMap<String, Double>();
+        for (String t : new String[] { "a", "b", "c", "d" }) {
+            selectivities.put(t, 1.0);
+        }
+        selectivities.put("d", 0.1);
+
+        JoinOptimizer dp = new JoinOptimizer(lp, joins);
+        dp.orderJoins(stats, selectivities, false);
+        assertEquals(JoinOptimizer.Strategy.DYNAMIC_PROGRAMMING, dp.getStrategy());
+
+        JoinOptimizer.setMaxDpJoins(2);
+        try {
+            JoinOptimizer greedy = new JoinOptimizer(lp, joins);
+            Vector<LogicalJoinNode> order = greedy.orderJoins(stats, selectivities, false);
+            assertEquals(JoinOptimizer.Strategy.GREEDY, greedy.getStrategy());
+            assertEquals(new HashSet<LogicalJoinNode>(joins), new HashSet<LogicalJoinNode>(order));
+            assertTrue(dp.getPlanCost() <= greedy.getPlanCost());
+
+            // with no time to improve it, the greedy order is no better
+            JoinOptimizer.setPlanningBudget(0);
+            JoinOptimizer unimproved = new JoinOptimizer(lp, joins);
+            unimproved.orderJoins(stats, selectivities, false);
+            assertEquals(JoinOptimizer.Strategy.GREEDY, unimproved.getStrategy());
+            assertTrue(greedy.getPlanCost() <= unimproved.getPlanCost());
+        } finally {
+            JoinOptimizer.setMaxDpJoins(10);
+            JoinOptimizer.setPlanningBudget(200);
+        }
+
+        try {
+            JoinOptimizer.setMaxDpJoins(JoinOptimizer.MAX_DP_JOINS + 1);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /** Run plan to completion and return the number of tuples it produced */
+    private static int count(DbIterator plan) throws Exception {
+        plan.open();
+        int n = 0;
+        while (plan.hasNext()) {
+            plan.next();
+            n++;
+        }
+        plan.close();
+        return n;
+    }
+
+    /**
+     * Unit test that a chain whose two ends are filtered down to a few
+     * tuples around a many-to-many join is planned as the join of a join at
+     * either end, and that the bushy plan gives the right answer
+     */
+    @Test public void bushyPlan() throws Exception {
+        lp.addJoin("c.c0", "a.c0", Predicate.Op.EQUALS);
+        lp.addJoin("a.c1", "b.c1", Predicate.Op.EQUALS);
+        lp.addJoin("b.c0", "d.c0", Predicate.Op.EQUALS);
+        lp.addFilter("c.c0", Predicate.Op.LESS_THAN, "2");
+        lp.addFilter("d.c0", Predicate.Op.LESS_THAN, "2");
+
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        joins.add(new LogicalJoinNode("c", "a", "c0", "c0", Predicate.Op.EQUALS));
+        joins.add(new LogicalJoinNode("a", "b", "c1", "c1", Predicate.Op.EQUALS));
+        joins.add(new LogicalJoinNode("b", "d", "c0", "c0", Predicate.Op.EQUALS));
+        HashMap<String, Double> selectivities = new HashMap<String, Double>();
+        for (String t : new String[] { "a", "b", "c", "d" }) {
+            selectivities.put(t, 1.0);
+        }
+        selectivities.put("c", 0.02);
+        selectivities.put("d", 0.2);
+        Vector<LogicalJoinNode> order = new JoinOptimizer(lp, joins).orderJoins(stats, selectivities, false);
+
+        // the last join takes the results of the other two
+        Set<String> first = new HashSet<String>(Arrays.asList(order.get(0).t1Alias, order.get(0).t2Alias));
+        Set<String> second = new HashSet<String>(Arrays.asList(order.get(1).t1Alias, order.get(1).t2Alias));
+        assertTrue(Collections.disjoint(first, second));
+        assertEquals(new HashSet<LogicalJoinNode>(joins), new HashSet<LogicalJoinNode>(order));
+
+        // c.c0 < 2 keeps a.c0 and so a.c1 in {0, 1}, which matches the 40
+        // tuples of b with c1 in {0, 1}; d.c0 < 2 keeps two of them
+        TransactionId tid = new TransactionId();
+        assertEquals(2, count(lp.physicalPlan(tid, stats, false)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test that joins that leave tables unconnected keep their order
+     */
+    @Test public void crossProduct() throws Exception {
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        joins.add(new LogicalJoinNode("a", "b", "c0", "c0", Predicate.Op.EQUALS));
+        joins.add(new LogicalJoinNode("c", "d", "c1", "c0", Predicate.Op.EQUALS));
+        HashMap<String, Double> selectivities = new HashMap<String, Double>();
+        for (String t : new String[] { "a", "b", "c", "d" }) {
+            selectivities.put(t, 1.0);
+        }
+        JoinOptimizer jo = new JoinOptimizer(lp, joins);
+        assertEquals(joins, jo.orderJoins(stats, selectivities, false));
+        assertEquals(JoinOptimizer.Strategy.QUERY_ORDER, jo.getStrategy());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(JoinOptimizerTest.class);
+    }
+}
@@ -105,6 +105,65 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Unit test for HashJoin.getNext() and rewind()
+   */
+  @Test public void hashJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    assertEquals(Utility.getTupleDesc(width1 + width2), op.getTupleDesc());
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+    op.rewind();
+    eqJoin.rewind();
+    assertTrue(TestUtil.compareTuples(eqJoin.next(), op.next()));
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() on unsorted inputs with
+   * duplicate keys
+   */
+  @Test public void sortMergeJoin() throws Exception {
+    DbIterator left = TestUtil.createTupleList(1, new int[] { 3, 1, 2, 1 });
+    DbIterator right = TestUtil.createTupleList(1, new int[] { 1, 4, 1, 3 });
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, left, right);
+    op.open();
+    DbIterator expected = TestUtil.createTupleList(2,
+        new int[] { 1, 1, 1, 1, 1, 1, 1, 1, 3, 3 });
+    expected.open();
+    // the output is sorted on the join key
+    while (expected.hasNext()) {
+      assertTrue(TestUtil.compareTuples(expected.next(), op.next()));
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+
+    op = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Unit test for BlockNestedLoopsJoin.getNext() with blocks smaller than
+   * the outer input
+   */
+  @Test public void blockNestedLoopsJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    BlockNestedLoopsJoin op = new BlockNestedLoopsJoin(pred, scan1, scan2, 3);
+    op.open();
+    gtJoin.open();
+    TestUtil.matchAllTuples(gtJoin, op);
+    op.rewind();
+    int count = 0;
+    while (op.hasNext()) {
+      op.next();
+      count++;
+    }
+    assertEquals(11, count);
+  }
+
   /**
    * JUnit suite target
    */
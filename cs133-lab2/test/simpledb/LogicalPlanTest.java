@@ -0,0 +1,265 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LogicalPlanTest extends SimpleDbTestBase {
+
+    private HeapFile a;
+    private HeapFile b;
+    private HashMap<String, TableStats> stats;
+    private TransactionId tid;
+
+    private HeapFile createTable(String name, int cols, int rows, int[] mods) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            for (int c = 0; c < cols; c++)
+                tuple.add(mods[c] == 0 ? i : i % mods[c]);
+            tuples.add(tuple);
+        }
+        File f = File.createTempFile("table_" + name, ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".zmap").deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), cols);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(cols, "c"));
+        Database.getCatalog().addTable(hf, name);
+        stats.put(name, new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+        return hf;
+    }
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        stats = new HashMap<String, TableStats>();
+        a = createTable("a", 3, 1000, new int[] { 0, 5, 7 });
+        b = createTable("b", 2, 200, new int[] { 0, 3 });
+        tid = new TransactionId();
+    }
+
+    /**
+     * Unit test that filters on base tables are folded into their scans and
+     * that scans only return the columns used above them
+     */
+    @Test public void pushdown() throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(a.getId(), "a");
+        lp.addScan(b.getId(), "b");
+        lp.addFilter("a.c1", Predicate.Op.EQUALS, "0");
+        lp.addJoin("a.c0", "b.c0", Predicate.Op.EQUALS);
+        lp.addProjectField("b.c1", null);
+
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        DbIterator join = ((Operator) plan).getChildren()[0];
+        // a hash join on the smaller input, b
+        assertTrue(join instanceof HashJoin);
+        SeqScan left = (SeqScan) ((Operator) join).getChildren()[0];
+        SeqScan right = (SeqScan) ((Operator) join).getChildren()[1];
+        assertEquals(1, left.getPredicates().size());
+        assertArrayEquals(new int[] { 0 }, left.getProjection());
+        assertEquals(1, left.getTupleDesc().numFields());
+        assertEquals("a.c0", left.getTupleDesc().getFieldName(0));
+        assertNull(right.getProjection());
+
+        int count = 0;
+        int[] hist = new int[3];
+        plan.open();
+        while (plan.hasNext()) {
+            Tuple t = plan.next();
+            assertEquals(1, t.getTupleDesc().numFields());
+            hist[((IntField) t.getField(0)).getValue()]++;
+            count++;
+        }
+        plan.close();
+        // b.c0 is a multiple of 5 for 40 of its 200 rows
+        assertEquals(40, count);
+        assertEquals(14, hist[0]);
+    }
+
+    /**
+     * Unit test that the filters on a table are evaluated together, the
+     * most selective first
+     */
+    @Test public void filterOrder() throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(a.getId(), "a");
+        lp.addFilter("a.c0", Predicate.Op.LESS_THAN, "900");
+        lp.addFilter("a.c2", Predicate.Op.EQUALS, "3");
+        lp.addFilter("a.c1", Predicate.Op.EQUALS, "3");
+        lp.addProjectField("a.c0", null);
+
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        SeqScan scan = (SeqScan) ((Operator) plan).getChildren()[0];
+        List<Predicate> preds = scan.getPredicates();
+        assertEquals(3, preds.size());
+        assertEquals(2, preds.get(0).getField());
+        assertEquals(1, preds.get(1).getField());
+        assertEquals(0, preds.get(2).getField());
+
+        int count = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            assertEquals(3, ((IntField) plan.next().getField(0)).getValue() % 35);
+            count++;
+        }
+        plan.close();
+        // i % 5 == 3 and i % 7 == 3 for i = 3, 38, ..., 878
+        assertEquals(26, count);
+
+        // a LIKE on a string costs more than a comparison of numbers
+        assertTrue(LogicalPlan.evaluationCost(Predicate.Op.LIKE, Type.STRING_TYPE)
+                > LogicalPlan.evaluationCost(Predicate.Op.EQUALS, Type.STRING_TYPE));
+        assertTrue(LogicalPlan.evaluationCost(Predicate.Op.EQUALS, Type.STRING_TYPE)
+                > LogicalPlan.evaluationCost(Predicate.Op.EQUALS, Type.INT_TYPE));
+    }
+
+    /**
+     * Unit test that a select list with * keeps every column
+     */
+    @Test public void starKeepsColumns() throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(a.getId(), "a");
+        lp.addFilter("a.c2", Predicate.Op.LESS_THAN, "1");
+        lp.addProjectField("*", null);
+
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        SeqScan scan = (SeqScan) ((Operator) plan).getChildren()[0];
+        assertNull(scan.getProjection());
+        int count = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            assertEquals(3, plan.next().getTupleDesc().numFields());
+            count++;
+        }
+        plan.close();
+        assertEquals(143, count);
+    }
+
+    /**
+     * Unit test that several aggregates over a composite group key are
+     * parsed and computed by a single Aggregate
+     */
+    @Test public void multipleAggregates() throws Exception {
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT a.c2, a.c1, MIN(a.c0), MAX(a.c0), COUNT(*), AVG(a.c0) "
+                + "FROM a GROUP BY a.c1, a.c2;");
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        Aggregate agg = (Aggregate) ((Operator) plan).getChildren()[0];
+        assertTrue(agg.getChildren()[0] instanceof SeqScan);
+        assertEquals(4, agg.aggregateFields().length);
+        assertEquals(2, agg.groupFields().length);
+
+        int groups = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            Tuple t = plan.next();
+            int c2 = ((IntField) t.getField(0)).getValue();
+            int c1 = ((IntField) t.getField(1)).getValue();
+            int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE, count = 0, sum = 0;
+            for (int i = 0; i < 1000; i++) {
+                if (i % 5 == c1 && i % 7 == c2) {
+                    min = Math.min(min, i);
+                    max = Math.max(max, i);
+                    sum += i;
+                    count++;
+                }
+            }
+            assertEquals(min, ((IntField) t.getField(2)).getValue());
+            assertEquals(max, ((IntField) t.getField(3)).getValue());
+            assertEquals(count, ((IntField) t.getField(4)).getValue());
+            assertEquals(sum / count, ((IntField) t.getField(5)).getValue());
+            groups++;
+        }
+        plan.close();
+        assertEquals(35, groups);
+    }
+
+    /**
+     * Unit test that approximate aggregates are computed only when they are
+     * asked for, and that COUNT(DISTINCT) is rejected rather than estimated
+     */
+    @Test public void approximateAggregates() throws Exception {
+        try {
+            new Parser().generateLogicalPlan(tid, "SELECT COUNT(DISTINCT a.c2) FROM a;");
+            fail("expected ParsingException");
+        } catch (ParsingException e) {
+            // expected
+        }
+
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT a.c1, APPROX_COUNT_DISTINCT(a.c2), APPROX_MEDIAN(a.c0) FROM a GROUP BY a.c1;");
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        plan.open();
+        int groups = 0;
+        while (plan.hasNext()) {
+            Tuple t = plan.next();
+            groups++;
+            // a.c1 is i % 5 and a.c2 is i % 7, so every group has all 7 values of a.c2
+            assertEquals(7, ((IntField) t.getField(1)).getValue());
+            int median = ((IntField) t.getField(2)).getValue();
+            assertTrue(median > 450 && median < 550);
+        }
+        assertEquals(5, groups);
+        plan.close();
+    }
+
+    /**
+     * Unit test that the planner streams aggregates whose input is known to
+     * arrive one group at a time, and hashes the others
+     */
+    @Test public void streamAggregate() throws Exception {
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT a.c1, a.c2, SUM(a.c0) FROM a WHERE a.c1 = 3 GROUP BY a.c1, a.c2;");
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        // a.c1 is constant but a.c2 is not, so the groups may interleave
+        assertTrue(((Operator) plan).getChildren()[0] instanceof Aggregate);
+
+        lp = new Parser().generateLogicalPlan(tid,
+                "SELECT a.c1, SUM(a.c0), COUNT(a.c2) FROM a WHERE a.c1 = 3 GROUP BY a.c1;");
+        plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof StreamAggregate);
+        plan.open();
+        Tuple t = plan.next();
+        assertEquals(3, ((IntField) t.getField(0)).getValue());
+        int sum = 0;
+        for (int i = 3; i < 1000; i += 5)
+            sum += i;
+        assertEquals(sum, ((LongField) t.getField(1)).getValue());
+        assertEquals(200, ((IntField) t.getField(2)).getValue());
+        assertFalse(plan.hasNext());
+        plan.close();
+    }
+
+    /**
+     * Unit test that the number of groups is estimated from the distinct
+     * values of the group-by fields, and that aggregates whose groups fit in
+     * memory once per thread are parallel
+     */
+    @Test public void parallelAggregate() throws Exception {
+        SeqScan scan = new SeqScan(tid, a.getId(), "a");
+        assertEquals(5, LogicalPlan.estimateGroups(scan, new int[] { 1 }, stats));
+        assertEquals(35, LogicalPlan.estimateGroups(scan, new int[] { 1, 2 }, stats));
+        // there are no more groups than tuples
+        assertEquals(1000, LogicalPlan.estimateGroups(scan, new int[] { 0, 1 }, stats));
+        assertEquals(-1, LogicalPlan.estimateGroups(scan, new int[] { 1 }, new HashMap<String, TableStats>()));
+
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, "SELECT a.c1, SUM(a.c0) FROM a GROUP BY a.c1;");
+        Aggregate agg = (Aggregate) ((Operator) lp.physicalPlan(tid, stats, false)).getChildren()[0];
+        assertEquals(Runtime.getRuntime().availableProcessors(), agg.getParallelism());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogicalPlanTest.class);
+    }
+}
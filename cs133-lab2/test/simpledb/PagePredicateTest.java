@@ -0,0 +1,104 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PagePredicateTest extends SimpleDbTestBase {
+
+    private static final String[] WORDS = { "", "a", "ab", "abc", "b", "ba", "zebra", "abd" };
+
+    private TupleDesc td;
+    private HeapPage page;
+
+    /**
+     * Fill a page of a (STRING, INT) table and reload it from its bytes, so
+     * that none of its tuples are decoded yet
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE }, new String[] { "s", "i" });
+        File f = File.createTempFile("pagepred", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = new HeapFile(f, td);
+        Database.getCatalog().addTable(hf, "pagepred");
+
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage empty = new HeapPage(pid, HeapPage.createEmptyPageData());
+        int n = Math.min(empty.getNumEmptySlots(), 24);
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField(WORDS[i % WORDS.length], Type.STRING_LEN));
+            t.setField(1, new IntField(i - 10));
+            empty.insertTuple(t);
+        }
+        page = new HeapPage(pid, empty.getPageData());
+    }
+
+    private List<Tuple> expected(Predicate p) {
+        List<Tuple> out = new ArrayList<Tuple>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (p.filter(t))
+                out.add(t);
+        }
+        return out;
+    }
+
+    private List<Tuple> actual(Predicate p) {
+        List<Tuple> out = new ArrayList<Tuple>();
+        Iterator<Tuple> it = page.iterator(new PagePredicate[] { new PagePredicate(p, td) });
+        while (it.hasNext())
+            out.add(it.next());
+        return out;
+    }
+
+    /**
+     * Unit test that raw evaluation agrees with Predicate.filter for every
+     * operator on both field types
+     */
+    @Test public void agreesWithFilter() {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            for (String w : new String[] { "", "ab", "abc", "b", "zz" }) {
+                Predicate p = new Predicate(0, op, new StringField(w, Type.STRING_LEN));
+                List<Tuple> got = actual(p);
+                assertEquals(p.toString(), expected(p), got);
+            }
+            for (int v : new int[] { -11, -10, 0, 5, 100 }) {
+                Predicate p = new Predicate(1, op, new IntField(v));
+                assertEquals(p.toString(), expected(p), actual(p));
+            }
+        }
+    }
+
+    /**
+     * Unit test that slots rejected by a predicate are never decoded
+     */
+    @Test public void rejectedSlotsNotDecoded() {
+        Predicate p = new Predicate(1, Predicate.Op.EQUALS, new IntField(0));
+        List<Tuple> got = actual(p);
+        assertEquals(1, got.size());
+        int decoded = 0;
+        for (Tuple t : page.tuples) {
+            if (t != null)
+                decoded++;
+        }
+        assertEquals(1, decoded);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PagePredicateTest.class);
+    }
+}
@@ -0,0 +1,160 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PreparedQueryTest extends SimpleDbTestBase {
+
+    private static final String QUERY = "SELECT a.c0, b.c1 FROM a, b WHERE a.c0 = b.c0 AND a.c1 = ? AND b.c0 < ?;";
+
+    private HeapFile a;
+    private HeapFile b;
+    private Parser parser;
+
+    /**
+     * Create a table whose column 0 holds the row number and column 1 the
+     * row number modulo 5, with statistics
+     */
+    private HeapFile createTable(String name, int rows) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i % 5)));
+        }
+        File f = File.createTempFile("table_" + name, ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".zmap").deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(hf, name);
+        TableStats.setTableStats(name, new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+        return hf;
+    }
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        PreparedQuery.clearCache();
+        a = createTable("a", 1000);
+        b = createTable("b", 200);
+        parser = new Parser();
+    }
+
+    /** Run the query and return the number of tuples it produced */
+    private static int count(Query q) throws Exception {
+        q.start();
+        int n = 0;
+        while (q.hasNext()) {
+            q.next();
+            n++;
+        }
+        q.close();
+        return n;
+    }
+
+    /**
+     * Unit test for PreparedQuery.normalize
+     */
+    @Test public void normalize() {
+        assertEquals("SELECT a.c0 FROM a WHERE a.c1 = 'x  y';",
+                PreparedQuery.normalize("  SELECT\ta.c0\n FROM a   WHERE a.c1 = 'x  y' ;;"));
+        assertEquals(PreparedQuery.normalize(QUERY), PreparedQuery.normalize(QUERY.replace(" ", "\n  ")));
+    }
+
+    /**
+     * Unit test that a statement prepared twice shares one plan, which runs
+     * with different parameters without being planned again
+     */
+    @Test public void reusePlan() throws Exception {
+        PreparedQuery pq = parser.prepare(QUERY);
+        assertEquals(2, pq.numParameters());
+        assertSame(pq, parser.prepare(QUERY.replace(" AND ", "\n  AND ")));
+        assertEquals(1, PreparedQuery.cacheSize());
+
+        TransactionId tid = new TransactionId();
+        // a.c1 = 3 keeps 200 tuples of a, 20 of them below 100
+        assertEquals(20, count(pq.bind(tid, "3", "100")));
+        assertEquals(2, count(pq.bind(tid, "1", "10")));
+        assertEquals(0, count(pq.bind(tid, "7", "200")));
+        assertEquals(1, pq.numPlans());
+        Database.getBufferPool().transactionComplete(tid);
+
+        try {
+            pq.bind(tid, "3");
+            fail("expected ParsingException");
+        } catch (ParsingException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Unit test that a plan is made again after the catalog changes or the
+     * statistics of one of its tables change significantly
+     */
+    @Test public void invalidatePlan() throws Exception {
+        PreparedQuery pq = parser.prepare(QUERY);
+        TransactionId tid = new TransactionId();
+        assertEquals(20, count(pq.bind(tid, "3", "100")));
+
+        // recomputed statistics of the same table do not change the plan
+        TableStats.setTableStats("b", new TableStats(b.getId(), TableStats.IOCOSTPERPAGE));
+        assertTrue(pq.isValid());
+        assertEquals(20, count(pq.bind(tid, "3", "100")));
+        assertEquals(1, pq.numPlans());
+
+        // b now looks five times larger
+        TableStats.setTableStats("b", new TableStats(a.getId(), TableStats.IOCOSTPERPAGE));
+        assertFalse(pq.isValid());
+        assertEquals(20, count(pq.bind(tid, "3", "100")));
+        assertEquals(2, pq.numPlans());
+
+        createTable("c", 10);
+        assertFalse(pq.isValid());
+        assertEquals(20, count(pq.bind(tid, "3", "100")));
+        assertEquals(3, pq.numPlans());
+        Database.getBufferPool().transactionComplete(tid);
+
+        // b grows through inserts, which update its statistics in place
+        TableStats.setTableStats("b", new TableStats(b.getId(), TableStats.IOCOSTPERPAGE));
+        tid = new TransactionId();
+        assertEquals(20, count(pq.bind(tid, "3", "100")));
+        assertEquals(4, pq.numPlans());
+        for (int i = 0; i < 200; i++) {
+            Tuple t = new Tuple(b.getTupleDesc());
+            t.setField(0, new IntField(1000 + i));
+            t.setField(1, new IntField(0));
+            Database.getBufferPool().insertTuple(tid, b.getId(), t);
+        }
+        assertFalse(pq.isValid());
+        assertEquals(20, count(pq.bind(tid, "3", "100")));
+        assertEquals(5, pq.numPlans());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test that parameters must be filter constants
+     */
+    @Test public void invalidParameters() throws Exception {
+        try {
+            parser.prepare("SELECT a.c0 FROM a, b WHERE a.c0 = b.c0 AND ? = ?;");
+            fail("expected ParsingException");
+        } catch (ParsingException e) {
+            // expected
+        }
+        assertEquals(0, PreparedQuery.cacheSize());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PreparedQueryTest.class);
+    }
+}
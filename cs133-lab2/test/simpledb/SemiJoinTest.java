@@ -0,0 +1,150 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SemiJoinTest extends SimpleDbTestBase {
+
+    private Parser parser;
+
+    /** Create a table with the given tuples of two fields, with statistics */
+    private void createTable(String name, ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        File f = File.createTempFile("table_" + name, ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".zmap").deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(hf, name);
+        TableStats.setTableStats(name, new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+    }
+
+    /**
+     * Table a holds (i, i % 10) for i below 100; table b holds
+     * ((i % 30) * 2, i % 5) for i below 60, so each even number below 60
+     * is in b.c0 twice
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        ArrayList<ArrayList<Integer>> a = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 100; i++)
+            a.add(new ArrayList<Integer>(Arrays.asList(i, i % 10)));
+        createTable("a", a);
+        ArrayList<ArrayList<Integer>> b = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 60; i++)
+            b.add(new ArrayList<Integer>(Arrays.asList((i % 30) * 2, i % 5)));
+        createTable("b", b);
+        parser = new Parser();
+    }
+
+    /** @return whether plan has a SemiJoin */
+    private static boolean hasSemiJoin(DbIterator plan) {
+        if (plan instanceof SemiJoin)
+            return true;
+        if (plan instanceof Operator) {
+            for (DbIterator c : ((Operator) plan).getChildren()) {
+                if (hasSemiJoin(c))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /** Run the query, and return the number of tuples it produced */
+    private int count(String sql) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbIterator plan = parser.generateLogicalPlan(tid, sql).physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(hasSemiJoin(plan));
+        int n = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            plan.next();
+            n++;
+        }
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    private static void match(int[] expected, SemiJoin join) throws Exception {
+        join.open();
+        TestUtil.matchAllTuples(TestUtil.createTupleList(1, expected), join);
+        join.rewind();
+        TestUtil.matchAllTuples(TestUtil.createTupleList(1, expected), join);
+        join.close();
+    }
+
+    /**
+     * Unit test for SemiJoin with equality and range predicates
+     */
+    @Test public void semiJoin() throws Exception {
+        int[] outer = { 1, 2, 3, 4, 5 };
+        int[] inner = { 2, 2, 4, 4, 4 };
+        JoinPredicate eq = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        JoinPredicate lt = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+
+        // each outer tuple is returned once, however many matches it has
+        match(new int[] { 2, 4 }, new SemiJoin(eq, TestUtil.createTupleList(1, outer), TestUtil.createTupleList(1, inner), false));
+        match(new int[] { 1, 3, 5 }, new SemiJoin(eq, TestUtil.createTupleList(1, outer), TestUtil.createTupleList(1, inner), true));
+        match(new int[] { 1, 2, 3 }, new SemiJoin(lt, TestUtil.createTupleList(1, outer), TestUtil.createTupleList(1, inner), false));
+        match(new int[] { 4, 5 }, new SemiJoin(lt, TestUtil.createTupleList(1, outer), TestUtil.createTupleList(1, inner), true));
+    }
+
+    /**
+     * Unit test for IN and NOT IN subqueries
+     */
+    @Test public void in() throws Exception {
+        assertEquals(30, count("SELECT a.c0 FROM a WHERE a.c0 IN (SELECT b.c0 FROM b);"));
+        assertEquals(70, count("SELECT a.c0 FROM a WHERE a.c0 NOT IN (SELECT b.c0 FROM b);"));
+        // 0, 10, 20, 30, 40 and 50 are in b
+        assertEquals(6, count("SELECT a.c0 FROM a WHERE a.c1 = 0 AND a.c0 IN (SELECT b.c0 FROM b WHERE b.c1 < 5);"));
+    }
+
+    /**
+     * Unit test that correlated EXISTS and NOT EXISTS subqueries are planned
+     * as semi-joins and anti-joins
+     */
+    @Test public void exists() throws Exception {
+        // b.c0 = 2k has b.c1 = k % 5, which is above 2 for 12 of the 30 values of k
+        assertEquals(12, count("SELECT a.c0 FROM a WHERE EXISTS "
+                + "(SELECT b.c1 FROM b WHERE b.c0 = a.c0 AND b.c1 > 2);"));
+        assertEquals(88, count("SELECT a.c0 FROM a WHERE NOT EXISTS "
+                + "(SELECT b.c1 FROM b WHERE b.c1 > 2 AND a.c0 = b.c0);"));
+        // the largest b.c0 is 58
+        assertEquals(58, count("SELECT a.c0 FROM a WHERE EXISTS (SELECT b.c0 FROM b WHERE b.c0 > a.c0);"));
+    }
+
+    /**
+     * Unit test that subqueries that cannot be decorrelated are rejected
+     */
+    @Test public void notDecorrelated() throws Exception {
+        String[] queries = {
+                "SELECT a.c0 FROM a WHERE EXISTS (SELECT b.c0 FROM b WHERE b.c1 > 2);",
+                "SELECT a.c0 FROM a WHERE EXISTS (SELECT b.c0 FROM b WHERE b.c0 = a.c0 AND b.c1 = a.c1);",
+                "SELECT a.c0 FROM a WHERE EXISTS (SELECT b.c0 FROM b WHERE b.c0 = a.c0 AND a.c1 = 3);",
+        };
+        for (String sql : queries) {
+            try {
+                parser.generateLogicalPlan(new TransactionId(), sql);
+                fail("expected ParsingException for " + sql);
+            } catch (ParsingException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SemiJoinTest.class);
+    }
+}
@@ -0,0 +1,242 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TableStatsTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 10000;
+
+    private HeapFile hf;
+
+    /**
+     * Create a table with a unique column, a uniform column of 10 values and
+     * a skewed column where half of the values are 0
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i % 10, i % 2 == 0 ? 0 : i)));
+        }
+        File f = File.createTempFile("tablestats", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".zmap").deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 3);
+        hf = new HeapFile(f, Utility.getTupleDesc(3, "c"));
+        Database.getCatalog().addTable(hf, "stats");
+    }
+
+    /**
+     * Unit test for TableStats: sizes, costs and per-field statistics
+     */
+    @Test public void tableStats() {
+        TableStats s = new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE);
+        assertEquals(ROWS, s.totalTuples());
+        assertEquals(hf.numPages(), s.numPages());
+        assertEquals((double) hf.numPages() * TableStats.IOCOSTPERPAGE, s.estimateScanCost(), 0);
+        assertEquals(ROWS / 2, s.estimateTableCardinality(0.5));
+
+        assertEquals(0, s.getIntHistogram(0).getMin());
+        assertEquals(ROWS - 1, s.getIntHistogram(0).getMax());
+        assertEquals(0, s.numNulls(0));
+        assertEquals(ROWS, s.numDistinct(0), ROWS * 0.05);
+        assertEquals(10, s.numDistinct(1));
+
+        assertEquals(0.1, s.estimateSelectivity(1, Predicate.Op.EQUALS, new IntField(3)), 0.02);
+        assertEquals(0.25, s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(ROWS / 4)), 0.02);
+        assertEquals(0, s.estimateSelectivity(0, Predicate.Op.GREATER_THAN, new IntField(ROWS)), 0);
+        assertEquals(1, s.estimateSelectivity(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)), 0);
+        assertEquals(0.1, s.avgSelectivity(1, Predicate.Op.EQUALS), 0.01);
+    }
+
+    /**
+     * Unit test for TableStats computed from a sample of the pages
+     */
+    @Test public void sampledStats() {
+        assertFalse(new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE).isSampled());
+        assertFalse(new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE, 1.0, hf.numPages()).isSampled());
+
+        int pages = hf.numPages() / 3;
+        TableStats s = new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE, 0.9, pages);
+        assertTrue(s.isSampled());
+        assertEquals(pages, s.sampledPages());
+        assertEquals(hf.numPages(), s.numPages());
+        double[] tuples = s.totalTuplesBounds();
+        assertTrue(tuples[0] <= ROWS && ROWS <= tuples[1]);
+        assertEquals(ROWS, s.totalTuples(), ROWS * 0.1);
+
+        // distinct counts scale up for a unique column but not for a column
+        // whose values all appear in the sample
+        assertEquals(ROWS, s.numDistinct(0), ROWS * 0.1);
+        assertEquals(10, s.numDistinct(1));
+
+        double sel = s.estimateSelectivity(1, Predicate.Op.EQUALS, new IntField(3));
+        assertEquals(0.1, sel, 0.03);
+        double[] bounds = s.estimateSelectivityBounds(1, Predicate.Op.EQUALS, new IntField(3));
+        assertTrue(bounds[0] < sel && sel < bounds[1]);
+        assertTrue(bounds[0] <= 0.1 && 0.1 <= bounds[1]);
+
+        // joins over a sampled table are planned for its upper bound
+        assertEquals(Math.round(tuples[1] * bounds[1]), s.planningCardinality(bounds[1]));
+        assertTrue(s.planningCardinality(sel) >= s.estimateTableCardinality(sel));
+        TableStats scanned = new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE);
+        assertEquals(scanned.estimateTableCardinality(0.5), scanned.planningCardinality(0.5));
+
+        TableStats one = new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE, 0.01, 100);
+        assertEquals(1, one.sampledPages());
+
+        try {
+            new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE, 0, 1);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Unit test that inserts and deletes through BufferPool update the
+     * statistics, and make them stale past STALE_FRACTION of the table
+     */
+    @Test public void modifications() throws Exception {
+        TableStats.setTableStats("stats", new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+        TableStats s = TableStats.getTableStats("stats");
+        TransactionId tid = new TransactionId();
+        int limit = (int) (TableStats.STALE_FRACTION * ROWS);
+        for (int i = 0; i < limit; i++) {
+            Tuple t = new Tuple(hf.getTupleDesc());
+            t.setField(0, new IntField(ROWS + i));
+            t.setField(1, new IntField(42));
+            t.setField(2, new IntField(0));
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        }
+        assertEquals(ROWS + limit, s.totalTuples());
+        assertEquals(limit, s.numModifications());
+        assertEquals(ROWS + limit - 1, s.getIntHistogram(0).getMax());
+        assertEquals(11, s.numDistinct(1));
+        assertFalse(s.isStale());
+
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        Database.getBufferPool().deleteTuple(tid, it.next());
+        it.close();
+        assertEquals(ROWS + limit - 1, s.totalTuples());
+        assertTrue(s.isStale());
+
+        TableStats.refreshStatistics();
+        TableStats fresh = TableStats.getTableStats("stats");
+        assertNotSame(s, fresh);
+        assertEquals(0, fresh.numModifications());
+        assertEquals(ROWS + limit - 1, fresh.totalTuples());
+    }
+
+    /**
+     * Unit test that saved statistics are loaded back without a rescan, and
+     * rescanned when they do not match the table any more
+     */
+    @Test public void saveAndLoad() throws Exception {
+        TableStats.setTableStats("stats", new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+        TableStats s = TableStats.getTableStats("stats");
+        // statistics left over for a table that is not in the catalog, and
+        // for a table whose name now belongs to another table, are not saved
+        TableStats.setTableStats("dropped", new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+        File other = File.createTempFile("tablestats", ".dat");
+        other.deleteOnExit();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 5; i++) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i, i)));
+        }
+        HeapFileEncoder.convert(tuples, other, BufferPool.getPageSize(), 3);
+        Database.getCatalog().addTable(new HeapFile(other, Utility.getTupleDesc(3, "c")), "renamed");
+        TableStats.setTableStats("renamed", s);
+
+        File f = File.createTempFile("tablestats", ".stats");
+        f.deleteOnExit();
+        TableStats.saveStatistics(f.getPath());
+
+        TableStats.loadStatistics(f.getPath());
+        TableStats loaded = TableStats.getTableStats("stats");
+        assertNotSame(s, loaded);
+        assertEquals(ROWS, loaded.totalTuples());
+        assertEquals(s.numDistinct(1), loaded.numDistinct(1));
+        assertEquals(s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(ROWS / 4)),
+                loaded.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(ROWS / 4)), 0);
+        assertEquals(5, TableStats.getTableStats("renamed").totalTuples());
+
+        // a data file that changed size since the save is rescanned
+        Tuple t = new Tuple(hf.getTupleDesc());
+        for (int i = 0; i < 3; i++) {
+            t.setField(i, new IntField(-1));
+        }
+        HeapPage page = new HeapPage(new HeapPageId(hf.getId(), hf.numPages()), HeapPage.createEmptyPageData());
+        page.insertTuple(t);
+        hf.writePage(page);
+        TableStats.loadStatistics(f.getPath());
+        assertEquals(ROWS + 1, TableStats.getTableStats("stats").totalTuples());
+
+        // as is a missing file
+        assertTrue(f.delete());
+        TableStats.loadStatistics(f.getPath());
+        assertEquals(ROWS + 1, TableStats.getTableStats("stats").totalTuples());
+    }
+
+    /**
+     * Unit test for IntHistogram: equi-depth buckets give good estimates on
+     * skewed data
+     */
+    @Test public void skewedIntHistogram() {
+        IntHistogram h = new IntHistogram(TableStats.NUM_HIST_BINS);
+        for (int i = 0; i < ROWS; i++) {
+            h.addValue(i % 2 == 0 ? 0 : i);
+        }
+        assertEquals(0.5, h.estimateSelectivity(Predicate.Op.EQUALS, 0), 0.02);
+        assertEquals(0.5, h.estimateSelectivity(Predicate.Op.GREATER_THAN, 0), 0.02);
+        assertEquals(1.0 / ROWS, h.estimateSelectivity(Predicate.Op.EQUALS, 4999), 1.0 / ROWS);
+        assertEquals(0.75, h.estimateSelectivity(Predicate.Op.LESS_THAN, ROWS / 2), 0.02);
+        assertEquals(0, h.estimateSelectivity(Predicate.Op.LESS_THAN, 0), 0);
+
+        // the boundaries of a large input come from a bounded sample
+        IntHistogram big = new IntHistogram(TableStats.NUM_HIST_BINS);
+        for (long i = 0; i < 10 * IntHistogram.SAMPLE_SIZE; i++) {
+            big.addValue(i * 3000000000L);
+        }
+        assertEquals(IntHistogram.SAMPLE_SIZE, big.sampleSize());
+        assertEquals(0.5, big.estimateSelectivity(Predicate.Op.LESS_THAN,
+                5 * IntHistogram.SAMPLE_SIZE * 3000000000L), 0.02);
+    }
+
+    /**
+     * Unit test for StringHistogram: most common values and their
+     * selectivities
+     */
+    @Test public void stringHistogram() {
+        StringHistogram h = new StringHistogram(TableStats.NUM_HIST_BINS);
+        for (int i = 0; i < ROWS; i++) {
+            h.addValue(i % 4 == 0 ? "common" : i % 10 == 1 ? "frequent" : "rare" + i);
+        }
+        Iterator<Map.Entry<String, Long>> mcvs = h.mostCommonValues().entrySet().iterator();
+        Map.Entry<String, Long> first = mcvs.next();
+        assertEquals("common", first.getKey());
+        assertEquals(ROWS / 4, first.getValue(), ROWS * 0.02);
+        assertEquals("frequent", mcvs.next().getKey());
+
+        assertEquals(0.25, h.estimateSelectivity(Predicate.Op.EQUALS, "common"), 0.02);
+        assertEquals(0.75, h.estimateSelectivity(Predicate.Op.NOT_EQUALS, "common"), 0.02);
+        assertTrue(h.estimateSelectivity(Predicate.Op.EQUALS, "rare5") < 0.01);
+        assertEquals(1, h.estimateSelectivity(Predicate.Op.GREATER_THAN_OR_EQ, ""), 0.01);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TableStatsTest.class);
+    }
+}
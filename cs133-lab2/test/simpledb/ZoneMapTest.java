@@ -0,0 +1,150 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+
+    private HeapFile hf;
+    private TransactionId tid;
+
+    /**
+     * Create a table whose first column is sorted, so that every page covers
+     * a narrow range of it
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i % 7)));
+        }
+        File f = File.createTempFile("sorted", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".zmap").deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        hf = Utility.openHeapFile(2, f);
+        tid = new TransactionId();
+    }
+
+    private int count(SeqScan scan) throws Exception {
+        int count = 0;
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        return count;
+    }
+
+    /**
+     * Unit test for ZoneMap.mayMatch on a sorted column
+     */
+    @Test public void mayMatch() {
+        ZoneMap zm = hf.getZoneMap();
+        assertEquals(hf.numPages(), zm.numPages());
+        assertEquals(Integer.valueOf(0), zm.getMin(0, 0));
+        assertEquals(Integer.valueOf(ROWS - 1), zm.getMax(hf.numPages() - 1, 0));
+
+        Predicate lt = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10));
+        assertTrue(zm.mayMatch(0, lt));
+        assertFalse(zm.mayMatch(1, lt));
+        Predicate gt = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(ROWS - 1));
+        for (int p = 0; p < hf.numPages(); p++) {
+            assertFalse(zm.mayMatch(p, gt));
+        }
+        // every page holds every value of the second column
+        Predicate eq = new Predicate(1, Predicate.Op.EQUALS, new IntField(3));
+        for (int p = 0; p < hf.numPages(); p++) {
+            assertTrue(zm.mayMatch(p, eq));
+        }
+    }
+
+    /**
+     * Unit test for SeqScan skipping pages with a pushed-down predicate
+     */
+    @Test public void scanSkipsPages() throws Exception {
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100));
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t", p);
+        assertEquals(100, count(scan));
+        assertEquals(hf.numPages() - 1, scan.getPagesSkipped());
+
+        scan.open();
+        scan.rewind();
+        while (scan.hasNext())
+            scan.next();
+        scan.close();
+        assertEquals(2 * (hf.numPages() - 1), scan.getPagesSkipped());
+
+        Predicate q = new Predicate(1, Predicate.Op.EQUALS, new IntField(3));
+        scan = new SeqScan(tid, hf.getId(), "t", q);
+        assertEquals(ROWS / 7, count(scan));
+        assertEquals(0, scan.getPagesSkipped());
+
+        // scanning a table that is not modified writes no sidecar
+        assertFalse(hf.getZoneMap().getFile().exists());
+    }
+
+    /**
+     * Unit test for zone map maintenance on insert and delete
+     */
+    @Test public void maintained() throws Exception {
+        Tuple t = new Tuple(hf.getTupleDesc());
+        t.setField(0, new IntField(1000000));
+        t.setField(1, new IntField(0));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        int pageNo = t.getRecordId().getPageId().getPageNumber();
+
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(1000000));
+        assertEquals(1, count(new SeqScan(tid, hf.getId(), "t", p)));
+        assertEquals(Integer.valueOf(1000000), hf.getZoneMap().getMax(pageNo, 0));
+
+        Database.getBufferPool().deleteTuple(tid, t);
+        assertEquals(0, count(new SeqScan(tid, hf.getId(), "t", p)));
+        assertTrue(hf.getZoneMap().getMax(pageNo, 0) < 1000000);
+    }
+
+    /**
+     * Unit test for the zone map sidecar file
+     */
+    @Test public void persisted() throws Exception {
+        ZoneMap zm = hf.getZoneMap();
+        assertFalse(zm.getFile().exists());
+
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+        Tuple t = new Tuple(hf.getTupleDesc());
+        t.setField(0, new IntField(-5));
+        t.setField(1, new IntField(0));
+        page.deleteTuple(page.getTuple(0));
+        page.insertTuple(t);
+        hf.writePage(page);
+        assertTrue(zm.getFile().exists());
+
+        ZoneMap reloaded = new ZoneMap(hf);
+        assertEquals(zm.numPages(), reloaded.numPages());
+        assertEquals(Integer.valueOf(-5), reloaded.getMin(0, 0));
+        for (int p = 1; p < zm.numPages(); p++) {
+            assertEquals(zm.getMin(p, 0), reloaded.getMin(p, 0));
+            assertEquals(zm.getMax(p, 0), reloaded.getMax(p, 0));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
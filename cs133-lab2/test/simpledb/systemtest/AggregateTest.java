@@ -12,9 +12,16 @@ import org.junit.Test;
 public class AggregateTest extends SimpleDbTestBase {
     public void validateAggregate(DbFile table, Aggregator.Op operation, int aggregateColumn, int groupColumn, ArrayList<ArrayList<Integer>> expectedResult)
             throws DbException, TransactionAbortedException, IOException {
+        validateAggregate(table, operation, aggregateColumn, groupColumn, 1, expectedResult);
+    }
+
+    public void validateAggregate(DbFile table, Aggregator.Op operation, int aggregateColumn, int groupColumn,
+            int parallelism, ArrayList<ArrayList<Integer>> expectedResult)
+            throws DbException, TransactionAbortedException, IOException {
         TransactionId tid = new TransactionId();
         SeqScan ss = new SeqScan(tid, table.getId(), "");
         Aggregate ag = new Aggregate(ss, aggregateColumn, groupColumn, operation);
+        ag.setParallelism(parallelism);
 
         SystemTestUtil.matchTuples(ag, expectedResult);
         Database.getBufferPool().transactionComplete(tid);
@@ -113,6 +120,20 @@ public class AggregateTest extends SimpleDbTestBase {
         doAggregate(Aggregator.Op.AVG, Aggregator.NO_GROUPING);
     }
 
+    @Test public void testParallel() throws IOException, DbException, TransactionAbortedException {
+        // enough pages that the scan is split across several tasks
+        ArrayList<ArrayList<Integer>> createdTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 30 * ROWS, MAX_VALUE, null, createdTuples);
+        for (Aggregator.Op operation : new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.MAX,
+                Aggregator.Op.SUM, Aggregator.Op.COUNT, Aggregator.Op.AVG }) {
+            validateAggregate(table, operation, 1, 0, 4,
+                    aggregate(createdTuples, operation, 1, 0));
+            validateAggregate(table, operation, 2, Aggregator.NO_GROUPING, 4,
+                    aggregate(createdTuples, operation, 2, Aggregator.NO_GROUPING));
+        }
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(AggregateTest.class);
@@ -0,0 +1,136 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Loads a table with a LONG column from text through HeapFileEncoder and
+ * Catalog.loadSchema, and runs scans, filters and aggregates over it.
+ */
+public class LongTypeTest extends SimpleDbTestBase {
+    private static final int ROWS = 2000;
+    private static final long SCALE = 3000000000L;
+
+    private int tableId;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File dir = File.createTempFile("longtype", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+
+        File text = new File(dir, "longtable.txt");
+        FileWriter w = new FileWriter(text);
+        for (int i = 0; i < ROWS; i++) {
+            w.write(i % 10 + "," + i * SCALE + "\n");
+        }
+        w.close();
+        File data = new File(dir, "longtable.dat");
+        HeapFileEncoder.convert(text, data, BufferPool.getPageSize(), 2,
+                new Type[] { Type.INT_TYPE, Type.LONG_TYPE });
+
+        File schema = new File(dir, "catalog.txt");
+        w = new FileWriter(schema);
+        w.write("longtable (k int, v long)\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        tableId = Database.getCatalog().getTableId("longtable");
+
+        text.deleteOnExit();
+        data.deleteOnExit();
+        schema.deleteOnExit();
+        new File(data.getPath() + ".zmap").deleteOnExit();
+    }
+
+    /** Scan the table with a predicate on the LONG column. */
+    @Test public void testFilter() throws IOException, DbException, TransactionAbortedException {
+        assertEquals(Type.LONG_TYPE, Database.getCatalog().getTupleDesc(tableId).getFieldType(1));
+        TransactionId tid = new TransactionId();
+        long bound = (ROWS / 2) * SCALE;
+        SeqScan scan = new SeqScan(tid, tableId, "t",
+                new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new LongField(bound)));
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            long v = ((LongField) t.getField(1)).getValue();
+            assertTrue(v >= bound);
+            assertEquals(v / SCALE % 10, ((IntField) t.getField(0)).getValue());
+            count++;
+        }
+        assertEquals(ROWS / 2, count);
+        scan.close();
+    }
+
+    /** SUM of a LONG column, and of INT values whose sum exceeds an int. */
+    @Test public void testSum() throws Exception {
+        TransactionId tid = new TransactionId();
+        Aggregate sum = new Aggregate(new SeqScan(tid, tableId, "t"), 1, Aggregator.NO_GROUPING,
+                Aggregator.Op.SUM);
+        sum.open();
+        assertEquals(SCALE * ROWS * (ROWS - 1) / 2, ((LongField) sum.next().getField(0)).getValue());
+        sum.close();
+
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE });
+        java.util.ArrayList<Tuple> tuples = new java.util.ArrayList<Tuple>();
+        for (int i = 0; i < 3; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(Integer.MAX_VALUE));
+            tuples.add(t);
+        }
+        for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.AVG }) {
+            Aggregate agg = new Aggregate(new TupleIterator(td, tuples), 0, Aggregator.NO_GROUPING, op);
+            agg.open();
+            Field f = agg.next().getField(0);
+            if (op == Aggregator.Op.SUM) {
+                assertEquals(3L * Integer.MAX_VALUE, ((LongField) f).getValue());
+            } else {
+                assertEquals(Integer.MAX_VALUE, ((IntField) f).getValue());
+            }
+            agg.close();
+        }
+    }
+
+    /** Batch aggregation over the LONG column agrees with Aggregate. */
+    @Test public void testBatchAggregate() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.MAX,
+                Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT }) {
+            Aggregate expected = new Aggregate(new SeqScan(tid, tableId, "t"), 1, 0, op);
+            BatchToTuple actual = new BatchToTuple(new BatchAggregate(
+                    new BatchFilter(new Predicate(1, Predicate.Op.GREATER_THAN, new LongField(-1)),
+                            new BatchScan(tid, tableId, "t")), 1, 0, op));
+            assertEquals(expected.getTupleDesc(), actual.getTupleDesc());
+            expected.open();
+            actual.open();
+            java.util.HashMap<Field, Field> groups = new java.util.HashMap<Field, Field>();
+            while (expected.hasNext()) {
+                Tuple t = expected.next();
+                groups.put(t.getField(0), t.getField(1));
+            }
+            int n = 0;
+            while (actual.hasNext()) {
+                Tuple t = actual.next();
+                assertEquals(op.toString(), groups.get(t.getField(0)), t.getField(1));
+                n++;
+            }
+            assertEquals(10, n);
+            expected.close();
+            actual.close();
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(LongTypeTest.class);
+    }
+}